@@ -37,6 +37,7 @@ public class ParserOptions {
 	private boolean myStripVersionsFromReferences = true;
 	private Set<String> myDontStripVersionsFromReferencesAtPaths = Collections.emptySet();
 	private boolean myOverrideResourceIdWithBundleEntryFullUrl = true;
+	private boolean myStreamingJsonParsing = false;
 
 	/**
 	 * If supplied value(s), any resource references at the specified paths will have their
@@ -166,4 +167,45 @@ public class ParserOptions {
 		return this;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the JSON parser will read resources directly
+	 * from the underlying token stream instead of first loading the complete document into an in-memory
+	 * JSON object tree. This substantially reduces the memory required to parse very large payloads (e.g.
+	 * large transaction Bundles or <code>$everything</code> responses), since only small fragments (primitive
+	 * values and their extensions) are ever held in memory at once.
+	 * <p>
+	 * The parsed resources are identical in either mode, but because primitive values are processed at the
+	 * end of their enclosing object, problems reported to the
+	 * {@link ca.uhn.fhir.parser.IParserErrorHandler parser error handler} may be reported in a different order.
+	 * This setting has no effect on the XML parser or on encoding.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public boolean isStreamingJsonParsing() {
+		return myStreamingJsonParsing;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the JSON parser will read resources directly
+	 * from the underlying token stream instead of first loading the complete document into an in-memory
+	 * JSON object tree. This substantially reduces the memory required to parse very large payloads (e.g.
+	 * large transaction Bundles or <code>$everything</code> responses), since only small fragments (primitive
+	 * values and their extensions) are ever held in memory at once.
+	 * <p>
+	 * The parsed resources are identical in either mode, but because primitive values are processed at the
+	 * end of their enclosing object, problems reported to the
+	 * {@link ca.uhn.fhir.parser.IParserErrorHandler parser error handler} may be reported in a different order.
+	 * This setting has no effect on the XML parser or on encoding.
+	 * </p>
+	 *
+	 * @param theStreamingJsonParsing Set this to <code>true</code> to enable streaming JSON parsing
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 * @since 4.2.0
+	 */
+	public ParserOptions setStreamingJsonParsing(boolean theStreamingJsonParsing) {
+		myStreamingJsonParsing = theStreamingJsonParsing;
+		return this;
+	}
+
 }
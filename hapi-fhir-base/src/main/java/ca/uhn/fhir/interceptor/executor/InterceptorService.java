@@ -36,8 +36,10 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AnnotatedElement;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -50,6 +52,12 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 	private final ListMultimap<Pointcut, BaseInvoker> myAnonymousInvokers = ArrayListMultimap.create();
 	private final Object myRegistryMutex = new Object();
 	private final ThreadLocal<ListMultimap<Pointcut, BaseInvoker>> myThreadlocalInvokers = new ThreadLocal<>();
+	/**
+	 * Sorted global and anonymous invokers for each pointcut. This map is never modified,
+	 * it is replaced with a new one (under {@link #myRegistryMutex}) whenever the registered
+	 * interceptors change so that callers can read it without locking.
+	 */
+	private volatile Map<Pointcut, List<BaseInvoker>> myInvokersForPointcut = Collections.emptyMap();
 	private String myName;
 	private boolean myThreadlocalInvokersEnabled = true;
 
@@ -109,6 +117,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			if (!isInterceptorAlreadyRegistered(theInterceptor)) {
 				myInterceptors.add(theInterceptor);
 			}
+			rebuildInvokersForPointcut();
 		}
 	}
 
@@ -128,6 +137,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			myAnonymousInvokers.clear();
 			myGlobalInvokers.clear();
 			myInterceptors.clear();
+			rebuildInvokersForPointcut();
 		}
 	}
 
@@ -193,6 +203,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			// Add to the global list
 			myInterceptors.add(theInterceptor);
 			sortByOrderAnnotation(myInterceptors);
+			rebuildInvokersForPointcut();
 
 			return true;
 		}
@@ -213,10 +224,28 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			boolean removed = myInterceptors.removeIf(t -> t == theInterceptor);
 			removed |= myGlobalInvokers.entries().removeIf(t -> t.getValue().getInterceptor() == theInterceptor);
 			removed |= myAnonymousInvokers.entries().removeIf(t -> t.getValue().getInterceptor() == theInterceptor);
+			if (removed) {
+				rebuildInvokersForPointcut();
+			}
 			return removed;
 		}
 	}
 
+	/**
+	 * Must be called while holding {@link #myRegistryMutex} any time the global or
+	 * anonymous invokers change
+	 */
+	private void rebuildInvokersForPointcut() {
+		Map<Pointcut, List<BaseInvoker>> invokersForPointcut = new EnumMap<>(Pointcut.class);
+		for (Pointcut nextPointcut : Pointcut.values()) {
+			List<BaseInvoker> invokers = union(myGlobalInvokers.get(nextPointcut), myAnonymousInvokers.get(nextPointcut));
+			if (!invokers.isEmpty()) {
+				invokersForPointcut.put(nextPointcut, invokers);
+			}
+		}
+		myInvokersForPointcut = invokersForPointcut;
+	}
+
 	private void sortByOrderAnnotation(List<Object> theObjects) {
 		IdentityHashMap<Object, Integer> interceptorToOrder = new IdentityHashMap<>();
 		for (Object next : theObjects) {
@@ -242,8 +271,7 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	@Override
 	public boolean hasHooks(Pointcut thePointcut) {
-		return myGlobalInvokers.containsKey(thePointcut)
-			|| myAnonymousInvokers.containsKey(thePointcut)
+		return myInvokersForPointcut.containsKey(thePointcut)
 			|| hasThreadLocalHooks(thePointcut);
 	}
 
@@ -263,13 +291,13 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	private Object doCallHooks(Pointcut thePointcut, HookParams theParams, Object theRetVal) {
 		List<BaseInvoker> invokers = getInvokersForPointcut(thePointcut);
+		Class<?> pointcutReturnType = thePointcut.getReturnType();
 
 		/*
 		 * Call each hook in order
 		 */
 		for (BaseInvoker nextInvoker : invokers) {
 			Object nextOutcome = nextInvoker.invoke(theParams);
-			Class<?> pointcutReturnType = thePointcut.getReturnType();
 			if (pointcutReturnType.equals(boolean.class)) {
 				Boolean nextOutcomeAsBoolean = (Boolean) nextOutcome;
 				if (Boolean.FALSE.equals(nextOutcomeAsBoolean)) {
@@ -297,76 +325,38 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 	}
 
 	/**
-	 * Returns an ordered list of invokers for the given pointcut. Note that
-	 * a new and stable list is returned to.. do whatever you want with it.
+	 * Returns an unmodifiable ordered list of invokers for the given pointcut. Unless
+	 * thread local interceptors are registered, this is the list published by
+	 * {@link #rebuildInvokersForPointcut()} and no copy is made.
 	 */
 	private List<BaseInvoker> getInvokersForPointcut(Pointcut thePointcut) {
-		List<BaseInvoker> invokers;
+		List<BaseInvoker> invokers = myInvokersForPointcut.getOrDefault(thePointcut, Collections.emptyList());
 
-		synchronized (myRegistryMutex) {
-			List<BaseInvoker> globalInvokers = myGlobalInvokers.get(thePointcut);
-			List<BaseInvoker> anonymousInvokers = myAnonymousInvokers.get(thePointcut);
-			List<BaseInvoker> threadLocalInvokers = null;
-			if (myThreadlocalInvokersEnabled) {
-				ListMultimap<Pointcut, BaseInvoker> pointcutToInvokers = myThreadlocalInvokers.get();
-				if (pointcutToInvokers != null) {
-					threadLocalInvokers = pointcutToInvokers.get(thePointcut);
+		if (myThreadlocalInvokersEnabled) {
+			ListMultimap<Pointcut, BaseInvoker> pointcutToInvokers = myThreadlocalInvokers.get();
+			if (pointcutToInvokers != null) {
+				List<BaseInvoker> threadLocalInvokers = pointcutToInvokers.get(thePointcut);
+				if (!threadLocalInvokers.isEmpty()) {
+					invokers = union(invokers, threadLocalInvokers);
 				}
 			}
-			invokers = union(globalInvokers, anonymousInvokers, threadLocalInvokers);
 		}
 
 		return invokers;
 	}
 
 	/**
-	 * First argument must be the global invoker list!!
+	 * Merges the given invoker lists into a single unmodifiable list sorted by order. The sort
+	 * is stable, so invokers with the same order keep the order of the lists they came from.
 	 */
 	@SafeVarargs
-	private final List<BaseInvoker> union(List<BaseInvoker>... theInvokersLists) {
-		List<BaseInvoker> haveOne = null;
-		boolean haveMultiple = false;
+	private static List<BaseInvoker> union(List<BaseInvoker>... theInvokersLists) {
+		List<BaseInvoker> retVal = new ArrayList<>();
 		for (List<BaseInvoker> nextInvokerList : theInvokersLists) {
-			if (nextInvokerList == null || nextInvokerList.isEmpty()) {
-				continue;
-			}
-
-			if (haveOne == null) {
-				haveOne = nextInvokerList;
-			} else {
-				haveMultiple = true;
-			}
-		}
-
-		if (haveOne == null) {
-			return Collections.emptyList();
-		}
-
-		List<BaseInvoker> retVal;
-
-		if (haveMultiple == false) {
-
-			// The global list doesn't need to be sorted every time since it's sorted on
-			// insertion each time. Doing so is a waste of cycles..
-			if (haveOne == theInvokersLists[0]) {
-				retVal = haveOne;
-			} else {
-				retVal = new ArrayList<>(haveOne);
-				retVal.sort(Comparator.naturalOrder());
-			}
-
-		} else {
-
-			retVal = Arrays
-				.stream(theInvokersLists)
-				.filter(t -> t != null)
-				.flatMap(t -> t.stream())
-				.sorted()
-				.collect(Collectors.toList());
-
+			retVal.addAll(nextInvokerList);
 		}
-
-		return retVal;
+		retVal.sort(Comparator.naturalOrder());
+		return Collections.unmodifiableList(retVal);
 	}
 
 	/**
@@ -430,7 +420,14 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 
 	private static class HookInvoker extends BaseInvoker {
 
+		/**
+		 * Hook methods with up to this many parameters are called with an exact
+		 * arity call, those with more have their arguments passed in an array
+		 */
+		private static final int MAX_DIRECT_ARITY = 4;
+
 		private final Method myMethod;
+		private final MethodHandle myMethodHandle;
 		private final Class<?>[] myParameterTypes;
 		private final int[] myParameterIndexes;
 		private final Pointcut myPointcut;
@@ -461,6 +458,29 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 			}
 
 			myMethod.setAccessible(true);
+			myMethodHandle = createMethodHandle(theInterceptor, theHookMethod);
+		}
+
+		/**
+		 * Creates a handle bound to the interceptor instance which accepts and returns
+		 * plain objects, so that it can be called with {@link MethodHandle#invokeExact(Object...)}
+		 */
+		private static MethodHandle createMethodHandle(Object theInterceptor, Method theHookMethod) {
+			MethodHandle retVal;
+			try {
+				retVal = MethodHandles.lookup().unreflect(theHookMethod);
+			} catch (IllegalAccessException e) {
+				throw new InternalErrorException("Unable to access hook method: " + theHookMethod, e);
+			}
+
+			retVal = retVal.bindTo(theInterceptor);
+			int parameterCount = theHookMethod.getParameterCount();
+			if (parameterCount <= MAX_DIRECT_ARITY) {
+				return retVal.asType(MethodType.genericMethodType(parameterCount));
+			}
+			return retVal
+				.asSpreader(Object[].class, parameterCount)
+				.asType(MethodType.methodType(Object.class, Object[].class));
 		}
 
 		@Override
@@ -479,38 +499,49 @@ public class InterceptorService implements IInterceptorService, IInterceptorBroa
 		 */
 		@Override
 		Object invoke(HookParams theParams) {
-
-			Object[] args = new Object[myParameterTypes.length];
-			for (int i = 0; i < myParameterTypes.length; i++) {
-				Class<?> nextParamType = myParameterTypes[i];
-				if (nextParamType.equals(Pointcut.class)) {
-					args[i] = myPointcut;
-				} else {
-					int nextParamIndex = myParameterIndexes[i];
-					Object nextParamValue = theParams.get(nextParamType, nextParamIndex);
-					args[i] = nextParamValue;
-				}
-			}
-
-			// Invoke the method
 			try {
-				return myMethod.invoke(getInterceptor(), args);
-			} catch (InvocationTargetException e) {
-				Throwable targetException = e.getTargetException();
-				if (myPointcut.isShouldLogAndSwallowException(targetException)) {
-					ourLog.error("Exception thrown by interceptor: " + targetException.toString(), targetException);
+				return doInvoke(theParams);
+			} catch (Throwable e) {
+				if (myPointcut.isShouldLogAndSwallowException(e)) {
+					ourLog.error("Exception thrown by interceptor: " + e.toString(), e);
 					return null;
 				}
 
-				if (targetException instanceof RuntimeException) {
-					throw ((RuntimeException) targetException);
+				if (e instanceof RuntimeException) {
+					throw ((RuntimeException) e);
 				} else {
-					throw new InternalErrorException("Failure invoking interceptor for pointcut(s) " + getPointcut(), targetException);
+					throw new InternalErrorException("Failure invoking interceptor for pointcut(s) " + getPointcut(), e);
 				}
-			} catch (Exception e) {
-				throw new InternalErrorException(e);
 			}
+		}
+
+		private Object doInvoke(HookParams theParams) throws Throwable {
+			switch (myParameterTypes.length) {
+				case 0:
+					return myMethodHandle.invokeExact();
+				case 1:
+					return myMethodHandle.invokeExact(getArgument(theParams, 0));
+				case 2:
+					return myMethodHandle.invokeExact(getArgument(theParams, 0), getArgument(theParams, 1));
+				case 3:
+					return myMethodHandle.invokeExact(getArgument(theParams, 0), getArgument(theParams, 1), getArgument(theParams, 2));
+				case 4:
+					return myMethodHandle.invokeExact(getArgument(theParams, 0), getArgument(theParams, 1), getArgument(theParams, 2), getArgument(theParams, 3));
+				default:
+					Object[] args = new Object[myParameterTypes.length];
+					for (int i = 0; i < args.length; i++) {
+						args[i] = getArgument(theParams, i);
+					}
+					return myMethodHandle.invokeExact(args);
+			}
+		}
 
+		private Object getArgument(HookParams theParams, int theIndex) {
+			Class<?> paramType = myParameterTypes[theIndex];
+			if (paramType == Pointcut.class) {
+				return myPointcut;
+			}
+			return theParams.get(paramType, myParameterIndexes[theIndex]);
 		}
 
 	}
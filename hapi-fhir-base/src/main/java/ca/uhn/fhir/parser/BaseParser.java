@@ -709,11 +709,20 @@ public abstract class BaseParser implements IParser {
 		// Actually do the parse
 		T retVal = doParseResource(theResourceType, theReader);
 
-		RuntimeResourceDefinition def = myContext.getResourceDefinition(retVal);
+		postProcessParsedResource(retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * Applies the processing which follows the parsing of any resource
+	 */
+	void postProcessParsedResource(IBaseResource theResource) {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
 		if ("Bundle".equals(def.getName())) {
 
 			if (isOverrideResourceIdWithBundleEntryFullUrl()) {
-				BundleUtil.processEntries(myContext, (IBaseBundle) retVal, t -> {
+				BundleUtil.processEntries(myContext, (IBaseBundle) theResource, t -> {
 					String fullUrl = t.getFullUrl();
 					if (fullUrl != null) {
 						IBaseResource resource = t.getResource();
@@ -747,8 +756,6 @@ public abstract class BaseParser implements IParser {
 			}
 
 		}
-
-		return retVal;
 	}
 
 	@SuppressWarnings("cast")
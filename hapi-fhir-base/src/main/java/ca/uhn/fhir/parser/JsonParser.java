@@ -36,6 +36,12 @@ import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.util.ElementUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.text.WordUtils;
@@ -58,6 +64,7 @@ import static org.apache.commons.lang3.StringUtils.*;
 public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParser.HeldExtension.class);
+	private static final com.google.gson.JsonParser ourGsonParser = new com.google.gson.JsonParser();
 
 	private FhirContext myContext;
 	private boolean myPrettyPrint;
@@ -172,6 +179,10 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
+		if (myContext.getParserOptions().isStreamingJsonParsing()) {
+			return doParseResourceStreaming(theResourceType, theReader);
+		}
+
 		JsonLikeStructure jsonStructure = new GsonStructure();
 		jsonStructure.load(theReader);
 
@@ -204,6 +215,380 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		return retVal;
 	}
 
+	/**
+	 * Parses a resource directly from the JSON token stream, without first loading the
+	 * whole document into a {@link JsonLikeStructure}. Complex elements are fed into the
+	 * {@link ParserState} as they are read. Primitive values are held back until the end
+	 * of their enclosing object (along with any <code>_name</code> element carrying their
+	 * id/extensions, which may appear anywhere in the object) and are then handed to the
+	 * regular tree-based logic, so only small fragments are ever buffered.
+	 * <p>
+	 * Objects which don't declare their <code>resourceType</code> (or in the case of extensions,
+	 * their <code>url</code>) as the first property are buffered and parsed using the
+	 * tree-based logic, since the parser state needs to know these values up front.
+	 * </p>
+	 */
+	private <T extends IBaseResource> T doParseResourceStreaming(Class<T> theResourceType, Reader theReader) {
+		JsonReader reader;
+		try {
+			reader = new JsonReader(GsonStructure.skipToStartOfContent(theReader, false));
+		} catch (IOException | DataFormatException e) {
+			throw new DataFormatException("Failed to parse JSON content, error was: " + e.getMessage(), e);
+		}
+		reader.setLenient(true);
+
+		T retVal = streamResource(theResourceType, reader);
+		try {
+			assertFullyConsumed(reader);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Parses the next resource from a reader which may contain several top level objects, such as
+	 * an NDJSON source. The same reader (and its buffer) is used for every resource in the source.
+	 *
+	 * @return The parsed resource, or <code>null</code> if there is no further content in the reader
+	 */
+	<T extends IBaseResource> T parseNextResource(Class<T> theResourceType, JsonReader theReader) {
+		if (theResourceType != null) {
+			myContext.getResourceDefinition(theResourceType);
+		}
+
+		T retVal;
+		try {
+			JsonToken nextToken = theReader.peek();
+			if (nextToken == JsonToken.END_DOCUMENT) {
+				return null;
+			}
+			if (nextToken != JsonToken.BEGIN_OBJECT) {
+				throw new DataFormatException("Content does not appear to be FHIR JSON, expected an object but found: " + nextToken);
+			}
+
+			if (myContext.getParserOptions().isStreamingJsonParsing()) {
+				retVal = streamResource(theResourceType, theReader);
+			} else {
+				GsonStructure jsonStructure = new GsonStructure();
+				jsonStructure.setNativeObject(ourGsonParser.parse(theReader).getAsJsonObject());
+				retVal = doParseResource(theResourceType, jsonStructure);
+			}
+		} catch (IOException | IllegalStateException | JsonParseException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		}
+
+		postProcessParsedResource(retVal);
+		return retVal;
+	}
+
+	/**
+	 * Streams a single resource object from the reader. Any content following the
+	 * object is left in the reader.
+	 */
+	private <T extends IBaseResource> T streamResource(Class<T> theResourceType, JsonReader theReader) {
+		try {
+			theReader.beginObject();
+
+			String resourceType = null;
+			if (theReader.hasNext()) {
+				String firstName = theReader.nextName();
+				if (!"resourceType".equals(firstName) || theReader.peek() != JsonToken.STRING) {
+					GsonStructure jsonStructure = new GsonStructure();
+					jsonStructure.setNativeObject(readRemainingObject(theReader, firstName));
+					return doParseResource(theResourceType, jsonStructure);
+				}
+				resourceType = theReader.nextString();
+			}
+			if (isBlank(resourceType)) {
+				throw new DataFormatException("Invalid JSON content detected, missing required element: 'resourceType'");
+			}
+
+			ParserState<? extends IBaseResource> state = ParserState.getPreResourceInstance(this, theResourceType, myContext, true, getErrorHandler());
+			state.enteringNewElement(null, resourceType);
+
+			streamChildren(theReader, state, false);
+			theReader.endObject();
+
+			state.endingElement();
+			state.endingElement();
+
+			@SuppressWarnings("unchecked")
+			T retVal = (T) state.getObject();
+
+			return retVal;
+		} catch (IOException | IllegalStateException | NumberFormatException | JsonParseException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		}
+	}
+
+	private void assertFullyConsumed(JsonReader theReader) throws IOException {
+		if (theReader.peek() != JsonToken.END_DOCUMENT) {
+			throw new DataFormatException("Failed to parse JSON content, error was: JSON document was not fully consumed.");
+		}
+	}
+
+	/**
+	 * Streams the properties of the current object into the parser state. The closing
+	 * brace of the object is not consumed.
+	 */
+	private void streamChildren(JsonReader theReader, ParserState<?> theState, boolean theInExtension) throws IOException {
+		JsonObject heldPrimitives = null;
+		Map<String, JsonElement> heldAlternates = null;
+		Map<String, IBase> streamedObjects = null;
+		Map<String, List<IBase>> streamedArrays = null;
+
+		while (theReader.hasNext()) {
+			String nextName = theReader.nextName();
+			if ("resourceType".equals(nextName) || (theInExtension && "url".equals(nextName))) {
+				theReader.skipValue();
+				continue;
+			} else if ("extension".equals(nextName) || "modifierExtension".equals(nextName)) {
+				streamExtensions(theReader, theState, nextName, "modifierExtension".equals(nextName));
+				continue;
+			} else if ("fhir_comments".equals(nextName)) {
+				parseFhirComments(GsonStructure.wrapValue(ourGsonParser.parse(theReader)), theState);
+				continue;
+			} else if (nextName.charAt(0) == '_') {
+				if (heldAlternates == null) {
+					heldAlternates = new HashMap<>();
+				}
+				heldAlternates.put(nextName, ourGsonParser.parse(theReader));
+				continue;
+			}
+
+			JsonElement nextPrimitive;
+			JsonToken nextToken = theReader.peek();
+			if (nextToken == JsonToken.BEGIN_OBJECT) {
+				if (theState.elementIsRepeating(nextName)) {
+					getErrorHandler().incorrectJsonType(null, nextName, ValueType.ARRAY, null, ValueType.OBJECT, null);
+				}
+				IBase streamed = streamObject(theReader, theState, nextName, removeAlternate(heldAlternates, nextName));
+				if (streamedObjects == null) {
+					streamedObjects = new HashMap<>();
+				}
+				streamedObjects.put(nextName, streamed);
+				continue;
+			} else if (nextToken == JsonToken.BEGIN_ARRAY) {
+				theReader.beginArray();
+				if (theReader.hasNext() && theReader.peek() == JsonToken.BEGIN_OBJECT) {
+					List<IBase> streamed = streamArrayOfObjects(theReader, theState, nextName, removeAlternate(heldAlternates, nextName));
+					if (streamedArrays == null) {
+						streamedArrays = new HashMap<>();
+					}
+					streamedArrays.put(nextName, streamed);
+					continue;
+				}
+				JsonArray array = new JsonArray();
+				while (theReader.hasNext()) {
+					array.add(ourGsonParser.parse(theReader));
+				}
+				theReader.endArray();
+				nextPrimitive = array;
+			} else {
+				nextPrimitive = ourGsonParser.parse(theReader);
+			}
+
+			/*
+			 * Primitives (and arrays of primitives) are held until the end of the object,
+			 * since the "_name" element containing their id/extensions may not have
+			 * been read yet
+			 */
+			if (heldPrimitives == null) {
+				heldPrimitives = new JsonObject();
+			}
+			heldPrimitives.add(nextName, nextPrimitive);
+		}
+
+		if (heldAlternates != null) {
+			for (Map.Entry<String, JsonElement> nextAlternate : heldAlternates.entrySet()) {
+				/*
+				 * A "_name" which follows an element that has already been streamed is applied
+				 * to the element(s) that were created for it
+				 */
+				String alternateName = nextAlternate.getKey();
+				String name = alternateName.substring(1);
+				if (streamedObjects != null && streamedObjects.containsKey(name)) {
+					parseLateAlternate(theState, name, streamedObjects.get(name), nextAlternate.getValue());
+					continue;
+				}
+				if (streamedArrays != null && streamedArrays.containsKey(name)) {
+					JsonElement alternate = nextAlternate.getValue();
+					if (!alternate.isJsonArray()) {
+						getErrorHandler().incorrectJsonType(null, alternateName, ValueType.ARRAY, null, GsonStructure.wrapValue(alternate).getJsonType(), null);
+						continue;
+					}
+					List<IBase> streamed = streamedArrays.get(name);
+					JsonArray alternateArray = alternate.getAsJsonArray();
+					for (int i = 0; i < streamed.size() && i < alternateArray.size(); i++) {
+						parseLateAlternate(theState, name, streamed.get(i), alternateArray.get(i));
+					}
+					continue;
+				}
+				if (heldPrimitives == null) {
+					heldPrimitives = new JsonObject();
+				}
+				heldPrimitives.add(nextAlternate.getKey(), nextAlternate.getValue());
+			}
+		}
+
+		if (heldPrimitives != null) {
+			GsonStructure jsonStructure = new GsonStructure();
+			jsonStructure.setNativeObject(heldPrimitives);
+			parseChildren(jsonStructure.getRootObject(), theState);
+		}
+	}
+
+	private static JsonElement removeAlternate(Map<String, JsonElement> theHeldAlternates, String theName) {
+		if (theHeldAlternates == null) {
+			return null;
+		}
+		return theHeldAlternates.remove('_' + theName);
+	}
+
+	private void parseLateAlternate(ParserState<?> theState, String theName, IBase theElement, JsonElement theAlternate) {
+		if (theElement == null) {
+			// The element was swallowed (e.g. it is unknown), so its alternate is as well
+			return;
+		}
+		String alternateName = '_' + theName;
+		theState.reenteringElement(theName, theElement);
+		parseAlternates(GsonStructure.wrapValue(theAlternate), theState, alternateName, alternateName);
+		theState.endingElement();
+	}
+
+	/**
+	 * Streams an array whose opening bracket has already been consumed, and whose first
+	 * element is an object
+	 *
+	 * @return The elements created for the array entries, in order
+	 */
+	private List<IBase> streamArrayOfObjects(JsonReader theReader, ParserState<?> theState, String theName, JsonElement theAlternate) throws IOException {
+		String alternateName = '_' + theName;
+		JsonArray alternateArray = null;
+		if (theAlternate != null) {
+			if (theAlternate.isJsonArray()) {
+				alternateArray = theAlternate.getAsJsonArray();
+			} else {
+				getErrorHandler().incorrectJsonType(null, alternateName, ValueType.ARRAY, null, GsonStructure.wrapValue(theAlternate).getJsonType(), null);
+			}
+		}
+
+		List<IBase> retVal = new ArrayList<>();
+		for (int i = 0; theReader.hasNext(); i++) {
+			JsonElement nextAlternate = null;
+			if (alternateArray != null && alternateArray.size() >= (i + 1)) {
+				nextAlternate = alternateArray.get(i);
+			}
+			if (theReader.peek() == JsonToken.BEGIN_OBJECT) {
+				retVal.add(streamObject(theReader, theState, theName, nextAlternate));
+			} else {
+				JsonLikeValue nextValue = GsonStructure.wrapValue(ourGsonParser.parse(theReader));
+				parseChildren(theState, theName, nextValue, GsonStructure.wrapValue(nextAlternate), alternateName, true);
+				retVal.add(nextValue.isArray() ? null : theState.getPreviousElement());
+			}
+		}
+		theReader.endArray();
+		return retVal;
+	}
+
+	/**
+	 * @return The element created for the object, or <code>null</code> if it was swallowed
+	 */
+	private IBase streamObject(JsonReader theReader, ParserState<?> theState, String theName, JsonElement theAlternate) throws IOException {
+		if (theName.equals("id")) {
+			getErrorHandler().incorrectJsonType(null, "id", ValueType.SCALAR, ScalarType.STRING, ValueType.OBJECT, null);
+		}
+
+		theState.enteringNewElement(null, theName);
+		String alternateName = '_' + theName;
+		parseAlternates(GsonStructure.wrapValue(theAlternate), theState, alternateName, alternateName);
+
+		theReader.beginObject();
+		if (theState.isPreResource()) {
+			String firstName = theReader.hasNext() ? theReader.nextName() : null;
+			if ("resourceType".equals(firstName) && theReader.peek() == JsonToken.STRING) {
+				theState.enteringNewElement(null, theReader.nextString());
+				streamChildren(theReader, theState, false);
+				theReader.endObject();
+			} else {
+				GsonStructure jsonStructure = new GsonStructure();
+				jsonStructure.setNativeObject(readRemainingObject(theReader, firstName));
+				JsonLikeObject object = jsonStructure.getRootObject();
+				JsonLikeValue resType = object.get("resourceType");
+				if (resType == null || !resType.isString()) {
+					throw new DataFormatException("Missing required element 'resourceType' from JSON resource object, unable to parse");
+				}
+				theState.enteringNewElement(null, resType.getAsString());
+				parseChildren(object, theState);
+			}
+			theState.endingElement();
+		} else {
+			streamChildren(theReader, theState, false);
+			theReader.endObject();
+		}
+
+		theState.endingElement();
+		return theState.getPreviousElement();
+	}
+
+	private void streamExtensions(JsonReader theReader, ParserState<?> theState, String theName, boolean theIsModifier) throws IOException {
+		JsonToken token = theReader.peek();
+		if (token == JsonToken.NULL) {
+			theReader.nextNull();
+			return;
+		}
+		if (token != JsonToken.BEGIN_ARRAY) {
+			JsonLikeValue value = GsonStructure.wrapValue(ourGsonParser.parse(theReader));
+			throw new DataFormatException("Syntax error parsing JSON FHIR structure: Expected ARRAY at element '" + theName + "', found '" + value.getJsonType() + "'");
+		}
+
+		theReader.beginArray();
+		while (theReader.hasNext()) {
+			JsonElement nextExtension;
+			if (theReader.peek() == JsonToken.BEGIN_OBJECT) {
+				theReader.beginObject();
+				String firstName = theReader.hasNext() ? theReader.nextName() : null;
+				if ("url".equals(firstName) && theReader.peek() == JsonToken.STRING) {
+					String url = getExtensionUrl(theReader.nextString());
+					theState.enteringNewElementExtension(null, url, theIsModifier, getServerBaseUrl());
+					streamChildren(theReader, theState, true);
+					theReader.endObject();
+					theState.endingElement();
+					continue;
+				}
+				nextExtension = readRemainingObject(theReader, firstName);
+			} else {
+				nextExtension = ourGsonParser.parse(theReader);
+			}
+
+			// The URL isn't the first property, so the extension is parsed as a tree
+			JsonArray array = new JsonArray();
+			array.add(nextExtension);
+			GsonStructure jsonStructure = new GsonStructure();
+			jsonStructure.setNativeArray(array);
+			parseExtension(theState, jsonStructure.getRootArray(), theIsModifier);
+		}
+		theReader.endArray();
+	}
+
+	/**
+	 * Reads the remainder of an object whose opening brace (and optionally its first
+	 * property name) has already been consumed, including the closing brace
+	 */
+	private static JsonObject readRemainingObject(JsonReader theReader, String theFirstName) throws IOException {
+		JsonObject retVal = new JsonObject();
+		if (theFirstName != null) {
+			retVal.add(theFirstName, ourGsonParser.parse(theReader));
+		}
+		while (theReader.hasNext()) {
+			String nextName = theReader.nextName();
+			retVal.add(nextName, ourGsonParser.parse(theReader));
+		}
+		theReader.endObject();
+		return retVal;
+	}
+
 	private void encodeChildElementToStreamWriter(RuntimeResourceDefinition theResDef, IBaseResource theResource, JsonLikeWriter theEventWriter, IBase theNextValue,
 																 BaseRuntimeElementDefinition<?> theChildDef, String theChildName, boolean theContainedResource, CompositeChildElement theChildElem,
 																 boolean theForceEmpty, EncodeContext theEncodeContext) throws IOException {
@@ -1259,6 +1644,19 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		return parseResource(null, theJsonLikeStructure);
 	}
 
+	/**
+	 * Encodes a resource on a single line, regardless of the pretty print setting of this parser
+	 */
+	void encodeResourceToWriterWithoutPrettyPrint(IBaseResource theResource, Writer theWriter) throws IOException {
+		boolean prettyPrint = myPrettyPrint;
+		myPrettyPrint = false;
+		try {
+			encodeResourceToWriter(theResource, theWriter);
+		} finally {
+			myPrettyPrint = prettyPrint;
+		}
+	}
+
 	@Override
 	public IParser setPrettyPrint(boolean thePrettyPrint) {
 		myPrettyPrint = thePrettyPrint;
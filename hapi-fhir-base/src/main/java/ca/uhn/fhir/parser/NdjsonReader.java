@@ -0,0 +1,158 @@
+package ca.uhn.fhir.parser;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.Constants;
+import com.google.gson.stream.JsonReader;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads resources one at a time from an NDJSON (newline delimited JSON) source, where
+ * each line contains a single JSON encoded resource. Only the resource being parsed is
+ * held in memory, so arbitrarily large sources can be processed in constant memory.
+ * <p>
+ * A single JSON token reader (and its buffer) is kept for the whole source rather than
+ * creating one per line. When streaming JSON parsing is enabled in the
+ * {@link ca.uhn.fhir.context.ParserOptions}, each resource is also parsed directly from
+ * the tokens, without building an intermediate JSON tree.
+ * </p>
+ * <p>
+ * Blank lines are skipped. Like the parser it uses, this class is not thread safe.
+ * </p>
+ *
+ * @since 4.2.0
+ */
+public class NdjsonReader<T extends IBaseResource> implements Iterator<T>, Closeable {
+
+	private final JsonParser myParser;
+	private final Class<T> myResourceType;
+	private final JsonReader myReader;
+	private T myNext;
+	private int myResourceCount;
+	private boolean myFinished;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theParser       The parser to use for parsing each line. This must be a JSON parser.
+	 * @param theResourceType The resource type to parse each line as, or <code>null</code> to determine
+	 *                        the type from the <code>resourceType</code> property of each line
+	 * @param theInputStream  The source to read from, <b>with an implied charset of UTF-8</b>. The stream
+	 *                        will be closed when this reader is closed.
+	 */
+	public NdjsonReader(IParser theParser, Class<T> theResourceType, InputStream theInputStream) {
+		this(theParser, theResourceType, new InputStreamReader(Validate.notNull(theInputStream, "theInputStream must not be null"), Constants.CHARSET_UTF8));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theParser       The parser to use for parsing each line. This must be a JSON parser.
+	 * @param theResourceType The resource type to parse each line as, or <code>null</code> to determine
+	 *                        the type from the <code>resourceType</code> property of each line
+	 * @param theReader       The source to read from. The source will be closed when this reader is closed.
+	 */
+	public NdjsonReader(IParser theParser, Class<T> theResourceType, Reader theReader) {
+		Validate.isTrue(theParser instanceof JsonParser, "NDJSON can only be read using a JSON parser");
+		Validate.notNull(theReader, "theReader must not be null");
+		myParser = (JsonParser) theParser;
+		myResourceType = theResourceType;
+		myReader = new JsonReader(theReader instanceof BufferedReader ? theReader : new BufferedReader(theReader));
+		myReader.setLenient(true);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (myNext != null) {
+			return true;
+		}
+		if (myFinished) {
+			return false;
+		}
+
+		try {
+			myNext = myParser.parseNextResource(myResourceType, myReader);
+		} catch (DataFormatException e) {
+			// The position in the source is unknown after a failure, so nothing more can be read
+			myFinished = true;
+			throw new DataFormatException("Failed to parse NDJSON resource " + (myResourceCount + 1) + ": " + e.getMessage(), e);
+		}
+		if (myNext == null) {
+			myFinished = true;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		T retVal = myNext;
+		myNext = null;
+		myResourceCount++;
+		return retVal;
+	}
+
+	/**
+	 * Returns the number of resources which have been returned by this reader so far
+	 */
+	public int getResourceCount() {
+		return myResourceCount;
+	}
+
+	/**
+	 * Returns a sequential {@link Stream} over the remaining resources in this reader. Closing
+	 * the stream closes this reader.
+	 */
+	public Stream<T> stream() {
+		Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(() -> IOUtils.closeQuietly(this));
+	}
+
+	/**
+	 * Closes the underlying source
+	 */
+	@Override
+	public void close() throws IOException {
+		myFinished = true;
+		myNext = null;
+		myReader.close();
+	}
+
+}
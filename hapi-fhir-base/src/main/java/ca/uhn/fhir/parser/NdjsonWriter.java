@@ -0,0 +1,136 @@
+package ca.uhn.fhir.parser;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.api.Constants;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes resources to an NDJSON (newline delimited JSON) target, one resource per line.
+ * Output is buffered, so the underlying target only receives writes in batches of
+ * roughly {@link #DEFAULT_BUFFER_SIZE} characters (or the size supplied to the constructor).
+ * <p>
+ * Resources are always encoded without pretty printing, regardless of the configuration of the
+ * parser. Like the parser it uses, this class is not thread safe.
+ * </p>
+ *
+ * @since 4.2.0
+ */
+public class NdjsonWriter implements Flushable, Closeable {
+
+	/**
+	 * Default buffer size, in characters
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final JsonParser myParser;
+	private final Writer myWriter;
+	private int myResourceCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theParser       The parser to use for encoding. This must be a JSON parser.
+	 * @param theOutputStream The target to write to, using a charset of UTF-8. The stream will be closed
+	 *                        when this writer is closed.
+	 */
+	public NdjsonWriter(IParser theParser, OutputStream theOutputStream) {
+		this(theParser, new OutputStreamWriter(Validate.notNull(theOutputStream, "theOutputStream must not be null"), Constants.CHARSET_UTF8));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theParser The parser to use for encoding. This must be a JSON parser.
+	 * @param theWriter The target to write to
+	 */
+	public NdjsonWriter(IParser theParser, Writer theWriter) {
+		this(theParser, theWriter, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theParser     The parser to use for encoding. This must be a JSON parser.
+	 * @param theWriter     The target to write to
+	 * @param theBufferSize The number of characters to buffer before writing to the target
+	 */
+	public NdjsonWriter(IParser theParser, Writer theWriter, int theBufferSize) {
+		Validate.isTrue(theParser instanceof JsonParser, "NDJSON can only be written using a JSON parser");
+		Validate.notNull(theWriter, "theWriter must not be null");
+		Validate.isTrue(theBufferSize > 0, "theBufferSize must be positive");
+		myParser = (JsonParser) theParser;
+		myWriter = new BufferedWriter(theWriter, theBufferSize);
+	}
+
+	/**
+	 * Encodes a single resource as a line of NDJSON
+	 */
+	public NdjsonWriter write(IBaseResource theResource) throws IOException {
+		myParser.encodeResourceToWriterWithoutPrettyPrint(theResource, myWriter);
+		myWriter.write('\n');
+		myResourceCount++;
+		return this;
+	}
+
+	/**
+	 * Encodes a collection of resources, each as a line of NDJSON
+	 */
+	public NdjsonWriter writeAll(Iterable<? extends IBaseResource> theResources) throws IOException {
+		for (IBaseResource next : theResources) {
+			write(next);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the number of resources which have been written so far
+	 */
+	public int getResourceCount() {
+		return myResourceCount;
+	}
+
+	/**
+	 * Writes any buffered content to the underlying target
+	 */
+	@Override
+	public void flush() throws IOException {
+		myWriter.flush();
+	}
+
+	/**
+	 * Flushes and closes the underlying target
+	 */
+	@Override
+	public void close() throws IOException {
+		myWriter.close();
+	}
+
+}
@@ -99,6 +99,37 @@ class ParserState<T> {
 		return myObject;
 	}
 
+	/**
+	 * Returns the element most recently ended, or <code>null</code> if it was swallowed
+	 */
+	IBase getPreviousElement() {
+		return myPreviousElement;
+	}
+
+	/**
+	 * Enters an element which has already been parsed and ended, so that content which only
+	 * appears later in the document (i.e. a JSON "_name" property) can still be applied to it
+	 */
+	void reenteringElement(String theName, IBase theElement) {
+		PreResourceState preResourceState = myState.getPreResourceState();
+		if (theElement instanceof IPrimitiveType) {
+			push(new PrimitiveState(preResourceState, (IPrimitiveType<?>) theElement));
+			return;
+		}
+
+		BaseRuntimeElementDefinition<?> definition;
+		if (theElement instanceof IBaseResource) {
+			definition = myContext.getResourceDefinition((IBaseResource) theElement);
+		} else {
+			definition = myContext.getElementDefinition(theElement.getClass());
+		}
+		if (definition instanceof BaseRuntimeElementCompositeDefinition) {
+			push(new ElementCompositeState(preResourceState, theName, (BaseRuntimeElementCompositeDefinition<?>) definition, theElement));
+		} else {
+			push(new SwallowChildrenWholeState(preResourceState));
+		}
+	}
+
 	boolean isPreResource() {
 		return myState.isPreResource();
 	}
@@ -19,6 +19,7 @@ package ca.uhn.fhir.parser.json;
  * #L%
  */
 
+import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.Writer;
@@ -73,31 +74,11 @@ public class GsonStructure implements JsonLikeStructure {
 
 	@Override
 	public void load(Reader theReader, boolean allowArray) throws DataFormatException {
-		PushbackReader pbr = new PushbackReader(theReader);
-		int nextInt;
 		try {
-			while(true) {
-					nextInt = pbr.read();
-				if (nextInt == -1) {
-					throw new DataFormatException("Did not find any content to parse");
-				}
-				if (nextInt == '{') {
-					pbr.unread(nextInt);
-					break;
-				}
-				if (Character.isWhitespace(nextInt)) {
-					continue;
-				}
-				if (allowArray) {
-					if (nextInt == '[') {
-						pbr.unread(nextInt);
-						break;
-					}
-					throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{' or '[')");
-				}
-				throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{')");
-			}
-		
+			PushbackReader pbr = skipToStartOfContent(theReader, allowArray);
+			int nextInt = pbr.read();
+			pbr.unread(nextInt);
+
 			Gson gson = new GsonBuilder().disableHtmlEscaping().create();
 			if (nextInt == '{') {
 				JsonObject root = gson.fromJson(pbr, JsonObject.class);
@@ -116,6 +97,50 @@ public class GsonStructure implements JsonLikeStructure {
 		}
 	}
 
+	/**
+	 * Skips any leading whitespace in the given reader, and verifies that the first
+	 * non-whitespace character starts a JSON object (or array, if <code>allowArray</code>
+	 * is set). The returned reader is positioned at that character. Callers are responsible
+	 * for adding any context to the message of the exceptions thrown here.
+	 */
+	public static PushbackReader skipToStartOfContent(Reader theReader, boolean allowArray) throws IOException, DataFormatException {
+		PushbackReader pbr = new PushbackReader(theReader);
+		int nextInt;
+		while(true) {
+			nextInt = pbr.read();
+			if (nextInt == -1) {
+				throw new DataFormatException("Did not find any content to parse");
+			}
+			if (nextInt == '{') {
+				pbr.unread(nextInt);
+				break;
+			}
+			if (Character.isWhitespace(nextInt)) {
+				continue;
+			}
+			if (allowArray) {
+				if (nextInt == '[') {
+					pbr.unread(nextInt);
+					break;
+				}
+				throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{' or '[')");
+			}
+			throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{')");
+		}
+		return pbr;
+	}
+
+	/**
+	 * Wraps a single Gson element (e.g. a fragment read by a streaming parser) as
+	 * a {@link JsonLikeValue}. Returns <code>null</code> if the element is <code>null</code>.
+	 */
+	public static JsonLikeValue wrapValue(JsonElement theElement) {
+		if (theElement == null) {
+			return null;
+		}
+		return new GsonJsonValue(theElement);
+	}
+
 	@Override
 	public JsonLikeWriter getJsonLikeWriter (Writer writer) {
 		if (null == jsonLikeWriter) {
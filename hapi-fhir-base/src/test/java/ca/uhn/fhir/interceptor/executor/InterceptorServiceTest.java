@@ -20,6 +20,7 @@ import java.util.List;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.*;
 
 public class InterceptorServiceTest {
@@ -167,6 +168,53 @@ public class InterceptorServiceTest {
 		assertSame("B", interceptor1.myLastString1);
 	}
 
+	@Test
+	public void testInvokersUpdatedWhenInterceptorsChange() {
+		InterceptorService svc = new InterceptorService();
+
+		MyTestInterceptorTwo interceptor1 = new MyTestInterceptorTwo();
+		MyTestInterceptorOne interceptor0 = new MyTestInterceptorOne();
+		svc.registerInterceptor(interceptor1);
+		svc.registerAnonymousInterceptor(Pointcut.TEST_RB, 200, (thePointcut, theArgs) -> myInvocations.add("Anonymous.testRb"));
+		svc.registerInterceptor(interceptor0);
+
+		svc.callHooks(Pointcut.TEST_RB, new HookParams("A", "B"));
+		assertThat(myInvocations, contains("MyTestInterceptorOne.testRb", "Anonymous.testRb", "MyTestInterceptorTwo.testRb"));
+
+		myInvocations.clear();
+		svc.unregisterInterceptor(interceptor0);
+		svc.callHooks(Pointcut.TEST_RB, new HookParams("A", "B"));
+		assertThat(myInvocations, contains("Anonymous.testRb", "MyTestInterceptorTwo.testRb"));
+
+		myInvocations.clear();
+		svc.unregisterAllInterceptors();
+		assertFalse(svc.hasHooks(Pointcut.TEST_RB));
+		svc.callHooks(Pointcut.TEST_RB, new HookParams("A", "B"));
+		assertThat(myInvocations, empty());
+	}
+
+	@Test
+	public void testHookWithPointcutParameter() {
+		InterceptorService svc = new InterceptorService();
+
+		class PointcutParameterInterceptor {
+			private Pointcut myPointcut;
+			private String myValue1;
+
+			@Hook(Pointcut.TEST_RB)
+			public void hook(Pointcut thePointcut, String theValue0, String theValue1) {
+				myPointcut = thePointcut;
+				myValue1 = theValue1;
+			}
+		}
+		PointcutParameterInterceptor interceptor = new PointcutParameterInterceptor();
+		svc.registerInterceptor(interceptor);
+
+		svc.callHooks(Pointcut.TEST_RB, new HookParams("A", "B"));
+		assertEquals(Pointcut.TEST_RB, interceptor.myPointcut);
+		assertEquals("B", interceptor.myValue1);
+	}
+
 	@Test
 	public void testInvokeUsingSupplierArg() {
 		InterceptorService svc = new InterceptorService();
@@ -0,0 +1,133 @@
+package ca.uhn.fhir.benchmarks;
+
+/*
+ * #%L
+ * HAPI FHIR - Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.hl7.fhir.r4.model.*;
+
+import java.math.BigDecimal;
+
+/**
+ * Builds the sample resources used by the benchmarks. The resources are meant to
+ * look like typical clinical data (identifiers, names, codes with several codings,
+ * references, quantities, etc.) rather than minimal examples.
+ */
+public class BenchmarkData {
+
+	public static final String LOINC_SYSTEM = "http://loinc.org";
+	public static final String MRN_SYSTEM = "http://example.com/fhir/mrn";
+
+	private BenchmarkData() {
+		// non instantiable
+	}
+
+	/**
+	 * Creates a searchset Bundle containing the given number of patients, each with
+	 * several observations
+	 */
+	public static Bundle createSearchBundle(int thePatientCount, int theObservationsPerPatient) {
+		Bundle retVal = new Bundle();
+		retVal.setId("search-results");
+		retVal.setType(Bundle.BundleType.SEARCHSET);
+		retVal.setTotal(thePatientCount * (1 + theObservationsPerPatient));
+		retVal.addLink().setRelation("self").setUrl("http://example.com/fhir/Patient?_revinclude=Observation:subject");
+
+		for (int i = 0; i < thePatientCount; i++) {
+			Patient patient = createPatient(i);
+			retVal.addEntry()
+				.setFullUrl("http://example.com/fhir/Patient/" + patient.getIdElement().getIdPart())
+				.setResource(patient)
+				.getSearch().setMode(Bundle.SearchEntryMode.MATCH);
+
+			for (int j = 0; j < theObservationsPerPatient; j++) {
+				Observation observation = createObservation(i, j);
+				retVal.addEntry()
+					.setFullUrl("http://example.com/fhir/Observation/" + observation.getIdElement().getIdPart())
+					.setResource(observation)
+					.getSearch().setMode(Bundle.SearchEntryMode.INCLUDE);
+			}
+		}
+
+		return retVal;
+	}
+
+	public static Patient createPatient(int theIndex) {
+		Patient retVal = new Patient();
+		retVal.setId("P" + theIndex);
+		retVal.getMeta().setVersionId("3");
+		retVal.getMeta().addProfile("http://hl7.org/fhir/us/core/StructureDefinition/us-core-patient");
+		retVal.getText().setStatus(Narrative.NarrativeStatus.GENERATED);
+		retVal.getText().setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\">Patient <b>SMITH, John " + theIndex + "</b></div>");
+		retVal.addIdentifier()
+			.setSystem(MRN_SYSTEM)
+			.setValue("MRN" + theIndex)
+			.getType().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/v2-0203").setCode("MR");
+		retVal.setActive(true);
+		retVal.addName()
+			.setUse(HumanName.NameUse.OFFICIAL)
+			.setFamily("Smith")
+			.addGiven("John")
+			.addGiven("Q" + theIndex);
+		retVal.addTelecom().setSystem(ContactPoint.ContactPointSystem.PHONE).setValue("555-555-" + theIndex).setUse(ContactPoint.ContactPointUse.HOME);
+		retVal.setGender(Enumerations.AdministrativeGender.MALE);
+		retVal.setBirthDateElement(new DateType("1970-01-" + String.format("%02d", (theIndex % 28) + 1)));
+		retVal.addAddress()
+			.addLine(theIndex + " Main Street")
+			.setCity("Toronto")
+			.setState("ON")
+			.setPostalCode("M5G 2C4")
+			.setCountry("CA");
+		retVal.getManagingOrganization().setReference("Organization/O1").setDisplay("Example Hospital");
+		return retVal;
+	}
+
+	public static Observation createObservation(int thePatientIndex, int theIndex) {
+		Observation retVal = new Observation();
+		retVal.setId("O" + thePatientIndex + "-" + theIndex);
+		retVal.getMeta().setVersionId("1");
+		retVal.setStatus(Observation.ObservationStatus.FINAL);
+		retVal.addCategory().addCoding()
+			.setSystem("http://terminology.hl7.org/CodeSystem/observation-category")
+			.setCode("vital-signs")
+			.setDisplay("Vital Signs");
+		retVal.getCode()
+			.setText("Heart rate")
+			.addCoding(new Coding(LOINC_SYSTEM, "8867-4", "Heart rate"))
+			.addCoding(new Coding("http://snomed.info/sct", "364075005", "Heart rate (observable entity)"));
+		retVal.getSubject().setReference("Patient/P" + thePatientIndex);
+		retVal.getEncounter().setReference("Encounter/E" + thePatientIndex);
+		retVal.setEffective(new DateTimeType("2019-11-" + String.format("%02d", (theIndex % 28) + 1) + "T10:15:00-05:00"));
+		retVal.setIssuedElement(new InstantType("2019-11-29T10:15:00.000-05:00"));
+		retVal.addPerformer().setReference("Practitioner/PR1");
+		retVal.setValue(new Quantity()
+			.setValue(new BigDecimal(60 + theIndex))
+			.setUnit("beats/minute")
+			.setSystem("http://unitsofmeasure.org")
+			.setCode("/min"));
+		retVal.addInterpretation().addCoding()
+			.setSystem("http://terminology.hl7.org/CodeSystem/v3-ObservationInterpretation")
+			.setCode("N");
+		retVal.addReferenceRange()
+			.setLow(new Quantity().setValue(50).setUnit("beats/minute"))
+			.setHigh(new Quantity().setValue(100).setUnit("beats/minute"));
+		return retVal;
+	}
+
+}
@@ -0,0 +1,106 @@
+package ca.uhn.fhir.benchmarks;
+
+/*
+ * #%L
+ * HAPI FHIR - Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.searchparam.JpaRuntimeSearchParam;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A search parameter registry which only knows about the search parameters built into
+ * the FHIR structures, so that the benchmarks don't need a database
+ */
+public class BuiltInSearchParamRegistry implements ISearchParamRegistry {
+
+	private final FhirContext myCtx;
+	private final Map<String, Map<String, RuntimeSearchParam>> myActiveSearchParams = new ConcurrentHashMap<>();
+
+	public BuiltInSearchParamRegistry(FhirContext theCtx) {
+		myCtx = theCtx;
+	}
+
+	@Override
+	public void forceRefresh() {
+		// nothing
+	}
+
+	@Override
+	public RuntimeSearchParam getActiveSearchParam(String theResourceName, String theParamName) {
+		return myCtx.getResourceDefinition(theResourceName).getSearchParam(theParamName);
+	}
+
+	@Override
+	public boolean refreshCacheIfNecessary() {
+		return false;
+	}
+
+	@Override
+	public Map<String, Map<String, RuntimeSearchParam>> getActiveSearchParams() {
+		Map<String, Map<String, RuntimeSearchParam>> retVal = new HashMap<>();
+		for (String nextResourceName : myCtx.getResourceNames()) {
+			retVal.put(nextResourceName, getActiveSearchParams(nextResourceName));
+		}
+		return retVal;
+	}
+
+	@Override
+	public Map<String, RuntimeSearchParam> getActiveSearchParams(String theResourceName) {
+		// Hand out the same map every time, like the real registry does between refreshes
+		return myActiveSearchParams.computeIfAbsent(theResourceName, t -> {
+			Map<String, RuntimeSearchParam> retVal = new HashMap<>();
+			for (RuntimeSearchParam nextSp : myCtx.getResourceDefinition(t).getSearchParams()) {
+				retVal.put(nextSp.getName(), nextSp);
+			}
+			return Collections.unmodifiableMap(retVal);
+		});
+	}
+
+	@Override
+	public List<JpaRuntimeSearchParam> getActiveUniqueSearchParams(String theResourceName, Set<String> theParamNames) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public List<JpaRuntimeSearchParam> getActiveUniqueSearchParams(String theResourceName) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void requestRefresh() {
+		// nothing
+	}
+
+	@Override
+	public RuntimeSearchParam getSearchParamByName(RuntimeResourceDefinition theResourceDef, String theParamName) {
+		return theResourceDef.getSearchParam(theParamName);
+	}
+
+	@Override
+	public Collection<RuntimeSearchParam> getSearchParamsByResourceType(RuntimeResourceDefinition theResourceDef) {
+		return theResourceDef.getSearchParams();
+	}
+
+}
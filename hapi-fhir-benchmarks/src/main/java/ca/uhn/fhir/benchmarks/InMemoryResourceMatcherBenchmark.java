@@ -0,0 +1,122 @@
+package ca.uhn.fhir.benchmarks;
+
+/*
+ * #%L
+ * HAPI FHIR - Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
+import ca.uhn.fhir.jpa.searchparam.extractor.BaseSearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryResourceMatcher;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import org.hl7.fhir.r4.hapi.ctx.DefaultProfileValidationSupport;
+import org.hl7.fhir.r4.model.Observation;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link InMemoryResourceMatcher#match(String, org.hl7.fhir.instance.model.api.IBaseResource, ResourceIndexedSearchParams)},
+ * which is used to check every changed resource against the active subscriptions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryResourceMatcherBenchmark {
+
+	@Param({
+		"Observation?status=final",
+		"Observation?code=http://loinc.org|8867-4",
+		"Observation?code=http://loinc.org|8867-4&date=ge2019-01-01&subject=Patient/P1",
+		"Observation?code=http://loinc.org|1234-5,http://loinc.org|2345-6"
+	})
+	private String myCriteria;
+
+	private AnnotationConfigApplicationContext myAppCtx;
+	private InMemoryResourceMatcher myMatcher;
+	private Observation myObservation;
+	private ResourceIndexedSearchParams mySearchParams;
+
+	@Setup
+	public void setup() {
+		myAppCtx = new AnnotationConfigApplicationContext(MatcherConfig.class);
+		myMatcher = myAppCtx.getBean(InMemoryResourceMatcher.class);
+
+		myObservation = BenchmarkData.createObservation(1, 1);
+		FhirContext ctx = myAppCtx.getBean(FhirContext.class);
+		BaseSearchParamExtractor extractor = new SearchParamExtractorR4(new ModelConfig(), ctx, new DefaultProfileValidationSupport(), myAppCtx.getBean(ISearchParamRegistry.class));
+		mySearchParams = new ResourceIndexedSearchParams();
+		mySearchParams.myStringParams.addAll(extractor.extractSearchParamStrings(myObservation));
+		for (BaseResourceIndexedSearchParam next : extractor.extractSearchParamTokens(myObservation)) {
+			if (next instanceof ResourceIndexedSearchParamToken) {
+				mySearchParams.myTokenParams.add((ResourceIndexedSearchParamToken) next);
+			}
+		}
+		mySearchParams.myDateParams.addAll(extractor.extractSearchParamDates(myObservation));
+		mySearchParams.myQuantityParams.addAll(extractor.extractSearchParamQuantity(myObservation));
+	}
+
+	@TearDown
+	public void tearDown() {
+		myAppCtx.close();
+	}
+
+	@Benchmark
+	public InMemoryMatchResult match() {
+		return myMatcher.match(myCriteria, myObservation, mySearchParams);
+	}
+
+	@Configuration
+	public static class MatcherConfig {
+
+		@Bean
+		public FhirContext fhirContext() {
+			return FhirContext.forR4();
+		}
+
+		@Bean
+		public ISearchParamRegistry searchParamRegistry() {
+			return new BuiltInSearchParamRegistry(fhirContext());
+		}
+
+		@Bean
+		public MatchUrlService matchUrlService() {
+			return new MatchUrlService();
+		}
+
+		@Bean
+		public InMemoryResourceMatcher inMemoryResourceMatcher() {
+			return new InMemoryResourceMatcher();
+		}
+
+	}
+
+}
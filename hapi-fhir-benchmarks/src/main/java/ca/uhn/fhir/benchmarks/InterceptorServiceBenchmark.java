@@ -0,0 +1,99 @@
+package ca.uhn.fhir.benchmarks;
+
+/*
+ * #%L
+ * HAPI FHIR - Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.interceptor.executor.InterceptorService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link InterceptorService#callHooks(Pointcut, HookParams)} with
+ * a few interceptors registered against the same pointcut, both with and without a
+ * thread local interceptor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorServiceBenchmark {
+
+	@Param({"1", "5"})
+	private int myInterceptorCount;
+
+	private InterceptorService myInterceptorService;
+	private HookParams myParams;
+
+	@Setup
+	public void setup() {
+		myInterceptorService = new InterceptorService("benchmark");
+		for (int i = 0; i < myInterceptorCount; i++) {
+			myInterceptorService.registerInterceptor(new CountingInterceptor());
+		}
+		myInterceptorService.registerAnonymousInterceptor(Pointcut.TEST_RB, (thePointcut, theArgs) -> {
+			// nothing
+		});
+		myParams = new HookParams()
+			.add(String.class, "A")
+			.add(String.class, "B");
+	}
+
+	@Benchmark
+	public boolean callHooks() {
+		return myInterceptorService.callHooks(Pointcut.TEST_RB, myParams);
+	}
+
+	@Benchmark
+	public boolean callHooksWithThreadLocalInterceptor() {
+		CountingInterceptor interceptor = new CountingInterceptor();
+		myInterceptorService.registerThreadLocalInterceptor(interceptor);
+		try {
+			return myInterceptorService.callHooks(Pointcut.TEST_RB, myParams);
+		} finally {
+			myInterceptorService.unregisterThreadLocalInterceptor(interceptor);
+		}
+	}
+
+	@Benchmark
+	public boolean hasHooks() {
+		return myInterceptorService.hasHooks(Pointcut.TEST_RB);
+	}
+
+	@Interceptor
+	public static class CountingInterceptor {
+
+		private long myCount;
+
+		@Hook(Pointcut.TEST_RB)
+		public boolean testRb(String theString0, String theString1) {
+			myCount += theString0.length() + theString1.length();
+			return true;
+		}
+
+	}
+
+}
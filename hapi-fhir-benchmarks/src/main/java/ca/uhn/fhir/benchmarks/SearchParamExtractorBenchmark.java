@@ -0,0 +1,93 @@
+package ca.uhn.fhir.benchmarks;
+
+/*
+ * #%L
+ * HAPI FHIR - Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.searchparam.extractor.BaseSearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.hapi.ctx.DefaultProfileValidationSupport;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures extracting the search index values for a resource with the
+ * FHIRPath based {@link BaseSearchParamExtractor}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchParamExtractorBenchmark {
+
+	@Param({"Patient", "Observation"})
+	private String myResourceType;
+
+	private BaseSearchParamExtractor myExtractor;
+	private IBaseResource myResource;
+
+	@Setup
+	public void setup() {
+		FhirContext ctx = FhirContext.forR4();
+		myExtractor = new SearchParamExtractorR4(new ModelConfig(), ctx, new DefaultProfileValidationSupport(), new BuiltInSearchParamRegistry(ctx));
+		if ("Patient".equals(myResourceType)) {
+			myResource = BenchmarkData.createPatient(1);
+		} else {
+			myResource = BenchmarkData.createObservation(1, 1);
+		}
+	}
+
+	@Benchmark
+	public void extractAll(Blackhole theBlackhole) {
+		theBlackhole.consume(myExtractor.extractSearchParamStrings(myResource));
+		theBlackhole.consume(myExtractor.extractSearchParamTokens(myResource));
+		theBlackhole.consume(myExtractor.extractSearchParamDates(myResource));
+		theBlackhole.consume(myExtractor.extractSearchParamNumber(myResource));
+		theBlackhole.consume(myExtractor.extractSearchParamQuantity(myResource));
+		theBlackhole.consume(myExtractor.extractSearchParamUri(myResource));
+		theBlackhole.consume(myExtractor.extractResourceLinks(myResource));
+	}
+
+	/**
+	 * Same indexes as {@link #extractAll(Blackhole)}, but extracted in a single walk over the resource
+	 */
+	@Benchmark
+	public void extractAllSinglePass(Blackhole theBlackhole) {
+		theBlackhole.consume(myExtractor.extractAllSearchParams(myResource));
+		theBlackhole.consume(myExtractor.extractResourceLinks(myResource));
+	}
+
+	@Benchmark
+	public Object extractTokens() {
+		return myExtractor.extractSearchParamTokens(myResource);
+	}
+
+	@Benchmark
+	public Object extractStrings() {
+		return myExtractor.extractSearchParamStrings(myResource);
+	}
+
+}
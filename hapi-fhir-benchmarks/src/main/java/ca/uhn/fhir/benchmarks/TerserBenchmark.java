@@ -0,0 +1,79 @@
+package ca.uhn.fhir.benchmarks;
+
+/*
+ * #%L
+ * HAPI FHIR - Benchmarks
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FhirTerser#getValues(org.hl7.fhir.instance.model.api.IBaseResource, String)}
+ * for paths of varying depth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerserBenchmark {
+
+	private FhirTerser myTerser;
+	private Patient myPatient;
+	private Observation myObservation;
+	private Bundle myBundle;
+
+	@Setup
+	public void setup() {
+		myTerser = FhirContext.forR4().newTerser();
+		myPatient = BenchmarkData.createPatient(1);
+		myObservation = BenchmarkData.createObservation(1, 1);
+		myBundle = BenchmarkData.createSearchBundle(10, 5);
+	}
+
+	@Benchmark
+	public List<IBase> patientIdentifierValue() {
+		return myTerser.getValues(myPatient, "Patient.identifier.value");
+	}
+
+	@Benchmark
+	public List<IBase> observationCodeCodingSystem() {
+		return myTerser.getValues(myObservation, "Observation.code.coding.system");
+	}
+
+	@Benchmark
+	public List<IBase> observationValueQuantity() {
+		return myTerser.getValues(myObservation, "Observation.valueQuantity.value");
+	}
+
+	@Benchmark
+	public List<IBase> bundleEntryFullUrl() {
+		return myTerser.getValues(myBundle, "Bundle.entry.fullUrl");
+	}
+
+}
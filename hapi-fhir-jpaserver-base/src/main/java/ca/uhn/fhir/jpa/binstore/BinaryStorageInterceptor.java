@@ -45,6 +45,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -212,12 +213,7 @@ public class BinaryStorageInterceptor {
 	@Nonnull
 	@SuppressWarnings("unchecked")
 	private List<DeferredBinaryTarget> getOrCreateDeferredBinaryStorageMap(ServletRequestDetails theRequestDetails) {
-		List<DeferredBinaryTarget> deferredBinaryTargets = (List<DeferredBinaryTarget>) theRequestDetails.getUserData().get(getDeferredListKey());
-		if (deferredBinaryTargets == null) {
-			deferredBinaryTargets = new ArrayList<>();
-			theRequestDetails.getUserData().put(getDeferredListKey(), deferredBinaryTargets);
-		}
-		return deferredBinaryTargets;
+		return (List<DeferredBinaryTarget>) theRequestDetails.getUserData().computeIfAbsent(getDeferredListKey(), t -> new CopyOnWriteArrayList<>());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -32,7 +32,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
  * Wraps an Attachment datatype or Binary resource, since they both
  * hold binary content but don't look entirely similar
  */
-interface IBinaryTarget {
+public interface IBinaryTarget {
 
 	void setSize(Integer theSize);
 
@@ -21,11 +21,15 @@ package ca.uhn.fhir.jpa.bulk;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.binstore.BinaryAccessProvider;
+import ca.uhn.fhir.jpa.binstore.IBinaryStorageSvc;
+import ca.uhn.fhir.jpa.binstore.IBinaryTarget;
+import ca.uhn.fhir.jpa.binstore.StoredDetails;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.IResultIterator;
 import ca.uhn.fhir.jpa.dao.ISearchBuilder;
-import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionFileDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportJobDao;
@@ -39,7 +43,6 @@ import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
 import ca.uhn.fhir.jpa.model.util.JpaConstants;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.util.ExpungeOptions;
-import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
@@ -48,6 +51,8 @@ import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.util.BinaryUtil;
 import ca.uhn.fhir.util.StopWatch;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseBinary;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -62,16 +67,28 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.transaction.Transactional;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -99,54 +116,251 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 	@Autowired
 	private PlatformTransactionManager myTxManager;
 	private TransactionTemplate myTxTemplate;
+	private TransactionTemplate myTxTemplateRequiresNew;
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private BinaryAccessProvider myBinaryAccessProvider;
+	@Autowired(required = false)
+	private IBinaryStorageSvc myBinaryStorageSvc;
+	private ThreadPoolExecutor myExecutor;
+	private final Set<Long> myLostClaims = ConcurrentHashMap.newKeySet();
 
 	private long myFileMaxChars = 500 * FileUtils.ONE_KB;
 	private int myRetentionPeriod = (int) (2 * DateUtils.MILLIS_PER_HOUR);
 
 	/**
 	 * This method is called by the scheduler to run a pass of the
-	 * generator
+	 * generator. Each pass claims any newly submitted jobs, and then
+	 * builds the individual collections (one per resource type) of all
+	 * jobs in progress using the bulk export thread pool. Claiming uses
+	 * optimistic locking, so multiple nodes can work on the same job.
 	 */
 	@Transactional(value = Transactional.TxType.NEVER)
 	@Override
 	public synchronized void buildExportFiles() {
 
-		Optional<BulkExportJobEntity> jobToProcessOpt = myTxTemplate.execute(t -> {
-			Pageable page = PageRequest.of(0, 1);
-			Slice<BulkExportJobEntity> submittedJobs = myBulkExportJobDao.findByStatus(page, BulkJobStatusEnum.SUBMITTED);
-			if (submittedJobs.isEmpty()) {
-				return Optional.empty();
+		claimSubmittedJobs();
+
+		while (true) {
+			Map<Long, Integer> claimedCollections = claimCollections();
+			if (claimedCollections.isEmpty()) {
+				break;
 			}
-			return Optional.of(submittedJobs.getContent().get(0));
+
+			Map<Long, Future<?>> futures = new LinkedHashMap<>();
+			for (Map.Entry<Long, Integer> nextCollection : claimedCollections.entrySet()) {
+				futures.put(nextCollection.getKey(), myExecutor.submit(() -> processCollectionAndHandleErrors(nextCollection.getKey(), nextCollection.getValue())));
+			}
+			for (Future<?> next : futures.values()) {
+				while (true) {
+					try {
+						next.get(getClaimRenewalIntervalMillis(), TimeUnit.MILLISECONDS);
+						break;
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} catch (ExecutionException e) {
+						ourLog.error("Failure while preparing bulk export extract", e);
+						break;
+					} catch (TimeoutException e) {
+						renewClaims(claimedCollections, futures);
+					}
+				}
+			}
+		}
+
+		completeFinishedJobs();
+	}
+
+	private void claimSubmittedJobs() {
+		List<Long> submittedJobs = myTxTemplate.execute(t -> {
+			Pageable page = PageRequest.of(0, myDaoConfig.getBulkExportThreadCount());
+			Slice<BulkExportJobEntity> jobs = myBulkExportJobDao.findByStatus(page, BulkJobStatusEnum.SUBMITTED);
+			return jobs.stream().map(BulkExportJobEntity::getId).collect(Collectors.toList());
 		});
 
-		if (!jobToProcessOpt.isPresent()) {
-			return;
+		for (Long nextJobPid : submittedJobs) {
+			try {
+				myTxTemplate.execute(t -> {
+					BulkExportJobEntity job = myBulkExportJobDao.getOne(nextJobPid);
+					if (job.getStatus() == BulkJobStatusEnum.SUBMITTED) {
+						job.setStatus(BulkJobStatusEnum.BUILDING);
+						myBulkExportJobDao.saveAndFlush(job);
+						ourLog.info("Bulk export starting generation for batch export job: {}", job);
+					}
+					return null;
+				});
+			} catch (ObjectOptimisticLockingFailureException e) {
+				ourLog.debug("Bulk export job {} was claimed by another process", nextJobPid);
+			}
 		}
+	}
 
-		String jobUuid = jobToProcessOpt.get().getJobId();
+	/**
+	 * A stale collection is simply claimed and built again. Each collection is built in a single
+	 * transaction, so an abandoned build never leaves file rows or Binary resources behind. Blobs
+	 * are stored outside of that transaction and are expunged when it rolls back, but if the node
+	 * building the collection goes away before that happens its blobs are orphaned: nothing refers
+	 * to them, and removing them is left to the housekeeping of the binary storage itself.
+	 *
+	 * @return Returns the claimed collection PIDs, mapped to the version of each collection once claimed
+	 */
+	private Map<Long, Integer> claimCollections() {
+		Date staleCutoff = new Date(System.currentTimeMillis() - myDaoConfig.getBulkExportClaimTimeoutMillis());
+		List<Long> candidates = myTxTemplate.execute(t -> {
+			Pageable page = PageRequest.of(0, myDaoConfig.getBulkExportThreadCount());
+			Slice<BulkExportCollectionEntity> collections = myBulkExportCollectionDao.findClaimable(page, BulkJobStatusEnum.BUILDING, BulkJobStatusEnum.SUBMITTED, BulkJobStatusEnum.BUILDING, staleCutoff);
+			return collections.stream().map(BulkExportCollectionEntity::getId).collect(Collectors.toList());
+		});
 
+		Map<Long, Integer> retVal = new LinkedHashMap<>();
+		for (Long nextCollectionPid : candidates) {
+			try {
+				myTxTemplate.execute(t -> {
+					BulkExportCollectionEntity collection = myBulkExportCollectionDao.getOne(nextCollectionPid);
+					if (collection.getStatus() == BulkJobStatusEnum.BUILDING) {
+						ourLog.warn("Reclaiming bulk export collection {} of type {} which was not completed", nextCollectionPid, collection.getResourceType());
+					}
+					collection.setStatus(BulkJobStatusEnum.BUILDING);
+					collection = myBulkExportCollectionDao.saveAndFlush(collection);
+					retVal.put(nextCollectionPid, collection.getVersion());
+					return null;
+				});
+			} catch (ObjectOptimisticLockingFailureException e) {
+				ourLog.debug("Bulk export collection {} was claimed by another process", nextCollectionPid);
+			}
+		}
+		return retVal;
+	}
+
+	private long getClaimRenewalIntervalMillis() {
+		return Math.max(myDaoConfig.getBulkExportClaimTimeoutMillis() / 4, DateUtils.MILLIS_PER_SECOND);
+	}
+
+	/**
+	 * Each collection is built in a single transaction, so its claim time is moved forward
+	 * here (i.e. outside of the worker threads and their transactions) in order to keep other
+	 * nodes from treating a collection that takes a long time to build as abandoned. Any
+	 * collection whose claim turns out to have been lost is abandoned by its worker.
+	 */
+	private void renewClaims(Map<Long, Integer> theClaimedCollections, Map<Long, Future<?>> theFutures) {
+		for (Map.Entry<Long, Integer> nextCollection : theClaimedCollections.entrySet()) {
+			Long collectionPid = nextCollection.getKey();
+			if (theFutures.get(collectionPid).isDone()) {
+				continue;
+			}
+			try {
+				Integer updated = myTxTemplate.execute(t -> myBulkExportCollectionDao.renewClaim(collectionPid, nextCollection.getValue(), BulkJobStatusEnum.BUILDING, new Date()));
+				if (updated != null && updated == 0) {
+					ourLog.warn("Bulk export collection {} was reclaimed by another process", collectionPid);
+					myLostClaims.add(collectionPid);
+				}
+			} catch (Exception e) {
+				ourLog.warn("Failed to renew claim on bulk export collection {}: {}", collectionPid, e.toString());
+			}
+		}
+	}
+
+	private void processCollectionAndHandleErrors(Long theCollectionPid, int theClaimedVersion) {
 		try {
 			myTxTemplate.execute(t -> {
-				processJob(jobUuid);
+				processCollection(theCollectionPid, theClaimedVersion);
 				return null;
 			});
 		} catch (Exception e) {
-			ourLog.error("Failure while preparing bulk export extract", e);
 			myTxTemplate.execute(t -> {
-				Optional<BulkExportJobEntity> submittedJobs = myBulkExportJobDao.findByJobId(jobUuid);
-				if (submittedJobs.isPresent()) {
-					BulkExportJobEntity jobEntity = submittedJobs.get();
+				Optional<BulkExportCollectionEntity> collectionOpt = myBulkExportCollectionDao.findById(theCollectionPid);
+				if (collectionOpt.isPresent() && collectionOpt.get().getVersion() != theClaimedVersion) {
+					// This also covers the optimistic lock failure when saving the collection
+					ourLog.warn("Bulk export collection {} was reclaimed by another process before it was completed, discarding this build", theCollectionPid);
+					return null;
+				}
+
+				ourLog.error("Failure while preparing bulk export extract", e);
+				if (collectionOpt.isPresent()) {
+					BulkExportCollectionEntity collection = collectionOpt.get();
+					collection.setStatus(BulkJobStatusEnum.ERROR);
+					myBulkExportCollectionDao.save(collection);
+
+					BulkExportJobEntity jobEntity = collection.getJob();
 					jobEntity.setStatus(BulkJobStatusEnum.ERROR);
 					jobEntity.setStatusMessage(e.getMessage());
 					myBulkExportJobDao.save(jobEntity);
 				}
 				return null;
 			});
+		} finally {
+			myLostClaims.remove(theCollectionPid);
+		}
+	}
+
+	private void completeFinishedJobs() {
+		myTxTemplate.execute(t -> {
+			Pageable page = PageRequest.of(0, 100);
+			Slice<BulkExportJobEntity> jobs = myBulkExportJobDao.findByStatus(page, BulkJobStatusEnum.BUILDING);
+			for (BulkExportJobEntity nextJob : jobs) {
+				boolean complete = nextJob
+					.getCollections()
+					.stream()
+					.allMatch(c -> c.getStatus() == BulkJobStatusEnum.COMPLETE);
+				if (complete) {
+					int resourceCount = nextJob.getCollections().stream().mapToInt(BulkExportCollectionEntity::getResourceCount).sum();
+					nextJob.setStatus(BulkJobStatusEnum.COMPLETE);
+					updateExpiry(nextJob);
+					myBulkExportJobDao.save(nextJob);
+					ourLog.info("Bulk export completed job with {} resources: {}", resourceCount, nextJob);
+				}
+			}
+			return null;
+		});
+	}
+
+	private void deleteFiles(BulkExportCollectionEntity theCollection) {
+		for (BulkExportCollectionFileEntity nextFile : theCollection.getFiles()) {
+			ourLog.info("Purging bulk data file: {}", nextFile.getResourceId());
+			IIdType binaryId = toId(nextFile.getResourceId());
+			expungeBlobIfStored(getBinaryDao().read(binaryId));
+			getBinaryDao().delete(binaryId);
+			getBinaryDao().forceExpungeInExistingTransaction(binaryId, new ExpungeOptions().setExpungeDeletedResources(true).setExpungeOldVersions(true), null);
+			myBulkExportCollectionFileDao.deleteByPid(nextFile.getId());
 		}
+		theCollection.getFiles().clear();
+	}
 
+	/**
+	 * Blobs aren't covered by the expunge unless the binary storage interceptor is registered,
+	 * so they are expunged here once the transaction removing the Binary has committed
+	 */
+	private void expungeBlobIfStored(IBaseBinary theBinary) {
+		if (myBinaryStorageSvc == null) {
+			return;
+		}
+		myBinaryAccessProvider
+			.toBinaryTarget(theBinary)
+			.flatMap(IBinaryTarget::getAttachmentId)
+			.ifPresent(blobId -> expungeBlobOnCompletion(theBinary.getIdElement(), blobId, TransactionSynchronization.STATUS_COMMITTED));
 	}
 
+	/**
+	 * Blobs are stored outside of the database transaction, so they are expunged once the
+	 * current transaction has completed with the given status
+	 */
+	private void expungeBlobOnCompletion(IIdType theResourceId, String theBlobId, int theCompletionStatus) {
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int theStatus) {
+				if (theStatus == theCompletionStatus) {
+					ourLog.info("Expunging bulk export blob {} for {}", theBlobId, theResourceId.toUnqualifiedVersionless().getValue());
+					myTxTemplateRequiresNew.execute(t -> {
+						myBinaryStorageSvc.expungeBlob(theResourceId, theBlobId);
+						return null;
+					});
+				}
+			}
+		});
+	}
 
 	/**
 	 * This method is called by the scheduler to run a pass of the
@@ -172,15 +386,7 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 				BulkExportJobEntity job = myBulkExportJobDao.getOne(jobToDelete.get().getId());
 				for (BulkExportCollectionEntity nextCollection : job.getCollections()) {
-					for (BulkExportCollectionFileEntity nextFile : nextCollection.getFiles()) {
-
-						ourLog.info("Purging bulk data file: {}", nextFile.getResourceId());
-						getBinaryDao().delete(toId(nextFile.getResourceId()));
-						getBinaryDao().forceExpungeInExistingTransaction(toId(nextFile.getResourceId()), new ExpungeOptions().setExpungeDeletedResources(true).setExpungeOldVersions(true), null);
-						myBulkExportCollectionFileDao.deleteByPid(nextFile.getId());
-
-					}
-
+					deleteFiles(nextCollection);
 					myBulkExportCollectionDao.deleteByPid(nextCollection.getId());
 				}
 
@@ -195,115 +401,135 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 	}
 
-	private void processJob(String theJobUuid) {
+	private void processCollection(Long theCollectionPid, int theClaimedVersion) {
 
-		Optional<BulkExportJobEntity> jobOpt = myBulkExportJobDao.findByJobId(theJobUuid);
-		if (!jobOpt.isPresent()) {
-			ourLog.info("Job appears to be deleted");
+		Optional<BulkExportCollectionEntity> collectionOpt = myBulkExportCollectionDao.findById(theCollectionPid);
+		if (!collectionOpt.isPresent()) {
+			ourLog.info("Collection appears to be deleted");
 			return;
 		}
 
-		StopWatch jobStopwatch = new StopWatch();
-		AtomicInteger jobResourceCounter = new AtomicInteger();
-
-		BulkExportJobEntity job = jobOpt.get();
-		ourLog.info("Bulk export starting generation for batch export job: {}", job);
-
-		for (BulkExportCollectionEntity nextCollection : job.getCollections()) {
-
-			String nextType = nextCollection.getResourceType();
-			IFhirResourceDao dao = myDaoRegistry.getResourceDao(nextType);
-
-			ourLog.info("Bulk export assembling export of type {} for job {}", nextType, theJobUuid);
-
-			ISearchBuilder sb = dao.newSearchBuilder();
-			Class<? extends IBaseResource> nextTypeClass = myContext.getResourceDefinition(nextType).getImplementingClass();
-			sb.setType(nextTypeClass, nextType);
+		BulkExportCollectionEntity collection = collectionOpt.get();
+		if (collection.getVersion() != theClaimedVersion) {
+			throw new ObjectOptimisticLockingFailureException(BulkExportCollectionEntity.class, theCollectionPid);
+		}
+		BulkExportJobEntity job = collection.getJob();
+		String nextType = collection.getResourceType();
+		IFhirResourceDao dao = myDaoRegistry.getResourceDao(nextType);
 
-			SearchParameterMap map = new SearchParameterMap();
-			map.setLoadSynchronous(true);
-			if (job.getSince() != null) {
-				map.setLastUpdated(new DateRangeParam(job.getSince(), null));
-			}
+		StopWatch collectionStopwatch = new StopWatch();
+		AtomicInteger collectionResourceCounter = new AtomicInteger();
 
-			IResultIterator resultIterator = sb.createQuery(map, new SearchRuntimeDetails(null, theJobUuid), null);
-			storeResultsToFiles(nextCollection, sb, resultIterator, jobResourceCounter, jobStopwatch);
+		ourLog.info("Bulk export assembling export of type {} for job {}", nextType, job.getJobId());
 
+		ISearchBuilder sb = dao.newSearchBuilder();
+		Class<? extends IBaseResource> nextTypeClass = myContext.getResourceDefinition(nextType).getImplementingClass();
+		sb.setType(nextTypeClass, nextType);
 
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		if (job.getSince() != null) {
+			map.setLastUpdated(new DateRangeParam(job.getSince(), null));
 		}
 
-		job.setStatus(BulkJobStatusEnum.COMPLETE);
-		updateExpiry(job);
-		myBulkExportJobDao.save(job);
+		IResultIterator resultIterator = sb.createQuery(map, new SearchRuntimeDetails(null, job.getJobId()), null);
+		storeResultsToFiles(collection, sb, resultIterator, collectionResourceCounter, collectionStopwatch);
 
-		ourLog.info("Bulk export completed job in {}: {}", jobStopwatch, job);
+		collection.setResourceCount(collectionResourceCounter.get());
+		collection.setStatus(BulkJobStatusEnum.COMPLETE);
+		myBulkExportCollectionDao.save(collection);
 
+		ourLog.info("Bulk export completed export of {} resources of type {} in {} for job {}", collectionResourceCounter.get(), nextType, collectionStopwatch, job.getJobId());
 	}
 
 	private void storeResultsToFiles(BulkExportCollectionEntity theExportCollection, ISearchBuilder theSearchBuilder, IResultIterator theResultIterator, AtomicInteger theJobResourceCounter, StopWatch theJobStopwatch) {
 
 		try (IResultIterator query = theResultIterator) {
-			if (!query.hasNext()) {
-				return;
-			}
-
-			AtomicInteger fileCounter = new AtomicInteger(0);
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			OutputStreamWriter writer = new OutputStreamWriter(outputStream, Constants.CHARSET_UTF8);
-			IParser parser = myContext.newJsonParser().setPrettyPrint(false);
-
-			List<ResourcePersistentId> pidsSpool = new ArrayList<>();
-			List<IBaseResource> resourcesSpool = new ArrayList<>();
-			while (query.hasNext()) {
-				pidsSpool.add(query.next());
-				fileCounter.incrementAndGet();
-				theJobResourceCounter.incrementAndGet();
-
-				if (pidsSpool.size() >= 10 || !query.hasNext()) {
-
-					theSearchBuilder.loadResourcesByPid(pidsSpool, Collections.emptyList(), resourcesSpool, false, null);
-
-					for (IBaseResource nextFileResource : resourcesSpool) {
-						parser.encodeResourceToWriter(nextFileResource, writer);
-						writer.append("\n");
-					}
-
-					pidsSpool.clear();
-					resourcesSpool.clear();
-
-					if (outputStream.size() >= myFileMaxChars || !query.hasNext()) {
-						Optional<IIdType> createdId = flushToFiles(theExportCollection, fileCounter, outputStream);
-						createdId.ifPresent(theIIdType -> ourLog.info("Created resource {} for bulk export file containing {} resources of type {} - Total {} resources ({}/sec)", theIIdType.toUnqualifiedVersionless().getValue(), fileCounter.get(), theExportCollection.getResourceType(), theJobResourceCounter.get(), theJobStopwatch.formatThroughput(theJobResourceCounter.get(), TimeUnit.SECONDS)));
-						fileCounter.set(0);
-					}
-
+			// Resources loaded for one file but not written to it because it was full go in the next one
+			Queue<IBaseResource> loadedResources = new ArrayDeque<>();
+			while (query.hasNext() || !loadedResources.isEmpty()) {
+				BulkExportFileInputStream fileContents = new BulkExportFileInputStream(myContext, query, loadedResources, theSearchBuilder, myDaoConfig.getBulkExportBatchSize(), myFileMaxChars);
+				Optional<IIdType> createdId = storeFile(theExportCollection, fileContents);
+				if (createdId.isPresent()) {
+					theJobResourceCounter.addAndGet(fileContents.getResourceCount());
+					ourLog.info("Created resource {} for bulk export file containing {} resources of type {} - Total {} resources ({}/sec)", createdId.get().toUnqualifiedVersionless().getValue(), fileContents.getResourceCount(), theExportCollection.getResourceType(), theJobResourceCounter.get(), theJobStopwatch.formatThroughput(theJobResourceCounter.get(), TimeUnit.SECONDS));
+				}
+				if (myLostClaims.contains(theExportCollection.getId())) {
+					throw new ObjectOptimisticLockingFailureException(BulkExportCollectionEntity.class, theExportCollection.getId());
 				}
 			}
-
 		} catch (IOException e) {
 			throw new InternalErrorException(e);
 		}
 	}
 
-	private Optional<IIdType> flushToFiles(BulkExportCollectionEntity theCollection, AtomicInteger theCounter, ByteArrayOutputStream theOutputStream) {
-		if (theOutputStream.size() > 0) {
-			IBaseBinary binary = BinaryUtil.newBinary(myContext);
-			binary.setContentType(Constants.CT_FHIR_NDJSON);
-			binary.setContent(theOutputStream.toByteArray());
+	/**
+	 * If binary storage is available and the file is large enough to be externalized,
+	 * the file contents are streamed directly into it. Otherwise they are stored inline
+	 * in the Binary resource. Only as much of the file as is needed to reach the minimum
+	 * blob size is read ahead in order to make this decision.
+	 * <p>
+	 * Returns an empty value without creating anything if none of the resources in the
+	 * file could be loaded (e.g. because they were deleted since the search ran).
+	 * </p>
+	 */
+	private Optional<IIdType> storeFile(BulkExportCollectionEntity theCollection, BulkExportFileInputStream theFileContents) throws IOException {
+		IBaseBinary binary = BinaryUtil.newBinary(myContext);
+		binary.setContentType(Constants.CT_FHIR_NDJSON);
+
+		Optional<IBinaryTarget> binaryTarget = myBinaryAccessProvider.toBinaryTarget(binary);
+		boolean canStoreBlob = myBinaryStorageSvc != null && binaryTarget.isPresent();
+
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		long readAheadLimit = canStoreBlob ? Math.max(myBinaryStorageSvc.getMinimumBinarySize(), 1) : Long.MAX_VALUE;
+		boolean complete = copyUpTo(theFileContents, head, readAheadLimit);
+		if (complete && theFileContents.getResourceCount() == 0) {
+			return Optional.empty();
+		}
+
+		IIdType createdId;
+		if (canStoreBlob && myBinaryStorageSvc.shouldStoreBlob(head.size(), binary.getIdElement(), Constants.CT_FHIR_NDJSON)) {
+			String blobId = myBinaryStorageSvc.newBlobId();
+			myBinaryAccessProvider.replaceDataWithExtension(binaryTarget.get(), blobId);
+			createdId = getBinaryDao().create(binary).getResource().getIdElement();
+			// Nothing refers to the blob if the collection is never committed (see claimCollections())
+			expungeBlobOnCompletion(createdId, blobId, TransactionSynchronization.STATUS_ROLLED_BACK);
+			InputStream contents = complete ? head.toInputStream() : new SequenceInputStream(head.toInputStream(), theFileContents);
+			StoredDetails storedDetails = myBinaryStorageSvc.storeBlob(createdId, blobId, Constants.CT_FHIR_NDJSON, contents);
+			ourLog.debug("Stored bulk export file {} as blob {} with {} bytes and hash {}", createdId.getValue(), blobId, storedDetails.getBytes(), storedDetails.getHash());
+		} else {
+			if (!complete) {
+				copyUpTo(theFileContents, head, Long.MAX_VALUE);
+			}
+			binary.setContent(head.toByteArray());
+			createdId = getBinaryDao().create(binary).getResource().getIdElement();
+		}
 
-			IIdType createdId = getBinaryDao().create(binary).getResource().getIdElement();
+		BulkExportCollectionFileEntity file = new BulkExportCollectionFileEntity();
+		theCollection.getFiles().add(file);
+		file.setCollection(theCollection);
+		file.setResource(createdId.getIdPart());
+		myBulkExportCollectionFileDao.saveAndFlush(file);
 
-			BulkExportCollectionFileEntity file = new BulkExportCollectionFileEntity();
-			theCollection.getFiles().add(file);
-			file.setCollection(theCollection);
-			file.setResource(createdId.getIdPart());
-			myBulkExportCollectionFileDao.saveAndFlush(file);
-			theOutputStream.reset();
+		return Optional.of(createdId);
+	}
 
-			return Optional.of(createdId);
+	/**
+	 * Copies from the input to the output until the input is exhausted or at least
+	 * <code>theLimit</code> bytes have been written to the output
+	 *
+	 * @return Returns <code>true</code> if the input was exhausted
+	 */
+	private static boolean copyUpTo(InputStream theInput, ByteArrayOutputStream theOutput, long theLimit) throws IOException {
+		byte[] buffer = new byte[(int) FileUtils.ONE_KB * 8];
+		while (theOutput.size() < theLimit) {
+			int count = theInput.read(buffer);
+			if (count == -1) {
+				return true;
+			}
+			theOutput.write(buffer, 0, count);
 		}
-
-		return Optional.empty();
+		return false;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -313,13 +539,37 @@ public class BulkDataExportSvcImpl implements IBulkDataExportSvc {
 
 	@PostConstruct
 	public void start() {
-		ourLog.info("Bulk export service starting with refresh interval {}", StopWatch.formatMillis(REFRESH_INTERVAL));
+		int threadCount = myDaoConfig.getBulkExportThreadCount();
+		ourLog.info("Bulk export service starting with refresh interval {} and {} worker thread(s)", StopWatch.formatMillis(REFRESH_INTERVAL), threadCount);
 		myTxTemplate = new TransactionTemplate(myTxManager);
-
+		myTxTemplateRequiresNew = new TransactionTemplate(myTxManager);
+		myTxTemplateRequiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("BulkExport-%d")
+			.daemon(false)
+			.priority(Thread.NORM_PRIORITY)
+			.build();
+		myExecutor = new ThreadPoolExecutor(
+			threadCount,
+			threadCount,
+			0L,
+			TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(),
+			threadFactory);
+
+		// Not clustered: Every node claims and builds collections
 		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
 		jobDetail.setId(BulkDataExportSvcImpl.class.getName());
 		jobDetail.setJobClass(BulkDataExportSvcImpl.SubmitJob.class);
-		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, true, jobDetail);
+		mySchedulerService.scheduleFixedDelay(REFRESH_INTERVAL, false, jobDetail);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (myExecutor != null) {
+			myExecutor.shutdown();
+		}
 	}
 
 	@Transactional
@@ -0,0 +1,153 @@
+package ca.uhn.fhir.jpa.bulk;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.IResultIterator;
+import ca.uhn.fhir.jpa.dao.ISearchBuilder;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.parser.NdjsonWriter;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+
+/**
+ * Produces the NDJSON contents of a single bulk export file on demand. Resources
+ * are loaded from the search in batches as the stream is consumed, so that a file
+ * can be written directly to its destination (e.g. binary storage) without ever
+ * holding the whole file in memory.
+ * <p>
+ * The stream ends once at least <code>theMaximumBytes</code> bytes have been
+ * produced or the search is exhausted. The size is checked after each resource,
+ * so a file only exceeds the maximum by the end of its last resource. Resources
+ * which have been loaded but not written are left in the given queue, and the
+ * underlying iterator is not closed by this class, so a new instance can be
+ * created for the next file using the same queue and iterator.
+ * </p>
+ */
+class BulkExportFileInputStream extends InputStream {
+
+	private final IResultIterator myResultIterator;
+	private final ISearchBuilder mySearchBuilder;
+	private final int myBatchSize;
+	private final long myMaximumBytes;
+	private final ByteArrayOutputStream myBuffer;
+	private final NdjsonWriter myWriter;
+	private final List<ResourcePersistentId> myPids = new ArrayList<>();
+	private final List<IBaseResource> myResources = new ArrayList<>();
+	private final Queue<IBaseResource> myLoadedResources;
+	private InputStream myCurrentBatch;
+	private long myBytesProduced;
+	private int myResourceCount;
+
+	BulkExportFileInputStream(FhirContext theContext, IResultIterator theResultIterator, Queue<IBaseResource> theLoadedResources, ISearchBuilder theSearchBuilder, int theBatchSize, long theMaximumBytes) {
+		myResultIterator = theResultIterator;
+		myLoadedResources = theLoadedResources;
+		mySearchBuilder = theSearchBuilder;
+		myBatchSize = theBatchSize;
+		myMaximumBytes = theMaximumBytes;
+		myBuffer = new ByteArrayOutputStream();
+		myWriter = new NdjsonWriter(theContext.newJsonParser(), myBuffer);
+	}
+
+	/**
+	 * Returns the number of resources written to this file so far
+	 */
+	int getResourceCount() {
+		return myResourceCount;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (true) {
+			if (myCurrentBatch != null) {
+				int retVal = myCurrentBatch.read();
+				if (retVal != -1) {
+					return retVal;
+				}
+			}
+			if (!loadNextBatch()) {
+				return -1;
+			}
+		}
+	}
+
+	@Override
+	public int read(byte[] theBuffer, int theOffset, int theLength) throws IOException {
+		if (theLength == 0) {
+			return 0;
+		}
+		while (true) {
+			if (myCurrentBatch != null) {
+				int retVal = myCurrentBatch.read(theBuffer, theOffset, theLength);
+				if (retVal != -1) {
+					return retVal;
+				}
+			}
+			if (!loadNextBatch()) {
+				return -1;
+			}
+		}
+	}
+
+	private boolean loadNextBatch() throws IOException {
+		while (myLoadedResources.isEmpty() && myResultIterator.hasNext()) {
+			loadResources();
+		}
+		if (myBytesProduced >= myMaximumBytes || myLoadedResources.isEmpty()) {
+			myCurrentBatch = null;
+			return false;
+		}
+
+		while (!myLoadedResources.isEmpty() && myBytesProduced + myBuffer.size() < myMaximumBytes) {
+			myWriter.write(myLoadedResources.remove());
+			myWriter.flush();
+			myResourceCount++;
+		}
+
+		myBytesProduced += myBuffer.size();
+		myCurrentBatch = myBuffer.toInputStream();
+		myBuffer.reset();
+		return true;
+	}
+
+	private void loadResources() {
+		while (myPids.size() < myBatchSize && myResultIterator.hasNext()) {
+			myPids.add(myResultIterator.next());
+		}
+
+		mySearchBuilder.loadResourcesByPid(myPids, Collections.emptyList(), myResources, false, null);
+		// Resources which no longer exist (e.g. expunged since the search ran) are left as null
+		myResources.removeIf(Objects::isNull);
+		myLoadedResources.addAll(myResources);
+
+		myPids.clear();
+		myResources.clear();
+	}
+
+}
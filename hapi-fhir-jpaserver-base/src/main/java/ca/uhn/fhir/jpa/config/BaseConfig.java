@@ -25,6 +25,7 @@ import ca.uhn.fhir.jpa.search.cache.DatabaseSearchCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.DatabaseSearchResultCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
 import ca.uhn.fhir.jpa.search.cache.ISearchResultCacheSvc;
+import ca.uhn.fhir.jpa.search.cache.LocalCachingSearchResultCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.reindex.IResourceReindexingSvc;
 import ca.uhn.fhir.jpa.search.reindex.ResourceReindexingSvcImpl;
 import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
@@ -167,10 +168,16 @@ public abstract class BaseConfig {
 	}
 
 	@Bean
-	public ISearchResultCacheSvc searchResultCacheSvc() {
+	public ISearchResultCacheSvc databaseSearchResultCacheSvc() {
 		return new DatabaseSearchResultCacheSvcImpl();
 	}
 
+	@Bean
+	@Primary
+	public ISearchResultCacheSvc searchResultCacheSvc() {
+		return new LocalCachingSearchResultCacheSvcImpl(databaseSearchResultCacheSvc());
+	}
+
 	@Bean
 	public TaskScheduler taskScheduler() {
 		ConcurrentTaskScheduler retVal = new ConcurrentTaskScheduler();
@@ -25,10 +25,12 @@ import ca.uhn.fhir.jpa.entity.ResourceSearchView;
 import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.jpa.model.cross.IBasePersistedResource;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
 import ca.uhn.fhir.jpa.model.entity.*;
 import ca.uhn.fhir.jpa.model.search.SearchStatusEnum;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.model.util.JpaConstants;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
 import ca.uhn.fhir.jpa.search.ISearchCoordinatorSvc;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
@@ -66,7 +68,6 @@ import ca.uhn.fhir.util.CoverageIgnore;
 import ca.uhn.fhir.util.MetaUtil;
 import ca.uhn.fhir.util.XmlUtil;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -169,6 +170,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 	@Autowired
 	protected IInterceptorBroadcaster myInterceptorBroadcaster;
 	@Autowired
+	protected RequestPartitionHelperService myRequestPartitionHelperService;
+	@Autowired
 	ExpungeService myExpungeService;
 	@Autowired
 	private DaoConfig myConfig;
@@ -186,6 +189,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 	private DaoSearchParamSynchronizer myDaoSearchParamSynchronizer;
 	@Autowired
 	private SearchBuilderFactory mySearchBuilderFactory;
+	@Autowired
+	private MatchResourceUrlService myMatchResourceUrlService;
 	private FhirContext myContext;
 	private ApplicationContext myApplicationContext;
 
@@ -400,23 +405,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 		search.setSearchType(SearchTypeEnum.HISTORY);
 		search.setStatus(SearchStatusEnum.FINISHED);
 
-		if (theSince != null) {
-			if (resourceName == null) {
-				search.setTotalCount(myResourceHistoryTableDao.countForAllResourceTypes(theSince));
-			} else if (theId == null) {
-				search.setTotalCount(myResourceHistoryTableDao.countForResourceType(resourceName, theSince));
-			} else {
-				search.setTotalCount(myResourceHistoryTableDao.countForResourceInstance(theId, theSince));
-			}
-		} else {
-			if (resourceName == null) {
-				search.setTotalCount(myResourceHistoryTableDao.countForAllResourceTypes());
-			} else if (theId == null) {
-				search.setTotalCount(myResourceHistoryTableDao.countForResourceType(resourceName));
-			} else {
-				search.setTotalCount(myResourceHistoryTableDao.countForResourceInstance(theId));
-			}
-		}
+		HistoryBuilder historyBuilder = new HistoryBuilder(myEntityManager, myRequestPartitionHelperService, resourceName, theId, theSince, theUntil);
+		search.setTotalCount(historyBuilder.fetchCount(theRequest));
 
 		search = mySearchCacheSvc.save(search);
 
@@ -448,6 +438,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 		theProvider.setSearchCacheSvc(mySearchCacheSvc);
 		theProvider.setSearchCoordinatorSvc(mySearchCoordinatorSvc);
 		theProvider.setInterceptorBroadcaster(myInterceptorBroadcaster);
+		theProvider.setRequestPartitionHelperService(myRequestPartitionHelperService);
 	}
 
 	public boolean isLogicalReference(IIdType theId) {
@@ -863,10 +854,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 			return null;
 		}
 
-		// 2. get The text
-		String resourceText = decodeResource(resourceBytes, resourceEncoding);
-
-		// 3. Use the appropriate custom type if one is specified in the context
+		// 2. Use the appropriate custom type if one is specified in the context
 		Class<R> resourceType = theResourceType;
 		if (myContext.hasDefaultTypeForProfile()) {
 			for (BaseTag nextTag : myTagList) {
@@ -884,14 +872,14 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 			}
 		}
 
-		// 4. parse the text to FHIR
+		// 3. parse the stored body to FHIR
 		R retVal;
 		if (resourceEncoding != ResourceEncodingEnum.DEL) {
 			IParser parser = resourceEncoding.newParser(getContext(theEntity.getFhirVersion()));
 			parser.setParserErrorHandler(new LenientErrorHandler(false).setErrorOnInvalidValue(false));
 
 			try {
-				retVal = parser.parseResource(resourceType, resourceText);
+				retVal = ResourceCompressionUtil.parse(parser, resourceType, resourceBytes, resourceEncoding);
 			} catch (Exception e) {
 				StringBuilder b = new StringBuilder();
 				b.append("Failed to parse database resource[");
@@ -915,7 +903,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 
 		}
 
-		// 5. fill MetaData
+		// 4. fill MetaData
 		if (retVal instanceof IResource) {
 			IResource res = (IResource) retVal;
 			retVal = populateResourceMetadataHapi(resourceType, theEntity, myTagList, theForHistoryOperation, res, version);
@@ -924,7 +912,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 			retVal = populateResourceMetadataRi(resourceType, theEntity, myTagList, theForHistoryOperation, res, version);
 		}
 
-		// 6. Handle source (provenance)
+		// 5. Handle source (provenance)
 		if (isNotBlank(provenanceRequestId) || isNotBlank(provenanceSourceUri)) {
 			String sourceString = cleanProvenanceSourceUri(provenanceSourceUri)
 				+ (isNotBlank(provenanceRequestId) ? "#" : "")
@@ -1162,6 +1150,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 		if (thePerformIndexing) {
 			if (newParams == null) {
 				myExpungeService.deleteAllSearchParams(entity.getId());
+				myMatchResourceUrlService.resourceIndexesChanged(new ResourcePersistentId(entity.getId()), null, null);
 			} else {
 
 				// Synchronize search param indexes
@@ -1182,11 +1171,26 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 
 				// Syncrhonize composite params
 				mySearchParamWithInlineReferencesExtractor.storeCompositeStringUniques(newParams, entity, existingParams);
+
+				// Discard any cached match URLs which this resource no longer matches
+				myMatchResourceUrlService.resourceIndexesChanged(new ResourcePersistentId(entity.getId()), theResource, newParams);
 			}
 		}
 
 		if (theResource != null) {
 			updateResourceMetadata(entity, theResource);
+
+			/*
+			 * Make the indexes we just extracted available to the pre-commit hooks so that
+			 * in-memory subscription matching doesn't need to extract them again. When
+			 * only hashes are being stored the raw values have been cleared from the
+			 * index rows, so they aren't usable for in-memory matching.
+			 */
+			ResourceIndexedSearchParams indexedSearchParams = null;
+			if (newParams != null && !myConfig.getModelConfig().isIndexStorageHashesOnly()) {
+				indexedSearchParams = newParams;
+			}
+			INDEXED_SEARCH_PARAMS.put(theResource, indexedSearchParams);
 		}
 
 
@@ -1459,41 +1463,15 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> extends BaseStora
 	}
 
 	public static String decodeResource(byte[] theResourceBytes, ResourceEncodingEnum theResourceEncoding) {
-		String resourceText = null;
-		switch (theResourceEncoding) {
-			case JSON:
-				resourceText = new String(theResourceBytes, Charsets.UTF_8);
-				break;
-			case JSONC:
-				resourceText = GZipUtil.decompress(theResourceBytes);
-				break;
-			case DEL:
-				break;
-		}
-		return resourceText;
+		return ResourceCompressionUtil.decodeToString(theResourceBytes, theResourceEncoding);
 	}
 
 	public static byte[] encodeResource(IBaseResource theResource, ResourceEncodingEnum theEncoding, Set<String> theExcludeElements, FhirContext theContext) {
-		byte[] bytes;
 		IParser parser = theEncoding.newParser(theContext);
 		parser.setDontEncodeElements(theExcludeElements);
-		String encoded = parser.encodeResourceToString(theResource);
-
-
-		switch (theEncoding) {
-			case JSON:
-				bytes = encoded.getBytes(Charsets.UTF_8);
-				break;
-			case JSONC:
-				bytes = GZipUtil.compress(encoded);
-				break;
-			default:
-			case DEL:
-				bytes = new byte[0];
-				break;
-		}
+		byte[] bytes = ResourceCompressionUtil.encode(parser, theResource, theEncoding);
 
-		ourLog.debug("Encoded {} chars of resource body as {} bytes", encoded.length(), bytes.length);
+		ourLog.debug("Encoded resource body as {} bytes using encoding {}", bytes.length, theEncoding);
 		return bytes;
 	}
 
@@ -417,6 +417,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 
 		ResourceTable entity = new ResourceTable();
 		entity.setResourceType(toResourceName(theResource));
+		entity.setPartitionId(myRequestPartitionHelperService.determinePartitionIdForCreate(theRequest));
 
 		if (isNotBlank(theIfNoneExist)) {
 			Set<ResourcePersistentId> match = myMatchResourceUrlService.processMatchUrl(theIfNoneExist, myResourceType, theRequest);
@@ -501,6 +502,10 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		// Populate the PID in the resource so it is available to hooks
 		addPidToResource(entity, theResource);
 
+		if (isNotBlank(theIfNoneExist)) {
+			myMatchResourceUrlService.matchUrlResolved(theIfNoneExist, theResource, new ResourcePersistentId(entity.getId()), theRequest);
+		}
+
 		// Notify JPA interceptors
 		if (!updatedEntity.isUnchangedInCurrentOperation()) {
 			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
@@ -962,7 +967,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		ResourcePersistentId pid = myIdHelperService.translateForcedIdToPid(getResourceName(), theId.getIdPart(), theRequest);
 		BaseHasResource entity = myEntityManager.find(ResourceTable.class, pid.getIdAsLong());
 
-		if (entity == null) {
+		if (entity == null || !myRequestPartitionHelperService.isInRequestPartition(entity, theRequest)) {
 			throw new ResourceNotFoundException(theId);
 		}
 
@@ -1000,7 +1005,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 	protected ResourceTable readEntityLatestVersion(IIdType theId, RequestDetails theRequest) {
 		ResourcePersistentId persistentId = myIdHelperService.translateForcedIdToPid(getResourceName(), theId.getIdPart(), theRequest);
 		ResourceTable entity = myEntityManager.find(ResourceTable.class, persistentId.getId());
-		if (entity == null) {
+		if (entity == null || !myRequestPartitionHelperService.isInRequestPartition(entity, theRequest)) {
 			throw new ResourceNotFoundException(theId);
 		}
 		validateGivenIdIsAppropriateToRetrieveResource(theId, entity);
@@ -1008,6 +1013,25 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		return entity;
 	}
 
+	/**
+	 * Forced IDs are unique across all partitions, so a resource can't be created with an ID that another
+	 * partition already uses. Updates fail with the same error as a read of that resource would instead of
+	 * a duplicate ID error, since the latter would reveal that the ID exists.
+	 */
+	private boolean isIdInUseByOtherPartition(IIdType theId, RequestDetails theRequest) {
+		if (!myRequestPartitionHelperService.isPartitioningEnabled()) {
+			return false;
+		}
+		ResourceTable entity;
+		try {
+			ResourcePersistentId persistentId = myIdHelperService.translateForcedIdToPid(getResourceName(), theId.getIdPart(), theRequest);
+			entity = myEntityManager.find(ResourceTable.class, persistentId.getId());
+		} catch (ResourceNotFoundException e) {
+			return false;
+		}
+		return entity != null && !myRequestPartitionHelperService.isInRequestPartition(entity, theRequest);
+	}
+
 	@Override
 	public void reindex(T theResource, ResourceTable theEntity) {
 		ourLog.debug("Indexing resource {} - PID {}", theEntity.getIdDt().getValue(), theEntity.getId());
@@ -1275,6 +1299,9 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			try {
 				entity = readEntityLatestVersion(resourceId, theRequest);
 			} catch (ResourceNotFoundException e) {
+				if (isIdInUseByOtherPartition(resourceId, theRequest)) {
+					throw e;
+				}
 				return doCreate(theResource, null, thePerformIndexing, new Date(), theRequest);
 			}
 		}
@@ -27,6 +27,8 @@ import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.delete.DeleteConflictList;
 import ca.uhn.fhir.jpa.delete.DeleteConflictOutcome;
+import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
+import ca.uhn.fhir.jpa.dao.index.IdHelperService;
 import ca.uhn.fhir.jpa.delete.DeleteConflictService;
 import ca.uhn.fhir.jpa.model.cross.IBasePersistedResource;
 import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
@@ -61,6 +63,10 @@ import ca.uhn.fhir.util.StopWatch;
 import ca.uhn.fhir.util.UrlUtil;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -75,12 +81,20 @@ import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -89,6 +103,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 public abstract class BaseTransactionProcessor {
 
 	public static final String URN_PREFIX = "urn:";
+	private static final int PREFETCH_BATCH_SIZE = 500;
 	private static final Logger ourLog = LoggerFactory.getLogger(TransactionProcessor.class);
 	private BaseHapiFhirDao myDao;
 	@Autowired
@@ -103,10 +118,35 @@ public abstract class BaseTransactionProcessor {
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
 	@Autowired
 	private MatchResourceUrlService myMatchResourceUrlService;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IdHelperService myIdHelperService;
+	@Autowired
+	private IResourceTableDao myResourceTableDao;
+	private ThreadPoolExecutor myBatchExecutor;
 
 	@PostConstruct
 	public void start() {
+		int threadCount = myDaoConfig.getBundleBatchThreadCount();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("bundle_batch_");
+		myBatchExecutor = new ThreadPoolExecutor(
+			threadCount,
+			threadCount,
+			60L,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(threadCount),
+			threadFactory,
+			// If the pool is saturated the request thread just processes more of its own entries
+			new ThreadPoolExecutor.DiscardPolicy());
+		myBatchExecutor.allowCoreThreadTimeOut(true);
+	}
 
+	@PreDestroy
+	public void stop() {
+		if (myBatchExecutor != null) {
+			myBatchExecutor.shutdown();
+		}
 	}
 
 	public <BUNDLE extends IBaseBundle> BUNDLE transaction(RequestDetails theRequestDetails, BUNDLE theRequest) {
@@ -247,60 +287,113 @@ public abstract class BaseTransactionProcessor {
 	}
 
 	private IBaseBundle batch(final RequestDetails theRequestDetails, IBaseBundle theRequest) {
-		ourLog.info("Beginning batch with {} resources", myVersionAdapter.getEntries(theRequest).size());
+		List<IBase> requestEntries = myVersionAdapter.getEntries(theRequest);
+		ourLog.info("Beginning batch with {} resources", requestEntries.size());
 		long start = System.currentTimeMillis();
 
-		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
-		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-
 		IBaseBundle resp = myVersionAdapter.createBundle(org.hl7.fhir.r4.model.Bundle.BundleType.BATCHRESPONSE.toCode());
 
 		/*
 		 * For batch, we handle each entry as a mini-transaction in its own database transaction so that if one fails, it doesn't prevent others
 		 */
+		BatchEntryOutcome[] outcomes;
+		int concurrency = Math.min(myDaoConfig.getBundleBatchMaxConcurrency(), requestEntries.size());
+		if (concurrency > 1) {
+			outcomes = processBatchEntriesConcurrently((ServletRequestDetails) theRequestDetails, requestEntries, concurrency);
+		} else {
+			outcomes = new BatchEntryOutcome[requestEntries.size()];
+			for (int i = 0; i < requestEntries.size(); i++) {
+				outcomes[i] = processBatchEntry((ServletRequestDetails) theRequestDetails, requestEntries.get(i), true);
+			}
+		}
 
-		for (final Object nextRequestEntry : myVersionAdapter.getEntries(theRequest)) {
+		for (BatchEntryOutcome nextOutcome : outcomes) {
+			if (nextOutcome.getException() != null) {
+				IBase nextEntry = myVersionAdapter.addEntry(resp);
 
-			BaseServerResponseExceptionHolder caughtEx = new BaseServerResponseExceptionHolder();
+				populateEntryWithOperationOutcome(nextOutcome.getException(), nextEntry);
 
-			try {
-				IBaseBundle subRequestBundle = myVersionAdapter.createBundle(org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION.toCode());
-				myVersionAdapter.addEntry(subRequestBundle, (IBase) nextRequestEntry);
+				myVersionAdapter.setResponseStatus(nextEntry, toStatusString(nextOutcome.getException().getStatusCode()));
+			} else {
+				myVersionAdapter.addEntry(resp, nextOutcome.getResponseEntry());
+			}
+		}
 
-				IBaseBundle nextResponseBundle = processTransactionAsSubRequest((ServletRequestDetails) theRequestDetails, subRequestBundle, "Batch sub-request");
+		long delay = System.currentTimeMillis() - start;
+		ourLog.info("Batch completed in {}ms", new Object[]{delay});
 
-				IBase subResponseEntry = (IBase) myVersionAdapter.getEntries(nextResponseBundle).get(0);
-				myVersionAdapter.addEntry(resp, subResponseEntry);
+		return resp;
+	}
 
-				/*
-				 * If the individual entry didn't have a resource in its response, bring the sub-transaction's OperationOutcome across so the client can see it
-				 */
-				if (myVersionAdapter.getResource(subResponseEntry) == null) {
-					IBase nextResponseBundleFirstEntry = (IBase) myVersionAdapter.getEntries(nextResponseBundle).get(0);
-					myVersionAdapter.setResource(subResponseEntry, myVersionAdapter.getResource(nextResponseBundleFirstEntry));
+	/**
+	 * Processes the batch entries using the calling thread plus up to <code>theConcurrency - 1</code>
+	 * threads from the shared batch pool. Each thread claims the next unprocessed entry until none
+	 * are left, so if the pool is busy the calling thread simply does more of the work itself.
+	 */
+	private BatchEntryOutcome[] processBatchEntriesConcurrently(ServletRequestDetails theRequestDetails, List<IBase> theRequestEntries, int theConcurrency) {
+		BatchEntryOutcome[] retVal = new BatchEntryOutcome[theRequestEntries.size()];
+		AtomicInteger nextIndex = new AtomicInteger();
+		CountDownLatch remaining = new CountDownLatch(theRequestEntries.size());
+
+		// The sub-request flag is set once for the whole batch, since the entries share the request
+		BaseHapiFhirDao.markRequestAsProcessingSubRequest(theRequestDetails);
+		try {
+			Runnable worker = () -> {
+				for (int i = nextIndex.getAndIncrement(); i < retVal.length; i = nextIndex.getAndIncrement()) {
+					retVal[i] = processBatchEntry(theRequestDetails, theRequestEntries.get(i), false);
+					remaining.countDown();
 				}
+			};
 
-			} catch (BaseServerResponseException e) {
-				caughtEx.setException(e);
-			} catch (Throwable t) {
-				ourLog.error("Failure during BATCH sub transaction processing", t);
-				caughtEx.setException(new InternalErrorException(t));
+			for (int i = 1; i < theConcurrency; i++) {
+				myBatchExecutor.execute(worker);
 			}
+			worker.run();
 
-			if (caughtEx.getException() != null) {
-				IBase nextEntry = myVersionAdapter.addEntry(resp);
+			remaining.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException(e);
+		} finally {
+			BaseHapiFhirDao.clearRequestAsProcessingSubRequest(theRequestDetails);
+		}
 
-				populateEntryWithOperationOutcome(caughtEx.getException(), nextEntry);
+		return retVal;
+	}
+
+	private BatchEntryOutcome processBatchEntry(ServletRequestDetails theRequestDetails, IBase theRequestEntry, boolean theMarkAsSubRequest) {
+		BatchEntryOutcome retVal = new BatchEntryOutcome();
 
-				myVersionAdapter.setResponseStatus(nextEntry, toStatusString(caughtEx.getException().getStatusCode()));
+		try {
+			IBaseBundle subRequestBundle = myVersionAdapter.createBundle(org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION.toCode());
+			myVersionAdapter.addEntry(subRequestBundle, theRequestEntry);
+
+			IBaseBundle nextResponseBundle;
+			if (theMarkAsSubRequest) {
+				nextResponseBundle = processTransactionAsSubRequest(theRequestDetails, subRequestBundle, "Batch sub-request");
+			} else {
+				nextResponseBundle = processTransaction(theRequestDetails, subRequestBundle, "Batch sub-request");
 			}
 
-		}
+			IBase subResponseEntry = (IBase) myVersionAdapter.getEntries(nextResponseBundle).get(0);
+			retVal.setResponseEntry(subResponseEntry);
 
-		long delay = System.currentTimeMillis() - start;
-		ourLog.info("Batch completed in {}ms", new Object[]{delay});
+			/*
+			 * If the individual entry didn't have a resource in its response, bring the sub-transaction's OperationOutcome across so the client can see it
+			 */
+			if (myVersionAdapter.getResource(subResponseEntry) == null) {
+				IBase nextResponseBundleFirstEntry = (IBase) myVersionAdapter.getEntries(nextResponseBundle).get(0);
+				myVersionAdapter.setResource(subResponseEntry, myVersionAdapter.getResource(nextResponseBundleFirstEntry));
+			}
 
-		return resp;
+		} catch (BaseServerResponseException e) {
+			retVal.setException(e);
+		} catch (Throwable t) {
+			ourLog.error("Failure during BATCH sub transaction processing", t);
+			retVal.setException(new InternalErrorException(t));
+		}
+
+		return retVal;
 	}
 
 	private IBaseBundle processTransaction(final ServletRequestDetails theRequestDetails, final IBaseBundle theRequest, final String theActionName) {
@@ -582,6 +675,10 @@ public abstract class BaseTransactionProcessor {
 				}
 			}
 
+			theTransactionStopWatch.startTask("Prefetch references and conditional URLs");
+			prefetchReferencesAndMatchUrls(theRequest, theEntries);
+			theTransactionStopWatch.endCurrentTask();
+
 
 			/*
 			 * Loop through the request and process any entries of type
@@ -947,6 +1044,114 @@ public abstract class BaseTransactionProcessor {
 		}
 	}
 
+
+	/**
+	 * Resolves the existing resources that the entries in a transaction refer to (by ID in
+	 * the request URL or in a resource reference, or by conditional URL) using a few set based
+	 * queries, instead of one lookup per entry and per reference while the entries are being
+	 * written. The resolved IDs and conditional URL matches are held for the rest of the
+	 * transaction, and the matching resource entities are loaded into the persistence context.
+	 * <p>
+	 * Anything which can't be resolved here (e.g. because it refers to a placeholder ID, or
+	 * is a conditional URL which is not a simple identifier search) is simply resolved as
+	 * normal when its entry is processed.
+	 * </p>
+	 */
+	private void prefetchReferencesAndMatchUrls(RequestDetails theRequest, List<IBase> theEntries) {
+		Map<String, IIdType> ids = new HashMap<>();
+		SetMultimap<Class<? extends IBaseResource>, String> typeToMatchUrls = HashMultimap.create();
+		FhirTerser terser = myContext.newTerser();
+
+		// Placeholder IDs are only substituted into match URLs as the entries are processed
+		Set<String> placeholderIds = new HashSet<>();
+		for (IBase nextEntry : theEntries) {
+			String fullUrl = myVersionAdapter.getFullUrl(nextEntry);
+			if (isNotBlank(fullUrl) && fullUrl.startsWith(URN_PREFIX)) {
+				placeholderIds.add(fullUrl);
+				placeholderIds.add(UrlUtil.escapeUrlParam(fullUrl));
+			}
+		}
+
+		for (IBase nextEntry : theEntries) {
+			String verb = myVersionAdapter.getEntryRequestVerb(nextEntry);
+			IBaseResource resource = myVersionAdapter.getResource(nextEntry);
+			if ("GET".equals(verb)) {
+				continue;
+			}
+
+			if ("POST".equals(verb)) {
+				String ifNoneExist = myVersionAdapter.getEntryRequestIfNoneExist(nextEntry);
+				if (resource != null && isNotBlank(ifNoneExist)) {
+					addPrefetchMatchUrl(typeToMatchUrls, placeholderIds, myContext.getResourceDefinition(resource).getName(), ifNoneExist);
+				}
+			} else {
+				String url = myVersionAdapter.getEntryRequestUrl(nextEntry);
+				UrlUtil.UrlParts parts = isNotBlank(url) ? UrlUtil.parseUrl(url) : null;
+				if (parts != null && isNotBlank(parts.getResourceType())) {
+					if (isNotBlank(parts.getResourceId())) {
+						addPrefetchId(ids, newIdType(parts.getResourceType(), parts.getResourceId()));
+					} else if (isNotBlank(parts.getParams())) {
+						addPrefetchMatchUrl(typeToMatchUrls, placeholderIds, parts.getResourceType(), parts.getResourceType() + '?' + parts.getParams());
+					}
+				}
+			}
+
+			if (resource != null) {
+				for (ResourceReferenceInfo nextRef : terser.getAllResourceReferences(resource)) {
+					IIdType nextId = nextRef.getResourceReference().getReferenceElement();
+					String nextIdText = nextId.getValue();
+					if (isBlank(nextIdText) || nextIdText.startsWith(URN_PREFIX) || nextIdText.startsWith("#")) {
+						continue;
+					}
+					int qmIndex = nextIdText.indexOf('?');
+					if (qmIndex != -1) {
+						String resourceType = nextIdText.substring(0, qmIndex);
+						if (!resourceType.contains("/")) {
+							addPrefetchMatchUrl(typeToMatchUrls, placeholderIds, resourceType, nextIdText);
+						}
+					} else if (nextId.hasResourceType() && nextId.hasIdPart() && !nextId.isAbsolute()) {
+						addPrefetchId(ids, nextId);
+					}
+				}
+			}
+		}
+
+		List<ResourcePersistentId> pids = new ArrayList<>();
+		for (List<IIdType> nextBatch : Iterables.partition(ids.values(), PREFETCH_BATCH_SIZE)) {
+			pids.addAll(myIdHelperService.translateForcedIdToPids(nextBatch, theRequest));
+		}
+		for (Class<? extends IBaseResource> nextType : typeToMatchUrls.keySet()) {
+			pids.addAll(myMatchResourceUrlService.prefetchMatchUrls(nextType, typeToMatchUrls.get(nextType), theRequest));
+		}
+
+		// Load the entities so that they are already in the persistence context when they are needed
+		List<Long> entityPids = pids.stream().map(ResourcePersistentId::getIdAsLong).distinct().collect(Collectors.toList());
+		for (List<Long> nextBatch : Lists.partition(entityPids, PREFETCH_BATCH_SIZE)) {
+			myResourceTableDao.findAllById(nextBatch);
+		}
+
+		ourLog.debug("Prefetched {} IDs and {} conditional URLs, loading {} resources", ids.size(), typeToMatchUrls.size(), entityPids.size());
+	}
+
+	private void addPrefetchId(Map<String, IIdType> theIds, IIdType theId) {
+		IIdType id = theId.toUnqualifiedVersionless();
+		theIds.put(id.getValue(), id);
+	}
+
+	private void addPrefetchMatchUrl(SetMultimap<Class<? extends IBaseResource>, String> theTypeToMatchUrls, Set<String> thePlaceholderIds, String theResourceType, String theMatchUrl) {
+		if (!thePlaceholderIds.isEmpty() && thePlaceholderIds.stream().anyMatch(theMatchUrl::contains)) {
+			return;
+		}
+		RuntimeResourceDefinition resourceDef;
+		try {
+			resourceDef = myContext.getResourceDefinition(theResourceType);
+		} catch (DataFormatException e) {
+			// Invalid resource types are reported when the entry is processed
+			return;
+		}
+		theTypeToMatchUrls.put(resourceDef.getImplementingClass(), theMatchUrl);
+	}
+
 	protected abstract void flushSession(Map<IIdType, DaoMethodOutcome> theIdToPersistedOutcome);
 
 	private void validateResourcePresent(IBaseResource theResource, Integer theOrder, String theVerb) {
@@ -1168,15 +1373,24 @@ public abstract class BaseTransactionProcessor {
 
 	}
 
-	private static class BaseServerResponseExceptionHolder {
+	private static class BatchEntryOutcome {
+		private IBase myResponseEntry;
 		private BaseServerResponseException myException;
 
+		public IBase getResponseEntry() {
+			return myResponseEntry;
+		}
+
+		public void setResponseEntry(IBase theResponseEntry) {
+			myResponseEntry = theResponseEntry;
+		}
+
 		public BaseServerResponseException getException() {
 			return myException;
 		}
 
-		public void setException(BaseServerResponseException myException) {
-			this.myException = myException;
+		public void setException(BaseServerResponseException theException) {
+			myException = theException;
 		}
 	}
 
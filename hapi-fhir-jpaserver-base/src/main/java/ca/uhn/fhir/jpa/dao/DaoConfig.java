@@ -75,6 +75,14 @@ public class DaoConfig {
 	)));
 	private static final Logger ourLog = LoggerFactory.getLogger(DaoConfig.class);
 	private static final int DEFAULT_EXPUNGE_BATCH_SIZE = 800;
+	private static final int DEFAULT_BULK_EXPORT_BATCH_SIZE = 800;
+	private static final long DEFAULT_BULK_EXPORT_CLAIM_TIMEOUT_MILLIS = 6 * DateUtils.MILLIS_PER_HOUR;
+	private static final int DEFAULT_SEARCH_THREAD_COUNT = 20;
+	private static final int DEFAULT_SEARCH_QUEUE_CAPACITY = 200;
+	private static final int DEFAULT_SEARCH_RESULT_LOCAL_CACHE_MAX_PIDS = 1000000;
+	private static final int DEFAULT_FORCED_ID_CACHE_MAX_SIZE = 100000;
+	private static final int DEFAULT_BUNDLE_BATCH_THREAD_COUNT = 20;
+	private static final long DEFAULT_FORCED_ID_CACHE_EXPIRE_AFTER_WRITE_MILLIS = DateUtils.MILLIS_PER_MINUTE * 10;
 
 	// update setter javadoc if default changes
 	public static final int DEFAULT_MAX_EXPANSION_SIZE = 1000;
@@ -140,6 +148,20 @@ public class DaoConfig {
 	private int myExpungeBatchSize = DEFAULT_EXPUNGE_BATCH_SIZE;
 	private int myReindexThreadCount;
 	private int myExpungeThreadCount;
+	private int myBulkExportThreadCount;
+	private int myBulkExportBatchSize = DEFAULT_BULK_EXPORT_BATCH_SIZE;
+	private long myBulkExportClaimTimeoutMillis = DEFAULT_BULK_EXPORT_CLAIM_TIMEOUT_MILLIS;
+	private int mySearchThreadCount = DEFAULT_SEARCH_THREAD_COUNT;
+	private int mySearchQueueCapacity = DEFAULT_SEARCH_QUEUE_CAPACITY;
+	private Integer mySearchMaxConcurrentPerResourceType;
+	private Integer mySearchMaxConcurrentPerTenant;
+	private int mySearchResultLocalCacheMaxPids = DEFAULT_SEARCH_RESULT_LOCAL_CACHE_MAX_PIDS;
+	private int myForcedIdCacheMaxSize = DEFAULT_FORCED_ID_CACHE_MAX_SIZE;
+	private long myForcedIdCacheExpireAfterWriteMillis = DEFAULT_FORCED_ID_CACHE_EXPIRE_AFTER_WRITE_MILLIS;
+	private int myBundleBatchThreadCount = DEFAULT_BUNDLE_BATCH_THREAD_COUNT;
+	private boolean myMatchUrlCacheEnabled;
+	private boolean myPartitioningEnabled;
+	private int myBundleBatchMaxConcurrency = 1;
 	private Set<String> myBundleTypesAllowedForStorage;
 	private boolean myValidateSearchParameterExpressionsOnSave = true;
 	private List<Integer> mySearchPreFetchThresholds = Arrays.asList(500, 2000, -1);
@@ -185,6 +207,7 @@ public class DaoConfig {
 		setMarkResourcesForReindexingUponSearchParameterChange(true);
 		setReindexThreadCount(Runtime.getRuntime().availableProcessors());
 		setExpungeThreadCount(Runtime.getRuntime().availableProcessors());
+		setBulkExportThreadCount(Runtime.getRuntime().availableProcessors());
 		setBundleTypesAllowedForStorage(DEFAULT_BUNDLE_TYPES_ALLOWED_FOR_STORAGE);
 
 		if ("true".equalsIgnoreCase(System.getProperty(DISABLE_STATUS_BASED_REINDEX))) {
@@ -662,6 +685,493 @@ public class DaoConfig {
 		myExpungeThreadCount = Math.max(myExpungeThreadCount, 1); // Minimum of 1
 	}
 
+	/**
+	 * This setting controls the number of threads allocated to building bulk export
+	 * files on each node. Each resource type within a bulk export job is built by a
+	 * single thread, so this is also the maximum number of resource types that will be
+	 * exported concurrently by a given node.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getBulkExportThreadCount() {
+		return myBulkExportThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads allocated to building bulk export
+	 * files on each node. Each resource type within a bulk export job is built by a
+	 * single thread, so this is also the maximum number of resource types that will be
+	 * exported concurrently by a given node.
+	 * <p>
+	 * The default value is set to the number of available processors
+	 * (via <code>Runtime.getRuntime().availableProcessors()</code>). Value
+	 * for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setBulkExportThreadCount(int theBulkExportThreadCount) {
+		myBulkExportThreadCount = theBulkExportThreadCount;
+		myBulkExportThreadCount = Math.max(myBulkExportThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * This setting controls the number of resources that are loaded from the database
+	 * in a single round trip while building bulk export files. Larger values reduce the
+	 * number of round trips at the expense of memory used by each bulk export thread.
+	 * <p>
+	 * The default value is {@literal 800}. Value for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getBulkExportBatchSize() {
+		return myBulkExportBatchSize;
+	}
+
+	/**
+	 * This setting controls the number of resources that are loaded from the database
+	 * in a single round trip while building bulk export files. Larger values reduce the
+	 * number of round trips at the expense of memory used by each bulk export thread.
+	 * <p>
+	 * The default value is {@literal 800}. Value for this setting must be a positive integer.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setBulkExportBatchSize(int theBulkExportBatchSize) {
+		myBulkExportBatchSize = theBulkExportBatchSize;
+		myBulkExportBatchSize = Math.max(myBulkExportBatchSize, 1); // Minimum of 1
+	}
+
+	/**
+	 * Bulk export collections (i.e. the export of a single resource type within a job)
+	 * whose claim has not been renewed by the node building them for longer than this
+	 * amount of time are assumed to have been abandoned (e.g. because the node building
+	 * them went down) and will be rebuilt by another node. Claims are renewed at a quarter
+	 * of this interval while a collection is being built.
+	 * <p>
+	 * The default value is 6 hours.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public long getBulkExportClaimTimeoutMillis() {
+		return myBulkExportClaimTimeoutMillis;
+	}
+
+	/**
+	 * Bulk export collections (i.e. the export of a single resource type within a job)
+	 * whose claim has not been renewed by the node building them for longer than this
+	 * amount of time are assumed to have been abandoned (e.g. because the node building
+	 * them went down) and will be rebuilt by another node. Claims are renewed at a quarter
+	 * of this interval while a collection is being built.
+	 * <p>
+	 * The default value is 6 hours.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setBulkExportClaimTimeoutMillis(long theBulkExportClaimTimeoutMillis) {
+		Validate.isTrue(theBulkExportClaimTimeoutMillis >= 0, "theBulkExportClaimTimeoutMillis must not be negative");
+		myBulkExportClaimTimeoutMillis = theBulkExportClaimTimeoutMillis;
+	}
+
+	/**
+	 * This setting controls the maximum number of searches which will be executed
+	 * concurrently on each node by the search coordinator. Searches which are
+	 * submitted while all threads are busy are queued (see {@link #setSearchQueueCapacity(int)}).
+	 * Since each running search holds a database connection, this value should
+	 * generally be smaller than the size of the database connection pool.
+	 * <p>
+	 * The default value is {@literal 20}. Value for this setting must be a positive integer.
+	 * Changes to this setting take effect when the search coordinator is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getSearchThreadCount() {
+		return mySearchThreadCount;
+	}
+
+	/**
+	 * This setting controls the maximum number of searches which will be executed
+	 * concurrently on each node by the search coordinator. Searches which are
+	 * submitted while all threads are busy are queued (see {@link #setSearchQueueCapacity(int)}).
+	 * Since each running search holds a database connection, this value should
+	 * generally be smaller than the size of the database connection pool.
+	 * <p>
+	 * The default value is {@literal 20}. Value for this setting must be a positive integer.
+	 * Changes to this setting take effect when the search coordinator is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setSearchThreadCount(int theSearchThreadCount) {
+		mySearchThreadCount = theSearchThreadCount;
+		mySearchThreadCount = Math.max(mySearchThreadCount, 1); // Minimum of 1
+	}
+
+	/**
+	 * This setting controls the maximum number of searches which may be waiting
+	 * for a search thread (see {@link #setSearchThreadCount(int)}) on each node.
+	 * Once this many searches are waiting, new searches will be rejected with an
+	 * <code>HTTP 503 Service Unavailable</code> response until the backlog clears.
+	 * <p>
+	 * The default value is {@literal 200}. Value for this setting must be a positive integer.
+	 * Changes to this setting take effect when the search coordinator is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getSearchQueueCapacity() {
+		return mySearchQueueCapacity;
+	}
+
+	/**
+	 * This setting controls the maximum number of searches which may be waiting
+	 * for a search thread (see {@link #setSearchThreadCount(int)}) on each node.
+	 * Once this many searches are waiting, new searches will be rejected with an
+	 * <code>HTTP 503 Service Unavailable</code> response until the backlog clears.
+	 * <p>
+	 * The default value is {@literal 200}. Value for this setting must be a positive integer.
+	 * Changes to this setting take effect when the search coordinator is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setSearchQueueCapacity(int theSearchQueueCapacity) {
+		mySearchQueueCapacity = theSearchQueueCapacity;
+		mySearchQueueCapacity = Math.max(mySearchQueueCapacity, 1); // Minimum of 1
+	}
+
+	/**
+	 * If set to a non-null value, this setting limits the number of searches for any
+	 * single resource type which may be running or queued at the same time on each node.
+	 * Additional searches for that resource type will be rejected with an
+	 * <code>HTTP 503 Service Unavailable</code> response. This can be used to prevent
+	 * a burst of expensive searches against one resource type from starving all
+	 * other searches.
+	 * <p>
+	 * The default value is <code>null</code>, meaning no per resource type limit is applied.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public Integer getSearchMaxConcurrentPerResourceType() {
+		return mySearchMaxConcurrentPerResourceType;
+	}
+
+	/**
+	 * If set to a non-null value, this setting limits the number of searches for any
+	 * single resource type which may be running or queued at the same time on each node.
+	 * Additional searches for that resource type will be rejected with an
+	 * <code>HTTP 503 Service Unavailable</code> response. This can be used to prevent
+	 * a burst of expensive searches against one resource type from starving all
+	 * other searches.
+	 * <p>
+	 * The default value is <code>null</code>, meaning no per resource type limit is applied.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setSearchMaxConcurrentPerResourceType(Integer theSearchMaxConcurrentPerResourceType) {
+		Validate.isTrue(theSearchMaxConcurrentPerResourceType == null || theSearchMaxConcurrentPerResourceType > 0, "theSearchMaxConcurrentPerResourceType must be null or positive");
+		mySearchMaxConcurrentPerResourceType = theSearchMaxConcurrentPerResourceType;
+	}
+
+	/**
+	 * If set to a non-null value, this setting limits the number of searches for any
+	 * single tenant which may be running or queued at the same time on each node.
+	 * Additional searches for that tenant will be rejected with an
+	 * <code>HTTP 503 Service Unavailable</code> response. This can be used on a
+	 * multitenant server to prevent one tenant from starving all other tenants.
+	 * Requests without a tenant ID are not subject to this limit.
+	 * <p>
+	 * The default value is <code>null</code>, meaning no per tenant limit is applied.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public Integer getSearchMaxConcurrentPerTenant() {
+		return mySearchMaxConcurrentPerTenant;
+	}
+
+	/**
+	 * If set to a non-null value, this setting limits the number of searches for any
+	 * single tenant which may be running or queued at the same time on each node.
+	 * Additional searches for that tenant will be rejected with an
+	 * <code>HTTP 503 Service Unavailable</code> response. This can be used on a
+	 * multitenant server to prevent one tenant from starving all other tenants.
+	 * Requests without a tenant ID are not subject to this limit.
+	 * <p>
+	 * The default value is <code>null</code>, meaning no per tenant limit is applied.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setSearchMaxConcurrentPerTenant(Integer theSearchMaxConcurrentPerTenant) {
+		Validate.isTrue(theSearchMaxConcurrentPerTenant == null || theSearchMaxConcurrentPerTenant > 0, "theSearchMaxConcurrentPerTenant must be null or positive");
+		mySearchMaxConcurrentPerTenant = theSearchMaxConcurrentPerTenant;
+	}
+
+	/**
+	 * This setting controls the maximum number of search result resource IDs (summed across
+	 * all searches) which will be held in memory on each node by the local search result
+	 * cache, in order to allow paging requests to be served without reading the
+	 * search results back from the database. Results are always written to the database
+	 * as well, so nodes which do not have a given search in memory will fall back to
+	 * loading it from there.
+	 * <p>
+	 * The default value is {@literal 1000000}. Set this to {@literal 0} to disable the
+	 * local cache. Changes to this setting take effect when the cache is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getSearchResultLocalCacheMaxPids() {
+		return mySearchResultLocalCacheMaxPids;
+	}
+
+	/**
+	 * This setting controls the maximum number of search result resource IDs (summed across
+	 * all searches) which will be held in memory on each node by the local search result
+	 * cache, in order to allow paging requests to be served without reading the
+	 * search results back from the database. Results are always written to the database
+	 * as well, so nodes which do not have a given search in memory will fall back to
+	 * loading it from there.
+	 * <p>
+	 * The default value is {@literal 1000000}. Set this to {@literal 0} to disable the
+	 * local cache. Changes to this setting take effect when the cache is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setSearchResultLocalCacheMaxPids(int theSearchResultLocalCacheMaxPids) {
+		mySearchResultLocalCacheMaxPids = Math.max(theSearchResultLocalCacheMaxPids, 0);
+	}
+
+	/**
+	 * This setting controls the maximum number of entries held in each direction by the
+	 * local cache of client assigned (forced) resource IDs and the resource PIDs they map to.
+	 * This cache avoids a database lookup when resolving client assigned IDs for reads,
+	 * updates, references and <code>_id</code> searches.
+	 * <p>
+	 * The default value is {@literal 100000}. Set this to {@literal 0} to disable the
+	 * cache. Changes to this setting take effect when the cache is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getForcedIdCacheMaxSize() {
+		return myForcedIdCacheMaxSize;
+	}
+
+	/**
+	 * This setting controls the maximum number of entries held in each direction by the
+	 * local cache of client assigned (forced) resource IDs and the resource PIDs they map to.
+	 * This cache avoids a database lookup when resolving client assigned IDs for reads,
+	 * updates, references and <code>_id</code> searches.
+	 * <p>
+	 * The default value is {@literal 100000}. Set this to {@literal 0} to disable the
+	 * cache. Changes to this setting take effect when the cache is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setForcedIdCacheMaxSize(int theForcedIdCacheMaxSize) {
+		myForcedIdCacheMaxSize = Math.max(theForcedIdCacheMaxSize, 0);
+	}
+
+	/**
+	 * This setting controls how long an entry may stay in the local cache of client assigned
+	 * (forced) resource IDs before it is looked up again. Client assigned IDs never change,
+	 * but a resource may be expunged on one node and then created again with the same ID, so
+	 * in a clustered deployment which uses expunge this setting bounds how long other nodes may
+	 * keep resolving the ID to the expunged resource. The node performing the expunge updates
+	 * its own cache immediately.
+	 * <p>
+	 * The default value is {@literal 600000} (10 minutes). Changes to this setting take effect
+	 * when the cache is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public long getForcedIdCacheExpireAfterWriteMillis() {
+		return myForcedIdCacheExpireAfterWriteMillis;
+	}
+
+	/**
+	 * This setting controls how long an entry may stay in the local cache of client assigned
+	 * (forced) resource IDs before it is looked up again. Client assigned IDs never change,
+	 * but a resource may be expunged on one node and then created again with the same ID, so
+	 * in a clustered deployment which uses expunge this setting bounds how long other nodes may
+	 * keep resolving the ID to the expunged resource. The node performing the expunge updates
+	 * its own cache immediately.
+	 * <p>
+	 * The default value is {@literal 600000} (10 minutes). Changes to this setting take effect
+	 * when the cache is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setForcedIdCacheExpireAfterWriteMillis(long theForcedIdCacheExpireAfterWriteMillis) {
+		myForcedIdCacheExpireAfterWriteMillis = Math.max(theForcedIdCacheExpireAfterWriteMillis, 0);
+	}
+
+	/**
+	 * This setting controls the maximum number of entries from a single FHIR batch
+	 * bundle which will be processed concurrently. Each batch entry is already processed
+	 * in its own database transaction, so entries may be processed in any order, but the
+	 * entries in the batch response are always in the same order as the request.
+	 * <p>
+	 * The default value is {@literal 1}, meaning that batch entries are processed one at a
+	 * time in the request thread. When this is set to a larger value, the request thread
+	 * is helped by threads from a pool shared by all batch requests (see
+	 * {@link #setBundleBatchThreadCount(int)}). Note that interceptors which are registered
+	 * as thread-local interceptors will not be invoked for entries processed by a pool thread,
+	 * and interceptors which store state in the request user data must be thread safe.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getBundleBatchMaxConcurrency() {
+		return myBundleBatchMaxConcurrency;
+	}
+
+	/**
+	 * This setting controls the maximum number of entries from a single FHIR batch
+	 * bundle which will be processed concurrently. Each batch entry is already processed
+	 * in its own database transaction, so entries may be processed in any order, but the
+	 * entries in the batch response are always in the same order as the request.
+	 * <p>
+	 * The default value is {@literal 1}, meaning that batch entries are processed one at a
+	 * time in the request thread. When this is set to a larger value, the request thread
+	 * is helped by threads from a pool shared by all batch requests (see
+	 * {@link #setBundleBatchThreadCount(int)}). Note that interceptors which are registered
+	 * as thread-local interceptors will not be invoked for entries processed by a pool thread,
+	 * and interceptors which store state in the request user data must be thread safe.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setBundleBatchMaxConcurrency(int theBundleBatchMaxConcurrency) {
+		myBundleBatchMaxConcurrency = Math.max(theBundleBatchMaxConcurrency, 1);
+	}
+
+	/**
+	 * This setting controls the number of threads in the pool shared by all FHIR batch
+	 * requests which are processed concurrently (see {@link #setBundleBatchMaxConcurrency(int)}).
+	 * Since each thread holds a database connection while it is working, this value should
+	 * generally be smaller than the size of the database connection pool.
+	 * <p>
+	 * The default value is {@literal 20}. Value for this setting must be a positive integer.
+	 * Changes to this setting take effect when the transaction processor is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public int getBundleBatchThreadCount() {
+		return myBundleBatchThreadCount;
+	}
+
+	/**
+	 * This setting controls the number of threads in the pool shared by all FHIR batch
+	 * requests which are processed concurrently (see {@link #setBundleBatchMaxConcurrency(int)}).
+	 * Since each thread holds a database connection while it is working, this value should
+	 * generally be smaller than the size of the database connection pool.
+	 * <p>
+	 * The default value is {@literal 20}. Value for this setting must be a positive integer.
+	 * Changes to this setting take effect when the transaction processor is started.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setBundleBatchThreadCount(int theBundleBatchThreadCount) {
+		myBundleBatchThreadCount = Math.max(theBundleBatchThreadCount, 1);
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), the server keeps a short lived local cache of
+	 * the match URLs used by conditional creates, updates and transaction entries which resolved to
+	 * exactly one resource, so that repeating the same conditional operation does not need to search
+	 * again. Only match URLs consisting of a single token parameter with both a system and a value
+	 * (e.g. <code>Patient?identifier=http://foo|123</code>) are cached. Cached entries are discarded
+	 * as soon as the indexes of the matched resource change in a way that means it no longer matches
+	 * the URL, when it is deleted, or when another resource is indexed with the same token.
+	 * <p>
+	 * Note that a cached URL will keep resolving to the same resource for up to one minute if
+	 * resources are changed by another node in a clustered deployment. Only enable this if match
+	 * URLs are expected to always identify a single resource.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public boolean isMatchUrlCacheEnabled() {
+		return myMatchUrlCacheEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), the server keeps a short lived local cache of
+	 * the match URLs used by conditional creates, updates and transaction entries which resolved to
+	 * exactly one resource, so that repeating the same conditional operation does not need to search
+	 * again. Only match URLs consisting of a single token parameter with both a system and a value
+	 * (e.g. <code>Patient?identifier=http://foo|123</code>) are cached. Cached entries are discarded
+	 * as soon as the indexes of the matched resource change in a way that means it no longer matches
+	 * the URL, when it is deleted, or when another resource is indexed with the same token.
+	 * <p>
+	 * Note that a cached URL will keep resolving to the same resource for up to one minute if
+	 * resources are changed by another node in a clustered deployment. Only enable this if match
+	 * URLs are expected to always identify a single resource.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setMatchUrlCacheEnabled(boolean theMatchUrlCacheEnabled) {
+		myMatchUrlCacheEnabled = theMatchUrlCacheEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), each resource is assigned to a partition based on the
+	 * tenant ID of the request which created it (as determined by the server's
+	 * {@link ca.uhn.fhir.rest.server.tenant.ITenantIdentificationStrategy}), and the partition ID is
+	 * stored on the resource, its history and all of its index rows. Searches and reads performed
+	 * on behalf of a tenant are then restricted to that tenant's partition. Requests with no tenant
+	 * ID use the default (<code>null</code>) partition.
+	 * <p>
+	 * Note that forced (client assigned) IDs and composite unique indexes remain unique across the
+	 * whole server, not within each partition.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public boolean isPartitioningEnabled() {
+		return myPartitioningEnabled;
+	}
+
+	/**
+	 * If enabled (default is <code>false</code>), each resource is assigned to a partition based on the
+	 * tenant ID of the request which created it (as determined by the server's
+	 * {@link ca.uhn.fhir.rest.server.tenant.ITenantIdentificationStrategy}), and the partition ID is
+	 * stored on the resource, its history and all of its index rows. Searches and reads performed
+	 * on behalf of a tenant are then restricted to that tenant's partition. Requests with no tenant
+	 * ID use the default (<code>null</code>) partition.
+	 * <p>
+	 * Note that forced (client assigned) IDs and composite unique indexes remain unique across the
+	 * whole server, not within each partition.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setPartitioningEnabled(boolean thePartitioningEnabled) {
+		myPartitioningEnabled = thePartitioningEnabled;
+	}
+
 	public ResourceEncodingEnum getResourceEncoding() {
 		return myResourceEncoding;
 	}
@@ -0,0 +1,119 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Builds the queries which count and load the entries for a history operation. Both use the
+ * same criteria, including the partition of the request, so that the total reported for a
+ * history bundle always agrees with the entries in it.
+ */
+public class HistoryBuilder {
+
+	private final EntityManager myEntityManager;
+	private final RequestPartitionHelperService myRequestPartitionHelperService;
+	private final String myResourceType;
+	private final Long myResourceId;
+	private final Date myRangeStartInclusive;
+	private final Date myRangeEndInclusive;
+
+	/**
+	 * @param theResourceType          The resource type, or <code>null</code> for the history of all resource types
+	 * @param theResourceId            The resource PID, or <code>null</code> for the history of all resources of the type
+	 * @param theRangeStartInclusive   The earliest last updated time to include, or <code>null</code>
+	 * @param theRangeEndInclusive     The latest last updated time to include, or <code>null</code>
+	 */
+	public HistoryBuilder(EntityManager theEntityManager, RequestPartitionHelperService theRequestPartitionHelperService, @Nullable String theResourceType, @Nullable Long theResourceId, @Nullable Date theRangeStartInclusive, @Nullable Date theRangeEndInclusive) {
+		myEntityManager = theEntityManager;
+		myRequestPartitionHelperService = theRequestPartitionHelperService;
+		myResourceType = theResourceType;
+		myResourceId = theResourceId;
+		myRangeStartInclusive = theRangeStartInclusive;
+		myRangeEndInclusive = theRangeEndInclusive;
+	}
+
+	public int fetchCount(@Nullable RequestDetails theRequest) {
+		CriteriaBuilder cb = myEntityManager.getCriteriaBuilder();
+		CriteriaQuery<Long> q = cb.createQuery(Long.class);
+		Root<ResourceHistoryTable> from = q.from(ResourceHistoryTable.class);
+		q.select(cb.count(from));
+		addPredicates(cb, q, from, theRequest);
+		return myEntityManager.createQuery(q).getSingleResult().intValue();
+	}
+
+	public List<ResourceHistoryTable> fetchEntities(@Nullable RequestDetails theRequest, int theFromIndex, int theToIndex) {
+		CriteriaBuilder cb = myEntityManager.getCriteriaBuilder();
+		CriteriaQuery<ResourceHistoryTable> q = cb.createQuery(ResourceHistoryTable.class);
+		Root<ResourceHistoryTable> from = q.from(ResourceHistoryTable.class);
+		addPredicates(cb, q, from, theRequest);
+		q.orderBy(cb.desc(from.get("myUpdated")));
+
+		TypedQuery<ResourceHistoryTable> query = myEntityManager.createQuery(q);
+		if (theToIndex - theFromIndex > 0) {
+			query.setFirstResult(theFromIndex);
+			query.setMaxResults(theToIndex - theFromIndex);
+		}
+		return query.getResultList();
+	}
+
+	private void addPredicates(CriteriaBuilder theBuilder, CriteriaQuery<?> theQuery, Root<ResourceHistoryTable> theFrom, @Nullable RequestDetails theRequest) {
+		List<Predicate> predicates = new ArrayList<>();
+
+		if (myResourceType == null) {
+			// All resource types
+		} else if (myResourceId == null) {
+			predicates.add(theBuilder.equal(theFrom.get("myResourceType"), myResourceType));
+		} else {
+			predicates.add(theBuilder.equal(theFrom.get("myResourceId"), myResourceId));
+		}
+
+		Predicate partitionPredicate = myRequestPartitionHelperService.createPartitionPredicate(theBuilder, theFrom, theRequest);
+		if (partitionPredicate != null) {
+			predicates.add(partitionPredicate);
+		}
+
+		if (myRangeStartInclusive != null) {
+			predicates.add(theBuilder.greaterThanOrEqualTo(theFrom.get("myUpdated").as(Date.class), myRangeStartInclusive));
+		}
+		if (myRangeEndInclusive != null) {
+			predicates.add(theBuilder.lessThanOrEqualTo(theFrom.get("myUpdated").as(Date.class), myRangeEndInclusive));
+		}
+
+		if (predicates.size() > 0) {
+			theQuery.where(predicates.toArray(new Predicate[0]));
+		}
+	}
+
+}
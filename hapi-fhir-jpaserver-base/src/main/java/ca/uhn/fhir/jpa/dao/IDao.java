@@ -41,6 +41,8 @@ public interface IDao {
 
 	MetadataKeyCurrentlyReindexing CURRENTLY_REINDEXING = new MetadataKeyCurrentlyReindexing("CURRENTLY_REINDEXING");
 
+	MetadataKeyIndexedSearchParams INDEXED_SEARCH_PARAMS = new MetadataKeyIndexedSearchParams("INDEXED_SEARCH_PARAMS");
+
 	FhirContext getContext();
 
 	/**
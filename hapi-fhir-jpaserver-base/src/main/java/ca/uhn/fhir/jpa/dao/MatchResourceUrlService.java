@@ -22,6 +22,17 @@ package ca.uhn.fhir.jpa.dao;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.dao.data.IResourceIndexedSearchParamTokenDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import ca.uhn.fhir.jpa.util.TransactionScopedState;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.google.common.collect.Iterables;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
@@ -29,20 +40,57 @@ import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryResourceMatcher;
+import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.StopWatch;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
 
 @Service
 public class MatchResourceUrlService {
+	private static final Logger ourLog = LoggerFactory.getLogger(MatchResourceUrlService.class);
+	static final long MATCH_URL_CACHE_EXPIRE_AFTER_WRITE_MILLIS = DateUtils.MILLIS_PER_MINUTE;
+	private static final int MATCH_URL_CACHE_MAX_SIZE = 10000;
+	private static final Object TRANSACTION_SCOPED_PREFETCHED_KEY = MatchResourceUrlService.class.getName() + "_PREFETCHED";
+	private static final Object TRANSACTION_SCOPED_CACHE_CHANGES_KEY = MatchResourceUrlService.class.getName() + "_CACHE_CHANGES";
+	private static final int GENERATION_STRIPES = 1024;
+	private static final int PREFETCH_BATCH_SIZE = 500;
+
 	@Autowired
 	private DaoRegistry myDaoRegistry;
 	@Autowired
@@ -51,25 +99,100 @@ public class MatchResourceUrlService {
 	private MatchUrlService myMatchUrlService;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private InMemoryResourceMatcher myInMemoryResourceMatcher;
+	@Autowired
+	private SearchParamMatcher mySearchParamMatcher;
+	@Autowired
+	private ISearchParamRegistry mySearchParamRegistry;
+	@Autowired
+	private IResourceIndexedSearchParamTokenDao myResourceIndexedSearchParamTokenDao;
+	@Autowired
+	private RequestPartitionHelperService myRequestPartitionHelperService;
+
+	private Cache<MatchUrlCacheKey, CachedMatchUrl> myMatchUrlCache;
+	private final SetMultimap<Long, MatchUrlCacheKey> myPidToMatchUrlCacheKeys = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+	private final SetMultimap<Long, MatchUrlCacheKey> myHashToMatchUrlCacheKeys = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+
+	/*
+	 * Each time a resource's indexes change, the stripes for its PID and for the hashes of its tokens
+	 * are stamped with a new generation once the change commits. A match URL resolved at generation N
+	 * is only added to the cache if neither its hash nor the PID it resolved to has been stamped since,
+	 * so a resolution which raced with a committing change can't put a stale entry back into the cache.
+	 */
+	private final Object myGenerationLock = new Object();
+	private final AtomicLong myGeneration = new AtomicLong();
+	private final AtomicLongArray myStripeGenerations = new AtomicLongArray(GENERATION_STRIPES);
+	/*
+	 * The number of transactions which have started resolving a match URL and haven't completed yet.
+	 * While this is zero and the cache is empty, a committed index change can't make anything stale.
+	 */
+	private final AtomicInteger myTransactionsResolving = new AtomicInteger();
+
+	@PostConstruct
+	public void start() {
+		myMatchUrlCache = Caffeine.newBuilder()
+			.maximumSize(MATCH_URL_CACHE_MAX_SIZE)
+			.expireAfterWrite(MATCH_URL_CACHE_EXPIRE_AFTER_WRITE_MILLIS, TimeUnit.MILLISECONDS)
+			.<MatchUrlCacheKey, CachedMatchUrl>removalListener((theKey, theValue, theCause) -> {
+				if (theKey != null && theValue != null) {
+					removeFromIndexes(theKey, theValue);
+				}
+			})
+			// Run removal listeners in the calling thread so that the PID index stays in step with the cache
+			.executor(Runnable::run)
+			.build();
+	}
 
 	public <R extends IBaseResource> Set<ResourcePersistentId> processMatchUrl(String theMatchUrl, Class<R> theResourceType, RequestDetails theRequest) {
 		StopWatch sw = new StopWatch();
 
 		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResourceType);
 
-		SearchParameterMap paramMap = myMatchUrlService.translateMatchUrl(theMatchUrl, resourceDef);
-		paramMap.setLoadSynchronous(true);
+		MatchUrlCacheKey cacheKey = toCacheKey(resourceDef.getName(), theMatchUrl, theRequest);
+		long generation = 0;
+		if (myDaoConfig.isMatchUrlCacheEnabled()) {
+			CachedMatchUrl cached = myMatchUrlCache.getIfPresent(cacheKey);
+			if (cached != null) {
+				ourLog.trace("Match URL {} resolved to {} from cache", theMatchUrl, cached.getPid());
+				return Collections.singleton(cached.getPid());
+			}
+			generation = startResolution(cacheKey);
+		}
 
-		if (paramMap.isEmpty() && paramMap.getLastUpdated() == null) {
-			throw new InvalidRequestException("Invalid match URL[" + theMatchUrl + "] - URL has no search parameters");
+		Set<ResourcePersistentId> retVal = null;
+		PrefetchedMatchUrls prefetched = TransactionScopedState.get(TRANSACTION_SCOPED_PREFETCHED_KEY);
+		if (prefetched != null) {
+			retVal = prefetched.get(cacheKey);
+			if (retVal != null) {
+				ourLog.trace("Match URL {} resolved to {} from prefetched matches", theMatchUrl, retVal);
+			}
 		}
 
-		IFhirResourceDao<R> dao = myDaoRegistry.getResourceDao(theResourceType);
-		if (dao == null) {
-			throw new InternalErrorException("No DAO for resource type: " + theResourceType.getName());
+		if (retVal == null) {
+			SearchParameterMap paramMap = myMatchUrlService.translateMatchUrl(theMatchUrl, resourceDef);
+			paramMap.setLoadSynchronous(true);
+
+			if (paramMap.isEmpty() && paramMap.getLastUpdated() == null) {
+				throw new InvalidRequestException("Invalid match URL[" + theMatchUrl + "] - URL has no search parameters");
+			}
+
+			IFhirResourceDao<R> dao = myDaoRegistry.getResourceDao(theResourceType);
+			if (dao == null) {
+				throw new InternalErrorException("No DAO for resource type: " + theResourceType.getName());
+			}
+
+			retVal = dao.searchForIds(paramMap, theRequest);
 		}
 
-		Set<ResourcePersistentId> retVal = dao.searchForIds(paramMap, theRequest);
+		if (retVal.size() == 1 && myDaoConfig.isMatchUrlCacheEnabled()) {
+			Long hash = toPrefetchableHash(resourceDef, theMatchUrl);
+			if (hash != null) {
+				putInCacheAfterCommit(cacheKey, hash, retVal.iterator().next(), generation);
+			}
+		}
 
 		// Interceptor broadcast: JPA_PERFTRACE_INFO
 		if (JpaInterceptorBroadcaster.hasHooks(Pointcut.JPA_PERFTRACE_INFO, myInterceptorBroadcaster, theRequest)) {
@@ -85,5 +208,450 @@ public class MatchResourceUrlService {
 		return retVal;
 	}
 
+	/**
+	 * Resolves a collection of match URLs for a single resource type in bulk, so that calls to
+	 * {@link #processMatchUrl(String, Class, RequestDetails)} for the same URLs later in the current
+	 * transaction do not each need to perform a search. This is used to resolve the conditional
+	 * URLs in a transaction bundle before any of its writes are processed.
+	 * <p>
+	 * Only URLs consisting of a single token parameter with both a system and a value (e.g.
+	 * <code>identifier=http://foo|123</code>) are resolved in bulk, using a single lookup on the token
+	 * index hashes. Any other URLs are ignored here and are searched for as normal when they are
+	 * processed. The matches are kept up to date as resources are indexed or deleted for the rest
+	 * of the transaction, so they always agree with what a search would return. Like a search, only
+	 * resources in the partition of the given request are matched.
+	 * </p>
+	 *
+	 * @return The PIDs of all resources which matched any of the URLs
+	 */
+	public Set<ResourcePersistentId> prefetchMatchUrls(Class<? extends IBaseResource> theResourceType, Collection<String> theMatchUrls, RequestDetails theRequest) {
+		if (myDaoConfig.getDisableHashBasedSearches()) {
+			return Collections.emptySet();
+		}
+		PrefetchedMatchUrls prefetched = TransactionScopedState.getOrCreate(TRANSACTION_SCOPED_PREFETCHED_KEY, PrefetchedMatchUrls::new);
+		if (prefetched == null) {
+			return Collections.emptySet();
+		}
+
+		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResourceType);
+		SetMultimap<Long, MatchUrlCacheKey> hashToCacheKeys = HashMultimap.create();
+		for (String nextMatchUrl : theMatchUrls) {
+			MatchUrlCacheKey cacheKey = toCacheKey(resourceDef.getName(), nextMatchUrl, theRequest);
+			if (prefetched.contains(cacheKey)) {
+				continue;
+			}
+			Long hash = toPrefetchableHash(resourceDef, nextMatchUrl);
+			if (hash != null) {
+				hashToCacheKeys.put(hash, cacheKey);
+				if (myDaoConfig.isMatchUrlCacheEnabled()) {
+					startResolution(cacheKey);
+				}
+			}
+		}
+		if (hashToCacheKeys.isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		StopWatch sw = new StopWatch();
+		SetMultimap<Long, Long> hashToPids = HashMultimap.create();
+		for (List<Long> nextBatch : Iterables.partition(hashToCacheKeys.keySet(), PREFETCH_BATCH_SIZE)) {
+			for (Object[] next : findResourcePidsByHashSystemAndValue(nextBatch, theRequest)) {
+				hashToPids.put((Long) next[0], (Long) next[1]);
+			}
+		}
+
+		Set<ResourcePersistentId> retVal = new HashSet<>();
+		for (Map.Entry<Long, MatchUrlCacheKey> next : hashToCacheKeys.entries()) {
+			Set<Long> pids = hashToPids.get(next.getKey());
+			prefetched.put(next.getValue(), next.getKey(), pids);
+			pids.forEach(t -> retVal.add(new ResourcePersistentId(t)));
+		}
+
+		ourLog.debug("Prefetched {} {} match URLs with {} matching resources in {}", hashToCacheKeys.size(), resourceDef.getName(), retVal.size(), sw);
+		return retVal;
+	}
+
+	private List<Object[]> findResourcePidsByHashSystemAndValue(List<Long> theHashes, RequestDetails theRequest) {
+		if (!myRequestPartitionHelperService.isPartitioningEnabled()) {
+			return myResourceIndexedSearchParamTokenDao.findResourcePidsByHashSystemAndValue(theHashes);
+		}
+		Integer partitionId = myRequestPartitionHelperService.determinePartitionId(theRequest);
+		if (partitionId == null) {
+			return myResourceIndexedSearchParamTokenDao.findResourcePidsByHashSystemAndValueInDefaultPartition(theHashes);
+		}
+		return myResourceIndexedSearchParamTokenDao.findResourcePidsByHashSystemAndValueInPartition(theHashes, partitionId);
+	}
+
+	/**
+	 * Returns the token index hash that a match URL searches for, or <code>null</code> if the
+	 * URL is not a simple enough search to be resolved directly against the index (or to be
+	 * cached, since the hash is what lets us tell when another resource starts matching it)
+	 */
+	@Nullable
+	private Long toPrefetchableHash(RuntimeResourceDefinition theResourceDef, String theMatchUrl) {
+		SearchParameterMap paramMap;
+		try {
+			paramMap = myMatchUrlService.translateMatchUrl(theMatchUrl, theResourceDef);
+		} catch (BaseServerResponseException e) {
+			// Invalid URLs are reported when they are actually processed
+			return null;
+		}
+		if (paramMap.keySet().size() != 1 || paramMap.getLastUpdated() != null || paramMap.getSort() != null || !paramMap.getIncludes().isEmpty() || !paramMap.getRevIncludes().isEmpty()) {
+			return null;
+		}
+
+		String paramName = paramMap.keySet().iterator().next();
+		if (paramName.startsWith("_")) {
+			return null;
+		}
+		RuntimeSearchParam searchParam = mySearchParamRegistry.getActiveSearchParam(theResourceDef.getName(), paramName);
+		if (searchParam == null || searchParam.getParamType() != RestSearchParameterTypeEnum.TOKEN) {
+			return null;
+		}
+
+		List<List<IQueryParameterType>> andList = paramMap.get(paramName);
+		if (andList.size() != 1 || andList.get(0).size() != 1 || !(andList.get(0).get(0) instanceof TokenParam)) {
+			return null;
+		}
+		TokenParam token = (TokenParam) andList.get(0).get(0);
+		if (token.getModifier() != null || token.getMissing() != null || isBlank(token.getSystem()) || isBlank(token.getValue())) {
+			return null;
+		}
+
+		return ResourceIndexedSearchParamToken.calculateHashSystemAndValue(theResourceDef.getName(), paramName, token.getSystem(), token.getValue());
+	}
+
+	/**
+	 * Records that a resource was created by a conditional create using the given match URL, so
+	 * that subsequent conditional operations using the same URL can resolve it without a search.
+	 * The resource is only cached if it actually matches the URL, and the cache entry is only
+	 * added once the current transaction commits.
+	 */
+	public void matchUrlResolved(String theMatchUrl, IBaseResource theResource, ResourcePersistentId thePid, RequestDetails theRequest) {
+		if (!myDaoConfig.isMatchUrlCacheEnabled()) {
+			return;
+		}
+
+		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(theResource);
+		MatchUrlCacheKey cacheKey = toCacheKey(resourceDef.getName(), theMatchUrl, theRequest);
+		Long hash = toPrefetchableHash(resourceDef, theMatchUrl);
+		if (hash != null && mySearchParamMatcher.match(cacheKey.getMatchUrl(), theResource, theRequest).matched()) {
+			// The URL was searched for earlier in this transaction, so use the generation from then
+			putInCacheAfterCommit(cacheKey, hash, thePid, startResolution(cacheKey));
+		}
+	}
+
+	/**
+	 * This method is called whenever the search indexes for a resource change. Any cached
+	 * match URLs which resolve to the resource are checked against its new indexes, and are
+	 * discarded if the resource no longer matches them (or if it has been deleted, in which
+	 * case <code>theResource</code> and <code>theNewParams</code> are <code>null</code>). Any
+	 * cached match URLs for the tokens in the new indexes which resolve to a different resource
+	 * are discarded too, since they now match more than one resource.
+	 */
+	public void resourceIndexesChanged(ResourcePersistentId thePid, @Nullable IBaseResource theResource, @Nullable ResourceIndexedSearchParams theNewParams) {
+		PrefetchedMatchUrls prefetched = TransactionScopedState.get(TRANSACTION_SCOPED_PREFETCHED_KEY);
+		if (prefetched != null) {
+			prefetched.resourceIndexesChanged(thePid.getIdAsLong(), theNewParams);
+		}
+
+		if (!myDaoConfig.isMatchUrlCacheEnabled()) {
+			return;
+		}
+
+		// Discard stale entries straight away so that the rest of this transaction doesn't use them
+		if (myMatchUrlCache.estimatedSize() > 0) {
+			discardStaleCacheEntries(thePid, theResource, theNewParams, toTokenHashes(theNewParams));
+		}
+
+		// Other transactions can't see the change until it commits, so do the same again then
+		PendingCacheChanges pending = getPendingCacheChanges();
+		if (pending != null) {
+			pending.myIndexChanges.add(() -> resourceIndexesChangeCommitted(thePid, theResource, theNewParams));
+		} else {
+			resourceIndexesChangeCommitted(thePid, theResource, theNewParams);
+		}
+	}
+
+	private void resourceIndexesChangeCommitted(ResourcePersistentId thePid, @Nullable IBaseResource theResource, @Nullable ResourceIndexedSearchParams theNewParams) {
+		// A transaction decrements the count only after adding its entries, so check the count first
+		if (myTransactionsResolving.get() == 0 && myMatchUrlCache.estimatedSize() == 0) {
+			return;
+		}
+
+		Set<Long> hashes = toTokenHashes(theNewParams);
+		stampGenerations(thePid, hashes);
+		discardStaleCacheEntries(thePid, theResource, theNewParams, hashes);
+	}
+
+	private static Set<Long> toTokenHashes(@Nullable ResourceIndexedSearchParams theParams) {
+		Set<Long> retVal = new HashSet<>();
+		if (theParams != null) {
+			theParams.myTokenParams.forEach(t -> retVal.add(t.getHashSystemAndValue()));
+		}
+		return retVal;
+	}
+
+	private void discardStaleCacheEntries(ResourcePersistentId thePid, @Nullable IBaseResource theResource, @Nullable ResourceIndexedSearchParams theNewParams, Set<Long> theHashes) {
+		Set<MatchUrlCacheKey> cacheKeys;
+		synchronized (myPidToMatchUrlCacheKeys) {
+			cacheKeys = new HashSet<>(myPidToMatchUrlCacheKeys.get(thePid.getIdAsLong()));
+		}
+		for (MatchUrlCacheKey nextCacheKey : cacheKeys) {
+			boolean stillMatches = false;
+			if (theResource != null && theNewParams != null) {
+				stillMatches = myInMemoryResourceMatcher.match(nextCacheKey.getMatchUrl(), theResource, theNewParams).matched();
+			}
+			if (!stillMatches) {
+				ourLog.debug("Discarding cached match URL {} for resource {}", nextCacheKey, thePid);
+				myMatchUrlCache.invalidate(nextCacheKey);
+			}
+		}
+
+		for (Long nextHash : theHashes) {
+			synchronized (myHashToMatchUrlCacheKeys) {
+				cacheKeys = new HashSet<>(myHashToMatchUrlCacheKeys.get(nextHash));
+			}
+			for (MatchUrlCacheKey nextCacheKey : cacheKeys) {
+				CachedMatchUrl cached = myMatchUrlCache.getIfPresent(nextCacheKey);
+				if (cached != null && !cached.getPid().equals(thePid)) {
+					ourLog.debug("Discarding cached match URL {} because resource {} now matches it too", nextCacheKey, thePid);
+					myMatchUrlCache.invalidate(nextCacheKey);
+				}
+			}
+		}
+	}
+
+	public void clearCache() {
+		myMatchUrlCache.invalidateAll();
+	}
+
+	/**
+	 * The key may already have been cached again (e.g. when its entry was replaced), so only the
+	 * index entries which don't apply to the current entry are removed
+	 */
+	private void removeFromIndexes(MatchUrlCacheKey theCacheKey, CachedMatchUrl theRemoved) {
+		CachedMatchUrl current = myMatchUrlCache.getIfPresent(theCacheKey);
+		if (current == null || !current.getPid().equals(theRemoved.getPid())) {
+			myPidToMatchUrlCacheKeys.remove(theRemoved.getPid().getIdAsLong(), theCacheKey);
+		}
+		if (current == null || !current.getHash().equals(theRemoved.getHash())) {
+			myHashToMatchUrlCacheKeys.remove(theRemoved.getHash(), theCacheKey);
+		}
+	}
+
+	/**
+	 * Records that a match URL is about to be resolved in the current transaction, and returns the
+	 * generation that any cache entry for it must be checked against. This is the generation from
+	 * when the URL was first resolved in the transaction, which may have been while prefetching.
+	 */
+	private long startResolution(MatchUrlCacheKey theCacheKey) {
+		PendingCacheChanges pending = getPendingCacheChanges();
+		if (pending == null) {
+			return myGeneration.get();
+		}
+		// Counted before the generation is read, so that index changes committed from now on are stamped
+		if (!pending.myResolving) {
+			pending.myResolving = true;
+			myTransactionsResolving.incrementAndGet();
+		}
+		return pending.myResolutionGenerations.computeIfAbsent(theCacheKey, t -> myGeneration.get());
+	}
+
+	private void putInCacheAfterCommit(MatchUrlCacheKey theCacheKey, Long theHash, ResourcePersistentId thePid, long theGeneration) {
+		// Resolutions outside of a transaction aren't counted in myTransactionsResolving, so they aren't cached
+		PendingCacheChanges pending = getPendingCacheChanges();
+		if (pending != null) {
+			pending.myCacheAdditions.add(() -> putInCacheIfUnchanged(theCacheKey, theHash, thePid, theGeneration));
+		}
+	}
+
+	private void putInCacheIfUnchanged(MatchUrlCacheKey theCacheKey, Long theHash, ResourcePersistentId thePid, long theGeneration) {
+		synchronized (myGenerationLock) {
+			if (myStripeGenerations.get(toStripe(theHash)) > theGeneration || myStripeGenerations.get(toStripe(thePid.getIdAsLong())) > theGeneration) {
+				ourLog.debug("Not caching match URL {} as a matching resource changed while it was being resolved", theCacheKey);
+				return;
+			}
+			myMatchUrlCache.put(theCacheKey, new CachedMatchUrl(thePid, theHash));
+			myPidToMatchUrlCacheKeys.put(thePid.getIdAsLong(), theCacheKey);
+			myHashToMatchUrlCacheKeys.put(theHash, theCacheKey);
+		}
+	}
+
+	private void stampGenerations(ResourcePersistentId thePid, Set<Long> theHashes) {
+		synchronized (myGenerationLock) {
+			long generation = myGeneration.incrementAndGet();
+			myStripeGenerations.set(toStripe(thePid.getIdAsLong()), generation);
+			for (Long nextHash : theHashes) {
+				myStripeGenerations.set(toStripe(nextHash), generation);
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache changes for the current transaction, or <code>null</code> if there is no
+	 * transaction in progress (in which case changes should be applied immediately)
+	 */
+	@Nullable
+	private PendingCacheChanges getPendingCacheChanges() {
+		return TransactionScopedState.getOrCreate(TRANSACTION_SCOPED_CACHE_CHANGES_KEY, () -> {
+			PendingCacheChanges retVal = new PendingCacheChanges();
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					retVal.apply();
+				}
+
+				@Override
+				public void afterCompletion(int theStatus) {
+					if (retVal.myResolving) {
+						myTransactionsResolving.decrementAndGet();
+					}
+				}
+			});
+			return retVal;
+		});
+	}
+
+	private static int toStripe(long theValue) {
+		return Long.hashCode(theValue) & (GENERATION_STRIPES - 1);
+	}
+
+	private MatchUrlCacheKey toCacheKey(String theResourceName, String theMatchUrl, RequestDetails theRequest) {
+		String matchUrl = theMatchUrl;
+		int questionMarkIndex = matchUrl.indexOf('?');
+		if (questionMarkIndex != -1) {
+			matchUrl = matchUrl.substring(questionMarkIndex + 1);
+		}
+		// The same URL may match different resources in each partition
+		Integer partitionId = myRequestPartitionHelperService.determinePartitionId(theRequest);
+		return new MatchUrlCacheKey(partitionId, theResourceName + '?' + matchUrl);
+	}
+
+	private static class MatchUrlCacheKey {
+		private final Integer myPartitionId;
+		private final String myMatchUrl;
+
+		MatchUrlCacheKey(@Nullable Integer thePartitionId, String theMatchUrl) {
+			myPartitionId = thePartitionId;
+			myMatchUrl = theMatchUrl;
+		}
+
+		/**
+		 * Returns the match URL in the form "ResourceType?params", which is what the matchers expect
+		 */
+		String getMatchUrl() {
+			return myMatchUrl;
+		}
+
+		@Override
+		public boolean equals(Object theO) {
+			if (this == theO) {
+				return true;
+			}
+			if (!(theO instanceof MatchUrlCacheKey)) {
+				return false;
+			}
+			MatchUrlCacheKey that = (MatchUrlCacheKey) theO;
+			return Objects.equals(myPartitionId, that.myPartitionId) && myMatchUrl.equals(that.myMatchUrl);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(myPartitionId, myMatchUrl);
+		}
+
+		@Override
+		public String toString() {
+			return myPartitionId == null ? myMatchUrl : myMatchUrl + " [partition=" + myPartitionId + "]";
+		}
+	}
+
+	private static class CachedMatchUrl {
+		private final ResourcePersistentId myPid;
+		private final Long myHash;
+
+		CachedMatchUrl(ResourcePersistentId thePid, Long theHash) {
+			myPid = thePid;
+			myHash = theHash;
+		}
+
+		ResourcePersistentId getPid() {
+			return myPid;
+		}
+
+		Long getHash() {
+			return myHash;
+		}
+	}
+
+	/**
+	 * Changes to the match URL cache made by a single transaction, which are applied once it commits.
+	 * Additions are applied first so that the transaction's own index changes don't prevent it from
+	 * caching the resources it resolved, and are then checked against those index changes like any
+	 * other cache entry.
+	 */
+	private static class PendingCacheChanges {
+		private final Map<MatchUrlCacheKey, Long> myResolutionGenerations = new HashMap<>();
+		private boolean myResolving;
+		private final List<Runnable> myCacheAdditions = new ArrayList<>();
+		private final List<Runnable> myIndexChanges = new ArrayList<>();
+
+		void apply() {
+			myCacheAdditions.forEach(Runnable::run);
+			myIndexChanges.forEach(Runnable::run);
+		}
+	}
+
+	/**
+	 * Match URLs resolved by {@link #prefetchMatchUrls(Class, Collection, RequestDetails)}, held for the
+	 * duration of a single transaction
+	 */
+	private static class PrefetchedMatchUrls {
+		private final Map<MatchUrlCacheKey, Set<Long>> myCacheKeyToPids = new HashMap<>();
+		private final SetMultimap<Long, MatchUrlCacheKey> myHashToCacheKeys = HashMultimap.create();
+		private final SetMultimap<Long, MatchUrlCacheKey> myPidToCacheKeys = HashMultimap.create();
+
+		boolean contains(MatchUrlCacheKey theCacheKey) {
+			return myCacheKeyToPids.containsKey(theCacheKey);
+		}
+
+		@Nullable
+		Set<ResourcePersistentId> get(MatchUrlCacheKey theCacheKey) {
+			Set<Long> pids = myCacheKeyToPids.get(theCacheKey);
+			if (pids == null) {
+				return null;
+			}
+			Set<ResourcePersistentId> retVal = new HashSet<>();
+			pids.forEach(t -> retVal.add(new ResourcePersistentId(t)));
+			return retVal;
+		}
+
+		void put(MatchUrlCacheKey theCacheKey, Long theHash, Set<Long> thePids) {
+			myCacheKeyToPids.put(theCacheKey, new HashSet<>(thePids));
+			myHashToCacheKeys.put(theHash, theCacheKey);
+			thePids.forEach(t -> myPidToCacheKeys.put(t, theCacheKey));
+		}
+
+		/**
+		 * Brings the matches up to date with the new indexes for a resource, which are
+		 * <code>null</code> if the resource has been deleted
+		 */
+		void resourceIndexesChanged(Long thePid, @Nullable ResourceIndexedSearchParams theNewParams) {
+			for (MatchUrlCacheKey next : myPidToCacheKeys.removeAll(thePid)) {
+				myCacheKeyToPids.get(next).remove(thePid);
+			}
+			if (theNewParams == null || myHashToCacheKeys.isEmpty()) {
+				return;
+			}
+			for (ResourceIndexedSearchParamToken next : theNewParams.myTokenParams) {
+				long hash = next.getHashSystemAndValue();
+				for (MatchUrlCacheKey nextCacheKey : myHashToCacheKeys.get(hash)) {
+					myCacheKeyToPids.get(nextCacheKey).add(thePid);
+					myPidToCacheKeys.put(thePid, nextCacheKey);
+				}
+			}
+		}
+	}
 
 }
@@ -0,0 +1,76 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum.ResourceMetadataKeySupportingAnyResource;
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Holds the search indexes which were extracted from a resource while it was being stored,
+ * so that anything in the same JVM which needs them before the transaction commits (e.g.
+ * in-memory subscription matching) doesn't need to extract them a second time
+ */
+public final class MetadataKeyIndexedSearchParams extends ResourceMetadataKeySupportingAnyResource<ResourceIndexedSearchParams, ResourceIndexedSearchParams> {
+	private static final long serialVersionUID = 1L;
+
+	MetadataKeyIndexedSearchParams(String theValue) {
+		super(theValue);
+	}
+
+	@Override
+	public ResourceIndexedSearchParams get(IAnyResource theResource) {
+		return (ResourceIndexedSearchParams) theResource.getUserData(IDao.INDEXED_SEARCH_PARAMS.name());
+	}
+
+	@Override
+	public ResourceIndexedSearchParams get(IResource theResource) {
+		return (ResourceIndexedSearchParams) theResource.getResourceMetadata().get(IDao.INDEXED_SEARCH_PARAMS);
+	}
+
+	public ResourceIndexedSearchParams get(IBaseResource theResource) {
+		if (theResource instanceof IAnyResource) {
+			return get((IAnyResource) theResource);
+		} else {
+			return get((IResource) theResource);
+		}
+	}
+
+	@Override
+	public void put(IAnyResource theResource, ResourceIndexedSearchParams theObject) {
+		theResource.setUserData(IDao.INDEXED_SEARCH_PARAMS.name(), theObject);
+	}
+
+	public void put(IBaseResource theResource, ResourceIndexedSearchParams theValue) {
+		if (theResource instanceof IAnyResource) {
+			put((IAnyResource) theResource, theValue);
+		} else {
+			put((IResource) theResource, theValue);
+		}
+	}
+
+	@Override
+	public void put(IResource theResource, ResourceIndexedSearchParams theObject) {
+		theResource.getResourceMetadata().put(IDao.INDEXED_SEARCH_PARAMS, theObject);
+	}
+}
@@ -0,0 +1,278 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes resource bodies for storage in the database and parses them back, streaming
+ * the parser output straight into the compressor (and the decompressor output straight
+ * into the parser) so that the uncompressed body never needs to be held as a string.
+ * <p>
+ * The compression buffers and the {@link Deflater}/{@link Inflater} used for
+ * {@link ResourceEncodingEnum#JSOND} are kept per thread and reused, since allocating
+ * them (and their native memory) for every resource is a significant part of the cost
+ * of compressing small resource bodies.
+ * </p>
+ */
+public class ResourceCompressionUtil {
+
+	/**
+	 * Preset dictionary for {@link ResourceEncodingEnum#JSOND}. This holds fragments which
+	 * appear in most FHIR JSON resource bodies, so that even small resources compress well.
+	 * Deflate favours matches near the end of the dictionary, so the most common fragments
+	 * are placed last.
+	 * <p>
+	 * <b>This must never be changed</b>, since the same dictionary is needed to read any
+	 * body which was written with it. A different dictionary requires a new encoding.
+	 * </p>
+	 */
+	static final byte[] JSOND_DICTIONARY = ("" +
+		"\"http://hl7.org/fhir/sid/us-ssn\"\"http://hl7.org/fhir/sid/us-npi\"" +
+		"\"http://terminology.hl7.org/CodeSystem/v2-0203\"\"http://terminology.hl7.org/CodeSystem/v3-ActCode\"" +
+		"\"http://terminology.hl7.org/CodeSystem/observation-category\",\"code\":\"vital-signs\"" +
+		"\"http://terminology.hl7.org/CodeSystem/condition-clinical\"\"http://terminology.hl7.org/CodeSystem/condition-ver-status\"" +
+		"\"http://unitsofmeasure.org\"\"http://snomed.info/sct\"\"http://loinc.org\"\"http://www.nlm.nih.gov/research/umls/rxnorm\"" +
+		"\"http://hl7.org/fhir/StructureDefinition/\"\"http://hl7.org/fhir/us/core/StructureDefinition/\"" +
+		"\"telecom\":[{\"system\":\"phone\",\"value\":\"\",\"use\":\"home\"},{\"system\":\"email\",\"value\":\"\",\"use\":\"work\"}]" +
+		"\"address\":[{\"use\":\"home\",\"line\":[\"\"],\"city\":\"\",\"state\":\"\",\"postalCode\":\"\",\"country\":\"\"}]" +
+		"\"name\":[{\"use\":\"official\",\"family\":\"\",\"given\":[\"\"],\"prefix\":[\"\"]}]" +
+		"\"gender\":\"female\"\"gender\":\"male\"\"birthDate\":\"\"deceasedBoolean\":false\"maritalStatus\":" +
+		"\"managingOrganization\":{\"reference\":\"Organization/\"}\"generalPractitioner\":[{\"reference\":\"Practitioner/\"}]" +
+		"\"performer\":[{\"reference\":\"Practitioner/\"}]\"encounter\":{\"reference\":\"Encounter/\"}" +
+		"\"subject\":{\"reference\":\"Patient/\"}\"patient\":{\"reference\":\"Patient/\"}" +
+		"\"effectiveDateTime\":\"\"issued\":\"\"onsetDateTime\":\"\"authoredOn\":\"\"recordedDate\":\"" +
+		"\"period\":{\"start\":\"\",\"end\":\"\"}\"valueQuantity\":{\"value\":,\"unit\":\"\",\"system\":\"http://unitsofmeasure.org\",\"code\":\"\"}" +
+		"\"valueString\":\"\"valueCode\":\"\"valueBoolean\":true\"valueDateTime\":\"\"valueReference\":{\"reference\":\"" +
+		"\"valueCodeableConcept\":{\"coding\":[{\"system\":\"\"extension\":[{\"url\":\"http://hl7.org/fhir/StructureDefinition/" +
+		"\"category\":[{\"coding\":[{\"system\":\"\"status\":\"final\"\"status\":\"active\"\"status\":\"completed\"\"active\":true" +
+		"\"text\":{\"status\":\"generated\",\"div\":\"<div xmlns=\\\"http://www.w3.org/1999/xhtml\\\">\"}" +
+		"\"identifier\":[{\"type\":{\"coding\":[{\"system\":\"\",\"code\":\"\",\"display\":\"\"}],\"text\":\"\"},\"system\":\"\",\"value\":\"\"}]" +
+		"\"code\":{\"coding\":[{\"system\":\"\",\"code\":\"\",\"display\":\"\"}],\"text\":\"\"}" +
+		"\"meta\":{\"versionId\":\"1\",\"lastUpdated\":\"\",\"source\":\"#\",\"profile\":[\"\"],\"security\":[{\"system\":\"\",\"code\":\"\"}],\"tag\":[{\"system\":\"\",\"code\":\"\"}]}" +
+		"{\"resourceType\":\"Observation\",\"id\":\"{\"resourceType\":\"Patient\",\"id\":\"" +
+		"").getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Buffers which have grown larger than this while encoding a very large resource are
+	 * not kept for reuse, so that one large resource doesn't pin memory on every thread
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+	private static final ThreadLocal<Codecs> ourCodecs = ThreadLocal.withInitial(Codecs::new);
+
+	/**
+	 * Non instantiable
+	 */
+	private ResourceCompressionUtil() {
+		// nothing
+	}
+
+	/**
+	 * Encodes a resource using the given parser and returns the body to store for the given encoding
+	 */
+	public static byte[] encode(IParser theParser, IBaseResource theResource, ResourceEncodingEnum theEncoding) {
+		if (theEncoding == ResourceEncodingEnum.DEL) {
+			return new byte[0];
+		}
+
+		Codecs codecs = Codecs.acquire();
+		try {
+			ReusableByteArrayOutputStream buffer = codecs.getBuffer();
+			try (Writer writer = new OutputStreamWriter(newCompressingStream(buffer, theEncoding, codecs), StandardCharsets.UTF_8)) {
+				theParser.encodeResourceToWriter(theResource, writer);
+			}
+			return buffer.toByteArray();
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to compress contents", e);
+		} finally {
+			codecs.release();
+		}
+	}
+
+	/**
+	 * Parses a stored resource body using the given parser
+	 */
+	public static <T extends IBaseResource> T parse(IParser theParser, Class<T> theResourceType, byte[] theResourceBytes, ResourceEncodingEnum theEncoding) {
+		Codecs codecs = Codecs.acquire();
+		try (Reader reader = new InputStreamReader(newDecompressingStream(theResourceBytes, theEncoding, codecs), StandardCharsets.UTF_8)) {
+			return theParser.parseResource(theResourceType, reader);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to decompress contents", e);
+		} finally {
+			codecs.release();
+		}
+	}
+
+	/**
+	 * Decodes a stored resource body to its text, or returns <code>null</code> for {@link ResourceEncodingEnum#DEL}
+	 */
+	public static String decodeToString(byte[] theResourceBytes, ResourceEncodingEnum theEncoding) {
+		if (theEncoding == ResourceEncodingEnum.DEL) {
+			return null;
+		}
+
+		Codecs codecs = Codecs.acquire();
+		try (InputStream is = newDecompressingStream(theResourceBytes, theEncoding, codecs)) {
+			return IOUtils.toString(is, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to decompress contents", e);
+		} finally {
+			codecs.release();
+		}
+	}
+
+	private static OutputStream newCompressingStream(OutputStream theTarget, ResourceEncodingEnum theEncoding, Codecs theCodecs) throws IOException {
+		switch (theEncoding) {
+			case JSON:
+				return theTarget;
+			case JSONC:
+				return new GZIPOutputStream(theTarget, STREAM_BUFFER_SIZE);
+			case JSOND:
+				return new DeflaterOutputStream(theTarget, theCodecs.getDeflater(), STREAM_BUFFER_SIZE);
+			case DEL:
+			default:
+				throw new IllegalArgumentException("Can not encode resource body with encoding: " + theEncoding);
+		}
+	}
+
+	private static InputStream newDecompressingStream(byte[] theResourceBytes, ResourceEncodingEnum theEncoding, Codecs theCodecs) throws IOException {
+		InputStream is = new ByteArrayInputStream(theResourceBytes);
+		switch (theEncoding) {
+			case JSON:
+				return is;
+			case JSONC:
+				return new GZIPInputStream(is, STREAM_BUFFER_SIZE);
+			case JSOND:
+				return new InflaterInputStream(is, theCodecs.getInflater(), STREAM_BUFFER_SIZE);
+			case DEL:
+			default:
+				throw new IllegalArgumentException("Can not decode resource body with encoding: " + theEncoding);
+		}
+	}
+
+	/**
+	 * The reusable compression state for a single thread
+	 */
+	private static class Codecs {
+		private final boolean myPooled;
+		private Deflater myDeflater;
+		private Inflater myInflater;
+		private ReusableByteArrayOutputStream myBuffer;
+		private boolean myInUse;
+
+		Codecs() {
+			this(true);
+		}
+
+		private Codecs(boolean thePooled) {
+			myPooled = thePooled;
+		}
+
+		/**
+		 * Returns the codecs for the current thread, or a throwaway instance if they
+		 * are already in use further up the stack
+		 */
+		static Codecs acquire() {
+			Codecs retVal = ourCodecs.get();
+			if (retVal.myInUse) {
+				retVal = new Codecs(false);
+			}
+			retVal.myInUse = true;
+			return retVal;
+		}
+
+		void release() {
+			myInUse = false;
+			if (myBuffer != null && myBuffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+				myBuffer = null;
+			}
+			if (!myPooled) {
+				if (myDeflater != null) {
+					myDeflater.end();
+				}
+				if (myInflater != null) {
+					myInflater.end();
+				}
+			}
+		}
+
+		ReusableByteArrayOutputStream getBuffer() {
+			if (myBuffer == null) {
+				myBuffer = new ReusableByteArrayOutputStream();
+			}
+			myBuffer.reset();
+			return myBuffer;
+		}
+
+		Deflater getDeflater() {
+			if (myDeflater == null) {
+				myDeflater = new Deflater(Deflater.BEST_SPEED, true);
+			}
+			myDeflater.reset();
+			myDeflater.setDictionary(JSOND_DICTIONARY);
+			return myDeflater;
+		}
+
+		Inflater getInflater() {
+			if (myInflater == null) {
+				myInflater = new Inflater(true);
+			}
+			myInflater.reset();
+			myInflater.setDictionary(JSOND_DICTIONARY);
+			return myInflater;
+		}
+	}
+
+	private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+		ReusableByteArrayOutputStream() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		int capacity() {
+			return buf.length;
+		}
+	}
+
+}
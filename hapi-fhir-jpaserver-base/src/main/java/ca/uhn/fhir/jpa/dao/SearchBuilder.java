@@ -31,10 +31,13 @@ import ca.uhn.fhir.jpa.dao.index.IdHelperService;
 import ca.uhn.fhir.jpa.entity.ResourceSearchView;
 import ca.uhn.fhir.jpa.interceptor.JpaPreResourceAccessDetails;
 import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdList;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdSet;
 import ca.uhn.fhir.jpa.model.entity.*;
 import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.model.util.StringNormalizer;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
 import ca.uhn.fhir.jpa.searchparam.JpaRuntimeSearchParam;
 import ca.uhn.fhir.jpa.searchparam.MatchUrlService;
 import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
@@ -117,6 +120,7 @@ public class SearchBuilder implements ISearchBuilder {
 	private static final int MAXIMUM_PAGE_SIZE = 800;
 	private static ResourcePersistentId NO_MORE = new ResourcePersistentId(-1L);
 	private final boolean myDontUseHashesForSearch;
+	private final boolean myIndexStorageHashesOnly;
 	private final DaoConfig myDaoConfig;
 	@Autowired
 	protected IInterceptorBroadcaster myInterceptorBroadcaster;
@@ -140,6 +144,8 @@ public class SearchBuilder implements ISearchBuilder {
 	private ITermReadSvc myTerminologySvc;
 	@Autowired
 	private MatchUrlService myMatchUrlService;
+	@Autowired
+	private RequestPartitionHelperService myRequestPartitionHelperService;
 	private List<ResourcePersistentId> myAlsoIncludePids;
 	private CriteriaBuilder myBuilder;
 	private BaseHapiFhirDao<?> myCallingDao;
@@ -153,8 +159,9 @@ public class SearchBuilder implements ISearchBuilder {
 	private String mySearchUuid;
 	private int myFetchSize;
 	private Integer myMaxResultsToFetch;
-	private Set<ResourcePersistentId> myPidSet;
+	private ResourcePersistentIdSet myPidSet;
 	private boolean myHaveIndexJoins = false;
+	private Integer myRequestPartitionId;
 
 	/**
 	 * Constructor
@@ -162,7 +169,9 @@ public class SearchBuilder implements ISearchBuilder {
 	SearchBuilder(BaseHapiFhirDao<?> theDao) {
 		myCallingDao = theDao;
 		myDaoConfig = theDao.getConfig();
-		myDontUseHashesForSearch = myDaoConfig.getDisableHashBasedSearches();
+		myIndexStorageHashesOnly = myDaoConfig.getModelConfig().isIndexStorageHashesOnly();
+		// Without the raw values, the only way to search is by hash
+		myDontUseHashesForSearch = myDaoConfig.getDisableHashBasedSearches() && !myIndexStorageHashesOnly;
 	}
 
 	@Override
@@ -769,6 +778,7 @@ public class SearchBuilder implements ISearchBuilder {
 		// Create the subquery predicates
 		myPredicates.add(myBuilder.equal(myResourceTableRoot.get("myResourceType"), theSubResourceName));
 		myPredicates.add(myBuilder.isNull(myResourceTableRoot.get("myDeleted")));
+		addPredicatePartition(myResourceTableRoot);
 
 		if (theFoundChainMatch) {
 			searchForIdsWithAndOr(theSubResourceName, theChain, andOrParams, theRequest);
@@ -1294,6 +1304,23 @@ public class SearchBuilder implements ISearchBuilder {
 		return retVal;
 	}
 
+	/**
+	 * If partitioning is enabled, restricts the given resource table root to the partition of the current request
+	 */
+	private void addPredicatePartition(From<?, ResourceTable> theRoot) {
+		if (myRequestPartitionHelperService.isPartitioningEnabled()) {
+			myPredicates.add(createPredicatePartition(theRoot));
+		}
+	}
+
+	private Predicate createPredicatePartition(From<?, ?> theFrom) {
+		Path<Integer> partitionId = theFrom.get("myPartitionId");
+		if (myRequestPartitionId == null) {
+			return myBuilder.isNull(partitionId);
+		}
+		return myBuilder.equal(partitionId, myRequestPartitionId);
+	}
+
 	@SuppressWarnings("unchecked")
 	private <T> Join<ResourceTable, T> createJoin(JoinEnum theType, String theSearchParameterName) {
 		Join<ResourceTable, ResourceIndexedSearchParamDate> join = null;
@@ -1321,6 +1348,11 @@ public class SearchBuilder implements ISearchBuilder {
 				break;
 		}
 
+		if (myRequestPartitionHelperService.isPartitioningEnabled()) {
+			// Restrict the index rows too, so that the database only needs to look at the partition's rows
+			join.on(createPredicatePartition(join));
+		}
+
 		JoinKey key = new JoinKey(theSearchParameterName, theType);
 		myIndexJoins.put(key, join);
 		myHaveIndexJoins = true;
@@ -2019,7 +2051,7 @@ public class SearchBuilder implements ISearchBuilder {
 	 */
 	@Override
 	public void setPreviouslyAddedResourcePids(@Nullable List<ResourcePersistentId> thePidSet) {
-		myPidSet = new HashSet<>(thePidSet);
+		myPidSet = new ResourcePersistentIdSet(thePidSet);
 	}
 
 	@Override
@@ -2029,7 +2061,7 @@ public class SearchBuilder implements ISearchBuilder {
 		mySearchUuid = theSearchRuntimeDetails.getSearchUuid();
 
 		if (myPidSet == null) {
-			myPidSet = new HashSet<>();
+			myPidSet = new ResourcePersistentIdSet();
 		}
 
 		return new QueryIterator(theSearchRuntimeDetails, theRequest);
@@ -2037,6 +2069,7 @@ public class SearchBuilder implements ISearchBuilder {
 
 	private TypedQuery<Long> createQuery(SortSpec sort, Integer theMaximumResults, boolean theCount, RequestDetails theRequest) {
 		myPredicates = new ArrayList<>();
+		myRequestPartitionId = myRequestPartitionHelperService.determinePartitionId(theRequest);
 
 		CriteriaQuery<Long> outerQuery;
 		/*
@@ -2085,6 +2118,13 @@ public class SearchBuilder implements ISearchBuilder {
 			if (myParams.get(IAnyResource.SP_RES_ID) != null) {
 				StringParam idParm = (StringParam) myParams.get(IAnyResource.SP_RES_ID).get(0).get(0);
 				ResourcePersistentId pid = myIdHelperService.translateForcedIdToPid(myResourceName, idParm.getValue(), theRequest);
+				if (myRequestPartitionHelperService.isPartitioningEnabled()) {
+					// The resource itself is returned without going through the partition predicate below
+					ResourceTable entity = myEntityManager.find(ResourceTable.class, pid.getIdAsLong());
+					if (entity == null || !myRequestPartitionHelperService.isInRequestPartition(entity, theRequest)) {
+						throw new ResourceNotFoundException(new IdDt(myResourceName, idParm.getValue()));
+					}
+				}
 				if (myAlsoIncludePids == null) {
 					myAlsoIncludePids = new ArrayList<>(1);
 				}
@@ -2141,6 +2181,8 @@ public class SearchBuilder implements ISearchBuilder {
 			myPredicates.add(myBuilder.isNull(myResourceTableRoot.get("myDeleted")));
 		}
 
+		addPredicatePartition(myResourceTableRoot);
+
 		// Last updated
 		DateRangeParam lu = myParams.getLastUpdated();
 		List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(lu, myBuilder, myResourceTableRoot);
@@ -2209,7 +2251,12 @@ public class SearchBuilder implements ISearchBuilder {
 		switch (param.getParamType()) {
 			case STRING:
 				joinAttrName = "myParamsString";
-				sortAttrName = new String[]{"myValueExact"};
+				if (myIndexStorageHashesOnly) {
+					// The exact value isn't stored, but the normalized value sorts the same way apart from case and accents
+					sortAttrName = new String[]{"myValueNormalized"};
+				} else {
+					sortAttrName = new String[]{"myValueExact"};
+				}
 				joinType = JoinEnum.STRING;
 				break;
 			case DATE:
@@ -2223,6 +2270,9 @@ public class SearchBuilder implements ISearchBuilder {
 				joinType = JoinEnum.REFERENCE;
 				break;
 			case TOKEN:
+				if (myIndexStorageHashesOnly) {
+					throw new InvalidRequestException("This server does not support _sort specifications of type " + param.getParamType() + " because token index values are not stored - Can't serve _sort=" + theSort.getParamName());
+				}
 				joinAttrName = "myParamsToken";
 				sortAttrName = new String[]{"mySystem", "myValue"};
 				joinType = JoinEnum.TOKEN;
@@ -2435,23 +2485,34 @@ public class SearchBuilder implements ISearchBuilder {
 	}
 
 	/**
-	 * THIS SHOULD RETURN HASHSET and not just Set because we add to it later
+	 * THIS SHOULD RETURN A MUTABLE SET and not just Set because we add to it later
 	 * so it can't be Collections.emptySet() or some such thing
 	 */
 	@Override
-	public HashSet<ResourcePersistentId> loadIncludes(FhirContext theContext, EntityManager theEntityManager, Collection<ResourcePersistentId> theMatches, Set<Include> theRevIncludes,
+	public ResourcePersistentIdSet loadIncludes(FhirContext theContext, EntityManager theEntityManager, Collection<ResourcePersistentId> theMatches, Set<Include> theRevIncludes,
 												 boolean theReverseMode, DateRangeParam theLastUpdated, String theSearchIdOrDescription, RequestDetails theRequest) {
 		if (theMatches.size() == 0) {
-			return new HashSet<>();
+			return new ResourcePersistentIdSet();
 		}
 		if (theRevIncludes == null || theRevIncludes.isEmpty()) {
-			return new HashSet<>();
+			return new ResourcePersistentIdSet();
 		}
 		String searchFieldName = theReverseMode ? "myTargetResourcePid" : "mySourceResourcePid";
 
+		/*
+		 * Links are stored in the partition of their source resource, and can only point to resources in
+		 * the same partition, so restricting the links restricts both includes and revincludes
+		 */
+		String partitionClause = "";
+		Integer partitionId = null;
+		if (myRequestPartitionHelperService.isPartitioningEnabled()) {
+			partitionId = myRequestPartitionHelperService.determinePartitionId(theRequest);
+			partitionClause = partitionId == null ? " AND r.myPartitionId IS NULL" : " AND r.myPartitionId = :partition_id";
+		}
+
 		Collection<ResourcePersistentId> nextRoundMatches = theMatches;
-		HashSet<ResourcePersistentId> allAdded = new HashSet<>();
-		HashSet<ResourcePersistentId> original = new HashSet<>(theMatches);
+		ResourcePersistentIdSet allAdded = new ResourcePersistentIdSet();
+		ResourcePersistentIdSet original = new ResourcePersistentIdSet(theMatches);
 		ArrayList<Include> includes = new ArrayList<>(theRevIncludes);
 
 		int roundCounts = 0;
@@ -2461,7 +2522,7 @@ public class SearchBuilder implements ISearchBuilder {
 		do {
 			roundCounts++;
 
-			HashSet<ResourcePersistentId> pidsToInclude = new HashSet<>();
+			ResourcePersistentIdSet pidsToInclude = new ResourcePersistentIdSet();
 
 			for (Iterator<Include> iter = includes.iterator(); iter.hasNext(); ) {
 				Include nextInclude = iter.next();
@@ -2472,17 +2533,20 @@ public class SearchBuilder implements ISearchBuilder {
 				boolean matchAll = "*".equals(nextInclude.getValue());
 				if (matchAll) {
 					String sql;
-					sql = "SELECT r FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids) ";
+					sql = "SELECT r FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids)" + partitionClause;
 					List<Collection<ResourcePersistentId>> partitions = partition(nextRoundMatches, MAXIMUM_PAGE_SIZE);
 					for (Collection<ResourcePersistentId> nextPartition : partitions) {
 						TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
 						q.setParameter("target_pids", ResourcePersistentId.toLongList(nextPartition));
+						if (partitionId != null) {
+							q.setParameter("partition_id", partitionId);
+						}
 						List<ResourceLink> results = q.getResultList();
 						for (ResourceLink resourceLink : results) {
 							if (theReverseMode) {
-								pidsToInclude.add(new ResourcePersistentId(resourceLink.getSourceResourcePid()));
+								pidsToInclude.addLong(resourceLink.getSourceResourcePid());
 							} else {
-								pidsToInclude.add(new ResourcePersistentId(resourceLink.getTargetResourcePid()));
+								pidsToInclude.addLong(resourceLink.getTargetResourcePid());
 							}
 						}
 					}
@@ -2525,6 +2589,7 @@ public class SearchBuilder implements ISearchBuilder {
 						} else {
 							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids)";
 						}
+						sql = sql + partitionClause;
 
 						List<Collection<ResourcePersistentId>> partitions = partition(nextRoundMatches, MAXIMUM_PAGE_SIZE);
 						for (Collection<ResourcePersistentId> nextPartition : partitions) {
@@ -2536,17 +2601,20 @@ public class SearchBuilder implements ISearchBuilder {
 							} else if (haveTargetTypesDefinedByParam) {
 								q.setParameter("target_resource_types", param.getTargets());
 							}
+							if (partitionId != null) {
+								q.setParameter("partition_id", partitionId);
+							}
 							List<ResourceLink> results = q.getResultList();
 							for (ResourceLink resourceLink : results) {
 								if (theReverseMode) {
 									Long pid = resourceLink.getSourceResourcePid();
 									if (pid != null) {
-										pidsToInclude.add(new ResourcePersistentId(pid));
+										pidsToInclude.addLong(pid);
 									}
 								} else {
 									Long pid = resourceLink.getTargetResourcePid();
 									if (pid != null) {
-										pidsToInclude.add(new ResourcePersistentId(pid));
+										pidsToInclude.addLong(pid);
 									}
 								}
 							}
@@ -2557,12 +2625,12 @@ public class SearchBuilder implements ISearchBuilder {
 
 			if (theReverseMode) {
 				if (theLastUpdated != null && (theLastUpdated.getLowerBoundAsInstant() != null || theLastUpdated.getUpperBoundAsInstant() != null)) {
-					pidsToInclude = new HashSet<>(filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude));
+					pidsToInclude = new ResourcePersistentIdSet(filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude));
 				}
 			}
-			for (ResourcePersistentId next : pidsToInclude) {
-				if (original.contains(next) == false && allAdded.contains(next) == false) {
-					theMatches.add(next);
+			for (long next : pidsToInclude.toLongArray()) {
+				if (original.containsLong(next) == false && allAdded.containsLong(next) == false) {
+					theMatches.add(new ResourcePersistentId(next));
 				}
 			}
 
@@ -2578,7 +2646,7 @@ public class SearchBuilder implements ISearchBuilder {
 		// This can be used to remove results from the search result details before
 		// the user has a chance to know that they were in the results
 		if (allAdded.size() > 0) {
-			List<ResourcePersistentId> includedPidList = new ArrayList<>(allAdded);
+			ResourcePersistentIdList includedPidList = new ResourcePersistentIdList(allAdded);
 			JpaPreResourceAccessDetails accessDetails = new JpaPreResourceAccessDetails(includedPidList, () -> this);
 			HookParams params = new HookParams()
 				.add(IPreResourceAccessDetails.class, accessDetails)
@@ -2595,7 +2663,7 @@ public class SearchBuilder implements ISearchBuilder {
 				}
 			}
 
-			allAdded = new HashSet<>(includedPidList);
+			allAdded = new ResourcePersistentIdSet(includedPidList);
 		}
 
 		return allAdded;
@@ -2610,7 +2678,7 @@ public class SearchBuilder implements ISearchBuilder {
 			Collection<ResourcePersistentId> current = null;
 			for (ResourcePersistentId next : theNextRoundMatches) {
 				if (current == null) {
-					current = new ArrayList<>(theMaxLoad);
+					current = new ResourcePersistentIdList(theMaxLoad);
 					retVal.add(current);
 				}
 
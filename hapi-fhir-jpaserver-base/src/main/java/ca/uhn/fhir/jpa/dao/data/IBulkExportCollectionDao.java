@@ -1,11 +1,16 @@
 package ca.uhn.fhir.jpa.dao.data;
 
+import ca.uhn.fhir.jpa.bulk.BulkJobStatusEnum;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Date;
+
 /*
  * #%L
  * HAPI FHIR JPA Server
@@ -28,6 +33,25 @@ import org.springframework.data.repository.query.Param;
 
 public interface IBulkExportCollectionDao extends JpaRepository<BulkExportCollectionEntity, Long> {
 
+	/**
+	 * Finds collections belonging to jobs in the given status which are either not yet claimed,
+	 * or were claimed before the given cutoff and never finished (e.g. because the node processing
+	 * them went down)
+	 */
+	@Query("SELECT c FROM BulkExportCollectionEntity c WHERE c.myJob.myStatus = :jobstatus AND (c.myStatus IS NULL OR c.myStatus = :unclaimed OR (c.myStatus = :claimed AND c.myStatusTime < :cutoff))")
+	Slice<BulkExportCollectionEntity> findClaimable(Pageable thePage, @Param("jobstatus") BulkJobStatusEnum theJobStatus, @Param("unclaimed") BulkJobStatusEnum theUnclaimedStatus, @Param("claimed") BulkJobStatusEnum theClaimedStatus, @Param("cutoff") Date theClaimedBefore);
+
+	/**
+	 * Moves the claim time of a collection forward, as long as it is still claimed at the given
+	 * version (i.e. nobody else has reclaimed it in the meantime). This doesn't increment the
+	 * version, so the node holding the claim can still save the collection afterwards.
+	 *
+	 * @return Returns the number of collections updated, which is 0 if the claim was lost
+	 */
+	@Modifying
+	@Query("UPDATE BulkExportCollectionEntity c SET c.myStatusTime = :time WHERE c.myId = :pid AND c.myVersion = :version AND c.myStatus = :claimed")
+	int renewClaim(@Param("pid") Long theId, @Param("version") int theVersion, @Param("claimed") BulkJobStatusEnum theClaimedStatus, @Param("time") Date theTime);
+
 	@Modifying
 	@Query("DELETE FROM BulkExportCollectionEntity t")
 	void deleteAllFiles();
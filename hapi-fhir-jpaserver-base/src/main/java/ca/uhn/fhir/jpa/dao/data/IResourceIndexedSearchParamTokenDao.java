@@ -26,11 +26,33 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface IResourceIndexedSearchParamTokenDao extends JpaRepository<ResourceIndexedSearchParamToken, Long> {
 
 	@Query("select count(*) from ResourceIndexedSearchParamToken t WHERE t.myResourcePid = :resid")
 	int countForResourceId(@Param("resid") Long theResourcePid);
 
+	/**
+	 * Returns pairs of [hash system and value, resource PID] for non-deleted resources with
+	 * a token index row matching any of the given hashes
+	 */
+	@Query("SELECT t.myHashSystemAndValue, t.myResourcePid FROM ResourceIndexedSearchParamToken t WHERE t.myHashSystemAndValue IN (:hashes) AND t.myResource.myDeleted IS NULL")
+	List<Object[]> findResourcePidsByHashSystemAndValue(@Param("hashes") Collection<Long> theHashes);
+
+	/**
+	 * As {@link #findResourcePidsByHashSystemAndValue(Collection)}, but only for resources in the given partition
+	 */
+	@Query("SELECT t.myHashSystemAndValue, t.myResourcePid FROM ResourceIndexedSearchParamToken t WHERE t.myHashSystemAndValue IN (:hashes) AND t.myPartitionId = :partition_id AND t.myResource.myDeleted IS NULL")
+	List<Object[]> findResourcePidsByHashSystemAndValueInPartition(@Param("hashes") Collection<Long> theHashes, @Param("partition_id") Integer thePartitionId);
+
+	/**
+	 * As {@link #findResourcePidsByHashSystemAndValue(Collection)}, but only for resources in the default partition
+	 */
+	@Query("SELECT t.myHashSystemAndValue, t.myResourcePid FROM ResourceIndexedSearchParamToken t WHERE t.myHashSystemAndValue IN (:hashes) AND t.myPartitionId IS NULL AND t.myResource.myDeleted IS NULL")
+	List<Object[]> findResourcePidsByHashSystemAndValueInDefaultPartition(@Param("hashes") Collection<Long> theHashes);
+
 	@Modifying
 	@Query("delete from ResourceIndexedSearchParamToken t WHERE t.myResourcePid = :resid")
 	void deleteByResourceId(@Param("resid") Long theResourcePid);
@@ -53,15 +53,20 @@ public interface IResourceReindexJobDao extends JpaRepository<ResourceReindexJob
 	@Query("UPDATE ResourceReindexJobEntity j SET j.mySuspendedUntil = :suspendedUntil")
 	void setSuspendedUntil(@Param("suspendedUntil") Date theSuspendedUntil);
 
+	/**
+	 * Claims the right to split the given job into ranges. Returns 1 if this caller
+	 * should create the ranges, or 0 if they have already been created (or are being
+	 * created in another transaction which has since committed).
+	 */
 	@Modifying
-	@Query("UPDATE ResourceReindexJobEntity j SET j.myThresholdLow = :low WHERE j.myId = :id")
-	void setThresholdLow(@Param("id") Long theId, @Param("low") Date theLow);
+	@Query("UPDATE ResourceReindexJobEntity j SET j.myRangesCreated = true WHERE j.myId = :id AND (j.myRangesCreated IS NULL OR j.myRangesCreated = false)")
+	int claimRangeCreation(@Param("id") Long theId);
 
 	@Query("SELECT j.myReindexCount FROM ResourceReindexJobEntity j WHERE j.myId = :id")
 	Optional<Integer> getReindexCount(@Param("id") Long theId);
 
-	@Query("UPDATE ResourceReindexJobEntity j SET j.myReindexCount = :newCount WHERE j.myId = :id")
+	@Query("UPDATE ResourceReindexJobEntity j SET j.myReindexCount = COALESCE(j.myReindexCount, 0) + :count WHERE j.myId = :id")
 	@Modifying
-	void setReindexCount(@Param("id") Long theId, @Param("newCount") int theNewCount);
+	void incrementReindexCount(@Param("id") Long theId, @Param("count") int theCount);
 
 }
@@ -0,0 +1,80 @@
+package ca.uhn.fhir.jpa.dao.data;
+
+import ca.uhn.fhir.jpa.entity.ResourceReindexJobRangeEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+public interface IResourceReindexJobRangeDao extends JpaRepository<ResourceReindexJobRangeEntity, Long> {
+
+	/**
+	 * Finds ranges for the given job which are not complete, and which are either not
+	 * claimed or whose claim has expired (e.g. because the node processing them went down)
+	 */
+	@Query("SELECT r.myId FROM ResourceReindexJobRangeEntity r WHERE r.myJobId = :jobid AND r.myJob.myDeleted = false AND r.myComplete = false AND (r.myClaimedUntil IS NULL OR r.myClaimedUntil < :now) ORDER BY r.myPidLow ASC")
+	List<Long> findClaimableIds(Pageable thePage, @Param("jobid") Long theJobId, @Param("now") Date theNow);
+
+	/**
+	 * Claims the given range until the given time. Returns 1 if the range was claimed,
+	 * or 0 if it is complete or was claimed by someone else first.
+	 */
+	@Modifying
+	@Query("UPDATE ResourceReindexJobRangeEntity r SET r.myClaimedUntil = :until WHERE r.myId = :id AND r.myComplete = false AND (r.myClaimedUntil IS NULL OR r.myClaimedUntil < :now)")
+	int claim(@Param("id") Long theId, @Param("now") Date theNow, @Param("until") Date theClaimedUntil);
+
+	/**
+	 * Extends the given claim on the range until the given time. Returns 1 if the claim was
+	 * renewed, or 0 if the range is complete or has been claimed by someone else since.
+	 */
+	@Modifying
+	@Query("UPDATE ResourceReindexJobRangeEntity r SET r.myClaimedUntil = :until WHERE r.myId = :id AND r.myComplete = false AND r.myClaimedUntil = :claim")
+	int renewClaim(@Param("id") Long theId, @Param("claim") Date theClaimedUntil, @Param("until") Date theNewClaimedUntil);
+
+	/**
+	 * Releases the given claim on the range, unless it has been claimed by someone else since
+	 */
+	@Modifying
+	@Query("UPDATE ResourceReindexJobRangeEntity r SET r.myClaimedUntil = NULL WHERE r.myId = :id AND r.myClaimedUntil = :claim")
+	void releaseClaim(@Param("id") Long theId, @Param("claim") Date theClaimedUntil);
+
+	/**
+	 * Marks the range as complete if it is still held under the given claim. Returns 1 if the range
+	 * was completed, or 0 if it is already complete or has been claimed by someone else since.
+	 */
+	@Modifying
+	@Query("UPDATE ResourceReindexJobRangeEntity r SET r.myComplete = true, r.myClaimedUntil = NULL, r.myReindexCount = :count WHERE r.myId = :id AND r.myComplete = false AND r.myClaimedUntil = :claim")
+	int markComplete(@Param("id") Long theId, @Param("count") int theReindexCount, @Param("claim") Date theClaimedUntil);
+
+	@Query("SELECT COUNT(r) FROM ResourceReindexJobRangeEntity r WHERE r.myJobId = :jobid AND r.myComplete = false")
+	long countIncomplete(@Param("jobid") Long theJobId);
+
+	@Modifying
+	@Query("DELETE FROM ResourceReindexJobRangeEntity r WHERE r.myJobId = :jobid")
+	void deleteByJobId(@Param("jobid") Long theJobId);
+
+}
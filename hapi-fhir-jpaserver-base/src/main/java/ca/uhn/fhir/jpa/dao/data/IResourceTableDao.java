@@ -55,6 +55,24 @@ public interface IResourceTableDao extends JpaRepository<ResourceTable, Long> {
 	@Query("SELECT t.myId FROM ResourceTable t WHERE t.myUpdated >= :low AND t.myUpdated <= :high AND t.myResourceType = :restype ORDER BY t.myUpdated ASC")
 	Slice<Long> findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(Pageable thePage, @Param("restype") String theResourceType, @Param("low") Date theLow, @Param("high") Date theHigh);
 
+	@Query("SELECT t.myId FROM ResourceTable t WHERE t.myId >= :low AND t.myId <= :high AND t.myUpdated <= :updatedhigh ORDER BY t.myId ASC")
+	Slice<Long> findIdsOfResourcesWithinPidRange(Pageable thePage, @Param("low") Long theLow, @Param("high") Long theHigh, @Param("updatedhigh") Date theUpdatedHigh);
+
+	@Query("SELECT t.myId FROM ResourceTable t WHERE t.myId >= :low AND t.myId <= :high AND t.myUpdated <= :updatedhigh AND t.myResourceType = :restype ORDER BY t.myId ASC")
+	Slice<Long> findIdsOfResourcesWithinPidRange(Pageable thePage, @Param("restype") String theResourceType, @Param("low") Long theLow, @Param("high") Long theHigh, @Param("updatedhigh") Date theUpdatedHigh);
+
+	@Query("SELECT MIN(t.myId) FROM ResourceTable t")
+	Long findLowestPid();
+
+	@Query("SELECT MIN(t.myId) FROM ResourceTable t WHERE t.myResourceType = :restype")
+	Long findLowestPid(@Param("restype") String theResourceType);
+
+	@Query("SELECT MAX(t.myId) FROM ResourceTable t")
+	Long findHighestPid();
+
+	@Query("SELECT MAX(t.myId) FROM ResourceTable t WHERE t.myResourceType = :restype")
+	Long findHighestPid(@Param("restype") String theResourceType);
+
 	@Modifying
 	@Query("UPDATE ResourceTable t SET t.myIndexStatus = :status WHERE t.myId = :id")
 	void updateIndexStatus(@Param("id") Long theId, @Param("status") Long theIndexStatus);
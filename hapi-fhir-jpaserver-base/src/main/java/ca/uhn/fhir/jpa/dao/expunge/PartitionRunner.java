@@ -31,23 +31,76 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 
+/**
+ * Runs expunge work in partitions on a pool of worker threads. The pool is shared by all
+ * expunge operations on this server, so the total number of threads working on expunges
+ * never exceeds {@link DaoConfig#getExpungeThreadCount()}. When the pool's queue is full,
+ * callers block until a slot becomes available.
+ */
 @Service
 public class PartitionRunner {
 	private static final Logger ourLog = LoggerFactory.getLogger(ExpungeService.class);
-	private static final int MAX_POOL_SIZE = 1000;
+	private static final int MAX_QUEUE_SIZE = 1000;
 
 	private final DaoConfig myDaoConfig;
+	private ThreadPoolExecutor myExecutor;
 
 	@Autowired
 	public PartitionRunner(DaoConfig theDaoConfig) {
 		myDaoConfig = theDaoConfig;
 	}
 
+	@PostConstruct
+	public void start() {
+		int threadCount = myDaoConfig.getExpungeThreadCount();
+		ourLog.info("Expunge executor starting with {} thread(s)", threadCount);
+
+		LinkedBlockingQueue<Runnable> executorQueue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("expunge-%d")
+			.daemon(false)
+			.priority(Thread.NORM_PRIORITY)
+			.build();
+		RejectedExecutionHandler rejectedExecutionHandler = (theRunnable, theExecutor) -> {
+			if (theExecutor.isShutdown()) {
+				throw new RejectedExecutionException("Expunge executor has been shut down");
+			}
+			ourLog.info("Note: Expunge executor queue is full ({} elements), waiting for a slot to become available!", executorQueue.size());
+			StopWatch sw = new StopWatch();
+			try {
+				executorQueue.put(theRunnable);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Task " + theRunnable.toString() +
+					" rejected from " + e.toString());
+			}
+			ourLog.info("Slot become available after {}ms", sw.getMillis());
+		};
+		myExecutor = new ThreadPoolExecutor(
+			threadCount,
+			threadCount,
+			60L,
+			TimeUnit.SECONDS,
+			executorQueue,
+			threadFactory,
+			rejectedExecutionHandler);
+		myExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (myExecutor != null) {
+			myExecutor.shutdown();
+		}
+	}
+
 	void runInPartitionedThreads(Slice<Long> theResourceIds, Consumer<List<Long>> partitionConsumer) {
 
 		List<Callable<Void>> callableTasks = buildCallableTasks(theResourceIds, partitionConsumer);
@@ -65,21 +118,50 @@ public class PartitionRunner {
 			}
 		}
 
-		ExecutorService executorService = buildExecutor(callableTasks.size());
+		updateThreadCountIfNeeded();
+
+		StopWatch sw = new StopWatch();
+		List<Future<Void>> futures = new ArrayList<>(callableTasks.size());
 		try {
-			List<Future<Void>> futures = executorService.invokeAll(callableTasks);
-			// wait for all the threads to finish
+			for (Callable<Void> nextTask : callableTasks) {
+				futures.add(myExecutor.submit(nextTask));
+			}
+
+			// wait for all the partitions to finish
+			int completed = 0;
 			for (Future<Void> future : futures) {
 				future.get();
+				completed++;
+				ourLog.debug("Expunge progress: {}/{} partitions complete after {} ({} partitions/sec) - ETA {}", completed, futures.size(), sw, sw.formatThroughput(completed, TimeUnit.SECONDS), sw.getEstimatedTimeRemaining(completed, futures.size()));
 			}
+			ourLog.info("Expunged {} partitions containing {} IDs in {}", futures.size(), theResourceIds.getNumberOfElements(), sw);
 		} catch (InterruptedException e) {
 			ourLog.error("Interrupted while expunging.", e);
+			futures.forEach(t -> t.cancel(true));
 			Thread.currentThread().interrupt();
 		} catch (ExecutionException e) {
 			ourLog.error("Error while expunging.", e);
+			futures.forEach(t -> t.cancel(true));
 			throw new InternalErrorException(e);
-		} finally {
-			executorService.shutdown();
+		}
+	}
+
+	/**
+	 * The expunge thread count may be changed at runtime, so we resize the shared pool if needed
+	 */
+	private synchronized void updateThreadCountIfNeeded() {
+		int threadCount = myDaoConfig.getExpungeThreadCount();
+		if (myExecutor.getMaximumPoolSize() == threadCount) {
+			return;
+		}
+
+		ourLog.info("Changing expunge executor thread count from {} to {}", myExecutor.getMaximumPoolSize(), threadCount);
+		if (threadCount > myExecutor.getMaximumPoolSize()) {
+			myExecutor.setMaximumPoolSize(threadCount);
+			myExecutor.setCorePoolSize(threadCount);
+		} else {
+			myExecutor.setCorePoolSize(threadCount);
+			myExecutor.setMaximumPoolSize(threadCount);
 		}
 	}
 
@@ -100,36 +182,4 @@ public class PartitionRunner {
 		return retval;
 	}
 
-
-	private ExecutorService buildExecutor(int numberOfTasks) {
-		int threadCount = Math.min(numberOfTasks, myDaoConfig.getExpungeThreadCount());
-		assert (threadCount > 0);
-
-		ourLog.info("Expunging with {} threads", threadCount);
-		LinkedBlockingQueue<Runnable> executorQueue = new LinkedBlockingQueue<>(MAX_POOL_SIZE);
-		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
-			.namingPattern("expunge-%d")
-			.daemon(false)
-			.priority(Thread.NORM_PRIORITY)
-			.build();
-		RejectedExecutionHandler rejectedExecutionHandler = (theRunnable, theExecutor) -> {
-			ourLog.info("Note: Expunge executor queue is full ({} elements), waiting for a slot to become available!", executorQueue.size());
-			StopWatch sw = new StopWatch();
-			try {
-				executorQueue.put(theRunnable);
-			} catch (InterruptedException e) {
-				throw new RejectedExecutionException("Task " + theRunnable.toString() +
-					" rejected from " + e.toString());
-			}
-			ourLog.info("Slot become available after {}ms", sw.getMillis());
-		};
-		return new ThreadPoolExecutor(
-			threadCount,
-			MAX_POOL_SIZE,
-			0L,
-			TimeUnit.MILLISECONDS,
-			executorQueue,
-			threadFactory,
-			rejectedExecutionHandler);
-	}
 }
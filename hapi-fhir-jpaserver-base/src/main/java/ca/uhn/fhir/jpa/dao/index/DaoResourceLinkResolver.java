@@ -28,6 +28,7 @@ import ca.uhn.fhir.jpa.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
 import ca.uhn.fhir.jpa.searchparam.extractor.IResourceLinkResolver;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
@@ -54,6 +55,8 @@ public class DaoResourceLinkResolver implements IResourceLinkResolver {
 	private IdHelperService myIdHelperService;
 	@Autowired
 	private DaoRegistry myDaoRegistry;
+	@Autowired
+	private RequestPartitionHelperService myRequestPartitionHelperService;
 
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
 	protected EntityManager myEntityManager;
@@ -77,14 +80,15 @@ public class DaoResourceLinkResolver implements IResourceLinkResolver {
 				newResource.setId(resName + "/" + theId);
 				IFhirResourceDao<IBaseResource> placeholderResourceDao = (IFhirResourceDao<IBaseResource>) myDaoRegistry.getResourceDao(newResource.getClass());
 				ourLog.debug("Automatically creating empty placeholder resource: {}", newResource.getIdElement().getValue());
-				valueOf = placeholderResourceDao.update(newResource).getEntity().getPersistentId();
+				valueOf = placeholderResourceDao.update(newResource, theRequest).getEntity().getPersistentId();
 			} else {
 				throw new InvalidRequestException("Resource " + resName + "/" + theId + " not found, specified in path: " + theNextPathsUnsplit);
 			}
 		}
 		target = myEntityManager.find(ResourceTable.class, valueOf.getIdAsLong());
 		RuntimeResourceDefinition targetResourceDef = myContext.getResourceDefinition(theType);
-		if (target == null) {
+		if (target == null || !myRequestPartitionHelperService.isInRequestPartition(target, theRequest)) {
+			// Resources in other partitions are treated as though they don't exist
 			String resName = targetResourceDef.getName();
 			throw new InvalidRequestException("Resource " + resName + "/" + theId + " not found, specified in path: " + theNextPathsUnsplit);
 		}
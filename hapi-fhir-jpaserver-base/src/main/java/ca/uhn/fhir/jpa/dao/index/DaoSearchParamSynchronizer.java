@@ -24,6 +24,7 @@ import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.model.entity.*;
 import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.util.AddRemoveCount;
+import com.google.common.annotations.VisibleForTesting;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -42,6 +43,16 @@ public class DaoSearchParamSynchronizer {
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
 	protected EntityManager myEntityManager;
 
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	@VisibleForTesting
+	void setEntityManagerForUnitTest(EntityManager theEntityManager) {
+		myEntityManager = theEntityManager;
+	}
+
 	public AddRemoveCount synchronizeSearchParamsToDatabase(ResourceIndexedSearchParams theParams, ResourceTable theEntity, ResourceIndexedSearchParams existingParams) {
 		AddRemoveCount retVal = new AddRemoveCount();
 
@@ -69,8 +80,19 @@ public class DaoSearchParamSynchronizer {
 			myEntityManager.remove(next);
 			theEntity.getParamsQuantity().remove(next);
 		}
+		boolean hashesOnly = myDaoConfig.getModelConfig().isIndexStorageHashesOnly();
 		for (T next : quantitiesToAdd) {
-			myEntityManager.merge(next);
+			next.setPartitionId(theEntity.getPartitionId());
+			if (hashesOnly) {
+				next.clearValuesNotNeededForHashSearch();
+			}
+			if (next.getId() == null) {
+				// New rows take their ID from the pooled sequence and are inserted in JDBC batches at flush time
+				myEntityManager.persist(next);
+			} else {
+				// Rows repurposing the ID of a removed row (see tryToReuseIndexEntities) are updates
+				myEntityManager.merge(next);
+			}
 		}
 
 		theAddRemoveCount.addToAddCount(quantitiesToAdd.size());
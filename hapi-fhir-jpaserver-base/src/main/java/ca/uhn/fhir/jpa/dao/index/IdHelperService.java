@@ -30,24 +30,47 @@ import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.model.search.StorageProcessingMessage;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
+import ca.uhn.fhir.jpa.util.TransactionScopedState;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
+/**
+ * Translates between client assigned (forced) resource IDs and resource PIDs.
+ * <p>
+ * Both directions are cached locally. Forced IDs can not change once they are assigned, so cached
+ * entries only become invalid when a resource is expunged. Entries are only added once the transaction
+ * that loaded them has committed, so a rolled back create never leaves a mapping behind in the cache.
+ * </p>
+ * <p>
+ * Mappings loaded during a transaction are also held for the rest of that transaction, so that
+ * IDs which were resolved in bulk (e.g. by {@link #translateForcedIdToPids(Collection, RequestDetails)}
+ * before processing a transaction bundle) do not need to be looked up again one at a time.
+ * </p>
+ */
 @Service
 public class IdHelperService {
+	private static final Object TRANSACTION_SCOPED_FORCED_IDS_KEY = IdHelperService.class.getName() + "_FORCED_IDS";
+
 	@Autowired
 	protected IForcedIdDao myForcedIdDao;
 	@Autowired(required = true)
@@ -55,8 +78,52 @@ public class IdHelperService {
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
 
+	private Cache<String, Long> myForcedIdToPidCache;
+	private Cache<Long, Optional<String>> myPidToForcedIdCache;
+
+	@PostConstruct
+	public void start() {
+		myForcedIdToPidCache = newCache();
+		myPidToForcedIdCache = newCache();
+	}
+
+	private <K, V> Cache<K, V> newCache() {
+		return Caffeine.newBuilder()
+			.maximumSize(myDaoConfig.getForcedIdCacheMaxSize())
+			.expireAfterWrite(myDaoConfig.getForcedIdCacheExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+			// Evict in the calling thread so that a size of 0 reliably disables the cache
+			.executor(Runnable::run)
+			.build();
+	}
+
 	public void delete(ForcedId forcedId) {
 		myForcedIdDao.deleteByPid(forcedId.getId());
+
+		String forcedIdKey = toForcedIdKey(forcedId.getResourceType(), forcedId.getForcedId());
+		Long resourcePid = forcedId.getResourcePid();
+		invalidate(forcedIdKey, resourcePid);
+		Map<String, Long> transactionScopedForcedIds = TransactionScopedState.get(TRANSACTION_SCOPED_FORCED_IDS_KEY);
+		if (transactionScopedForcedIds != null) {
+			transactionScopedForcedIds.remove(forcedIdKey);
+		}
+		runAfterCommit(() -> invalidate(forcedIdKey, resourcePid));
+	}
+
+	/**
+	 * Discards all locally cached forced ID mappings. This is called when all data is
+	 * expunged, and may also be called in order to propagate an expunge performed on
+	 * another node of a cluster.
+	 */
+	public void clearCache() {
+		myForcedIdToPidCache.invalidateAll();
+		myPidToForcedIdCache.invalidateAll();
+	}
+
+	private void invalidate(String theForcedIdKey, Long theResourcePid) {
+		myForcedIdToPidCache.invalidate(theForcedIdKey);
+		if (theResourcePid != null) {
+			myPidToForcedIdCache.invalidate(theResourcePid);
+		}
 	}
 
 	/**
@@ -74,7 +141,7 @@ public class IdHelperService {
 	public ResourcePersistentId translateForcedIdToPid(String theResourceName, String theResourceId, RequestDetails theRequestDetails) throws ResourceNotFoundException {
 		// We only pass 1 input in so only 0..1 will come back
 		IdDt id = new IdDt(theResourceName, theResourceId);
-		List<ResourcePersistentId> matches = translateForcedIdToPids(myDaoConfig, myInterceptorBroadcaster, theRequestDetails, myForcedIdDao, Collections.singletonList(id));
+		List<ResourcePersistentId> matches = translateForcedIdToPids(Collections.singletonList(id), theRequestDetails);
 		assert matches.size() <= 1;
 		if (matches.isEmpty()) {
 			throw new ResourceNotFoundException(id);
@@ -83,10 +150,6 @@ public class IdHelperService {
 	}
 
 	public List<ResourcePersistentId> translateForcedIdToPids(Collection<IIdType> theId, RequestDetails theRequestDetails) {
-		return IdHelperService.translateForcedIdToPids(myDaoConfig, myInterceptorBroadcaster, theRequestDetails, myForcedIdDao, theId);
-	}
-
-	private static List<ResourcePersistentId> translateForcedIdToPids(DaoConfig theDaoConfig, IInterceptorBroadcaster theInterceptorBroadcaster, RequestDetails theRequest, IForcedIdDao theForcedIdDao, Collection<IIdType> theId) {
 		theId.forEach(id -> Validate.isTrue(id.hasIdPart()));
 
 		if (theId.isEmpty()) {
@@ -96,11 +159,27 @@ public class IdHelperService {
 		List<ResourcePersistentId> retVal = new ArrayList<>();
 
 		ListMultimap<String, String> typeToIds = MultimapBuilder.hashKeys().arrayListValues().build();
+		Set<String> cachedForcedIds = null;
+		Map<String, Long> transactionScopedForcedIds = TransactionScopedState.get(TRANSACTION_SCOPED_FORCED_IDS_KEY);
 		for (IIdType nextId : theId) {
-			if (theDaoConfig.getResourceClientIdStrategy() != DaoConfig.ClientIdStrategyEnum.ANY && isValidPid(nextId)) {
+			if (myDaoConfig.getResourceClientIdStrategy() != DaoConfig.ClientIdStrategyEnum.ANY && isValidPid(nextId)) {
 				retVal.add(new ResourcePersistentId(nextId.getIdPartAsLong()));
 			} else {
 				if (nextId.hasResourceType()) {
+					String forcedIdKey = toForcedIdKey(nextId.getResourceType(), nextId.getIdPart());
+					Long cachedPid = myForcedIdToPidCache.getIfPresent(forcedIdKey);
+					if (cachedPid == null && transactionScopedForcedIds != null) {
+						cachedPid = transactionScopedForcedIds.get(forcedIdKey);
+					}
+					if (cachedPid != null) {
+						if (cachedForcedIds == null) {
+							cachedForcedIds = new HashSet<>();
+						}
+						if (cachedForcedIds.add(forcedIdKey)) {
+							retVal.add(new ResourcePersistentId(cachedPid));
+						}
+						continue;
+					}
 					typeToIds.put(nextId.getResourceType(), nextId.getIdPart());
 				} else {
 					typeToIds.put("", nextId.getIdPart());
@@ -116,12 +195,12 @@ public class IdHelperService {
 				StorageProcessingMessage msg = new StorageProcessingMessage()
 					.setMessage("This search uses unqualified resource IDs (an ID without a resource type). This is less efficient than using a qualified type.");
 				HookParams params = new HookParams()
-					.add(RequestDetails.class, theRequest)
-					.addIfMatchesType(ServletRequestDetails.class, theRequest)
+					.add(RequestDetails.class, theRequestDetails)
+					.addIfMatchesType(ServletRequestDetails.class, theRequestDetails)
 					.add(StorageProcessingMessage.class, msg);
-				JpaInterceptorBroadcaster.doCallHooks(theInterceptorBroadcaster, theRequest, Pointcut.JPA_PERFTRACE_WARNING, params);
+				JpaInterceptorBroadcaster.doCallHooks(myInterceptorBroadcaster, theRequestDetails, Pointcut.JPA_PERFTRACE_WARNING, params);
 
-				theForcedIdDao
+				myForcedIdDao
 					.findByForcedId(nextIds)
 					.stream()
 					.map(t->new ResourcePersistentId(t))
@@ -129,16 +208,25 @@ public class IdHelperService {
 
 			} else {
 
-				theForcedIdDao
-					.findByTypeAndForcedId(nextResourceType, nextIds)
-					.stream()
-					.map(t->new ResourcePersistentId(t))
-					.forEach(t->retVal.add(t));
+				Map<String, Long> resolved = new HashMap<>();
+				for (Object[] next : myForcedIdDao.findAndResolveByTypeAndForcedId(nextResourceType, nextIds)) {
+					String forcedId = (String) next[0];
+					Long pid = (Long) next[1];
+					retVal.add(new ResourcePersistentId(pid));
+					resolved.put(toForcedIdKey(nextResourceType, forcedId), pid);
+				}
+				if (!resolved.isEmpty()) {
+					Map<String, Long> transactionScoped = TransactionScopedState.getOrCreate(TRANSACTION_SCOPED_FORCED_IDS_KEY, HashMap::new);
+					if (transactionScoped != null) {
+						transactionScoped.putAll(resolved);
+					}
+					runAfterCommit(() -> myForcedIdToPidCache.putAll(resolved));
+				}
 
 			}
 		}
 
-			return retVal;
+		return retVal;
 	}
 
 	public IIdType translatePidIdToForcedId(FhirContext theCtx, String theResourceType, ResourcePersistentId theId) {
@@ -148,11 +236,50 @@ public class IdHelperService {
 	}
 
 	public String translatePidIdToForcedId(String theResourceType, ResourcePersistentId theId) {
-		ForcedId forcedId = myForcedIdDao.findByResourcePid(theId.getIdAsLong());
-		if (forcedId != null) {
-			return forcedId.getResourceType() + '/' + forcedId.getForcedId();
+		Long pid = theId.getIdAsLong();
+		Optional<String> forcedId = myPidToForcedIdCache.getIfPresent(pid);
+		if (forcedId == null) {
+			ForcedId forcedIdEntity = myForcedIdDao.findByResourcePid(pid);
+			if (forcedIdEntity != null) {
+				forcedId = Optional.of(forcedIdEntity.getResourceType() + '/' + forcedIdEntity.getForcedId());
+			} else {
+				forcedId = Optional.empty();
+			}
+			Optional<String> loaded = forcedId;
+			runAfterCommit(() -> myPidToForcedIdCache.put(pid, loaded));
+		}
+
+		return forcedId.orElseGet(() -> theResourceType + '/' + theId.toString());
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	@VisibleForTesting
+	void setForcedIdDaoForUnitTest(IForcedIdDao theForcedIdDao) {
+		myForcedIdDao = theForcedIdDao;
+	}
+
+	private static String toForcedIdKey(String theResourceType, String theForcedId) {
+		return theResourceType + '/' + theForcedId;
+	}
+
+	/**
+	 * Runs the given task once the current transaction commits, or immediately if
+	 * there is no transaction in progress
+	 */
+	private static void runAfterCommit(Runnable theTask) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					theTask.run();
+				}
+			});
 		} else {
-			return theResourceType + '/' + theId.toString();
+			theTask.run();
 		}
 	}
 
@@ -20,12 +20,14 @@ package ca.uhn.fhir.jpa.entity;
  * #L%
  */
 
+import ca.uhn.fhir.jpa.bulk.BulkJobStatusEnum;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 
 @Entity
 @Table(name = "HFJ_BLK_EXPORT_COLLECTION")
@@ -48,11 +50,54 @@ public class BulkExportCollectionEntity implements Serializable {
 	private int myVersion;
 	@OneToMany(fetch = FetchType.LAZY, mappedBy = "myCollection")
 	private Collection<BulkExportCollectionFileEntity> myFiles;
+	/**
+	 * Will be null for collections created before individual collections were tracked
+	 */
+	@Enumerated(EnumType.STRING)
+	@Column(name = "COL_STATUS", length = 10, nullable = true)
+	private BulkJobStatusEnum myStatus;
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "STATUS_TIME", nullable = true)
+	private Date myStatusTime;
+	@Column(name = "RES_COUNT", nullable = true)
+	private Integer myResourceCount;
+
+	public BulkExportJobEntity getJob() {
+		return myJob;
+	}
 
 	public void setJob(BulkExportJobEntity theJob) {
 		myJob = theJob;
 	}
 
+	/**
+	 * Returns the status of this collection. Collections created before individual
+	 * collections were tracked are reported as {@link BulkJobStatusEnum#SUBMITTED}.
+	 */
+	public BulkJobStatusEnum getStatus() {
+		if (myStatus == null) {
+			return BulkJobStatusEnum.SUBMITTED;
+		}
+		return myStatus;
+	}
+
+	public void setStatus(BulkJobStatusEnum theStatus) {
+		myStatusTime = new Date();
+		myStatus = theStatus;
+	}
+
+	public Date getStatusTime() {
+		return myStatusTime;
+	}
+
+	public int getResourceCount() {
+		return myResourceCount != null ? myResourceCount : 0;
+	}
+
+	public void setResourceCount(int theResourceCount) {
+		myResourceCount = theResourceCount;
+	}
+
 	public String getResourceType() {
 		return myResourceType;
 	}
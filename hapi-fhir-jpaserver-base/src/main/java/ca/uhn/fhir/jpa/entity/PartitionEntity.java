@@ -0,0 +1,69 @@
+package ca.uhn.fhir.jpa.entity;
+
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Maps a tenant name to the numeric partition ID which is stored on the resources and
+ * index rows belonging to that tenant when {@link ca.uhn.fhir.jpa.dao.DaoConfig#isPartitioningEnabled() partitioning}
+ * is enabled.
+ */
+@Entity
+@Table(name = "HFJ_PARTITION", uniqueConstraints = {
+	@UniqueConstraint(name = "IDX_PART_NAME", columnNames = {"PART_NAME"})
+})
+public class PartitionEntity implements Serializable {
+	public static final int MAX_NAME_LENGTH = 200;
+
+	@Id
+	@SequenceGenerator(name = "SEQ_PARTITION", sequenceName = "SEQ_PARTITION")
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_PARTITION")
+	@Column(name = "PART_ID")
+	private Integer myId;
+	@Column(name = "PART_NAME", length = MAX_NAME_LENGTH, nullable = false)
+	private String myName;
+
+	public Integer getId() {
+		return myId;
+	}
+
+	public String getName() {
+		return myName;
+	}
+
+	public void setName(String theName) {
+		myName = theName;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+			.append("id", myId)
+			.append("name", myName)
+			.toString();
+	}
+}
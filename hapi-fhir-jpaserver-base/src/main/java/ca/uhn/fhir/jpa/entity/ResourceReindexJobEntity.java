@@ -58,6 +58,11 @@ public class ResourceReindexJobEntity implements Serializable {
 	private Date mySuspendedUntil;
 	@Column(name = "REINDEX_COUNT", nullable = true)
 	private Integer myReindexCount;
+	/**
+	 * Will be null for jobs created before jobs were split into ranges
+	 */
+	@Column(name = "RANGES_CREATED", nullable = true)
+	private Boolean myRangesCreated;
 
 	public Integer getReindexCount() {
 		return myReindexCount;
@@ -67,6 +72,17 @@ public class ResourceReindexJobEntity implements Serializable {
 		myReindexCount = theReindexCount;
 	}
 
+	/**
+	 * Has this job been split into {@link ResourceReindexJobRangeEntity ranges} yet
+	 */
+	public boolean isRangesCreated() {
+		return Boolean.TRUE.equals(myRangesCreated);
+	}
+
+	public void setRangesCreated(boolean theRangesCreated) {
+		myRangesCreated = theRangesCreated;
+	}
+
 	public Date getSuspendedUntil() {
 		return mySuspendedUntil;
 	}
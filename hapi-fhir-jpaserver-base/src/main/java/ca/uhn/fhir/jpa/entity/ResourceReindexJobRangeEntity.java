@@ -0,0 +1,147 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A range of resource PIDs belonging to a {@link ResourceReindexJobEntity}. Reindex jobs are
+ * split into ranges when they are first run, and each range is then claimed and reindexed by
+ * whichever node gets to it first, so that all nodes in a cluster can work on the same job.
+ */
+@Entity
+@Table(name = "HFJ_RES_REINDEX_RANGE", indexes = {
+	@Index(name = "IDX_REINDEX_RANGE_JOB", columnList = "JOB_PID")
+})
+public class ResourceReindexJobRangeEntity implements Serializable {
+	@Id
+	@SequenceGenerator(name = "SEQ_RES_REINDEX_RANGE", sequenceName = "SEQ_RES_REINDEX_RANGE")
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_RES_REINDEX_RANGE")
+	@Column(name = "PID")
+	private Long myId;
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "JOB_PID", referencedColumnName = "PID", nullable = false, foreignKey = @ForeignKey(name = "FK_REINDEX_RANGE_JOB"))
+	private ResourceReindexJobEntity myJob;
+	@Column(name = "JOB_PID", nullable = false, insertable = false, updatable = false)
+	private Long myJobId;
+	/**
+	 * Inclusive
+	 */
+	@Column(name = "PID_LOW", nullable = false)
+	private Long myPidLow;
+	/**
+	 * Inclusive, or <code>null</code> if the range has no upper bound
+	 */
+	@Column(name = "PID_HIGH", nullable = true)
+	private Long myPidHigh;
+	@Column(name = "CLAIMED_UNTIL", nullable = true)
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date myClaimedUntil;
+	@Column(name = "RANGE_COMPLETE", nullable = false)
+	private boolean myComplete;
+	@Column(name = "REINDEX_COUNT", nullable = true)
+	private Integer myReindexCount;
+
+	public Long getId() {
+		return myId;
+	}
+
+	@VisibleForTesting
+	public void setIdForUnitTest(long theId) {
+		myId = theId;
+	}
+
+	public ResourceReindexJobEntity getJob() {
+		return myJob;
+	}
+
+	public void setJob(ResourceReindexJobEntity theJob) {
+		myJob = theJob;
+		myJobId = theJob.getId();
+	}
+
+	public Long getJobId() {
+		return myJobId;
+	}
+
+	/**
+	 * Inclusive
+	 */
+	public Long getPidLow() {
+		return myPidLow;
+	}
+
+	/**
+	 * Inclusive
+	 */
+	public void setPidLow(Long thePidLow) {
+		myPidLow = thePidLow;
+	}
+
+	/**
+	 * Inclusive, or <code>null</code> if the range has no upper bound
+	 */
+	public Long getPidHigh() {
+		return myPidHigh;
+	}
+
+	/**
+	 * Inclusive, or <code>null</code> if the range has no upper bound
+	 */
+	public void setPidHigh(Long thePidHigh) {
+		myPidHigh = thePidHigh;
+	}
+
+	public Date getClaimedUntil() {
+		return myClaimedUntil;
+	}
+
+	public boolean isComplete() {
+		return myComplete;
+	}
+
+	public Integer getReindexCount() {
+		return myReindexCount;
+	}
+
+	@Override
+	public String toString() {
+		ToStringBuilder b = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+			.append("id", myId)
+			.append("jobId", myJobId)
+			.append("pidLow", myPidLow)
+			.append("pidHigh", myPidHigh);
+		if (myClaimedUntil != null) {
+			b.append("claimedUntil", myClaimedUntil);
+		}
+		if (myComplete) {
+			b.append("complete", myComplete);
+			b.append("reindexCount", myReindexCount);
+		}
+		return b.toString();
+	}
+}
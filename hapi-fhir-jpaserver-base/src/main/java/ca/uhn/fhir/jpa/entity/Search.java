@@ -194,6 +194,10 @@ public class Search implements ICachedSearchDetails, Serializable {
 		return myId;
 	}
 
+	public void setId(Long theId) {
+		myId = theId;
+	}
+
 	public Collection<SearchInclude> getIncludes() {
 		if (myIncludes == null) {
 			myIncludes = new ArrayList<>();
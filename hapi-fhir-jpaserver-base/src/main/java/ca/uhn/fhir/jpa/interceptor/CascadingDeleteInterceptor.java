@@ -43,6 +43,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -125,12 +126,10 @@ public class CascadingDeleteInterceptor {
 
 	@SuppressWarnings("unchecked")
 	private List<String> getCascadedDeletesMap(RequestDetails theRequest, boolean theCreate) {
-		List<String> retVal = (List<String>) theRequest.getUserData().get(CASCADED_DELETES_KEY);
-		if (retVal == null && theCreate) {
-			retVal = new ArrayList<>();
-			theRequest.getUserData().put(CASCADED_DELETES_KEY, retVal);
+		if (theCreate) {
+			return (List<String>) theRequest.getUserData().computeIfAbsent(CASCADED_DELETES_KEY, t -> Collections.synchronizedList(new ArrayList<>()));
 		}
-		return retVal;
+		return (List<String>) theRequest.getUserData().get(CASCADED_DELETES_KEY);
 	}
 
 	@Hook(Pointcut.SERVER_OUTGOING_FAILURE_OPERATIONOUTCOME)
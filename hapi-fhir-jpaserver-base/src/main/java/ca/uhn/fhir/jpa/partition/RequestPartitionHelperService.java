@@ -0,0 +1,248 @@
+package ca.uhn.fhir.jpa.partition;
+
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.IPartitionDao;
+import ca.uhn.fhir.jpa.entity.PartitionEntity;
+import ca.uhn.fhir.jpa.model.entity.BaseHasResource;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Determines which partition a request should read from and write to when
+ * {@link DaoConfig#isPartitioningEnabled() partitioning} is enabled.
+ * <p>
+ * The partition is derived from the tenant ID of the request, which is set by the
+ * {@link ca.uhn.fhir.rest.server.tenant.ITenantIdentificationStrategy} configured on the
+ * server. Each tenant name is mapped to a small numeric partition ID which is stored in
+ * the <code>PARTITION_ID</code> column of the resource and index tables, and a new
+ * partition is created the first time a tenant creates a resource. Until then, the tenant
+ * is treated as having an empty partition. Since other nodes may create the partition at
+ * any time, this is only remembered for a few seconds. Requests without a tenant ID use
+ * the default partition, which is represented by a <code>null</code> partition ID.
+ * </p>
+ */
+@Service
+public class RequestPartitionHelperService {
+	private static final Logger ourLog = LoggerFactory.getLogger(RequestPartitionHelperService.class);
+	/**
+	 * Used for tenants that don't have a partition yet. No partition is ever assigned this ID,
+	 * so nothing is found in it.
+	 */
+	static final int UNKNOWN_PARTITION_ID = -1;
+	private static final long UNKNOWN_PARTITION_CACHE_MILLIS = 10 * DateUtils.MILLIS_PER_SECOND;
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+	@Autowired
+	private IPartitionDao myPartitionDao;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+
+	private Cache<String, Integer> myNameToPartitionIdCache;
+	private Cache<String, Boolean> myUnknownPartitionNameCache;
+
+	@PostConstruct
+	public void start() {
+		// Partition IDs never change once they are assigned, so entries never need to expire
+		myNameToPartitionIdCache = Caffeine.newBuilder()
+			.maximumSize(10000)
+			.build();
+		// Tenants without a partition may create one on another node at any time, so these expire quickly
+		myUnknownPartitionNameCache = Caffeine.newBuilder()
+			.maximumSize(10000)
+			.expireAfterWrite(UNKNOWN_PARTITION_CACHE_MILLIS, TimeUnit.MILLISECONDS)
+			.build();
+	}
+
+	public boolean isPartitioningEnabled() {
+		return myDaoConfig.isPartitioningEnabled();
+	}
+
+	/**
+	 * Returns the ID of the partition that the given request reads from, or <code>null</code> if
+	 * partitioning is disabled or the request applies to the default partition. If the tenant
+	 * doesn't have a partition yet, an ID that no resources belong to is returned, and no
+	 * partition is created.
+	 */
+	@Nullable
+	public Integer determinePartitionId(@Nullable RequestDetails theRequest) {
+		String name = getPartitionName(theRequest);
+		if (name == null) {
+			return null;
+		}
+		Integer retVal = myNameToPartitionIdCache.getIfPresent(name);
+		if (retVal != null) {
+			return retVal;
+		}
+		if (myUnknownPartitionNameCache.getIfPresent(name) != null) {
+			return UNKNOWN_PARTITION_ID;
+		}
+
+		retVal = lookupPartitionId(name);
+		if (retVal == null) {
+			myUnknownPartitionNameCache.put(name, Boolean.TRUE);
+			// The tenant may have created its partition on this node while it was being looked up
+			retVal = myNameToPartitionIdCache.getIfPresent(name);
+			if (retVal == null) {
+				return UNKNOWN_PARTITION_ID;
+			}
+			myUnknownPartitionNameCache.invalidate(name);
+			return retVal;
+		}
+		myNameToPartitionIdCache.put(name, retVal);
+		return retVal;
+	}
+
+	/**
+	 * Returns the ID of the partition that a resource created by the given request belongs to, or
+	 * <code>null</code> if partitioning is disabled or the request applies to the default partition.
+	 * The partition is created if the tenant doesn't have one yet.
+	 */
+	@Nullable
+	public Integer determinePartitionIdForCreate(@Nullable RequestDetails theRequest) {
+		String name = getPartitionName(theRequest);
+		if (name == null) {
+			return null;
+		}
+		Integer retVal = myNameToPartitionIdCache.get(name, this::lookupOrCreatePartitionId);
+		myUnknownPartitionNameCache.invalidate(name);
+		return retVal;
+	}
+
+	@Nullable
+	private String getPartitionName(@Nullable RequestDetails theRequest) {
+		if (!isPartitioningEnabled() || theRequest == null || isBlank(theRequest.getTenantId())) {
+			return null;
+		}
+
+		String retVal = theRequest.getTenantId();
+		if (retVal.length() > PartitionEntity.MAX_NAME_LENGTH) {
+			throw new InvalidRequestException("Tenant ID exceeds maximum length of " + PartitionEntity.MAX_NAME_LENGTH + " characters");
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given resource (or history entry) belongs to the
+	 * partition that the given request applies to. Always returns <code>true</code> if
+	 * partitioning is disabled.
+	 */
+	public boolean isInRequestPartition(BaseHasResource theEntity, @Nullable RequestDetails theRequest) {
+		if (!isPartitioningEnabled()) {
+			return true;
+		}
+		return Objects.equals(theEntity.getPartitionId(), determinePartitionId(theRequest));
+	}
+
+	/**
+	 * Returns a predicate which restricts the given entity to the partition that the given request
+	 * applies to, or <code>null</code> if partitioning is disabled. The entity must have a
+	 * <code>myPartitionId</code> attribute.
+	 */
+	@Nullable
+	public Predicate createPartitionPredicate(CriteriaBuilder theBuilder, From<?, ?> theFrom, @Nullable RequestDetails theRequest) {
+		if (!isPartitioningEnabled()) {
+			return null;
+		}
+		Integer partitionId = determinePartitionId(theRequest);
+		Path<Integer> path = theFrom.get("myPartitionId");
+		if (partitionId == null) {
+			return theBuilder.isNull(path);
+		}
+		return theBuilder.equal(path, partitionId);
+	}
+
+	@Nullable
+	private Integer lookupPartitionId(String theName) {
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		txTemplate.setReadOnly(true);
+		return txTemplate.execute(t -> myPartitionDao
+			.findByName(theName)
+			.map(PartitionEntity::getId)
+			.orElse(null));
+	}
+
+	private Integer lookupOrCreatePartitionId(String theName) {
+		/*
+		 * Partitions are created in their own transaction so that they are visible
+		 * to other requests (and other nodes) as soon as possible, and so that a
+		 * rollback of the request that created them doesn't leave cached IDs
+		 * pointing to nothing
+		 */
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		try {
+			return txTemplate.execute(t -> myPartitionDao
+				.findByName(theName)
+				.orElseGet(() -> createPartition(theName))
+				.getId());
+		} catch (DataIntegrityViolationException e) {
+			// Another request (or node) created the same partition at the same time
+			ourLog.debug("Partition {} was created concurrently, loading it", theName);
+			return txTemplate.execute(t -> myPartitionDao
+				.findByName(theName)
+				.orElseThrow(() -> e)
+				.getId());
+		}
+	}
+
+	private PartitionEntity createPartition(String theName) {
+		PartitionEntity partition = new PartitionEntity();
+		partition.setName(theName);
+		partition = myPartitionDao.saveAndFlush(partition);
+		ourLog.info("Created partition {} with ID {}", theName, partition.getId());
+		return partition;
+	}
+
+	@VisibleForTesting
+	public void clearCacheForUnitTest() {
+		myNameToPartitionIdCache.invalidateAll();
+		myUnknownPartitionNameCache.invalidateAll();
+	}
+
+}
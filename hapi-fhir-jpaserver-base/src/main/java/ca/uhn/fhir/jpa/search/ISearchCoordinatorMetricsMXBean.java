@@ -0,0 +1,54 @@
+package ca.uhn.fhir.jpa.search;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Metrics describing the load on the search executor of a single node. The
+ * {@link SearchCoordinatorSvcImpl search coordinator} publishes these over JMX
+ * (see {@link SearchCoordinatorSvcImpl#OBJECT_NAME_PREFIX}) so that the search
+ * thread count and queue capacity can be sized from them.
+ */
+public interface ISearchCoordinatorMetricsMXBean {
+
+	/**
+	 * Returns the number of searches currently being executed by this node
+	 */
+	int getActiveSearchCount();
+
+	/**
+	 * Returns the number of searches currently waiting for a search thread on this node
+	 */
+	int getQueuedSearchCount();
+
+	/**
+	 * Returns the number of searches which have been rejected by this node because
+	 * the search executor or one of the admission limits was saturated, since the
+	 * service was started
+	 */
+	long getRejectedSearchCount();
+
+	/**
+	 * Returns the average amount of time that the searches which started executing on
+	 * this node during the last minute waited in the queue before starting
+	 */
+	long getAverageSearchQueueWaitMillis();
+
+}
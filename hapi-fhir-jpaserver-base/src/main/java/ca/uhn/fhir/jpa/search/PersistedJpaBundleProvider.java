@@ -24,13 +24,17 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.dao.HistoryBuilder;
 import ca.uhn.fhir.jpa.dao.IDao;
 import ca.uhn.fhir.jpa.dao.ISearchBuilder;
 import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdList;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdSet;
 import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.jpa.model.entity.BaseHasResource;
 import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
 import ca.uhn.fhir.jpa.util.InterceptorUtil;
 import ca.uhn.fhir.jpa.util.JpaInterceptorBroadcaster;
@@ -48,11 +52,6 @@ import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.Nonnull;
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
 import java.util.*;
 
 public class PersistedJpaBundleProvider implements IBundleProvider {
@@ -69,6 +68,7 @@ public class PersistedJpaBundleProvider implements IBundleProvider {
 	private String myUuid;
 	private boolean myCacheHit;
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	private RequestPartitionHelperService myRequestPartitionHelperService;
 
 	public PersistedJpaBundleProvider(RequestDetails theRequest, String theSearchUuid, IDao theDao) {
 		myRequest = theRequest;
@@ -89,42 +89,8 @@ public class PersistedJpaBundleProvider implements IBundleProvider {
 	}
 
 	private List<IBaseResource> doHistoryInTransaction(int theFromIndex, int theToIndex) {
-		List<ResourceHistoryTable> results;
-
-		CriteriaBuilder cb = myEntityManager.getCriteriaBuilder();
-		CriteriaQuery<ResourceHistoryTable> q = cb.createQuery(ResourceHistoryTable.class);
-		Root<ResourceHistoryTable> from = q.from(ResourceHistoryTable.class);
-		List<Predicate> predicates = new ArrayList<>();
-
-		if (mySearchEntity.getResourceType() == null) {
-			// All resource types
-		} else if (mySearchEntity.getResourceId() == null) {
-			predicates.add(cb.equal(from.get("myResourceType"), mySearchEntity.getResourceType()));
-		} else {
-			predicates.add(cb.equal(from.get("myResourceId"), mySearchEntity.getResourceId()));
-		}
-
-		if (mySearchEntity.getLastUpdatedLow() != null) {
-			predicates.add(cb.greaterThanOrEqualTo(from.get("myUpdated").as(Date.class), mySearchEntity.getLastUpdatedLow()));
-		}
-		if (mySearchEntity.getLastUpdatedHigh() != null) {
-			predicates.add(cb.lessThanOrEqualTo(from.get("myUpdated").as(Date.class), mySearchEntity.getLastUpdatedHigh()));
-		}
-
-		if (predicates.size() > 0) {
-			q.where(predicates.toArray(new Predicate[0]));
-		}
-
-		q.orderBy(cb.desc(from.get("myUpdated")));
-
-		TypedQuery<ResourceHistoryTable> query = myEntityManager.createQuery(q);
-
-		if (theToIndex - theFromIndex > 0) {
-			query.setFirstResult(theFromIndex);
-			query.setMaxResults(theToIndex - theFromIndex);
-		}
-
-		results = query.getResultList();
+		HistoryBuilder historyBuilder = new HistoryBuilder(myEntityManager, myRequestPartitionHelperService, mySearchEntity.getResourceType(), mySearchEntity.getResourceId(), mySearchEntity.getLastUpdatedLow(), mySearchEntity.getLastUpdatedHigh());
+		List<ResourceHistoryTable> results = historyBuilder.fetchEntities(myRequest, theFromIndex, theToIndex);
 
 		ArrayList<IBaseResource> retVal = new ArrayList<>();
 		for (ResourceHistoryTable next : results) {
@@ -312,14 +278,14 @@ public class PersistedJpaBundleProvider implements IBundleProvider {
 	// Note: Leave as protected, HSPC depends on this
 	@SuppressWarnings("WeakerAccess")
 	protected List<IBaseResource> toResourceList(ISearchBuilder theSearchBuilder, List<ResourcePersistentId> thePids) {
-		Set<ResourcePersistentId> includedPids = new HashSet<>();
+		ResourcePersistentIdSet includedPids = new ResourcePersistentIdSet();
 
 		if (mySearchEntity.getSearchType() == SearchTypeEnum.SEARCH) {
 			includedPids.addAll(theSearchBuilder.loadIncludes(myContext, myEntityManager, thePids, mySearchEntity.toRevIncludesList(), true, mySearchEntity.getLastUpdated(), myUuid, myRequest));
 			includedPids.addAll(theSearchBuilder.loadIncludes(myContext, myEntityManager, thePids, mySearchEntity.toIncludesList(), false, mySearchEntity.getLastUpdated(), myUuid, myRequest));
 		}
 
-		List<ResourcePersistentId> includedPidList = new ArrayList<>(includedPids);
+		List<ResourcePersistentId> includedPidList = new ResourcePersistentIdList(includedPids);
 
 		// Execute the query and make sure we return distinct results
 		List<IBaseResource> resources = new ArrayList<>();
@@ -337,4 +303,8 @@ public class PersistedJpaBundleProvider implements IBundleProvider {
 	public void setSearchCacheSvc(ISearchCacheSvc theSearchCacheSvc) {
 		mySearchCacheSvc = theSearchCacheSvc;
 	}
+
+	public void setRequestPartitionHelperService(RequestPartitionHelperService theRequestPartitionHelperService) {
+		myRequestPartitionHelperService = theRequestPartitionHelperService;
+	}
 }
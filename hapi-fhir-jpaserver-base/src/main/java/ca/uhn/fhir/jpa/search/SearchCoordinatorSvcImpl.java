@@ -30,6 +30,8 @@ import ca.uhn.fhir.jpa.entity.SearchInclude;
 import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.jpa.interceptor.JpaPreResourceAccessDetails;
 import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdList;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdSet;
 import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
 import ca.uhn.fhir.jpa.model.search.SearchStatusEnum;
 import ca.uhn.fhir.jpa.search.cache.ISearchCacheSvc;
@@ -51,6 +53,7 @@ import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
 import ca.uhn.fhir.rest.server.method.PageMethodBinding;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.rest.server.util.ICachedSearchDetails;
@@ -81,19 +84,38 @@ import org.springframework.transaction.support.TransactionTemplate;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.persistence.EntityManager;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 @Component("mySearchCoordinatorSvc")
-public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
+public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc, ISearchCoordinatorMetricsMXBean {
 	public static final int DEFAULT_SYNC_SIZE = 250;
+	/**
+	 * The JMX object name under which the {@link ISearchCoordinatorMetricsMXBean search metrics}
+	 * are published is this prefix followed by the FHIR version of the server, e.g.
+	 * <code>ca.uhn.fhir.jpa:type=SearchCoordinator,fhirVersion=R4</code>
+	 */
+	public static final String OBJECT_NAME_PREFIX = "ca.uhn.fhir.jpa:type=SearchCoordinator,fhirVersion=";
+	private static final int QUEUE_WAIT_WINDOW_BUCKETS = 60;
+	private static final long QUEUE_WAIT_WINDOW_BUCKET_MILLIS = DateUtils.MILLIS_PER_SECOND;
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchCoordinatorSvcImpl.class);
 	public static final String UNIT_TEST_CAPTURE_STACK = "unit_test_capture_stack";
@@ -104,7 +126,12 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	private DaoConfig myDaoConfig;
 	@Autowired
 	private EntityManager myEntityManager;
-	private ExecutorService myExecutor;
+	private ThreadPoolExecutor myExecutor;
+	private final ConcurrentHashMap<String, AtomicInteger> myResourceTypeToSearchCount = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, AtomicInteger> myTenantToSearchCount = new ConcurrentHashMap<>();
+	private final AtomicLong mySearchesRejectedCount = new AtomicLong();
+	private final SlidingWindowAverage mySearchQueueWaitMillis = new SlidingWindowAverage(QUEUE_WAIT_WINDOW_BUCKETS, QUEUE_WAIT_WINDOW_BUCKET_MILLIS);
+	private ObjectName myMetricsObjectName;
 	private Integer myLoadingThrottleForUnitTests = null;
 	private long myMaxMillisToWaitForRemoteResults = DateUtils.MILLIS_PER_MINUTE;
 	private boolean myNeverUseLocalSearchForUnitTests;
@@ -127,14 +154,6 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	 */
 	private boolean myCustomIsolationSupported;
 
-	/**
-	 * Constructor
-	 */
-	public SearchCoordinatorSvcImpl() {
-		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("search_coord_");
-		myExecutor = Executors.newCachedThreadPool(threadFactory);
-	}
-
 	@VisibleForTesting
 	public void setSearchCacheServicesForUnitTest(ISearchCacheSvc theSearchCacheSvc, ISearchResultCacheSvc theSearchResultCacheSvc) {
 		mySearchCacheSvc = theSearchCacheSvc;
@@ -152,6 +171,158 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		if (myCustomIsolationSupported == false) {
 			ourLog.warn("JPA dialect does not support transaction isolation! This can have an impact on search performance.");
 		}
+
+		initExecutor();
+		registerMetrics();
+	}
+
+	private void initExecutor() {
+		int threadCount = myDaoConfig.getSearchThreadCount();
+		int queueCapacity = myDaoConfig.getSearchQueueCapacity();
+		ourLog.info("Search coordinator starting with {} thread(s) and a queue capacity of {}", threadCount, queueCapacity);
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("search_coord_");
+		myExecutor = new ThreadPoolExecutor(
+			threadCount,
+			threadCount,
+			60L,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(queueCapacity),
+			threadFactory,
+			new ThreadPoolExecutor.AbortPolicy());
+		myExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void stop() {
+		unregisterMetrics();
+		if (myExecutor != null) {
+			myExecutor.shutdown();
+		}
+	}
+
+	private void registerMetrics() {
+		try {
+			ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + myContext.getVersion().getVersion().name());
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new StandardMBean(this, ISearchCoordinatorMetricsMXBean.class, true), objectName);
+			myMetricsObjectName = objectName;
+		} catch (InstanceAlreadyExistsException e) {
+			ourLog.warn("Search metrics are already registered by another search coordinator in this JVM, not registering: {}", e.getMessage());
+		} catch (JMException e) {
+			ourLog.warn("Failed to register search metrics: {}", e.toString());
+		}
+	}
+
+	private void unregisterMetrics() {
+		if (myMetricsObjectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(myMetricsObjectName);
+			} catch (JMException e) {
+				ourLog.warn("Failed to unregister search metrics: {}", e.toString());
+			}
+			myMetricsObjectName = null;
+		}
+	}
+
+	@Override
+	public int getActiveSearchCount() {
+		return myExecutor.getActiveCount();
+	}
+
+	@Override
+	public int getQueuedSearchCount() {
+		return myExecutor.getQueue().size();
+	}
+
+	@Override
+	public long getRejectedSearchCount() {
+		return mySearchesRejectedCount.get();
+	}
+
+	@Override
+	public long getAverageSearchQueueWaitMillis() {
+		return mySearchQueueWaitMillis.getAverage(System.currentTimeMillis());
+	}
+
+	/**
+	 * Submits a new search or a further pass of an existing search for execution, applying
+	 * the admission limits from {@link DaoConfig#getSearchQueueCapacity()},
+	 * {@link DaoConfig#getSearchMaxConcurrentPerResourceType()} and
+	 * {@link DaoConfig#getSearchMaxConcurrentPerTenant()}
+	 *
+	 * @param theBusyMessage The message to reject the search with if the executor is saturated
+	 * @return <code>null</code> if the search was submitted, or the message to reject the search with otherwise
+	 */
+	@Nullable
+	private String tryToSubmitSearchTask(SearchTask theTask, String theBusyMessage) {
+		String resourceType = defaultString(theTask.getSearch().getResourceType());
+		AtomicInteger resourceTypeCount = tryToAcquireSlot(myResourceTypeToSearchCount, resourceType, myDaoConfig.getSearchMaxConcurrentPerResourceType());
+		if (resourceTypeCount == null) {
+			return "Too many concurrent searches for resource type " + resourceType + ", please try again later";
+		}
+
+		// Requests without a tenant ID are only subject to the other limits
+		String tenantId = theTask.myRequest != null ? theTask.myRequest.getTenantId() : null;
+		AtomicInteger tenantCount = null;
+		if (isNotBlank(tenantId)) {
+			tenantCount = tryToAcquireSlot(myTenantToSearchCount, tenantId, myDaoConfig.getSearchMaxConcurrentPerTenant());
+			if (tenantCount == null) {
+				resourceTypeCount.decrementAndGet();
+				return "Too many concurrent searches for tenant " + tenantId + ", please try again later";
+			}
+		}
+		AtomicInteger finalTenantCount = tenantCount;
+
+		long submitted = System.currentTimeMillis();
+		try {
+			myExecutor.submit(() -> {
+				long started = System.currentTimeMillis();
+				mySearchQueueWaitMillis.add(started - submitted, started);
+				try {
+					return theTask.call();
+				} finally {
+					resourceTypeCount.decrementAndGet();
+					if (finalTenantCount != null) {
+						finalTenantCount.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			resourceTypeCount.decrementAndGet();
+			if (finalTenantCount != null) {
+				finalTenantCount.decrementAndGet();
+			}
+			return theBusyMessage;
+		}
+		return null;
+	}
+
+	/**
+	 * Counts a search against the limit for the given key
+	 *
+	 * @return The counter for the key, which must be decremented once the search is finished, or <code>null</code>
+	 * if the limit for the key has been reached
+	 */
+	@Nullable
+	private static AtomicInteger tryToAcquireSlot(ConcurrentHashMap<String, AtomicInteger> theCounts, String theKey, @Nullable Integer theMax) {
+		AtomicInteger retVal = theCounts.computeIfAbsent(theKey, t -> new AtomicInteger());
+		int count = retVal.incrementAndGet();
+		if (theMax != null && count > theMax) {
+			retVal.decrementAndGet();
+			return null;
+		}
+		return retVal;
+	}
+
+	private void rejectSearch(SearchTask theTask, String theMessage) {
+		mySearchesRejectedCount.incrementAndGet();
+		myIdToSearchTask.remove(theTask.getSearch().getUuid());
+		ourLog.warn("Rejecting search: {} - Active[{}] Queued[{}] Rejected[{}]", theMessage, getActiveSearchCount(), getQueuedSearchCount(), getRejectedSearchCount());
+
+		UnclassifiedServerFailureException exception = new UnclassifiedServerFailureException(Constants.STATUS_HTTP_503_SERVICE_UNAVAILABLE, theMessage);
+		exception.addResponseHeader(Constants.HEADER_RETRY_AFTER, "1");
+		throw exception;
 	}
 
 	@Override
@@ -242,7 +413,14 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 					IFhirResourceDao<?> resourceDao = myDaoRegistry.getResourceDao(resourceType);
 					SearchContinuationTask task = new SearchContinuationTask(search, resourceDao, params, resourceType, theRequestDetails);
 					myIdToSearchTask.put(search.getUuid(), task);
-					myExecutor.submit(task);
+					String rejectionMessage = tryToSubmitSearchTask(task, "Server is too busy to continue this search, please try again later");
+					if (rejectionMessage != null) {
+						// Hand the search back so that a later request can continue it
+						Search rejectedSearch = search;
+						rejectedSearch.setStatus(SearchStatusEnum.PASSCMPLET);
+						txTemplate.execute(t -> mySearchCacheSvc.save(rejectedSearch));
+						rejectSearch(task, rejectionMessage);
+					}
 				}
 			}
 
@@ -305,7 +483,12 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 			useCache = false;
 		}
 
-		final String queryString = theParams.toNormalizedQueryString(myContext);
+		String normalizedQueryString = theParams.toNormalizedQueryString(myContext);
+		if (myDaoConfig.isPartitioningEnabled() && theRequestDetails != null && isNotBlank(theRequestDetails.getTenantId())) {
+			// Searches may only be reused by requests for the same partition
+			normalizedQueryString = normalizedQueryString + " [tenant=" + theRequestDetails.getTenantId() + "]";
+		}
+		final String queryString = normalizedQueryString;
 		if (theParams.getEverythingMode() == null) {
 			if (myDaoConfig.getReuseCachedSearchResultsForMillis() != null && useCache) {
 				IBundleProvider foundSearchProvider = findCachedQuery(theCallingDao, theParams, theResourceType, theRequestDetails, queryString);
@@ -366,7 +549,10 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 		SearchTask task = new SearchTask(search, theCallingDao, theParams, theResourceType, theRequestDetails);
 		myIdToSearchTask.put(search.getUuid(), task);
-		myExecutor.submit(task);
+		String rejectionMessage = tryToSubmitSearchTask(task, "Server is too busy to process this search, please try again later");
+		if (rejectionMessage != null) {
+			rejectSearch(task, rejectionMessage);
+		}
 
 		PersistedJpaSearchFirstPageBundleProvider retVal = new PersistedJpaSearchFirstPageBundleProvider(search, theCallingDao, task, theSb, myManagedTxManager, theRequestDetails);
 		populateBundleProvider(retVal);
@@ -448,7 +634,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		return txTemplate.execute(t -> {
 
 			// Load the results synchronously
-			final List<ResourcePersistentId> pids = new ArrayList<>();
+			final ResourcePersistentIdList pids = new ResourcePersistentIdList();
 
 			try (IResultIterator resultIter = theSb.createQuery(theParams, searchRuntimeDetails, theRequestDetails)) {
 				while (resultIter.hasNext()) {
@@ -487,10 +673,10 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 			 * On the other hand for async queries we load includes/revincludes
 			 * individually for pages as we return them to clients
 			 */
-			final Set<ResourcePersistentId> includedPids = new HashSet<>();
+			final ResourcePersistentIdSet includedPids = new ResourcePersistentIdSet();
 			includedPids.addAll(theSb.loadIncludes(myContext, myEntityManager, pids, theParams.getRevIncludes(), true, theParams.getLastUpdated(), "(synchronous)", theRequestDetails));
 			includedPids.addAll(theSb.loadIncludes(myContext, myEntityManager, pids, theParams.getIncludes(), false, theParams.getLastUpdated(), "(synchronous)", theRequestDetails));
-			List<ResourcePersistentId> includedPidsList = new ArrayList<>(includedPids);
+			List<ResourcePersistentId> includedPidsList = new ResourcePersistentIdList(includedPids);
 
 			List<IBaseResource> resources = new ArrayList<>();
 			theSb.loadResourcesByPid(pids, includedPidsList, resources, false, theRequestDetails);
@@ -582,10 +768,10 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		private final SearchParameterMap myParams;
 		private final IDao myCallingDao;
 		private final String myResourceType;
-		private final ArrayList<ResourcePersistentId> mySyncedPids = new ArrayList<>();
+		private final ResourcePersistentIdList mySyncedPids = new ResourcePersistentIdList();
 		private final CountDownLatch myInitialCollectionLatch = new CountDownLatch(1);
 		private final CountDownLatch myCompletionLatch;
-		private final ArrayList<ResourcePersistentId> myUnsyncedPids = new ArrayList<>();
+		private final ResourcePersistentIdList myUnsyncedPids = new ResourcePersistentIdList();
 		private final RequestDetails myRequest;
 		private Search mySearch;
 		private boolean myAbortRequested;
@@ -693,7 +879,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 			ourLog.debug("Proceeding, as we have {} results", mySyncedPids.size());
 
-			ArrayList<ResourcePersistentId> retVal = new ArrayList<>();
+			ResourcePersistentIdList retVal = new ResourcePersistentIdList();
 			synchronized (mySyncedPids) {
 				verifySearchHasntFailedOrThrowInternalErrorException(mySearch);
 
@@ -702,7 +888,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 					toIndex = mySyncedPids.size();
 				}
 				for (int i = theFromIndex; i < toIndex; i++) {
-					retVal.add(mySyncedPids.get(i));
+					retVal.addLong(mySyncedPids.getLong(i));
 				}
 			}
 
@@ -733,7 +919,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 						doSaveSearch();
 					}
 
-					ArrayList<ResourcePersistentId> unsyncedPids = myUnsyncedPids;
+					ResourcePersistentIdList unsyncedPids = myUnsyncedPids;
 					int countBlocked = 0;
 
 					// Interceptor call: STORAGE_PREACCESS_RESOURCES
@@ -1196,6 +1382,53 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		return page;
 	}
 
+	/**
+	 * Averages the values recorded during a sliding window of time. The window is split into
+	 * buckets of equal length, and the bucket which falls out of the window is reused for new values.
+	 */
+	static class SlidingWindowAverage {
+		private final long myBucketMillis;
+		private final long[] myBucketStarts;
+		private final long[] myTotals;
+		private final long[] myCounts;
+
+		SlidingWindowAverage(int theBucketCount, long theBucketMillis) {
+			myBucketMillis = theBucketMillis;
+			myBucketStarts = new long[theBucketCount];
+			myTotals = new long[theBucketCount];
+			myCounts = new long[theBucketCount];
+			Arrays.fill(myBucketStarts, Long.MIN_VALUE);
+		}
+
+		synchronized void add(long theValue, long theNow) {
+			long bucketStart = theNow - (theNow % myBucketMillis);
+			int index = (int) ((bucketStart / myBucketMillis) % myBucketStarts.length);
+			if (myBucketStarts[index] != bucketStart) {
+				myBucketStarts[index] = bucketStart;
+				myTotals[index] = 0;
+				myCounts[index] = 0;
+			}
+			myTotals[index] += theValue;
+			myCounts[index]++;
+		}
+
+		synchronized long getAverage(long theNow) {
+			long windowStart = theNow - (theNow % myBucketMillis) - (myBucketMillis * (myBucketStarts.length - 1));
+			long total = 0;
+			long count = 0;
+			for (int i = 0; i < myBucketStarts.length; i++) {
+				if (myBucketStarts[i] >= windowStart) {
+					total += myTotals[i];
+					count += myCounts[i];
+				}
+			}
+			if (count == 0) {
+				return 0;
+			}
+			return total / count;
+		}
+	}
+
 	static void verifySearchHasntFailedOrThrowInternalErrorException(Search theSearch) {
 		if (theSearch.getStatus() == SearchStatusEnum.FAILED) {
 			Integer status = theSearch.getFailureCode();
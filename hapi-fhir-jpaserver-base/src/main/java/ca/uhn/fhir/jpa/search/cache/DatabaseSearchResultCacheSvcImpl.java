@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.search.cache;
  */
 
 import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdList;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchResult;
@@ -75,9 +76,9 @@ public class DatabaseSearchResultCacheSvcImpl implements ISearchResultCacheSvc {
 		ourLog.trace("Storing {} results with {} previous for search", theNewResourcePids.size(), thePreviouslyStoredResourcePids.size());
 
 		int order = thePreviouslyStoredResourcePids.size();
-		for (ResourcePersistentId nextPid : theNewResourcePids) {
+		for (int i = 0; i < theNewResourcePids.size(); i++) {
 			SearchResult nextResult = new SearchResult(theSearch);
-			nextResult.setResourcePid(nextPid.getIdAsLong());
+			nextResult.setResourcePid(getPid(theNewResourcePids, i));
 			nextResult.setOrder(order);
 			resultsToSave.add(nextResult);
 			ourLog.trace("Saving ORDER[{}] Resource {}", order, nextResult.getResourcePid());
@@ -88,4 +89,11 @@ public class DatabaseSearchResultCacheSvcImpl implements ISearchResultCacheSvc {
 		mySearchResultDao.saveAll(resultsToSave);
 	}
 
+	private static long getPid(List<ResourcePersistentId> thePids, int theIndex) {
+		if (thePids instanceof ResourcePersistentIdList) {
+			return ((ResourcePersistentIdList) thePids).getLong(theIndex);
+		}
+		return thePids.get(theIndex).getIdAsLong();
+	}
+
 }
@@ -0,0 +1,212 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentIdList;
+import ca.uhn.fhir.jpa.model.search.SearchStatusEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This search result cache keeps the resource PIDs for recently stored searches in a
+ * size bounded local memory cache, and serves paging requests from there when it can.
+ * All results are also written through to the delegate cache (normally
+ * {@link DatabaseSearchResultCacheSvcImpl}) so that other nodes in a cluster, as well
+ * as this node once the local entry has been evicted, can still load them.
+ * <p>
+ * A local entry is only ever used if it holds a contiguous run of results starting at
+ * the first result, so any request which can't be fully answered from memory is simply
+ * passed to the delegate.
+ * </p>
+ */
+public class LocalCachingSearchResultCacheSvcImpl implements ISearchResultCacheSvc {
+	private static final Logger ourLog = LoggerFactory.getLogger(LocalCachingSearchResultCacheSvcImpl.class);
+	static final long MAX_EXPIRE_AFTER_ACCESS_MILLIS = 10 * DateUtils.MILLIS_PER_MINUTE;
+
+	private final ISearchResultCacheSvc myDelegate;
+	@Autowired
+	private DaoConfig myDaoConfig;
+	/**
+	 * Will be <code>null</code> if the local cache is disabled
+	 */
+	private Cache<Long, long[]> myCache;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theDelegate The cache to write all results through to, and to fall back to when the local cache can't answer a request
+	 */
+	public LocalCachingSearchResultCacheSvcImpl(ISearchResultCacheSvc theDelegate) {
+		Validate.notNull(theDelegate, "theDelegate must not be null");
+		myDelegate = theDelegate;
+	}
+
+	@PostConstruct
+	public void start() {
+		int maxPids = myDaoConfig.getSearchResultLocalCacheMaxPids();
+		if (maxPids == 0) {
+			ourLog.info("Local search result cache is disabled");
+			myCache = null;
+			return;
+		}
+
+		long expireAfterAccessMillis = Math.min(myDaoConfig.getExpireSearchResultsAfterMillis(), MAX_EXPIRE_AFTER_ACCESS_MILLIS);
+		myCache = Caffeine.newBuilder()
+			.maximumWeight(maxPids)
+			.<Long, long[]>weigher((theSearchPid, thePids) -> thePids.length)
+			.expireAfterAccess(expireAfterAccessMillis, TimeUnit.MILLISECONDS)
+			.build();
+	}
+
+	@Override
+	public void storeResults(Search theSearch, List<ResourcePersistentId> thePreviouslyStoredResourcePids, List<ResourcePersistentId> theNewResourcePids) {
+		myDelegate.storeResults(theSearch, thePreviouslyStoredResourcePids, theNewResourcePids);
+
+		Long searchPid = theSearch.getId();
+		if (myCache == null || searchPid == null) {
+			return;
+		}
+
+		int previousCount = thePreviouslyStoredResourcePids.size();
+		long[] newPids = toLongArray(theNewResourcePids);
+
+		/*
+		 * Only add the results to the local cache once they are actually committed,
+		 * otherwise a rolled back write would leave us serving results that were
+		 * never saved
+		 */
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					appendToLocalCache(searchPid, previousCount, newPids);
+				}
+			});
+		} else {
+			appendToLocalCache(searchPid, previousCount, newPids);
+		}
+	}
+
+	private void appendToLocalCache(Long theSearchPid, int thePreviousCount, long[] theNewPids) {
+		Cache<Long, long[]> cache = myCache;
+		if (cache == null) {
+			return;
+		}
+		cache.asMap().compute(theSearchPid, (thePid, theExisting) -> {
+			int existingCount = theExisting != null ? theExisting.length : 0;
+			if (existingCount != thePreviousCount) {
+				// We've missed some results (e.g. they were stored by another node) so we can't keep a contiguous list
+				ourLog.trace("Discarding local results for search {} - Have {} but {} were previously stored", theSearchPid, existingCount, thePreviousCount);
+				return null;
+			}
+			if (theExisting == null) {
+				return theNewPids;
+			}
+			long[] retVal = Arrays.copyOf(theExisting, existingCount + theNewPids.length);
+			System.arraycopy(theNewPids, 0, retVal, existingCount, theNewPids.length);
+			return retVal;
+		});
+	}
+
+	@Override
+	public List<ResourcePersistentId> fetchResultPids(Search theSearch, int theFrom, int theTo) {
+		long[] pids = getLocalResults(theSearch);
+		if (pids != null) {
+			if (theTo <= pids.length || isAllResultsPresent(theSearch, pids)) {
+				int from = Math.min(theFrom, pids.length);
+				int to = Math.max(Math.min(theTo, pids.length), from);
+				ourLog.debug("fetchResultPids for range {}-{} returned {} pids from local cache", theFrom, theTo, to - from);
+				return toList(pids, from, to);
+			}
+		}
+
+		return myDelegate.fetchResultPids(theSearch, theFrom, theTo);
+	}
+
+	@Override
+	public List<ResourcePersistentId> fetchAllResultPids(Search theSearch) {
+		long[] pids = getLocalResults(theSearch);
+		if (pids != null && isAllResultsPresent(theSearch, pids)) {
+			return toList(pids, 0, pids.length);
+		}
+
+		return myDelegate.fetchAllResultPids(theSearch);
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	private long[] getLocalResults(Search theSearch) {
+		if (myCache == null || theSearch.getId() == null) {
+			return null;
+		}
+		return myCache.getIfPresent(theSearch.getId());
+	}
+
+	/**
+	 * The search stores blocked resources in its found count but not in the stored results,
+	 * so a finished search has all of its results present once we hold (found - blocked) of them
+	 */
+	private static boolean isAllResultsPresent(Search theSearch, long[] thePids) {
+		if (theSearch.getStatus() != SearchStatusEnum.FINISHED) {
+			return false;
+		}
+		return thePids.length >= theSearch.getNumFound() - theSearch.getNumBlocked();
+	}
+
+	private static long[] toLongArray(List<ResourcePersistentId> thePids) {
+		if (thePids instanceof ResourcePersistentIdList) {
+			return ((ResourcePersistentIdList) thePids).toLongArray();
+		}
+		long[] retVal = new long[thePids.size()];
+		for (int i = 0; i < retVal.length; i++) {
+			retVal[i] = thePids.get(i).getIdAsLong();
+		}
+		return retVal;
+	}
+
+	private static ResourcePersistentIdList toList(long[] thePids, int theFrom, int theTo) {
+		ResourcePersistentIdList retVal = new ResourcePersistentIdList(theTo - theFrom);
+		for (int i = theFrom; i < theTo; i++) {
+			retVal.addLong(thePids[i]);
+		}
+		return retVal;
+	}
+
+}
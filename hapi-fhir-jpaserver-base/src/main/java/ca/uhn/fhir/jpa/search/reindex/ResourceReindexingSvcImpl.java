@@ -29,8 +29,10 @@ import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobRangeDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
 import ca.uhn.fhir.jpa.entity.ResourceReindexJobEntity;
+import ca.uhn.fhir.jpa.entity.ResourceReindexJobRangeEntity;
 import ca.uhn.fhir.jpa.model.entity.ForcedId;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.model.sched.ISchedulerService;
@@ -45,7 +47,6 @@ import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hibernate.search.util.impl.Executors;
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.r4.model.InstantType;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.slf4j.Logger;
@@ -64,9 +65,13 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceContextType;
 import javax.persistence.Query;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
@@ -77,13 +82,17 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 
-	private static final Date BEGINNING_OF_TIME = new Date(0);
 	private static final Logger ourLog = LoggerFactory.getLogger(ResourceReindexingSvcImpl.class);
 	private static final int PASS_SIZE = 25000;
 	private final ReentrantLock myIndexingLock = new ReentrantLock();
+	private final Set<Long> myJobsWithRefreshedSearchParams = ConcurrentHashMap.newKeySet();
+	private long myRangeClaimTimeoutMillis = DateUtils.MILLIS_PER_HOUR;
+	private int myPageSize = PASS_SIZE;
 	@Autowired
 	private IResourceReindexJobDao myReindexJobDao;
 	@Autowired
+	private IResourceReindexJobRangeDao myReindexJobRangeDao;
+	@Autowired
 	private DaoConfig myDaoConfig;
 	@Autowired
 	private PlatformTransactionManager myTxManager;
@@ -112,6 +121,26 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		myReindexJobDao = theReindexJobDao;
 	}
 
+	@VisibleForTesting
+	void setReindexJobRangeDaoForUnitTest(IResourceReindexJobRangeDao theReindexJobRangeDao) {
+		myReindexJobRangeDao = theReindexJobRangeDao;
+	}
+
+	/**
+	 * Ranges which were claimed by a node for longer than this amount of time without
+	 * completing will be assumed to have been abandoned (e.g. because the node processing
+	 * them went down) and may be claimed by another node
+	 */
+	@VisibleForTesting
+	void setRangeClaimTimeoutMillisForUnitTest(long theRangeClaimTimeoutMillis) {
+		myRangeClaimTimeoutMillis = theRangeClaimTimeoutMillis;
+	}
+
+	@VisibleForTesting
+	void setPageSizeForUnitTest(int thePageSize) {
+		myPageSize = thePageSize;
+	}
+
 	@VisibleForTesting
 	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
 		myDaoConfig = theDaoConfig;
@@ -192,7 +221,8 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 		ScheduledJobDefinition jobDetail = new ScheduledJobDefinition();
 		jobDetail.setId(ResourceReindexingSvcImpl.class.getName());
 		jobDetail.setJobClass(ResourceReindexingSvcImpl.SubmitJob.class);
-		mySchedulerService.scheduleFixedDelay(10 * DateUtils.MILLIS_PER_SECOND, true, jobDetail);
+		// Not clustered: Every node claims and reindexes ranges
+		mySchedulerService.scheduleFixedDelay(10 * DateUtils.MILLIS_PER_SECOND, false, jobDetail);
 	}
 
 	@VisibleForTesting
@@ -234,13 +264,15 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 	@Override
 	public void cancelAndPurgeAllJobs() {
 		ourLog.info("Cancelling and purging all resource reindexing jobs");
-		myIndexingLock.lock();
-		try {
+
+		// Mark the jobs as deleted first so that any pass in progress stops claiming new ranges
 		myTxTemplate.execute(t -> {
 			myReindexJobDao.markAllOfTypeAsDeleted();
 			return null;
 		});
 
+		myIndexingLock.lock();
+		try {
 		myTaskExecutor.shutdown();
 		initExecutor();
 
@@ -262,12 +294,6 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 
 		int count = 0;
 		for (ResourceReindexJobEntity next : jobs) {
-
-			if (next.getThresholdLow() != null && next.getThresholdLow().getTime() >= next.getThresholdHigh().getTime()) {
-				markJobAsDeleted(next);
-				continue;
-			}
-
 			count += runReindexJob(next);
 		}
 		return count;
@@ -304,96 +330,212 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			}
 		}
 
-		ourLog.info("Performing reindex pass for JOB[{}]", theJob.getId());
-		StopWatch sw = new StopWatch();
-		AtomicInteger counter = new AtomicInteger();
-
 		/*
-		 * On the first time we run a particular reindex job, let's make sure we
-		 * have the latest search parameters loaded. A common reason to
+		 * The first time this node works on a particular reindex job, let's make sure
+		 * we have the latest search parameters loaded. A common reason to
 		 * be reindexing is that the search parameters have changed in some way, so
 		 * this makes sure we're on the latest versions
 		 */
-		if (theJob.getThresholdLow() == null) {
+		if (myJobsWithRefreshedSearchParams.add(theJob.getId())) {
 			mySearchParamRegistry.forceRefresh();
 		}
 
-		// Calculate range
-		Date low = theJob.getThresholdLow() != null ? theJob.getThresholdLow() : BEGINNING_OF_TIME;
-		Date high = theJob.getThresholdHigh();
+		createRangesIfNeeded(theJob);
+
+		// If every range has been completed (by this node or any other), the job is done
+		Long incompleteRanges = myTxTemplate.execute(t -> myReindexJobRangeDao.countIncomplete(theJob.getId()));
+		if (incompleteRanges == null || incompleteRanges == 0) {
+			markJobAsDeleted(theJob);
+			return 0;
+		}
+
+		int count = 0;
+		while (true) {
+			Date claimedUntil = newClaimedUntil();
+			Optional<ResourceReindexJobRangeEntity> range = claimRange(theJob, claimedUntil);
+			if (!range.isPresent()) {
+				break;
+			}
+
+			Integer rangeCount = reindexRange(theJob, range.get(), claimedUntil);
+			if (rangeCount == null) {
+				// The range failed and the job has been suspended
+				break;
+			}
+			count += rangeCount;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Splits the job into ranges of PIDs which can each be claimed by any node. Only one
+	 * node will actually create the ranges, the others will see that this has been done.
+	 */
+	private void createRangesIfNeeded(ResourceReindexJobEntity theJob) {
+		if (theJob.isRangesCreated()) {
+			return;
+		}
+
+		myTxTemplate.execute(t -> {
+			if (myReindexJobDao.claimRangeCreation(theJob.getId()) == 0) {
+				return null;
+			}
 
-		// Query for resources within threshold
-		StopWatch pageSw = new StopWatch();
-		Slice<Long> range = myTxTemplate.execute(t -> {
-			PageRequest page = PageRequest.of(0, PASS_SIZE);
+			Long lowestPid;
+			Long highestPid;
 			if (isNotBlank(theJob.getResourceType())) {
-				return myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(page, theJob.getResourceType(), low, high);
+				lowestPid = myResourceTableDao.findLowestPid(theJob.getResourceType());
+				highestPid = myResourceTableDao.findHighestPid(theJob.getResourceType());
 			} else {
-				return myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(page, low, high);
+				lowestPid = myResourceTableDao.findLowestPid();
+				highestPid = myResourceTableDao.findHighestPid();
+			}
+
+			List<ResourceReindexJobRangeEntity> ranges = new ArrayList<>();
+			if (lowestPid != null && highestPid != null) {
+				ResourceReindexJobEntity job = myReindexJobDao.getOne(theJob.getId());
+				for (long low = lowestPid; low <= highestPid; low += PASS_SIZE) {
+					ResourceReindexJobRangeEntity range = new ResourceReindexJobRangeEntity();
+					range.setJob(job);
+					range.setPidLow(low);
+					// The final range is left open, in case resources are still being written up to the job's threshold
+					if (highestPid - low >= PASS_SIZE) {
+						range.setPidHigh(low + PASS_SIZE - 1);
+					}
+					ranges.add(range);
+				}
+				myReindexJobRangeDao.saveAll(ranges);
 			}
+
+			ourLog.info("Split reindex JOB[{}] into {} ranges of up to {} resources", theJob.getId(), ranges.size(), PASS_SIZE);
+			return null;
 		});
-		Validate.notNull(range);
-		int count = range.getNumberOfElements();
-		ourLog.info("Loaded {} resources for reindexing in {}", count, pageSw.toString());
+	}
 
-		// If we didn't find any results at all, mark as deleted
-		if (count == 0) {
-			markJobAsDeleted(theJob);
-			return 0;
+	/**
+	 * The expiry of a claim also identifies the claim, since it is compared against the stored value
+	 * whenever the claim is renewed, released or completed. It is truncated to whole seconds so that
+	 * it survives databases which store timestamps with less precision than Java does.
+	 */
+	private Date newClaimedUntil() {
+		return DateUtils.truncate(new Date(System.currentTimeMillis() + myRangeClaimTimeoutMillis), Calendar.SECOND);
+	}
+
+	private Optional<ResourceReindexJobRangeEntity> claimRange(ResourceReindexJobEntity theJob, Date theClaimedUntil) {
+		Date now = new Date();
+		List<Long> candidates = myTxTemplate.execute(t -> myReindexJobRangeDao.findClaimableIds(PageRequest.of(0, 10), theJob.getId(), now));
+		Validate.notNull(candidates);
+
+		for (Long nextRangeId : candidates) {
+			Optional<ResourceReindexJobRangeEntity> claimed = myTxTemplate.execute(t -> {
+				if (myReindexJobRangeDao.claim(nextRangeId, now, theClaimedUntil) == 0) {
+					return Optional.empty();
+				}
+				return myReindexJobRangeDao.findById(nextRangeId);
+			});
+			if (claimed != null && claimed.isPresent()) {
+				return claimed;
+			}
+			ourLog.debug("Reindex range {} was claimed by another process", nextRangeId);
 		}
 
-		// Submit each resource requiring reindexing
-		List<Future<Date>> futures = range
-			.stream()
-			.map(t -> myTaskExecutor.submit(new ResourceReindexingTask(t, counter)))
-			.collect(Collectors.toList());
+		return Optional.empty();
+	}
 
-		Date latestDate = null;
-		for (Future<Date> next : futures) {
-			Date nextDate;
-			try {
-				nextDate = next.get();
-			} catch (Exception e) {
-				ourLog.error("Failure reindexing", e);
-				Date suspendedUntil = DateUtils.addMinutes(new Date(), 1);
-				myTxTemplate.execute(t -> {
-					myReindexJobDao.setSuspendedUntil(suspendedUntil);
-					return null;
-				});
-				return counter.get();
+	/**
+	 * The claim on the range is renewed before each page after the first, so that it doesn't expire while
+	 * a large range is still being worked on. If another node has taken the range over anyhow, this node
+	 * stops working on it and leaves completing it to the other node.
+	 *
+	 * @return The number of resources reindexed, or <code>null</code> if the range failed
+	 */
+	private Integer reindexRange(ResourceReindexJobEntity theJob, ResourceReindexJobRangeEntity theRange, Date theClaimedUntil) {
+		ourLog.info("Performing reindex pass for JOB[{}] on range {}", theJob.getId(), theRange);
+		StopWatch sw = new StopWatch();
+		AtomicInteger counter = new AtomicInteger();
+
+		long low = theRange.getPidLow();
+		long high = theRange.getPidHigh() != null ? theRange.getPidHigh() : Long.MAX_VALUE;
+		Date updatedHigh = theJob.getThresholdHigh();
+
+		// Load the resources within the range a page at a time, since the final range has no upper bound
+		int count = 0;
+		long nextLow = low;
+		Date claimedUntil = theClaimedUntil;
+		while (true) {
+			if (nextLow != low) {
+				Date currentClaim = claimedUntil;
+				Date renewedClaim = newClaimedUntil();
+				Integer renewed = myTxTemplate.execute(t -> myReindexJobRangeDao.renewClaim(theRange.getId(), currentClaim, renewedClaim));
+				if (renewed == null || renewed == 0) {
+					ourLog.warn("Lost claim on range {} of reindex JOB[{}], leaving it to the node which now holds it", theRange, theJob.getId());
+					return 0;
+				}
+				claimedUntil = renewedClaim;
 			}
 
-			if (nextDate != null) {
-				if (latestDate == null || latestDate.getTime() < nextDate.getTime()) {
-					latestDate = new Date(nextDate.getTime());
+			long pageLow = nextLow;
+			StopWatch pageSw = new StopWatch();
+			Slice<Long> page = myTxTemplate.execute(t -> {
+				PageRequest pageRequest = PageRequest.of(0, myPageSize);
+				if (isNotBlank(theJob.getResourceType())) {
+					return myResourceTableDao.findIdsOfResourcesWithinPidRange(pageRequest, theJob.getResourceType(), pageLow, high, updatedHigh);
+				} else {
+					return myResourceTableDao.findIdsOfResourcesWithinPidRange(pageRequest, pageLow, high, updatedHigh);
 				}
+			});
+			Validate.notNull(page);
+			int pageCount = page.getNumberOfElements();
+			ourLog.info("Loaded {} resources for reindexing in {}", pageCount, pageSw.toString());
+			if (pageCount == 0) {
+				break;
 			}
-		}
 
-		Validate.notNull(latestDate);
-		Date newLow;
-		if (latestDate.getTime() == low.getTime()) {
-			if (count == PASS_SIZE) {
-				// Just in case we end up in some sort of infinite loop. This shouldn't happen, and couldn't really
-				// happen unless there were 10000 resources with the exact same update time down to the
-				// millisecond.
-				ourLog.error("Final pass time for reindex JOB[{}] has same ending low value: {}", theJob.getId(), latestDate);
+			// Submit each resource requiring reindexing
+			List<Future<Date>> futures = page
+				.stream()
+				.map(t -> myTaskExecutor.submit(new ResourceReindexingTask(t, counter)))
+				.collect(Collectors.toList());
+
+			for (Future<Date> next : futures) {
+				try {
+					next.get();
+				} catch (Exception e) {
+					ourLog.error("Failure reindexing", e);
+					Date suspendedUntil = DateUtils.addMinutes(new Date(), 1);
+					Date currentClaim = claimedUntil;
+					myTxTemplate.execute(t -> {
+						myReindexJobDao.setSuspendedUntil(suspendedUntil);
+						myReindexJobRangeDao.releaseClaim(theRange.getId(), currentClaim);
+						return null;
+					});
+					return null;
+				}
 			}
 
-			newLow = new Date(latestDate.getTime() + 1);
-		} else {
-			newLow = latestDate;
+			count += pageCount;
+			if (pageCount < myPageSize) {
+				break;
+			}
+			nextLow = page.getContent().get(pageCount - 1) + 1;
 		}
 
-		myTxTemplate.execute(t -> {
-			myReindexJobDao.setThresholdLow(theJob.getId(), newLow);
-			Integer existingCount = myReindexJobDao.getReindexCount(theJob.getId()).orElse(0);
-			int newCount = existingCount + counter.get();
-			myReindexJobDao.setReindexCount(theJob.getId(), newCount);
-			return null;
+		// Only the node holding the claim may complete the range, so that the job's count isn't incremented twice
+		Date currentClaim = claimedUntil;
+		Boolean completed = myTxTemplate.execute(t -> {
+			if (myReindexJobRangeDao.markComplete(theRange.getId(), counter.get(), currentClaim) == 0) {
+				return false;
+			}
+			myReindexJobDao.incrementReindexCount(theJob.getId(), counter.get());
+			return true;
 		});
+		if (!Boolean.TRUE.equals(completed)) {
+			ourLog.warn("Lost claim on range {} of reindex JOB[{}] before it could be completed, leaving it to the node which now holds it", theRange, theJob.getId());
+			return 0;
+		}
 
-		ourLog.info("Completed pass of reindex JOB[{}] - Indexed {} resources in {} ({} / sec) - Have indexed until: {}", theJob.getId(), count, sw.toString(), sw.formatThroughput(count, TimeUnit.SECONDS), new InstantType(newLow));
+		ourLog.info("Completed range {} of reindex JOB[{}] - Indexed {} resources in {} ({} / sec)", theRange, theJob.getId(), count, sw.toString(), sw.formatThroughput(count, TimeUnit.SECONDS));
 		return counter.get();
 	}
 
@@ -402,7 +544,9 @@ public class ResourceReindexingSvcImpl implements IResourceReindexingSvc {
 			Collection<ResourceReindexJobEntity> toDelete = myReindexJobDao.findAll(PageRequest.of(0, 10), true);
 			toDelete.forEach(job -> {
 				ourLog.info("Purging deleted job[{}]", job.getId());
+				myReindexJobRangeDao.deleteByJobId(job.getId());
 				myReindexJobDao.deleteById(job.getId());
+				myJobsWithRefreshedSearchParams.remove(job.getId());
 			});
 			return null;
 		});
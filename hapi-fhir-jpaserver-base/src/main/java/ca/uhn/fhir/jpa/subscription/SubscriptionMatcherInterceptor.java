@@ -2,6 +2,8 @@ package ca.uhn.fhir.jpa.subscription;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.interceptor.api.*;
+import ca.uhn.fhir.jpa.dao.IDao;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.subscription.module.LinkedBlockingQueueSubscribableChannel;
 import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
 import ca.uhn.fhir.jpa.subscription.module.channel.SubscriptionChannelFactory;
@@ -101,6 +103,19 @@ public class SubscriptionMatcherInterceptor implements IResourceModifiedConsumer
 
 	private void submitResourceModified(IBaseResource theNewResource, ResourceModifiedMessage.OperationTypeEnum theOperationType, RequestDetails theRequest) {
 		ResourceModifiedMessage msg = new ResourceModifiedMessage(myFhirContext, theNewResource, theOperationType);
+
+		/*
+		 * If the DAO has left us the indexes it extracted while storing this resource, pass them
+		 * along so that in-memory matching can use them if the message is consumed in this JVM.
+		 * We're still inside the storage transaction here, which is where they need to be detached.
+		 */
+		if (theOperationType != ResourceModifiedMessage.OperationTypeEnum.DELETE) {
+			ResourceIndexedSearchParams indexedSearchParams = IDao.INDEXED_SEARCH_PARAMS.get(theNewResource);
+			if (indexedSearchParams != null) {
+				msg.setIndexedSearchParams(indexedSearchParams.copyForInMemoryMatching());
+			}
+		}
+
 		// Interceptor call: SUBSCRIPTION_RESOURCE_MODIFIED
 		HookParams params = new HookParams()
 			.add(ResourceModifiedMessage.class, msg);
@@ -68,6 +68,11 @@ public class DaoSubscriptionMatcher implements ISubscriptionMatcher {
 		return InMemoryMatchResult.fromBoolean(results.size() > 0);
 	}
 
+	@Override
+	public boolean isInMemory() {
+		return false;
+	}
+
 	/**
 	 * Search based on a query criteria
 	 */
@@ -0,0 +1,78 @@
+package ca.uhn.fhir.jpa.util;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Nullable;
+import java.util.function.Supplier;
+
+/**
+ * Holds state which is only valid for the lifetime of the current transaction, such
+ * as lookups which were resolved in bulk ahead of time. The state is bound to the
+ * transaction and is discarded when the transaction completes, whether it commits
+ * or rolls back.
+ */
+public class TransactionScopedState {
+
+	private TransactionScopedState() {
+		// non instantiable
+	}
+
+	/**
+	 * Returns the state bound to the current transaction under the given key, or <code>null</code>
+	 * if there is none (including if there is no transaction in progress)
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public static <T> T get(Object theKey) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		return (T) TransactionSynchronizationManager.getResource(theKey);
+	}
+
+	/**
+	 * Returns the state bound to the current transaction under the given key, creating and
+	 * binding it using the given factory if there is none yet. Returns <code>null</code> if
+	 * there is no transaction in progress.
+	 */
+	@Nullable
+	public static <T> T getOrCreate(Object theKey, Supplier<T> theFactory) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		T retVal = get(theKey);
+		if (retVal == null) {
+			retVal = theFactory.get();
+			TransactionSynchronizationManager.bindResource(theKey, retVal);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(theKey);
+				}
+			});
+		}
+		return retVal;
+	}
+
+}
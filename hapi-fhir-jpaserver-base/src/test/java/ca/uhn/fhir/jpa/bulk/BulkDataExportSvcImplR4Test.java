@@ -1,5 +1,11 @@
 package ca.uhn.fhir.jpa.bulk;
 
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.binstore.MemoryBinaryStorageSvcImpl;
+import ca.uhn.fhir.jpa.binstore.StoredDetails;
+import ca.uhn.fhir.jpa.config.TestR4Config;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportCollectionFileDao;
 import ca.uhn.fhir.jpa.dao.data.IBulkExportJobDao;
@@ -7,26 +13,43 @@ import ca.uhn.fhir.jpa.dao.r4.BaseJpaR4Test;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportCollectionFileEntity;
 import ca.uhn.fhir.jpa.entity.BulkExportJobEntity;
+import ca.uhn.fhir.jpa.model.util.JpaConstants;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.util.ExpungeOptions;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.test.utilities.UnregisterScheduledProcessor;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hamcrest.Matchers;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Binary;
 import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.TestPropertySource;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.*;
@@ -45,7 +68,21 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 	private IBulkExportCollectionFileDao myBulkExportCollectionFileDao;
 	@Autowired
 	private IBulkDataExportSvc myBulkDataExportSvc;
+	@Autowired
+	private MemoryBinaryStorageSvcImpl myStorageSvc;
 
+	@Before
+	public void beforeRegisterBinaryStorageInterceptor() {
+		myInterceptorRegistry.registerInterceptor(myBinaryStorageInterceptor);
+	}
+
+	@After
+	public void afterResetBulkExportSettings() {
+		myStorageSvc.setMinimumBinarySize(0);
+		myStorageSvc.clear();
+		myDaoConfig.setBulkExportBatchSize(new DaoConfig().getBulkExportBatchSize());
+		myDaoConfig.setExpungeEnabled(new DaoConfig().isExpungeEnabled());
+	}
 
 	@Test
 	public void testPurgeExpiredJobs() {
@@ -290,6 +327,344 @@ public class BulkDataExportSvcImplR4Test extends BaseJpaR4Test {
 		}
 	}
 
+	@Test
+	public void testSubmit_FilesStreamedToBinaryStorage() throws IOException {
+
+		// Create some resources to load
+		createResources();
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(1, status.getFiles().size());
+
+		// Without the interceptor the stored resource only refers to the blob
+		myInterceptorRegistry.unregisterInterceptor(myBinaryStorageInterceptor);
+		Binary binary = myBinaryDao.read(status.getFiles().get(0).getResourceId());
+		assertNull(binary.getContent());
+		assertTrue(binary.getDataElement().hasExtension(JpaConstants.EXT_EXTERNALIZED_BINARY_ID));
+
+		// The stored blob should carry the real size and hash of the file
+		String blobId = binary.getDataElement().getExtensionString(JpaConstants.EXT_EXTERNALIZED_BINARY_ID);
+		StoredDetails storedDetails = myStorageSvc.fetchBlobDetails(binary.getIdElement(), blobId);
+		byte[] contents = myStorageSvc.fetchBlob(binary.getIdElement(), blobId);
+		assertEquals(10, new String(contents, Constants.CHARSET_UTF8).split("\n").length);
+		assertEquals(contents.length, storedDetails.getBytes());
+		assertEquals(Hashing.sha256().hashBytes(contents).toString(), storedDetails.getHash());
+	}
+
+	@Test
+	public void testSubmit_FileSmallerThanMinimumBlobSizeStoredInline() {
+
+		// Create some resources to load
+		createResources();
+
+		// Larger than the file, but smaller than the maximum file size
+		myStorageSvc.setMinimumBinarySize(100000);
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(1, status.getFiles().size());
+
+		myInterceptorRegistry.unregisterInterceptor(myBinaryStorageInterceptor);
+		Binary binary = myBinaryDao.read(status.getFiles().get(0).getResourceId());
+		assertFalse(binary.getDataElement().hasExtension(JpaConstants.EXT_EXTERNALIZED_BINARY_ID));
+		String contents = new String(binary.getContent(), Constants.CHARSET_UTF8);
+		assertEquals(10, contents.split("\n").length);
+	}
+
+	@Test
+	public void testSubmit_InlineStorageWithSmallBatches() {
+
+		// Create some resources to load
+		createResources();
+
+		myStorageSvc.setMinimumBinarySize(Integer.MAX_VALUE);
+		myDaoConfig.setBulkExportBatchSize(3);
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+		myBulkDataExportSvc.buildExportFiles();
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(1, status.getFiles().size());
+
+		myInterceptorRegistry.unregisterInterceptor(myBinaryStorageInterceptor);
+		Binary binary = myBinaryDao.read(status.getFiles().get(0).getResourceId());
+		String contents = new String(binary.getContent(), Constants.CHARSET_UTF8);
+		assertEquals(10, contents.split("\n").length);
+		for (int i = 0; i < 10; i++) {
+			assertThat(contents, containsString("\"value\":\"PAT" + i + "\""));
+		}
+	}
+
+	@Test
+	public void testSubmit_NoFileWhenResourcesAreExpungedDuringExport() {
+		myDaoConfig.setExpungeEnabled(true);
+
+		List<IIdType> ids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Patient patient = new Patient();
+			patient.setActive(true);
+			ids.add(myPatientDao.create(patient).getId().toUnqualifiedVersionless());
+		}
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+
+		// Expunge every resource after the search has found them, but before they are loaded
+		Object interceptor = new Object() {
+			@Hook(Pointcut.JPA_PERFTRACE_SEARCH_FOUND_ID)
+			public void foundId() throws Exception {
+				ExecutorService otherThread = Executors.newSingleThreadExecutor();
+				try {
+					otherThread.submit(() -> {
+						for (IIdType next : ids) {
+							myPatientDao.delete(next);
+							myPatientDao.expunge(next, new ExpungeOptions().setExpungeDeletedResources(true).setExpungeOldVersions(true), null);
+						}
+					}).get(10, TimeUnit.SECONDS);
+				} finally {
+					otherThread.shutdown();
+				}
+				ids.clear();
+			}
+		};
+		buildExportFilesWithInterceptor(interceptor);
+
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(0, status.getFiles().size());
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		assertEquals(0, myBinaryDao.search(map).size().intValue());
+	}
+
+	@Test
+	public void testAbandonedCollectionIsReclaimed() throws InterruptedException {
+
+		// Create some resources to load
+		createResources();
+
+		// Create a bulk job
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient", "Observation"), null, null);
+		assertNotNull(jobDetails.getJobId());
+
+		// Simulate another node which claimed the Patient collection and then went away before committing it
+		runInTransaction(() -> {
+			BulkExportJobEntity job = myBulkExportJobDao.findByJobId(jobDetails.getJobId()).orElseThrow(IllegalStateException::new);
+			job.setStatus(BulkJobStatusEnum.BUILDING);
+			myBulkExportJobDao.save(job);
+			for (BulkExportCollectionEntity next : job.getCollections()) {
+				if (next.getResourceType().equals("Patient")) {
+					next.setStatus(BulkJobStatusEnum.BUILDING);
+					myBulkExportCollectionDao.save(next);
+				}
+			}
+		});
+
+		// Only the unclaimed collection should be built
+		myBulkDataExportSvc.buildExportFiles();
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.BUILDING, status.getStatus());
+		runInTransaction(() -> {
+			BulkExportJobEntity job = myBulkExportJobDao.findByJobId(jobDetails.getJobId()).orElseThrow(IllegalStateException::new);
+			for (BulkExportCollectionEntity next : job.getCollections()) {
+				if (next.getResourceType().equals("Patient")) {
+					assertEquals(BulkJobStatusEnum.BUILDING, next.getStatus());
+					assertEquals(0, next.getFiles().size());
+				} else {
+					assertEquals(BulkJobStatusEnum.COMPLETE, next.getStatus());
+					assertEquals(10, next.getResourceCount());
+					assertEquals(1, next.getFiles().size());
+				}
+			}
+		});
+
+		// Once the claim is stale, the collection should be picked up again
+		myDaoConfig.setBulkExportClaimTimeoutMillis(0);
+		try {
+			sleepUntilTimeChanges();
+			myBulkDataExportSvc.buildExportFiles();
+		} finally {
+			myDaoConfig.setBulkExportClaimTimeoutMillis(new DaoConfig().getBulkExportClaimTimeoutMillis());
+		}
+
+		status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(2, status.getFiles().size());
+	}
+
+	@Test
+	public void testCollectionReclaimedBeforeCommitIsLeftToTheNewClaim() {
+		// The other node needs a database connection of its own while this node is building
+		Assume.assumeTrue(TestR4Config.getMaxThreads() > 1);
+
+		// Create some resources to load
+		createResources();
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+
+		// Simulate another node which reclaims and completes the collection just before this node commits it
+		AtomicReference<IIdType> binaryId = new AtomicReference<>();
+		AtomicReference<String> blobId = new AtomicReference<>();
+		Object interceptor = new Object() {
+			@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+			public void resourceCreated(IBaseResource theResource) throws Exception {
+				if (theResource instanceof Binary) {
+					Binary binary = (Binary) theResource;
+					binaryId.set(binary.getIdElement().toUnqualifiedVersionless());
+					blobId.set(binary.getDataElement().getExtensionString(JpaConstants.EXT_EXTERNALIZED_BINARY_ID));
+					completeCollectionsAsOtherNode(jobDetails.getJobId());
+				}
+			}
+		};
+		buildExportFilesWithInterceptor(interceptor);
+
+		assertCompletedByOtherNode(jobDetails.getJobId());
+
+		// Nothing written by this node is left behind
+		assertNotNull(binaryId.get());
+		assertNotNull(blobId.get());
+		try {
+			myBinaryDao.read(binaryId.get());
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+		assertNull(myStorageSvc.fetchBlob(binaryId.get(), blobId.get()));
+	}
+
+	@Test
+	public void testCollectionReclaimedWhileBuildingIsLeftToTheNewClaim() {
+		// The other node needs a database connection of its own while this node is building
+		Assume.assumeTrue(TestR4Config.getMaxThreads() > 1);
+
+		// Create some resources to load
+		createResources();
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+
+		// Simulate another node which reclaims and completes the collection while this node is storing its file,
+		// and give the claim renewal time to notice
+		myDaoConfig.setBulkExportClaimTimeoutMillis(4 * DateUtils.MILLIS_PER_SECOND);
+		try {
+			Object interceptor = new Object() {
+				@Hook(Pointcut.STORAGE_PRESTORAGE_RESOURCE_CREATED)
+				public void resourceCreated(IBaseResource theResource) throws Exception {
+					if (theResource instanceof Binary) {
+						completeCollectionsAsOtherNode(jobDetails.getJobId());
+						Thread.sleep(2500);
+					}
+				}
+			};
+			buildExportFilesWithInterceptor(interceptor);
+		} finally {
+			myDaoConfig.setBulkExportClaimTimeoutMillis(new DaoConfig().getBulkExportClaimTimeoutMillis());
+		}
+
+		assertCompletedByOtherNode(jobDetails.getJobId());
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		assertEquals(0, myBinaryDao.search(map).size().intValue());
+	}
+
+	@Test
+	public void testClaimIsRenewedWhileBuilding() {
+		// The other node needs a database connection of its own while this node is building
+		Assume.assumeTrue(TestR4Config.getMaxThreads() > 1);
+
+		// Create some resources to load
+		createResources();
+
+		IBulkDataExportSvc.JobInfo jobDetails = myBulkDataExportSvc.submitJob(null, Sets.newHashSet("Patient"), null, null);
+
+		// Keep the file from being stored for longer than the renewal interval, and watch the claim from another node
+		myDaoConfig.setBulkExportClaimTimeoutMillis(4 * DateUtils.MILLIS_PER_SECOND);
+		AtomicReference<Date> claimedTime = new AtomicReference<>();
+		AtomicReference<Date> renewedTime = new AtomicReference<>();
+		try {
+			Object interceptor = new Object() {
+				@Hook(Pointcut.STORAGE_PRESTORAGE_RESOURCE_CREATED)
+				public void resourceCreated(IBaseResource theResource) throws Exception {
+					if (theResource instanceof Binary) {
+						claimedTime.set(fetchCollectionStatusTimeAsOtherNode(jobDetails.getJobId()));
+						Thread.sleep(2500);
+						renewedTime.set(fetchCollectionStatusTimeAsOtherNode(jobDetails.getJobId()));
+					}
+				}
+			};
+			buildExportFilesWithInterceptor(interceptor);
+		} finally {
+			myDaoConfig.setBulkExportClaimTimeoutMillis(new DaoConfig().getBulkExportClaimTimeoutMillis());
+		}
+
+		assertNotNull(claimedTime.get());
+		assertNotNull(renewedTime.get());
+		assertThat(renewedTime.get(), Matchers.greaterThan(claimedTime.get()));
+
+		// The renewal doesn't get in the way of completing the collection
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(jobDetails.getJobId());
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(1, status.getFiles().size());
+	}
+
+	private void buildExportFilesWithInterceptor(Object theInterceptor) {
+		myInterceptorRegistry.registerInterceptor(theInterceptor);
+		try {
+			myBulkDataExportSvc.buildExportFiles();
+		} finally {
+			myInterceptorRegistry.unregisterInterceptor(theInterceptor);
+		}
+	}
+
+	private void completeCollectionsAsOtherNode(String theJobId) throws Exception {
+		runAsOtherNode(() -> {
+			runInTransaction(() -> {
+				BulkExportJobEntity job = myBulkExportJobDao.findByJobId(theJobId).orElseThrow(IllegalStateException::new);
+				for (BulkExportCollectionEntity next : job.getCollections()) {
+					next.setStatus(BulkJobStatusEnum.COMPLETE);
+					myBulkExportCollectionDao.save(next);
+				}
+			});
+			return null;
+		});
+	}
+
+	private Date fetchCollectionStatusTimeAsOtherNode(String theJobId) throws Exception {
+		return runAsOtherNode(() -> runInTransaction(() -> {
+			BulkExportJobEntity job = myBulkExportJobDao.findByJobId(theJobId).orElseThrow(IllegalStateException::new);
+			return job.getCollections().iterator().next().getStatusTime();
+		}));
+	}
+
+	private <T> T runAsOtherNode(Callable<T> theTask) throws Exception {
+		ExecutorService otherNode = Executors.newSingleThreadExecutor();
+		try {
+			return otherNode.submit(theTask).get(10, TimeUnit.SECONDS);
+		} finally {
+			otherNode.shutdown();
+		}
+	}
+
+	private void assertCompletedByOtherNode(String theJobId) {
+		// The other node's outcome is kept, and the job is not failed
+		IBulkDataExportSvc.JobInfo status = myBulkDataExportSvc.getJobStatusOrThrowResourceNotFound(theJobId);
+		assertEquals(BulkJobStatusEnum.COMPLETE, status.getStatus());
+		assertEquals(0, status.getFiles().size());
+		runInTransaction(() -> {
+			BulkExportJobEntity job = myBulkExportJobDao.findByJobId(theJobId).orElseThrow(IllegalStateException::new);
+			assertNull(job.getStatusMessage());
+			for (BulkExportCollectionEntity next : job.getCollections()) {
+				assertEquals(BulkJobStatusEnum.COMPLETE, next.getStatus());
+			}
+		});
+	}
+
 	private void createResources() {
 		for (int i = 0; i < 10; i++) {
 			Patient patient = new Patient();
@@ -0,0 +1,75 @@
+package ca.uhn.fhir.jpa.bulk;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.IResultIterator;
+import ca.uhn.fhir.jpa.dao.ISearchBuilder;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BulkExportFileInputStreamTest {
+
+	private final FhirContext myCtx = FhirContext.forR4();
+	@Mock
+	private IResultIterator myResultIterator;
+	@Mock
+	private ISearchBuilder mySearchBuilder;
+
+	@Test
+	public void testFileSizeIsCheckedAfterEachResource() throws Exception {
+		Iterator<ResourcePersistentId> pids = LongStream.rangeClosed(1, 9).mapToObj(ResourcePersistentId::new).collect(Collectors.toList()).iterator();
+		when(myResultIterator.hasNext()).thenAnswer(t -> pids.hasNext());
+		when(myResultIterator.next()).thenAnswer(t -> pids.next());
+		doAnswer(t -> {
+			Collection<ResourcePersistentId> requested = t.getArgument(0);
+			List<IBaseResource> resources = t.getArgument(2);
+			for (ResourcePersistentId next : requested) {
+				resources.add(new Patient().setId("Patient/" + next.getIdAsLong()));
+			}
+			return null;
+		}).when(mySearchBuilder).loadResourcesByPid(any(), any(), any(), anyBoolean(), any());
+
+		// Every line is the same length, so a file is full once it has two of them
+		int lineLength = myCtx.newJsonParser().encodeResourceToString(new Patient().setId("Patient/1")).length() + 1;
+
+		Queue<IBaseResource> loadedResources = new ArrayDeque<>();
+		List<String> files = new ArrayList<>();
+		while (myResultIterator.hasNext() || !loadedResources.isEmpty()) {
+			BulkExportFileInputStream fileContents = new BulkExportFileInputStream(myCtx, myResultIterator, loadedResources, mySearchBuilder, 800, lineLength + 1);
+			files.add(IOUtils.toString(fileContents, StandardCharsets.UTF_8));
+			assertEquals(files.size() < 5 ? 2 : 1, fileContents.getResourceCount());
+		}
+
+		assertEquals(5, files.size());
+		assertEquals(2 * lineLength, files.get(0).length());
+		String allFiles = String.join("", files);
+		for (int i = 1; i <= 9; i++) {
+			assertThat(allFiles, containsString("\"id\":\"" + i + "\""));
+		}
+	}
+
+}
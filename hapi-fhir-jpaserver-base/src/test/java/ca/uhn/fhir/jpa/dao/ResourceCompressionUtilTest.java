@@ -0,0 +1,98 @@
+package ca.uhn.fhir.jpa.dao;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.r4.model.ContactPoint;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.util.zip.Inflater;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceCompressionUtilTest {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ResourceCompressionUtilTest.class);
+	private static final FhirContext ourCtx = FhirContext.forR4();
+
+	@Test
+	public void testRoundTripAllEncodings() {
+		Patient patient = createPatient("1");
+		String expected = ourCtx.newJsonParser().encodeResourceToString(patient);
+
+		for (ResourceEncodingEnum next : new ResourceEncodingEnum[]{ResourceEncodingEnum.JSON, ResourceEncodingEnum.JSONC, ResourceEncodingEnum.JSOND}) {
+			byte[] bytes = ResourceCompressionUtil.encode(next.newParser(ourCtx), patient, next);
+			ourLog.info("Encoding {} produced {} bytes", next, bytes.length);
+
+			assertEquals(next.name(), expected, ResourceCompressionUtil.decodeToString(bytes, next));
+			Patient parsed = ResourceCompressionUtil.parse(next.newParser(ourCtx), Patient.class, bytes, next);
+			assertEquals(next.name(), expected, ourCtx.newJsonParser().encodeResourceToString(parsed));
+		}
+	}
+
+	@Test
+	public void testDeleted() {
+		assertEquals(0, ResourceCompressionUtil.encode(ourCtx.newJsonParser(), createPatient("1"), ResourceEncodingEnum.DEL).length);
+		assertNull(ResourceCompressionUtil.decodeToString(new byte[0], ResourceEncodingEnum.DEL));
+	}
+
+	@Test
+	public void testJsondIsSmallerThanJsonc() {
+		Patient patient = createPatient("1");
+		IParser parser = ourCtx.newJsonParser();
+
+		byte[] jsonc = ResourceCompressionUtil.encode(parser, patient, ResourceEncodingEnum.JSONC);
+		byte[] jsond = ResourceCompressionUtil.encode(parser, patient, ResourceEncodingEnum.JSOND);
+		ourLog.info("JSONC is {} bytes, JSOND is {} bytes", jsonc.length, jsond.length);
+
+		assertThat(jsond.length, lessThan(jsonc.length));
+	}
+
+	@Test
+	public void testReusedCodecsProduceSameOutput() {
+		IParser parser = ourCtx.newJsonParser();
+		byte[] first = ResourceCompressionUtil.encode(parser, createPatient("1"), ResourceEncodingEnum.JSOND);
+		ResourceCompressionUtil.encode(parser, createPatient("2"), ResourceEncodingEnum.JSOND);
+		byte[] again = ResourceCompressionUtil.encode(parser, createPatient("1"), ResourceEncodingEnum.JSOND);
+
+		// The stored hash of the body is used to detect changes, so the output must be stable
+		assertArrayEquals(first, again);
+	}
+
+	@Test
+	public void testJsondIsRawDeflateWithDictionary() throws Exception {
+		byte[] bytes = ResourceCompressionUtil.encode(ourCtx.newJsonParser(), createPatient("1"), ResourceEncodingEnum.JSOND);
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(bytes);
+			inflater.setDictionary(ResourceCompressionUtil.JSOND_DICTIONARY);
+			byte[] output = new byte[10000];
+			int length = inflater.inflate(output);
+			assertTrue(inflater.finished());
+			assertEquals(ourCtx.newJsonParser().encodeResourceToString(createPatient("1")), new String(output, 0, length, "UTF-8"));
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static Patient createPatient(String theId) {
+		Patient patient = new Patient();
+		patient.setId("Patient/" + theId);
+		patient.getMeta().setVersionId("1");
+		patient.addIdentifier().setSystem("http://hl7.org/fhir/sid/us-ssn").setValue("999-99-999" + theId);
+		patient.addName().setFamily("Smith").addGiven("John");
+		patient.addTelecom().setSystem(ContactPoint.ContactPointSystem.PHONE).setValue("555-1234");
+		patient.setGender(Enumerations.AdministrativeGender.MALE);
+		patient.setActive(true);
+		patient.getManagingOrganization().setReference("Organization/123");
+		return patient;
+	}
+
+}
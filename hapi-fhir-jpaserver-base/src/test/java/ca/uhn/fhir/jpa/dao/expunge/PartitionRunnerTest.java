@@ -18,21 +18,25 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.isOneOf;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes = {TestDstu3Config.class})
 public class PartitionRunnerTest {
 	private static final Logger ourLog = LoggerFactory.getLogger(PartitionRunnerTest.class);
-	private static final String EXPUNGE_THREADNAME_1 = "expunge-1";
-	private static final String EXPUNGE_THREADNAME_2 = "expunge-2";
+	private static final String EXPUNGE_THREADNAME_PREFIX = "expunge-";
 
 	@Autowired
 	private PartitionRunner myPartitionRunner;
@@ -94,16 +98,17 @@ public class PartitionRunnerTest {
 	public void tenItemsBatch5() throws InterruptedException {
 		Slice<Long> resourceIds = buildSlice(10);
 		myDaoConfig.setExpungeBatchSize(5);
+		myDaoConfig.setExpungeThreadCount(2);
 
-		Consumer<List<Long>> partitionConsumer = buildPartitionConsumer(myLatch);
+		Consumer<List<Long>> partitionConsumer = buildConcurrentPartitionConsumer(myLatch, 2);
 		myLatch.setExpectedCount(2);
 		myPartitionRunner.runInPartitionedThreads(resourceIds, partitionConsumer);
 		List<HookParams> calls = myLatch.awaitExpected();
 		PartitionCall partitionCall1 = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 0);
-		assertThat(partitionCall1.threadName, isOneOf(EXPUNGE_THREADNAME_1, EXPUNGE_THREADNAME_2));
+		assertThat(partitionCall1.threadName, startsWith(EXPUNGE_THREADNAME_PREFIX));
 		assertEquals(5, partitionCall1.size);
 		PartitionCall partitionCall2 = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 1);
-		assertThat(partitionCall2.threadName, isOneOf(EXPUNGE_THREADNAME_1, EXPUNGE_THREADNAME_2));
+		assertThat(partitionCall2.threadName, startsWith(EXPUNGE_THREADNAME_PREFIX));
 		assertEquals(5, partitionCall2.size);
 		assertNotEquals(partitionCall1.threadName, partitionCall2.threadName);
 	}
@@ -116,16 +121,17 @@ public class PartitionRunnerTest {
 		// We don't care in which order, but one partition size should be
 		// 5 and one should be 4
 		Set<Integer> nums = Sets.newHashSet(5, 4);
+		myDaoConfig.setExpungeThreadCount(2);
 
-		Consumer<List<Long>> partitionConsumer = buildPartitionConsumer(myLatch);
+		Consumer<List<Long>> partitionConsumer = buildConcurrentPartitionConsumer(myLatch, 2);
 		myLatch.setExpectedCount(2);
 		myPartitionRunner.runInPartitionedThreads(resourceIds, partitionConsumer);
 		List<HookParams> calls = myLatch.awaitExpected();
 		PartitionCall partitionCall1 = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 0);
-		assertThat(partitionCall1.threadName, isOneOf(EXPUNGE_THREADNAME_1, EXPUNGE_THREADNAME_2));
+		assertThat(partitionCall1.threadName, startsWith(EXPUNGE_THREADNAME_PREFIX));
 		assertEquals(true, nums.remove(partitionCall1.size));
 		PartitionCall partitionCall2 = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 1);
-		assertThat(partitionCall2.threadName, isOneOf(EXPUNGE_THREADNAME_1, EXPUNGE_THREADNAME_2));
+		assertThat(partitionCall2.threadName, startsWith(EXPUNGE_THREADNAME_PREFIX));
 		assertEquals(true, nums.remove(partitionCall2.size));
 		assertNotEquals(partitionCall1.threadName, partitionCall2.threadName);
 	}
@@ -140,22 +146,63 @@ public class PartitionRunnerTest {
 		myLatch.setExpectedCount(2);
 		myPartitionRunner.runInPartitionedThreads(resourceIds, partitionConsumer);
 		List<HookParams> calls = myLatch.awaitExpected();
-		{
-			PartitionCall partitionCall = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 0);
-			assertEquals(EXPUNGE_THREADNAME_1, partitionCall.threadName);
-			assertEquals(5, partitionCall.size);
-		}
-		{
-			PartitionCall partitionCall = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 1);
-			assertEquals(EXPUNGE_THREADNAME_1, partitionCall.threadName);
-			assertEquals(5, partitionCall.size);
+		PartitionCall partitionCall1 = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 0);
+		assertThat(partitionCall1.threadName, startsWith(EXPUNGE_THREADNAME_PREFIX));
+		assertEquals(5, partitionCall1.size);
+		PartitionCall partitionCall2 = (PartitionCall) PointcutLatch.getLatchInvocationParameter(calls, 1);
+		assertEquals(partitionCall1.threadName, partitionCall2.threadName);
+		assertEquals(5, partitionCall2.size);
+	}
+
+	@Test
+	public void threadsAreReusedBetweenCalls() throws InterruptedException {
+		myDaoConfig.setExpungeBatchSize(5);
+		myDaoConfig.setExpungeThreadCount(1);
+
+		Consumer<List<Long>> partitionConsumer = buildPartitionConsumer(myLatch);
+		myLatch.setExpectedCount(2);
+		myPartitionRunner.runInPartitionedThreads(buildSlice(10), partitionConsumer);
+		Set<String> firstThreadNames = getThreadNames(myLatch.awaitExpected());
+
+		myLatch.setExpectedCount(2);
+		myPartitionRunner.runInPartitionedThreads(buildSlice(10), partitionConsumer);
+		Set<String> secondThreadNames = getThreadNames(myLatch.awaitExpected());
+
+		// A worker left over from a larger pool may still finish a partition while the pool shrinks,
+		// but no new thread should be started for the second call
+		assertThat(firstThreadNames, hasItems(secondThreadNames.toArray(new String[0])));
+	}
+
+	private Set<String> getThreadNames(List<HookParams> theCalls) {
+		Set<String> retVal = new HashSet<>();
+		for (int i = 0; i < theCalls.size(); i++) {
+			retVal.add(((PartitionCall) PointcutLatch.getLatchInvocationParameter(theCalls, i)).threadName);
 		}
+		return retVal;
 	}
 
 	private Consumer<List<Long>> buildPartitionConsumer(PointcutLatch latch) {
 		return list -> latch.call(new PartitionCall(Thread.currentThread().getName(), list.size()));
 	}
 
+	/**
+	 * Partitions built by this consumer wait for each other before they report, so
+	 * they can only finish if the runner really works on them in parallel
+	 */
+	private Consumer<List<Long>> buildConcurrentPartitionConsumer(PointcutLatch latch, int thePartitionCount) {
+		CountDownLatch started = new CountDownLatch(thePartitionCount);
+		return list -> {
+			started.countDown();
+			try {
+				assertTrue("Partitions did not run in parallel", started.await(10, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AssertionError(e);
+			}
+			latch.call(new PartitionCall(Thread.currentThread().getName(), list.size()));
+		};
+	}
+
 	static class PartitionCall {
 		private final String threadName;
 		private final int size;
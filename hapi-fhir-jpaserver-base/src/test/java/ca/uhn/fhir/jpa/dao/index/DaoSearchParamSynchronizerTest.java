@@ -0,0 +1,72 @@
+package ca.uhn.fhir.jpa.dao.index;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.jpa.util.AddRemoveCount;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.persistence.EntityManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DaoSearchParamSynchronizerTest {
+
+	private DaoSearchParamSynchronizer mySvc;
+
+	@Mock
+	private EntityManager myEntityManager;
+
+	@Before
+	public void before() {
+		mySvc = new DaoSearchParamSynchronizer();
+		mySvc.setDaoConfigForUnitTest(new DaoConfig());
+		mySvc.setEntityManagerForUnitTest(myEntityManager);
+	}
+
+	@Test
+	public void testNewIndexRowsArePersistedWithoutMerge() {
+		ResourceIndexedSearchParamToken token0 = new ResourceIndexedSearchParamToken("Patient", "identifier", "urn:system", "0");
+		ResourceIndexedSearchParamToken token1 = new ResourceIndexedSearchParamToken("Patient", "identifier", "urn:system", "1");
+		ResourceIndexedSearchParams newParams = new ResourceIndexedSearchParams();
+		newParams.myTokenParams.add(token0);
+		newParams.myTokenParams.add(token1);
+
+		AddRemoveCount count = mySvc.synchronizeSearchParamsToDatabase(newParams, new ResourceTable(), new ResourceIndexedSearchParams());
+
+		assertEquals(2, count.getAddCount());
+		verify(myEntityManager, times(1)).persist(same(token0));
+		verify(myEntityManager, times(1)).persist(same(token1));
+		verify(myEntityManager, never()).merge(any());
+	}
+
+	@Test
+	public void testReusedIndexRowsAreMerged() {
+		ResourceIndexedSearchParamToken existing = new ResourceIndexedSearchParamToken("Patient", "identifier", "urn:system", "0");
+		existing.setId(123L);
+		ResourceIndexedSearchParams existingParams = new ResourceIndexedSearchParams();
+		existingParams.myTokenParams.add(existing);
+
+		ResourceIndexedSearchParamToken replacement = new ResourceIndexedSearchParamToken("Patient", "identifier", "urn:system", "1");
+		ResourceIndexedSearchParams newParams = new ResourceIndexedSearchParams();
+		newParams.myTokenParams.add(replacement);
+
+		AddRemoveCount count = mySvc.synchronizeSearchParamsToDatabase(newParams, new ResourceTable(), existingParams);
+
+		assertEquals(1, count.getAddCount());
+		assertEquals(0, count.getRemoveCount());
+		assertEquals(123L, replacement.getId().longValue());
+		verify(myEntityManager, times(1)).merge(same(replacement));
+		verify(myEntityManager, never()).persist(any());
+		verify(myEntityManager, never()).remove(any());
+	}
+
+}
@@ -0,0 +1,128 @@
+package ca.uhn.fhir.jpa.dao.index;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdHelperServiceTest {
+
+	private IdHelperService mySvc;
+	private DaoConfig myDaoConfig;
+
+	@Mock
+	private IForcedIdDao myForcedIdDao;
+
+	@Before
+	public void before() {
+		myDaoConfig = new DaoConfig();
+		mySvc = new IdHelperService();
+		mySvc.setDaoConfigForUnitTest(myDaoConfig);
+		mySvc.setForcedIdDaoForUnitTest(myForcedIdDao);
+		mySvc.start();
+	}
+
+	@Test
+	public void testTranslateForcedIdToPidIsCached() {
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), any())).thenReturn(Collections.singletonList(new Object[]{"ABC", 123L}));
+
+		assertEquals(123L, mySvc.translateForcedIdToPid("Patient", "ABC", null).getIdAsLong().longValue());
+		assertEquals(123L, mySvc.translateForcedIdToPid("Patient", "ABC", null).getIdAsLong().longValue());
+
+		verify(myForcedIdDao, times(1)).findAndResolveByTypeAndForcedId(eq("Patient"), any());
+	}
+
+	@Test
+	public void testTranslateForcedIdToPidsOnlyLoadsUncachedIds() {
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A")))).thenReturn(Collections.singletonList(new Object[]{"A", 1L}));
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("B")))).thenReturn(Collections.singletonList(new Object[]{"B", 2L}));
+		mySvc.translateForcedIdToPid("Patient", "A", null);
+
+		List<ResourcePersistentId> pids = mySvc.translateForcedIdToPids(Arrays.asList(new IdDt("Patient/A"), new IdDt("Patient/B"), new IdDt("Patient/A")), null);
+
+		assertEquals(2, pids.size());
+		verify(myForcedIdDao, times(1)).findAndResolveByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("A")));
+		verify(myForcedIdDao, times(1)).findAndResolveByTypeAndForcedId(eq("Patient"), eq(Collections.singletonList("B")));
+	}
+
+	@Test
+	public void testTranslateForcedIdToPidNotFoundIsNotCached() {
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), any())).thenReturn(Collections.emptyList());
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				mySvc.translateForcedIdToPid("Patient", "ABC", null);
+				fail();
+			} catch (ResourceNotFoundException e) {
+				// good
+			}
+		}
+
+		verify(myForcedIdDao, times(2)).findAndResolveByTypeAndForcedId(eq("Patient"), any());
+	}
+
+	@Test
+	public void testTranslatePidIdToForcedIdIsCached() {
+		ForcedId forcedId = new ForcedId();
+		forcedId.setResourceType("Patient");
+		forcedId.setForcedId("ABC");
+		when(myForcedIdDao.findByResourcePid(123L)).thenReturn(forcedId);
+		when(myForcedIdDao.findByResourcePid(456L)).thenReturn(null);
+
+		assertEquals("Patient/ABC", mySvc.translatePidIdToForcedId("Patient", new ResourcePersistentId(123L)));
+		assertEquals("Patient/ABC", mySvc.translatePidIdToForcedId("Patient", new ResourcePersistentId(123L)));
+		assertEquals("Patient/456", mySvc.translatePidIdToForcedId("Patient", new ResourcePersistentId(456L)));
+		assertEquals("Patient/456", mySvc.translatePidIdToForcedId("Patient", new ResourcePersistentId(456L)));
+
+		verify(myForcedIdDao, times(1)).findByResourcePid(123L);
+		verify(myForcedIdDao, times(1)).findByResourcePid(456L);
+	}
+
+	@Test
+	public void testDeleteInvalidatesCache() {
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), any())).thenReturn(Collections.singletonList(new Object[]{"ABC", 123L}));
+		mySvc.translateForcedIdToPid("Patient", "ABC", null);
+
+		ForcedId forcedId = mock(ForcedId.class);
+		when(forcedId.getId()).thenReturn(1L);
+		when(forcedId.getResourceType()).thenReturn("Patient");
+		when(forcedId.getForcedId()).thenReturn("ABC");
+		when(forcedId.getResourcePid()).thenReturn(123L);
+		mySvc.delete(forcedId);
+
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), any())).thenReturn(Collections.singletonList(new Object[]{"ABC", 456L}));
+		assertEquals(456L, mySvc.translateForcedIdToPid("Patient", "ABC", null).getIdAsLong().longValue());
+		verify(myForcedIdDao).deleteByPid(1L);
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		myDaoConfig.setForcedIdCacheMaxSize(0);
+		mySvc.start();
+		when(myForcedIdDao.findAndResolveByTypeAndForcedId(eq("Patient"), any())).thenReturn(Collections.singletonList(new Object[]{"ABC", 123L}));
+
+		mySvc.translateForcedIdToPid("Patient", "ABC", null);
+		mySvc.translateForcedIdToPid("Patient", "ABC", null);
+
+		verify(myForcedIdDao, times(2)).findAndResolveByTypeAndForcedId(eq("Patient"), any());
+	}
+
+}
@@ -0,0 +1,134 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.model.entity.IndexStorageModeEnum;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.util.TestUtil;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.SortSpec;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+public class FhirResourceDaoR4IndexStorageModeTest extends BaseJpaR4Test {
+
+	@After
+	public void after() {
+		myModelConfig.setIndexStorageMode(new ModelConfig().getIndexStorageMode());
+	}
+
+	@Before
+	public void before() {
+		myModelConfig.setIndexStorageMode(IndexStorageModeEnum.HASHES_ONLY);
+	}
+
+	@Test
+	public void testRawValuesAreNotStored() {
+		createPatient("Smith", "123");
+
+		runInTransaction(() -> {
+			for (ResourceIndexedSearchParamToken next : myResourceIndexedSearchParamTokenDao.findAll()) {
+				assertNull(next.toString(), next.getSystem());
+				assertNull(next.toString(), next.getValue());
+				assertNotNull(next.toString(), next.getHashSystemAndValue());
+			}
+			for (ResourceIndexedSearchParamString next : myResourceIndexedSearchParamStringDao.findAll()) {
+				assertNull(next.toString(), next.getValueExact());
+				if (!next.isMissing()) {
+					assertNotNull(next.toString(), next.getValueNormalized());
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testSearch() {
+		IIdType id = createPatient("Smith", "123");
+		createPatient("Jones", "456");
+
+		assertThat(search(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "123")), contains(id.getValue()));
+		assertThat(search(Patient.SP_IDENTIFIER, new TokenParam(null, "123")), contains(id.getValue()));
+		assertThat(search(Patient.SP_FAMILY, new StringParam("smi")), contains(id.getValue()));
+		assertThat(search(Patient.SP_FAMILY, new StringParam("Smith").setExact(true)), contains(id.getValue()));
+		assertEquals(0, search(Patient.SP_FAMILY, new StringParam("SMITH").setExact(true)).size());
+	}
+
+	@Test
+	public void testSortOnString() {
+		IIdType id1 = createPatient("Smith", "123");
+		IIdType id2 = createPatient("adams", "456");
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.setSort(new SortSpec(Patient.SP_FAMILY));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), contains(id2.getValue(), id1.getValue()));
+	}
+
+	@Test
+	public void testSortOnTokenIsRejected() {
+		createPatient("Smith", "123");
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.setSort(new SortSpec(Patient.SP_IDENTIFIER));
+		try {
+			myPatientDao.search(map);
+			fail();
+		} catch (InvalidRequestException e) {
+			assertThat(e.getMessage(), containsString("_sort=identifier"));
+		}
+	}
+
+	@Test
+	public void testUpdateWithNoChangesDoesNotRewriteIndexes() {
+		IIdType id = createPatient("Smith", "123");
+
+		myCaptureQueriesListener.clear();
+		runInTransaction(() -> {
+			Patient patient = new Patient();
+			patient.setId(id);
+			patient.addName().setFamily("Smith");
+			patient.addIdentifier().setSystem("urn:system").setValue("123");
+			patient.setActive(false);
+			myPatientDao.update(patient);
+		});
+		myCaptureQueriesListener.logInsertQueriesForCurrentThread();
+		assertEquals(0, myCaptureQueriesListener.getInsertQueriesForCurrentThread().stream().filter(t -> t.getSql(false, false).contains("HFJ_SPIDX_STRING")).count());
+		assertEquals(0, myCaptureQueriesListener.getDeleteQueriesForCurrentThread().size());
+	}
+
+	private List<String> search(String theParamName, IQueryParameterType theParam) {
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(theParamName, theParam);
+		return toUnqualifiedVersionlessIdValues(myPatientDao.search(map));
+	}
+
+	private IIdType createPatient(String theFamily, String theIdentifier) {
+		Patient patient = new Patient();
+		patient.addName().setFamily(theFamily);
+		patient.addIdentifier().setSystem("urn:system").setValue(theIdentifier);
+		patient.setActive(true);
+		return myPatientDao.create(patient).getId().toUnqualifiedVersionless();
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -1,15 +1,19 @@
 package ca.uhn.fhir.jpa.dao.r4;
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.DaoMethodOutcome;
+import ca.uhn.fhir.jpa.dao.MatchResourceUrlService;
 import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.util.SqlQuery;
 import ca.uhn.fhir.jpa.util.TestUtil;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
@@ -17,9 +21,12 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.*;
 import org.junit.*;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.TestPropertySource;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
@@ -30,11 +37,19 @@ import static org.mockito.Mockito.reset;
 })
 public class FhirResourceDaoR4QueryCountTest extends BaseJpaR4Test {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoR4QueryCountTest.class);
+	/**
+	 * Default set by HapiFhirLocalContainerEntityManagerFactoryBean
+	 */
+	private static final int JDBC_BATCH_SIZE = 30;
+
+	@Autowired
+	private MatchResourceUrlService myMatchResourceUrlService;
 
 	@After
 	public void afterResetDao() {
 		myDaoConfig.setResourceMetaCountHardLimit(new DaoConfig().getResourceMetaCountHardLimit());
 		myDaoConfig.setIndexMissingFields(new DaoConfig().getIndexMissingFields());
+		myDaoConfig.setMatchUrlCacheEnabled(new DaoConfig().isMatchUrlCacheEnabled());
 	}
 
 	@Before
@@ -92,6 +107,197 @@ public class FhirResourceDaoR4QueryCountTest extends BaseJpaR4Test {
 		assertEquals(0, myCaptureQueriesListener.getDeleteQueriesForCurrentThread().size());
 	}
 
+	@Test
+	public void testCreateWithManyIndexesUsesBatchedInserts() {
+		myCaptureQueriesListener.clear();
+		runInTransaction(() -> {
+			Patient p = new Patient();
+			for (int i = 0; i < 10; i++) {
+				p.addIdentifier().setSystem("urn:system").setValue("ID" + i);
+				p.addName().setFamily("FAMILY" + i);
+			}
+			myPatientDao.create(p);
+		});
+		myCaptureQueriesListener.logInsertQueriesForCurrentThread();
+		List<SqlQuery> inserts = myCaptureQueriesListener.getInsertQueriesForCurrentThread();
+
+		// Rows for each table should be written using as few JDBC batches as possible
+		Map<String, Integer> tableToStatementCount = new HashMap<>();
+		Map<String, Integer> tableToRowCount = new HashMap<>();
+		for (SqlQuery next : inserts) {
+			String sql = next.getSql(false, false);
+			String table = sql.substring("insert into ".length(), sql.indexOf(' ', "insert into ".length()));
+			tableToStatementCount.merge(table, 1, Integer::sum);
+			tableToRowCount.merge(table, next.getSize(), Integer::sum);
+		}
+		ourLog.info("Insert statements: {} - Rows: {}", tableToStatementCount, tableToRowCount);
+		assertThat(tableToRowCount.keySet(), hasItems("HFJ_SPIDX_TOKEN", "HFJ_SPIDX_STRING"));
+		for (String nextTable : tableToRowCount.keySet()) {
+			int expectedBatches = (tableToRowCount.get(nextTable) + JDBC_BATCH_SIZE - 1) / JDBC_BATCH_SIZE;
+			assertEquals(nextTable, expectedBatches, tableToStatementCount.get(nextTable).intValue());
+		}
+	}
+
+	@Test
+	public void testConditionalCreateUsesMatchUrlCache() {
+		myDaoConfig.setMatchUrlCacheEnabled(true);
+
+		Patient p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		IIdType id = myPatientDao.create(p, "Patient?identifier=urn:system|1").getId().toUnqualifiedVersionless();
+
+		// The second conditional create should resolve the match URL without searching
+		myCaptureQueriesListener.clear();
+		p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		DaoMethodOutcome outcome = myPatientDao.create(p, "Patient?identifier=urn:system|1");
+		assertFalse(outcome.getCreated());
+		assertEquals(id.getValue(), outcome.getId().toUnqualifiedVersionless().getValue());
+		myCaptureQueriesListener.logSelectQueriesForCurrentThread();
+		for (SqlQuery next : myCaptureQueriesListener.getSelectQueriesForCurrentThread()) {
+			assertThat(next.getSql(false, false), not(containsString("HFJ_SPIDX_TOKEN")));
+		}
+
+		// Once the resource no longer matches, the cached URL must not be used
+		p = new Patient();
+		p.setId(id);
+		p.addIdentifier().setSystem("urn:system").setValue("2");
+		myPatientDao.update(p);
+
+		p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		outcome = myPatientDao.create(p, "Patient?identifier=urn:system|1");
+		assertTrue(outcome.getCreated());
+		assertNotEquals(id.getIdPart(), outcome.getId().getIdPart());
+	}
+
+	@Test
+	public void testConditionalCreateMatchUrlCacheDiscardedWhenAnotherResourceMatches() {
+		myDaoConfig.setMatchUrlCacheEnabled(true);
+
+		Patient p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		myPatientDao.create(p, "Patient?identifier=urn:system|1");
+
+		// A second resource with the same identifier means the URL no longer identifies a single resource
+		p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		myPatientDao.create(p);
+
+		p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		try {
+			myPatientDao.create(p, "Patient?identifier=urn:system|1");
+			fail();
+		} catch (PreconditionFailedException e) {
+			assertThat(e.getMessage(), containsString("matched 2 resources"));
+		}
+	}
+
+	@Test
+	public void testMatchUrlNotCachedWhenMatchingResourceCommitsDuringResolution() throws Exception {
+		myDaoConfig.setMatchUrlCacheEnabled(true);
+
+		Patient p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		myPatientDao.create(p);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			runInTransaction(() -> {
+				assertEquals(1, myMatchResourceUrlService.processMatchUrl("Patient?identifier=urn:system|1", Patient.class, mySrd).size());
+
+				// Another transaction commits a second matching resource before this one commits and caches its result
+				Patient p2 = new Patient();
+				p2.addIdentifier().setSystem("urn:system").setValue("1");
+				try {
+					executor.submit(() -> myPatientDao.create(p2)).get();
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+
+		p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("1");
+		try {
+			myPatientDao.create(p, "Patient?identifier=urn:system|1");
+			fail();
+		} catch (PreconditionFailedException e) {
+			assertThat(e.getMessage(), containsString("matched 2 resources"));
+		}
+	}
+
+	@Test
+	public void testTransactionPrefetchesReferencesAndMatchUrls() {
+		for (int i = 0; i < 10; i++) {
+			Patient p = new Patient();
+			p.setId("P" + i);
+			p.addIdentifier().setSystem("urn:system").setValue("" + i);
+			myPatientDao.update(p);
+		}
+
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 10; i++) {
+			Observation obs = new Observation();
+			obs.getSubject().setReference("Patient/P" + i);
+			input.addEntry().setResource(obs).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Observation");
+
+			Patient p = new Patient();
+			p.addIdentifier().setSystem("urn:system").setValue("" + i);
+			input.addEntry().setResource(p).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=urn:system|" + i);
+		}
+
+		myCaptureQueriesListener.clear();
+		Bundle output = mySystemDao.transaction(mySrd, input);
+		myCaptureQueriesListener.logSelectQueriesForCurrentThread();
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("201 Created", output.getEntry().get(i * 2).getResponse().getStatus());
+			assertEquals("200 OK", output.getEntry().get(i * 2 + 1).getResponse().getStatus());
+			assertEquals("Patient/P" + i, new IdType(output.getEntry().get(i * 2 + 1).getResponse().getLocation()).toUnqualifiedVersionless().getValue());
+		}
+
+		// All of the references and conditional URLs should be resolved up front, not once per entry
+		int forcedIdSelects = 0;
+		int tokenSelects = 0;
+		for (SqlQuery next : myCaptureQueriesListener.getSelectQueriesForCurrentThread()) {
+			String sql = next.getSql(false, false);
+			if (sql.contains("HFJ_FORCED_ID") && sql.contains("FORCED_ID in")) {
+				forcedIdSelects++;
+			}
+			if (sql.contains("HFJ_SPIDX_TOKEN")) {
+				tokenSelects++;
+			}
+		}
+		assertEquals(1, forcedIdSelects);
+		assertEquals(1, tokenSelects);
+	}
+
+	@Test
+	public void testTransactionPrefetchedMatchUrlReflectsDeleteInSameTransaction() {
+		Patient p = new Patient();
+		p.setId("P0");
+		p.addIdentifier().setSystem("urn:system").setValue("0");
+		myPatientDao.update(p);
+
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		input.addEntry().getRequest().setMethod(Bundle.HTTPVerb.DELETE).setUrl("Patient/P0");
+		p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("0");
+		input.addEntry().setResource(p).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=urn:system|0");
+
+		Bundle output = mySystemDao.transaction(mySrd, input);
+
+		// The match found before the writes started was deleted, so a new resource is created
+		assertEquals("201 Created", output.getEntry().get(1).getResponse().getStatus());
+		assertNotEquals("P0", new IdType(output.getEntry().get(1).getResponse().getLocation()).getIdPart());
+	}
+
 	@Test
 	public void testRead() {
 		IIdType id = runInTransaction(() -> {
@@ -70,6 +70,7 @@ public class FhirResourceDaoR4Test extends BaseJpaR4Test {
 		myDaoConfig.setTreatReferencesAsLogical(new DaoConfig().getTreatReferencesAsLogical());
 		myDaoConfig.setEnforceReferentialIntegrityOnDelete(new DaoConfig().isEnforceReferentialIntegrityOnDelete());
 		myDaoConfig.setEnforceReferenceTargetTypes(new DaoConfig().isEnforceReferenceTargetTypes());
+		myDaoConfig.setResourceEncoding(new DaoConfig().getResourceEncoding());
 	}
 
 	@Before
@@ -2709,6 +2710,37 @@ public class FhirResourceDaoR4Test extends BaseJpaR4Test {
 
 	}
 
+	@Test
+	public void testResourceEncodingJsond() {
+		Patient p = new Patient();
+		p.setGender(AdministrativeGender.MALE);
+		p.addName().setFamily("FAMILY");
+		IIdType id = myPatientDao.create(p).getId().toUnqualifiedVersionless();
+
+		// Switch encodings between versions, both must remain readable
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.JSOND);
+		p = new Patient();
+		p.setId(id);
+		p.setGender(AdministrativeGender.FEMALE);
+		p.addName().setFamily("FAMILY");
+		myPatientDao.update(p);
+
+		runInTransaction(() -> {
+			assertEquals(ResourceEncodingEnum.JSONC, myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 1L).getEncoding());
+			assertEquals(ResourceEncodingEnum.JSOND, myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(id.getIdPartAsLong(), 2L).getEncoding());
+		});
+
+		assertEquals(AdministrativeGender.MALE, myPatientDao.read(id.withVersion("1")).getGender());
+		assertEquals(AdministrativeGender.FEMALE, myPatientDao.read(id).getGender());
+
+		// An update with no changes should be detected as such
+		p = new Patient();
+		p.setId(id);
+		p.setGender(AdministrativeGender.FEMALE);
+		p.addName().setFamily("FAMILY");
+		assertEquals("2", myPatientDao.update(p).getId().getVersionIdPart());
+	}
+
 	/**
 	 * Can we handle content that was previously saved containing vocabulary that
 	 * is no longer valid
@@ -697,7 +697,6 @@ public class FhirResourceDaoR4UniqueSearchParamTest extends BaseJpaR4Test {
 
 		myResourceReindexingSvc.markAllResourcesForReindexing();
 		assertEquals(6, myResourceReindexingSvc.forceReindexingPass());
-		assertEquals(1, myResourceReindexingSvc.forceReindexingPass());
 		assertEquals(0, myResourceReindexingSvc.forceReindexingPass());
 
 		runInTransaction(()->{
@@ -811,11 +810,9 @@ public class FhirResourceDaoR4UniqueSearchParamTest extends BaseJpaR4Test {
 		createUniqueIndexCoverageBeneficiary();
 
 		myResourceReindexingSvc.markAllResourcesForReindexing("Coverage");
-		// The first pass as a low of EPOCH
-		assertEquals(1, myResourceReindexingSvc.forceReindexingPass());
-		// The second pass has a low of Coverage.lastUpdated
+		// The first pass reindexes the only range
 		assertEquals(1, myResourceReindexingSvc.forceReindexingPass());
-		// The third pass has a low of (Coverage.lastUpdated + 1ms)
+		// The second pass finds no incomplete ranges
 		assertEquals(0, myResourceReindexingSvc.forceReindexingPass());
 
 		runInTransaction(() -> {
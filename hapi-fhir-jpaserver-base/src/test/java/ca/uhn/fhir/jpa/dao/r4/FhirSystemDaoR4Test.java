@@ -48,6 +48,7 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 	public void after() {
 		myDaoConfig.setAllowInlineMatchUrlReferences(false);
 		myDaoConfig.setAllowMultipleDelete(new DaoConfig().isAllowMultipleDelete());
+		myDaoConfig.setBundleBatchMaxConcurrency(new DaoConfig().getBundleBatchMaxConcurrency());
 	}
 
 	@Before
@@ -313,6 +314,48 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 		assertThat(oo.getIssue().get(0).getDiagnostics(), containsString("Unknown search parameter"));
 	}
 
+	@Test
+	public void testBatchConcurrentKeepsResponseOrder() {
+		myDaoConfig.setBundleBatchMaxConcurrency(4);
+
+		Bundle request = new Bundle();
+		request.setType(BundleType.BATCH);
+		for (int i = 0; i < 20; i++) {
+			if (i % 2 == 0) {
+				Patient p = new Patient();
+				p.addIdentifier().setSystem("urn:system").setValue("FOO" + i);
+				request
+					.addEntry()
+					.setResource(p)
+					.getRequest()
+					.setMethod(HTTPVerb.POST)
+					.setUrl("Patient");
+			} else {
+				request
+					.addEntry()
+					.getRequest()
+					.setMethod(HTTPVerb.GET)
+					.setUrl("Patient/BABABABA" + i);
+			}
+		}
+
+		Bundle response = mySystemDao.transaction(mySrd, request);
+		assertEquals(20, response.getEntry().size());
+
+		for (int i = 0; i < 20; i++) {
+			BundleEntryComponent nextEntry = response.getEntry().get(i);
+			if (i % 2 == 0) {
+				assertEquals("201 Created", nextEntry.getResponse().getStatus());
+				Patient patient = myPatientDao.read(new IdType(nextEntry.getResponse().getLocation()), mySrd);
+				assertEquals("FOO" + i, patient.getIdentifierFirstRep().getValue());
+			} else {
+				assertEquals("404 Not Found", nextEntry.getResponse().getStatus());
+				OperationOutcome oo = (OperationOutcome) nextEntry.getResponse().getOutcome();
+				assertEquals("Resource Patient/BABABABA" + i + " is not known", oo.getIssue().get(0).getDiagnostics());
+			}
+		}
+	}
+
 	@Test
 	public void testCircularCreateAndDelete() {
 		Encounter enc = new Encounter();
@@ -501,14 +544,12 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 		myResourceReindexingSvc.forceReindexingPass();
 
 		/*
-		 * We expect a final reindex count of 3 because there are 2 resources to
-		 * reindex and the final pass uses the most recent time as the low threshold,
-		 * so it indexes the newest resource one more time. It wouldn't be a big deal
-		 * if this ever got fixed so that it ends up with 2 instead of 3.
+		 * We expect a final reindex count of 2 because there are 2 resources to
+		 * reindex, and each range of resources is only reindexed once
 		 */
 		runInTransaction(()->{
 			Optional<Integer> reindexCount = myResourceReindexJobDao.getReindexCount(jobId);
-			assertEquals(3, reindexCount.orElseThrow(()->new NullPointerException("No job " + jobId)).intValue());
+			assertEquals(2, reindexCount.orElseThrow(()->new NullPointerException("No job " + jobId)).intValue());
 		});
 
 		// Try making the resource unparseable
@@ -0,0 +1,355 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.MatchResourceUrlService;
+import ca.uhn.fhir.jpa.dao.data.IPartitionDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.partition.RequestPartitionHelperService;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.util.SqlQuery;
+import ca.uhn.fhir.jpa.util.TestUtil;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PartitioningR4Test extends BaseJpaR4Test {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(PartitioningR4Test.class);
+
+	@Autowired
+	private RequestPartitionHelperService myRequestPartitionHelperService;
+	@Autowired
+	private MatchResourceUrlService myMatchResourceUrlService;
+	@Autowired
+	private IPartitionDao myPartitionDao;
+
+	@After
+	public void after() {
+		myDaoConfig.setPartitioningEnabled(new DaoConfig().isPartitioningEnabled());
+		myDaoConfig.setMatchUrlCacheEnabled(new DaoConfig().isMatchUrlCacheEnabled());
+		myMatchResourceUrlService.clearCache();
+		when(mySrd.getTenantId()).thenReturn(null);
+	}
+
+	@Before
+	public void before() {
+		myDaoConfig.setPartitioningEnabled(true);
+		myRequestPartitionHelperService.clearCacheForUnitTest();
+	}
+
+	@Test
+	public void testCreateStoresPartitionOnResourceAndIndexes() {
+		IIdType id = createPatient("A", "123");
+
+		runInTransaction(() -> {
+			ResourceTable resource = myResourceTableDao.findById(id.getIdPartAsLong()).orElseThrow(IllegalArgumentException::new);
+			assertNotNull(resource.getPartitionId());
+			assertEquals(resource.getPartitionId(), myResourceHistoryTableDao.findForIdAndVersionAndFetchProvenance(resource.getId(), 1).getPartitionId());
+			List<ResourceIndexedSearchParamToken> tokens = myResourceIndexedSearchParamTokenDao.findAll();
+			assertFalse(tokens.isEmpty());
+			for (ResourceIndexedSearchParamToken next : tokens) {
+				assertEquals(resource.getPartitionId(), next.getPartitionId());
+			}
+		});
+	}
+
+	@Test
+	public void testSearchOnlyFindsResourcesInRequestPartition() {
+		IIdType idA = createPatient("A", "123");
+		IIdType idB = createPatient("B", "123");
+		IIdType idDefault = createPatient(null, "123");
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		myCaptureQueriesListener.clear();
+		IBundleProvider outcome = myPatientDao.search(newIdentifierSearch(), mySrd);
+		assertThat(toUnqualifiedVersionlessIdValues(outcome), containsInAnyOrder(idA.getValue()));
+		String sql = myCaptureQueriesListener.getSelectQueriesForCurrentThread().get(0).getSql(true, false);
+		ourLog.info("SQL: {}", sql);
+		assertThat(sql, containsString("PARTITION_ID"));
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		outcome = myPatientDao.search(newIdentifierSearch(), mySrd);
+		assertThat(toUnqualifiedVersionlessIdValues(outcome), containsInAnyOrder(idB.getValue()));
+
+		when(mySrd.getTenantId()).thenReturn(null);
+		outcome = myPatientDao.search(newIdentifierSearch(), mySrd);
+		assertThat(toUnqualifiedVersionlessIdValues(outcome), containsInAnyOrder(idDefault.getValue()));
+	}
+
+	@Test
+	public void testCachedSearchIsNotReusedByOtherPartition() {
+		IIdType idA = createPatient("A", "123");
+		IIdType idB = createPatient("B", "123");
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "123"));
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map, mySrd)), containsInAnyOrder(idA.getValue()));
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map, mySrd)), containsInAnyOrder(idB.getValue()));
+	}
+
+	@Test
+	public void testChainedSearchIsRestrictedToRequestPartition() {
+		IIdType patientA = createPatient("A", "123");
+		createPatient("B", "123");
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		Observation obs = new Observation();
+		obs.getSubject().setReferenceElement(patientA);
+		IIdType obsA = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(Observation.SP_SUBJECT, new ReferenceParam("identifier", "urn:system|123"));
+		assertThat(toUnqualifiedVersionlessIdValues(myObservationDao.search(map, mySrd)), containsInAnyOrder(obsA.getValue()));
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		assertEquals(0, myObservationDao.search(map, mySrd).size().intValue());
+	}
+
+	@Test
+	public void testReadsFromUnknownTenantDoNotCreatePartition() {
+		IIdType idA = createPatient("A", "123");
+
+		when(mySrd.getTenantId()).thenReturn("C");
+		assertEquals(0, myPatientDao.search(newIdentifierSearch(), mySrd).size().intValue());
+		assertEquals(0, myPatientDao.history(null, null, mySrd).size().intValue());
+		try {
+			myPatientDao.read(idA, mySrd);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+		runInTransaction(() -> assertFalse(myPartitionDao.findByName("C").isPresent()));
+
+		// The tenant being unknown is cached, but not once it creates a resource
+		IIdType idC = createPatient("C", "123");
+		runInTransaction(() -> assertTrue(myPartitionDao.findByName("C").isPresent()));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(newIdentifierSearch(), mySrd)), containsInAnyOrder(idC.getValue()));
+	}
+
+	@Test
+	public void testReadFromOtherPartitionIsNotFound() {
+		IIdType idA = createPatient("A", "123");
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		assertNotNull(myPatientDao.read(idA, mySrd));
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		try {
+			myPatientDao.read(idA, mySrd);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+	}
+
+	@Test
+	public void testUpdateWithIdFromOtherPartitionIsNotFound() {
+		when(mySrd.getTenantId()).thenReturn("A");
+		Patient patient = new Patient();
+		patient.setId("Patient/ABC");
+		patient.setActive(true);
+		myPatientDao.update(patient, mySrd);
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		patient = new Patient();
+		patient.setId("Patient/ABC");
+		patient.setActive(false);
+		try {
+			myPatientDao.update(patient, mySrd);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// The same outcome as reading the resource, rather than a duplicate ID error
+			assertThat(e.getMessage(), containsString("Patient/ABC"));
+		}
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		assertTrue(myPatientDao.read(new IdType("Patient/ABC"), mySrd).getActive());
+	}
+
+	@Test
+	public void testEverythingIsRestrictedToRequestPartition() {
+		IIdType patientA = createPatient("A", "123");
+		when(mySrd.getTenantId()).thenReturn("A");
+		Observation obs = new Observation();
+		obs.getSubject().setReferenceElement(patientA);
+		IIdType obsA = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+		IIdType patientB = createPatient("B", "123");
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		IBundleProvider outcome = myPatientDao.patientInstanceEverything(mock(HttpServletRequest.class), patientA, null, null, null, null, null, null, mySrd);
+		assertThat(toUnqualifiedVersionlessIdValues(outcome), containsInAnyOrder(patientA.getValue(), obsA.getValue()));
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		try {
+			outcome = myPatientDao.patientInstanceEverything(mock(HttpServletRequest.class), patientA, null, null, null, null, null, null, mySrd);
+			toUnqualifiedVersionlessIdValues(outcome);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+
+		outcome = myPatientDao.patientTypeEverything(mock(HttpServletRequest.class), null, null, null, null, null, null, mySrd);
+		assertThat(toUnqualifiedVersionlessIdValues(outcome), containsInAnyOrder(patientB.getValue()));
+	}
+
+	@Test
+	public void testReferenceToOtherPartitionIsRejected() {
+		IIdType idA = createPatient("A", "123");
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		Observation obs = new Observation();
+		obs.getSubject().setReferenceElement(idA);
+		try {
+			myObservationDao.create(obs, mySrd);
+			fail();
+		} catch (InvalidRequestException e) {
+			assertThat(e.getMessage(), containsString("not found"));
+		}
+	}
+
+	@Test
+	public void testHistoryIsRestrictedToRequestPartition() {
+		IIdType idA = createPatient("A", "123");
+		when(mySrd.getTenantId()).thenReturn("A");
+		Patient patient = new Patient();
+		patient.setId(idA);
+		patient.addIdentifier().setSystem("urn:system").setValue("456");
+		myPatientDao.update(patient, mySrd);
+		IIdType idB = createPatient("B", "123");
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		myCaptureQueriesListener.clear();
+		IBundleProvider history = myPatientDao.history(null, null, mySrd);
+		assertEquals(2, history.size().intValue());
+		assertThat(toUnqualifiedVersionlessIdValues(history.getResources(0, 10)), contains(idA.getValue(), idA.getValue()));
+		myCaptureQueriesListener.logSelectQueriesForCurrentThread();
+		int historyQueries = 0;
+		for (SqlQuery next : myCaptureQueriesListener.getSelectQueriesForCurrentThread()) {
+			String sql = next.getSql(false, false);
+			if (sql.contains("from HFJ_RES_VER ")) {
+				assertThat(sql, containsString("PARTITION_ID"));
+				historyQueries++;
+			}
+		}
+		assertEquals(2, historyQueries);
+
+		history = mySystemDao.history(null, null, mySrd);
+		assertEquals(2, history.size().intValue());
+		assertThat(toUnqualifiedVersionlessIdValues(history.getResources(0, 10)), contains(idA.getValue(), idA.getValue()));
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		history = myPatientDao.history(null, null, mySrd);
+		assertEquals(1, history.size().intValue());
+		assertThat(toUnqualifiedVersionlessIdValues(history.getResources(0, 10)), contains(idB.getValue()));
+
+		history = mySystemDao.history(null, null, mySrd);
+		assertEquals(1, history.size().intValue());
+		assertThat(toUnqualifiedVersionlessIdValues(history.getResources(0, 10)), contains(idB.getValue()));
+
+		when(mySrd.getTenantId()).thenReturn(null);
+		assertEquals(0, myPatientDao.history(null, null, mySrd).size().intValue());
+	}
+
+	@Test
+	public void testInstanceHistoryFromOtherPartitionIsNotFound() {
+		IIdType idA = createPatient("A", "123");
+
+		when(mySrd.getTenantId()).thenReturn("A");
+		assertEquals(1, myPatientDao.history(idA, null, null, mySrd).size().intValue());
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		try {
+			myPatientDao.history(idA, null, null, mySrd);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+	}
+
+	@Test
+	public void testConditionalCreateOnlyMatchesRequestPartition() {
+		myDaoConfig.setMatchUrlCacheEnabled(true);
+		IIdType idA = createPatientConditionally("A", "123");
+
+		// The same match URL in another partition must not resolve to the resource in partition A
+		IIdType idB = createPatientConditionally("B", "123");
+		assertNotEquals(idA.getValue(), idB.getValue());
+
+		// And each partition keeps resolving the URL to its own resource, whether from the cache or not
+		assertEquals(idA.getValue(), createPatientConditionally("A", "123").getValue());
+		assertEquals(idB.getValue(), createPatientConditionally("B", "123").getValue());
+		myMatchResourceUrlService.clearCache();
+		assertEquals(idB.getValue(), createPatientConditionally("B", "123").getValue());
+		assertEquals(idA.getValue(), createPatientConditionally("A", "123").getValue());
+	}
+
+	@Test
+	public void testTransactionConditionalCreateOnlyMatchesRequestPartition() {
+		IIdType idA = createPatient("A", "123");
+
+		when(mySrd.getTenantId()).thenReturn("B");
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue("123");
+		input.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=urn:system|123");
+		Bundle output = mySystemDao.transaction(mySrd, input);
+
+		assertEquals("201 Created", output.getEntry().get(0).getResponse().getStatus());
+		assertNotEquals(idA.getIdPart(), new IdType(output.getEntry().get(0).getResponse().getLocation()).getIdPart());
+	}
+
+	private IIdType createPatient(String theTenantId, String theIdentifier) {
+		when(mySrd.getTenantId()).thenReturn(theTenantId);
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue(theIdentifier);
+		return myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	private IIdType createPatientConditionally(String theTenantId, String theIdentifier) {
+		when(mySrd.getTenantId()).thenReturn(theTenantId);
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue(theIdentifier);
+		return myPatientDao.create(patient, "Patient?identifier=urn:system|" + theIdentifier, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	private static SearchParameterMap newIdentifierSearch() {
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "123"));
+		return map;
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -13,11 +13,14 @@ import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.util.BaseIterator;
 import ca.uhn.fhir.model.dstu2.resource.Patient;
 import ca.uhn.fhir.rest.api.CacheControlDirective;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.TestUtil;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -36,7 +39,10 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.persistence.EntityManager;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -77,6 +83,7 @@ public class SearchCoordinatorSvcImplTest {
 
 	@After
 	public void after() {
+		mySvc.stop();
 		System.clearProperty(SearchCoordinatorSvcImpl.UNIT_TEST_CAPTURE_STACK);
 		verify(myCallingDao, atMost(myExpectedNumberOfSearchBuildersCreated)).newSearchBuilder();
 	}
@@ -97,6 +104,7 @@ public class SearchCoordinatorSvcImplTest {
 
 		DaoConfig daoConfig = new DaoConfig();
 		mySvc.setDaoConfigForUnitTest(daoConfig);
+		mySvc.start();
 
 		when(myCallingDao.newSearchBuilder()).thenReturn(mySearchBuilder);
 
@@ -157,6 +165,230 @@ public class SearchCoordinatorSvcImplTest {
 
 	}
 
+	@Test
+	public void testAsyncSearchRejectedWhenQueueIsFull() {
+		myExpectedNumberOfSearchBuildersCreated = 6;
+		DaoConfig daoConfig = new DaoConfig();
+		daoConfig.setSearchThreadCount(1);
+		daoConfig.setSearchQueueCapacity(1);
+		mySvc.stop();
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+		mySvc.start();
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<ResourcePersistentId> pids = createPidSequence(800);
+		when(mySearchBuilder.createQuery(same(params), any(), any())).thenReturn(new SlowIterator(pids.iterator(), 2));
+
+		// One running and one queued
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+
+		try {
+			mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals("Server is too busy to process this search, please try again later", e.getMessage());
+			assertEquals("1", e.getResponseHeaders().get(Constants.HEADER_RETRY_AFTER).get(0));
+		}
+
+		assertEquals(1, mySvc.getRejectedSearchCount());
+		assertEquals(1, mySvc.getQueuedSearchCount());
+		mySvc.cancelAllActiveSearches();
+	}
+
+	@Test
+	public void testSearchContinuationRejectedWhenQueueIsFull() {
+		myExpectedNumberOfSearchBuildersCreated = 4;
+		DaoConfig daoConfig = new DaoConfig();
+		daoConfig.setSearchThreadCount(1);
+		daoConfig.setSearchQueueCapacity(1);
+		mySvc.stop();
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+		mySvc.start();
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<ResourcePersistentId> pids = createPidSequence(800);
+		when(mySearchBuilder.createQuery(same(params), any(), any())).thenReturn(new SlowIterator(pids.iterator(), 2));
+
+		// One running and one queued
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+
+		Search search = new Search();
+		search.setUuid("1234-5678");
+		search.setResourceType("Patient");
+		search.setSearchParameterMap(params);
+		search.setStatus(SearchStatusEnum.PASSCMPLET);
+		search.setNumFound(10);
+		when(mySearchCacheSvc.fetchByUuid(eq("1234-5678"))).thenReturn(Optional.of(search));
+		when(mySearchCacheSvc.tryToMarkSearchAsInProgress(any())).thenAnswer(t -> {
+			search.setStatus(SearchStatusEnum.LOADING);
+			return Optional.of(search);
+		});
+		when(myDaoRegistry.getResourceDao(eq("Patient"))).thenReturn(myCallingDao);
+
+		try {
+			mySvc.getResources("1234-5678", 0, 100, null);
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals("Server is too busy to continue this search, please try again later", e.getMessage());
+		}
+
+		// The search should be available to be continued later
+		ArgumentCaptor<Search> searchCaptor = ArgumentCaptor.forClass(Search.class);
+		verify(mySearchCacheSvc, atLeastOnce()).save(searchCaptor.capture());
+		assertTrue(searchCaptor.getAllValues().stream().anyMatch(t -> t.getUuid().equals("1234-5678")));
+		assertEquals(SearchStatusEnum.PASSCMPLET, search.getStatus());
+		assertEquals(1, mySvc.getRejectedSearchCount());
+		mySvc.cancelAllActiveSearches();
+	}
+
+	@Test
+	public void testAsyncSearchRejectedWhenResourceTypeLimitReached() {
+		myExpectedNumberOfSearchBuildersCreated = 4;
+		DaoConfig daoConfig = new DaoConfig();
+		daoConfig.setSearchMaxConcurrentPerResourceType(1);
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<ResourcePersistentId> pids = createPidSequence(800);
+		when(mySearchBuilder.createQuery(same(params), any(), any())).thenReturn(new SlowIterator(pids.iterator(), 2));
+
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+
+		try {
+			mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals("Too many concurrent searches for resource type Patient, please try again later", e.getMessage());
+		}
+
+		assertEquals(1, mySvc.getRejectedSearchCount());
+		mySvc.cancelAllActiveSearches();
+	}
+
+	@Test
+	public void testSearchContinuationRejectedWhenResourceTypeLimitReached() {
+		myExpectedNumberOfSearchBuildersCreated = 4;
+		DaoConfig daoConfig = new DaoConfig();
+		daoConfig.setSearchMaxConcurrentPerResourceType(1);
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<ResourcePersistentId> pids = createPidSequence(800);
+		when(mySearchBuilder.createQuery(same(params), any(), any())).thenReturn(new SlowIterator(pids.iterator(), 2));
+
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+
+		Search search = new Search();
+		search.setUuid("1234-5678");
+		search.setResourceType("Patient");
+		search.setSearchParameterMap(params);
+		search.setStatus(SearchStatusEnum.PASSCMPLET);
+		search.setNumFound(10);
+		when(mySearchCacheSvc.fetchByUuid(eq("1234-5678"))).thenReturn(Optional.of(search));
+		when(mySearchCacheSvc.tryToMarkSearchAsInProgress(any())).thenAnswer(t -> {
+			search.setStatus(SearchStatusEnum.LOADING);
+			return Optional.of(search);
+		});
+		when(myDaoRegistry.getResourceDao(eq("Patient"))).thenReturn(myCallingDao);
+
+		try {
+			mySvc.getResources("1234-5678", 0, 100, null);
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals("Too many concurrent searches for resource type Patient, please try again later", e.getMessage());
+		}
+
+		assertEquals(SearchStatusEnum.PASSCMPLET, search.getStatus());
+		assertEquals(1, mySvc.getRejectedSearchCount());
+		mySvc.cancelAllActiveSearches();
+	}
+
+	@Test
+	public void testAsyncSearchRejectedWhenTenantLimitReached() {
+		myExpectedNumberOfSearchBuildersCreated = 6;
+		DaoConfig daoConfig = new DaoConfig();
+		daoConfig.setSearchMaxConcurrentPerTenant(1);
+		mySvc.setDaoConfigForUnitTest(daoConfig);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<ResourcePersistentId> pids = createPidSequence(800);
+		when(mySearchBuilder.createQuery(same(params), any(), any())).thenReturn(new SlowIterator(pids.iterator(), 2));
+
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), newRequestForTenant("TENANT-A"));
+
+		try {
+			mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), newRequestForTenant("TENANT-A"));
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals("Too many concurrent searches for tenant TENANT-A, please try again later", e.getMessage());
+		}
+
+		// Other tenants, and requests without a tenant, are not affected
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), newRequestForTenant("TENANT-B"));
+		mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective(), null);
+
+		assertEquals(1, mySvc.getRejectedSearchCount());
+		mySvc.cancelAllActiveSearches();
+	}
+
+	private RequestDetails newRequestForTenant(String theTenantId) {
+		ServletRequestDetails retVal = new ServletRequestDetails(myInterceptorBroadcaster);
+		retVal.setTenantId(theTenantId);
+		return retVal;
+	}
+
+	@Test
+	public void testMetricsArePublishedOverJmx() throws Exception {
+		ObjectName objectName = new ObjectName(SearchCoordinatorSvcImpl.OBJECT_NAME_PREFIX + "DSTU3");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(server.isRegistered(objectName));
+		assertEquals(0L, server.getAttribute(objectName, "RejectedSearchCount"));
+		assertEquals(0, server.getAttribute(objectName, "QueuedSearchCount"));
+		assertEquals(0L, server.getAttribute(objectName, "AverageSearchQueueWaitMillis"));
+
+		mySvc.stop();
+		assertFalse(server.isRegistered(objectName));
+		mySvc.start();
+		assertTrue(server.isRegistered(objectName));
+	}
+
+	@Test
+	public void testQueueWaitAverageOnlyCoversTheWindow() {
+		SearchCoordinatorSvcImpl.SlidingWindowAverage average = new SearchCoordinatorSvcImpl.SlidingWindowAverage(3, 1000);
+		assertEquals(0, average.getAverage(10000));
+
+		average.add(100, 10000);
+		average.add(300, 10500);
+		average.add(500, 11000);
+		assertEquals(300, average.getAverage(11000));
+		assertEquals(300, average.getAverage(12999));
+
+		// The bucket starting at 10000 has left the window
+		assertEquals(500, average.getAverage(13000));
+		assertEquals(0, average.getAverage(14000));
+
+		// Reusing a bucket discards the values it held for the previous window
+		average.add(50, 14000);
+		assertEquals(50, average.getAverage(14000));
+	}
+
 	@Test
 	public void testAsyncSearchLargeResultSetBigCountSameCoordinator() {
 		List<ResourcePersistentId> allResults = new ArrayList<>();
@@ -0,0 +1,120 @@
+package ca.uhn.fhir.jpa.search.cache;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.jpa.model.cross.ResourcePersistentId;
+import ca.uhn.fhir.jpa.model.search.SearchStatusEnum;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalCachingSearchResultCacheSvcImplTest {
+
+	private LocalCachingSearchResultCacheSvcImpl mySvc;
+	private DaoConfig myDaoConfig;
+
+	@Mock
+	private ISearchResultCacheSvc myDelegate;
+
+	@Before
+	public void before() {
+		myDaoConfig = new DaoConfig();
+		mySvc = new LocalCachingSearchResultCacheSvcImpl(myDelegate);
+		mySvc.setDaoConfigForUnitTest(myDaoConfig);
+		mySvc.start();
+	}
+
+	@Test
+	public void testStoredResultsAreWrittenThroughAndServedLocally() {
+		Search search = newSearch(SearchStatusEnum.LOADING);
+
+		List<ResourcePersistentId> firstPass = pids(1, 2, 3);
+		mySvc.storeResults(search, Collections.emptyList(), firstPass);
+		List<ResourcePersistentId> secondPass = pids(4, 5);
+		mySvc.storeResults(search, firstPass, secondPass);
+
+		verify(myDelegate, times(1)).storeResults(same(search), eq(Collections.emptyList()), same(firstPass));
+		verify(myDelegate, times(1)).storeResults(same(search), same(firstPass), same(secondPass));
+
+		assertEquals(pids(1, 2), mySvc.fetchResultPids(search, 0, 2));
+		assertEquals(pids(3, 4, 5), mySvc.fetchResultPids(search, 2, 5));
+		verify(myDelegate, never()).fetchResultPids(any(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void testRangeBeyondLocalResultsOfUnfinishedSearchGoesToDelegate() {
+		Search search = newSearch(SearchStatusEnum.PASSCMPLET);
+		mySvc.storeResults(search, Collections.emptyList(), pids(1, 2, 3));
+
+		when(myDelegate.fetchResultPids(same(search), eq(2), eq(10))).thenReturn(pids(3, 4));
+		assertEquals(pids(3, 4), mySvc.fetchResultPids(search, 2, 10));
+		verify(myDelegate, times(1)).fetchResultPids(same(search), eq(2), eq(10));
+	}
+
+	@Test
+	public void testRangeBeyondLocalResultsOfFinishedSearchIsServedLocally() {
+		Search search = newSearch(SearchStatusEnum.FINISHED);
+		search.setNumFound(4);
+		search.setNumBlocked(1);
+		mySvc.storeResults(search, Collections.emptyList(), pids(1, 2, 3));
+
+		assertEquals(pids(3), mySvc.fetchResultPids(search, 2, 10));
+		assertEquals(Collections.emptyList(), mySvc.fetchResultPids(search, 5, 10));
+		assertEquals(pids(1, 2, 3), mySvc.fetchAllResultPids(search));
+		verify(myDelegate, never()).fetchResultPids(any(), anyInt(), anyInt());
+		verify(myDelegate, never()).fetchAllResultPids(any());
+	}
+
+	@Test
+	public void testResultsStoredElsewhereDiscardLocalEntry() {
+		Search search = newSearch(SearchStatusEnum.LOADING);
+		mySvc.storeResults(search, Collections.emptyList(), pids(1, 2));
+
+		// Results 3-4 were stored by another node, so this node can't hold a contiguous list any more
+		mySvc.storeResults(search, pids(1, 2, 3, 4), pids(5));
+
+		when(myDelegate.fetchResultPids(same(search), eq(0), eq(2))).thenReturn(pids(1, 2));
+		assertEquals(pids(1, 2), mySvc.fetchResultPids(search, 0, 2));
+		verify(myDelegate, times(1)).fetchResultPids(same(search), eq(0), eq(2));
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		myDaoConfig.setSearchResultLocalCacheMaxPids(0);
+		mySvc.start();
+
+		Search search = newSearch(SearchStatusEnum.FINISHED);
+		search.setNumFound(2);
+		mySvc.storeResults(search, Collections.emptyList(), pids(1, 2));
+
+		when(myDelegate.fetchAllResultPids(same(search))).thenReturn(pids(1, 2));
+		assertEquals(pids(1, 2), mySvc.fetchAllResultPids(search));
+		verify(myDelegate, times(1)).fetchAllResultPids(same(search));
+	}
+
+	private static Search newSearch(SearchStatusEnum theStatus) {
+		Search retVal = new Search();
+		retVal.setId(123L);
+		retVal.setStatus(theStatus);
+		return retVal;
+	}
+
+	private static List<ResourcePersistentId> pids(long... thePids) {
+		return ResourcePersistentId.fromLongList(Arrays.stream(thePids).boxed().collect(Collectors.toList()));
+	}
+
+}
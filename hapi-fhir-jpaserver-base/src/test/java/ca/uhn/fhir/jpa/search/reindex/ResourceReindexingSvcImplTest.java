@@ -8,10 +8,13 @@ import ca.uhn.fhir.jpa.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobDao;
+import ca.uhn.fhir.jpa.dao.data.IResourceReindexJobRangeDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
 import ca.uhn.fhir.jpa.entity.ResourceReindexJobEntity;
+import ca.uhn.fhir.jpa.entity.ResourceReindexJobRangeEntity;
 import ca.uhn.fhir.jpa.model.entity.ResourceTable;
 import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
@@ -32,6 +35,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -54,18 +58,22 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	@Mock
 	private IResourceReindexJobDao myReindexJobDao;
 	@Mock
+	private IResourceReindexJobRangeDao myReindexJobRangeDao;
+	@Mock
 	private IResourceTableDao myResourceTableDao;
 	@Mock
 	private IFhirResourceDao myResourceDao;
 	@Captor
-	private ArgumentCaptor<Long> myIdCaptor;
+	private ArgumentCaptor<Long> myLowPidCaptor;
+	@Captor
+	private ArgumentCaptor<Long> myHighPidCaptor;
+	@Captor
+	private ArgumentCaptor<Iterable<ResourceReindexJobRangeEntity>> myRangesCaptor;
 	@Captor
 	private ArgumentCaptor<PageRequest> myPageRequestCaptor;
 	@Captor
 	private ArgumentCaptor<String> myTypeCaptor;
 	@Captor
-	private ArgumentCaptor<Date> myLowCaptor;
-	@Captor
 	private ArgumentCaptor<Date> myHighCaptor;
 	private ResourceReindexJobEntity mySingleJob;
 	@Mock
@@ -94,6 +102,7 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 		mySvc.setDaoRegistryForUnitTest(myDaoRegistry);
 		mySvc.setForcedIdDaoForUnitTest(myForcedIdDao);
 		mySvc.setReindexJobDaoForUnitTest(myReindexJobDao);
+		mySvc.setReindexJobRangeDaoForUnitTest(myReindexJobRangeDao);
 		mySvc.setResourceTableDaoForUnitTest(myResourceTableDao);
 		mySvc.setTxManagerForUnitTest(myTxManager);
 		mySvc.setSearchParamRegistryForUnitTest(mySearchParamRegistry);
@@ -114,51 +123,96 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	}
 
 	@Test
-	public void testReindexPassOnlyReturnsValuesAtLowThreshold() {
+	public void testCreateRanges() {
 		mockNothingToExpunge();
 		mockSingleReindexingJob(null);
-		mockFetchFourResources();
-		mockFinalResourceNeedsReindexing();
+		when(myReindexJobDao.claimRangeCreation(eq(123L))).thenReturn(1);
+		when(myReindexJobDao.getOne(eq(123L))).thenReturn(mySingleJob);
+		when(myResourceTableDao.findLowestPid()).thenReturn(1L);
+		when(myResourceTableDao.findHighestPid()).thenReturn(60000L);
+		when(myReindexJobRangeDao.countIncomplete(eq(123L))).thenReturn(3L);
+		when(myReindexJobRangeDao.findClaimableIds(any(), any(), any())).thenReturn(Collections.emptyList());
 
-		mySingleJob.setThresholdLow(new Date(40 * DateUtils.MILLIS_PER_DAY));
-		Date highThreshold = DateUtils.addMinutes(new Date(), -1);
-		mySingleJob.setThresholdHigh(highThreshold);
+		mySvc.forceReindexingPass();
+
+		verify(myReindexJobRangeDao, times(1)).saveAll(myRangesCaptor.capture());
+		List<ResourceReindexJobRangeEntity> ranges = Lists.newArrayList(myRangesCaptor.getValue());
+		assertEquals(3, ranges.size());
+		assertEquals(1L, ranges.get(0).getPidLow().longValue());
+		assertEquals(25000L, ranges.get(0).getPidHigh().longValue());
+		assertEquals(25001L, ranges.get(1).getPidLow().longValue());
+		assertEquals(50000L, ranges.get(1).getPidHigh().longValue());
+		assertEquals(50001L, ranges.get(2).getPidLow().longValue());
+		// Final range is open ended
+		assertNull(ranges.get(2).getPidHigh());
+		assertEquals(123L, ranges.get(2).getJobId().longValue());
+	}
+
+	@Test
+	public void testCreateRangesForType() {
+		mockNothingToExpunge();
+		mockSingleReindexingJob("Patient");
+		when(myReindexJobDao.claimRangeCreation(eq(123L))).thenReturn(1);
+		when(myReindexJobDao.getOne(eq(123L))).thenReturn(mySingleJob);
+		when(myResourceTableDao.findLowestPid(eq("Patient"))).thenReturn(10L);
+		when(myResourceTableDao.findHighestPid(eq("Patient"))).thenReturn(10L);
+		when(myReindexJobRangeDao.countIncomplete(eq(123L))).thenReturn(1L);
+		when(myReindexJobRangeDao.findClaimableIds(any(), any(), any())).thenReturn(Collections.emptyList());
 
-		// Run the second pass, which should index no resources (meaning it's time to mark as deleted)
 		mySvc.forceReindexingPass();
-		verify(myResourceTableDao, never()).findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(any(), any(), any(), any());
-		verify(myReindexJobDao, never()).markAsDeletedById(any());
-		verify(myResourceTableDao, times(1)).findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(myPageRequestCaptor.capture(), myLowCaptor.capture(), myHighCaptor.capture());
-		assertEquals(new Date(40 * DateUtils.MILLIS_PER_DAY), myLowCaptor.getAllValues().get(0));
-		assertEquals(highThreshold, myHighCaptor.getAllValues().get(0));
 
-		// Should mark the low threshold as 1 milli higher than the ne returned item
-		verify(myReindexJobDao, times(1)).setThresholdLow(eq(123L), eq(new Date((40 * DateUtils.MILLIS_PER_DAY) + 1L)));
+		verify(myResourceTableDao, never()).findLowestPid();
+		verify(myReindexJobRangeDao, times(1)).saveAll(myRangesCaptor.capture());
+		List<ResourceReindexJobRangeEntity> ranges = Lists.newArrayList(myRangesCaptor.getValue());
+		assertEquals(1, ranges.size());
+		assertEquals(10L, ranges.get(0).getPidLow().longValue());
+		assertNull(ranges.get(0).getPidHigh());
 	}
 
 	@Test
-	public void testMarkAsDeletedIfNothingIndexed() {
+	public void testRangesAlreadyCreatedByAnotherNode() {
 		mockNothingToExpunge();
 		mockSingleReindexingJob(null);
-		mockFetchFourResources();
-		// Mock resource fetch
-		List<Long> values = Collections.emptyList();
-		when(myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(any(), any(), any())).thenReturn(new SliceImpl<>(values));
+		when(myReindexJobDao.claimRangeCreation(eq(123L))).thenReturn(0);
+		when(myReindexJobRangeDao.countIncomplete(eq(123L))).thenReturn(1L);
+		when(myReindexJobRangeDao.findClaimableIds(any(), any(), any())).thenReturn(Collections.emptyList());
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(0, count);
 
-		mySingleJob.setThresholdLow(new Date(40 * DateUtils.MILLIS_PER_DAY));
-		Date highThreshold = DateUtils.addMinutes(new Date(), -1);
-		mySingleJob.setThresholdHigh(highThreshold);
+		verify(myResourceTableDao, never()).findLowestPid();
+		verify(myReindexJobRangeDao, never()).saveAll(any());
+		verify(myReindexJobDao, never()).markAsDeletedById(any());
+	}
 
-		// Run the second pass, which should index no resources (meaning it's time to mark as deleted)
-		mySvc.forceReindexingPass();
-		verify(myResourceTableDao, never()).findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(any(), any(), any(), any());
-		verify(myResourceTableDao, times(1)).findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(myPageRequestCaptor.capture(), myLowCaptor.capture(), myHighCaptor.capture());
-		assertEquals(new Date(40 * DateUtils.MILLIS_PER_DAY), myLowCaptor.getAllValues().get(0));
-		assertEquals(highThreshold, myHighCaptor.getAllValues().get(0));
+	@Test
+	public void testRangeClaimedByAnotherNode() {
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mockRangesCreated();
+		when(myReindexJobRangeDao.findClaimableIds(any(), any(), any())).thenReturn(Collections.singletonList(5L));
+		when(myReindexJobRangeDao.claim(eq(5L), any(), any())).thenReturn(0);
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(0, count);
 
-		// This time we shouldn't update the threshold
-		verify(myReindexJobDao, never()).setThresholdLow(any(), any());
+		verify(myReindexJobRangeDao, never()).findById(any());
+		verify(myResourceTableDao, never()).findIdsOfResourcesWithinPidRange(any(), any(), any(), any());
+		verify(myReindexJobRangeDao, never()).markComplete(any(), anyInt(), any());
+	}
+
+	@Test
+	public void testMarkAsDeletedIfAllRangesComplete() {
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mySingleJob.setRangesCreated(true);
+		when(myReindexJobRangeDao.countIncomplete(eq(123L))).thenReturn(0L);
 
+		int count = mySvc.forceReindexingPass();
+		assertEquals(0, count);
+
+		verify(myReindexJobDao, never()).claimRangeCreation(any());
+		verify(myReindexJobRangeDao, never()).findClaimableIds(any(), any(), any());
 		verify(myReindexJobDao, times(1)).markAsDeletedById(eq(123L));
 	}
 
@@ -171,6 +225,7 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 
 		mySvc.forceReindexingPass();
 
+		verify(myReindexJobRangeDao, times(1)).deleteByJobId(eq(123L));
 		verify(myReindexJobDao, times(1)).deleteById(eq(123L));
 	}
 
@@ -178,6 +233,7 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	public void testReindexPassAllResources() {
 		mockNothingToExpunge();
 		mockSingleReindexingJob(null);
+		mockSingleClaimableRange();
 		mockFourResourcesNeedReindexing();
 		mockFetchFourResources();
 
@@ -187,28 +243,56 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 		// Make sure we reindexed all 4 resources
 		verify(myResourceDao, times(4)).reindex(any(), any());
 
-		// Make sure we updated the low threshold
-		verify(myReindexJobDao, times(1)).setThresholdLow(myIdCaptor.capture(), myLowCaptor.capture());
-		assertEquals(123L, myIdCaptor.getValue().longValue());
-		assertEquals(40 * DateUtils.MILLIS_PER_DAY, myLowCaptor.getValue().getTime());
+		// Make sure we loaded the range
+		verify(myResourceTableDao, times(1)).findIdsOfResourcesWithinPidRange(myPageRequestCaptor.capture(), myLowPidCaptor.capture(), myHighPidCaptor.capture(), myHighCaptor.capture());
+		assertEquals(0L, myLowPidCaptor.getValue().longValue());
+		assertEquals(99L, myHighPidCaptor.getValue().longValue());
+		assertEquals(mySingleJob.getThresholdHigh(), myHighCaptor.getValue());
+
+		// Make sure we recorded the progress
+		verify(myReindexJobRangeDao, times(1)).markComplete(eq(5L), eq(4), any());
+		verify(myReindexJobDao, times(1)).incrementReindexCount(eq(123L), eq(4));
 
 		// Make sure we didn't do anything unexpected
 		verify(myReindexJobDao, times(1)).findAll(any(), eq(false));
 		verify(myReindexJobDao, times(1)).findAll(any(), eq(true));
-		verify(myReindexJobDao, times(1)).getReindexCount(any());
-		verify(myReindexJobDao, times(1)).setReindexCount(any(), anyInt());
+		verify(myReindexJobDao, times(1)).claimRangeCreation(any());
 		verifyNoMoreInteractions(myReindexJobDao);
 
 		verify(mySearchParamRegistry, times(1)).forceRefresh();
 	}
 
+	@Test
+	public void testReindexOpenEndedRange() {
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mockRangesCreated();
+		ResourceReindexJobRangeEntity range = new ResourceReindexJobRangeEntity();
+		range.setIdForUnitTest(5L);
+		range.setJob(mySingleJob);
+		range.setPidLow(2L);
+		mockClaimableRange(range);
+		mockFetchFourResources();
+		List<Long> values = Arrays.asList(2L, 3L);
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(any(), any(), any(), any())).thenReturn(new SliceImpl<>(values));
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(2, count);
+
+		verify(myResourceTableDao, times(1)).findIdsOfResourcesWithinPidRange(myPageRequestCaptor.capture(), myLowPidCaptor.capture(), myHighPidCaptor.capture(), myHighCaptor.capture());
+		assertEquals(2L, myLowPidCaptor.getValue().longValue());
+		assertEquals(Long.MAX_VALUE, myHighPidCaptor.getValue().longValue());
+		verify(myReindexJobRangeDao, times(1)).markComplete(eq(5L), eq(2), any());
+	}
+
 	@Test
 	public void testReindexPassPatients() {
 		mockNothingToExpunge();
 		mockSingleReindexingJob("Patient");
+		mockSingleClaimableRange();
 		// Mock resource fetch
 		List<Long> values = Arrays.asList(0L, 1L, 2L, 3L);
-		when(myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(myPageRequestCaptor.capture(), myTypeCaptor.capture(), myLowCaptor.capture(), myHighCaptor.capture())).thenReturn(new SliceImpl<>(values));
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(myPageRequestCaptor.capture(), myTypeCaptor.capture(), myLowPidCaptor.capture(), myHighPidCaptor.capture(), myHighCaptor.capture())).thenReturn(new SliceImpl<>(values));
 		// Mock fetching resources
 		long[] updatedTimes = new long[]{
 			10 * DateUtils.MILLIS_PER_DAY,
@@ -245,16 +329,16 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 		// Make sure we reindexed all 4 resources
 		verify(myResourceDao, times(4)).reindex(any(), any());
 
-		// Make sure we updated the low threshold
-		verify(myReindexJobDao, times(1)).setThresholdLow(myIdCaptor.capture(), myLowCaptor.capture());
-		assertEquals(123L, myIdCaptor.getValue().longValue());
-		assertEquals(40 * DateUtils.MILLIS_PER_DAY, myLowCaptor.getValue().getTime());
+		assertEquals("Patient", myTypeCaptor.getValue());
+
+		// Make sure we recorded the progress
+		verify(myReindexJobRangeDao, times(1)).markComplete(eq(5L), eq(4), any());
+		verify(myReindexJobDao, times(1)).incrementReindexCount(eq(123L), eq(4));
 
 		// Make sure we didn't do anything unexpected
 		verify(myReindexJobDao, times(1)).findAll(any(), eq(false));
 		verify(myReindexJobDao, times(1)).findAll(any(), eq(true));
-		verify(myReindexJobDao, times(1)).getReindexCount(any());
-		verify(myReindexJobDao, times(1)).setReindexCount(any(), anyInt());
+		verify(myReindexJobDao, times(1)).claimRangeCreation(any());
 		verifyNoMoreInteractions(myReindexJobDao);
 	}
 
@@ -262,9 +346,10 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	public void testReindexDeletedResource() {
 		mockNothingToExpunge();
 		mockSingleReindexingJob("Patient");
+		mockSingleClaimableRange();
 		// Mock resource fetch
 		List<Long> values = Arrays.asList(0L);
-		when(myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(myPageRequestCaptor.capture(), myTypeCaptor.capture(), myLowCaptor.capture(), myHighCaptor.capture())).thenReturn(new SliceImpl<>(values));
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(any(), any(), any(), any(), any())).thenReturn(new SliceImpl<>(values));
 		// Mock fetching resources
 		long[] updatedTimes = new long[]{
 			10 * DateUtils.MILLIS_PER_DAY
@@ -293,20 +378,88 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	public void testReindexThrowsError() {
 		mockNothingToExpunge();
 		mockSingleReindexingJob("Patient");
+		mockSingleClaimableRange();
 		List<Long> values = Arrays.asList(0L, 1L, 2L, 3L);
-		when(myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(myPageRequestCaptor.capture(), myTypeCaptor.capture(), myLowCaptor.capture(), myHighCaptor.capture())).thenReturn(new SliceImpl<>(values));
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(any(), any(), any(), any(), any())).thenReturn(new SliceImpl<>(values));
 		when(myResourceTableDao.findById(anyLong())).thenThrow(new NullPointerException("A MESSAGE"));
 
 		int count = mySvc.forceReindexingPass();
 		assertEquals(0, count);
 
+		// The range should be released so that it can be retried
+		verify(myReindexJobRangeDao, times(1)).releaseClaim(eq(5L), any());
+		verify(myReindexJobRangeDao, never()).markComplete(any(), anyInt(), any());
+
 		// Make sure we didn't do anything unexpected
 		verify(myReindexJobDao, times(1)).findAll(any(), eq(false));
 		verify(myReindexJobDao, times(1)).findAll(any(), eq(true));
+		verify(myReindexJobDao, times(1)).claimRangeCreation(any());
 		verify(myReindexJobDao, times(1)).setSuspendedUntil(any());
 		verifyNoMoreInteractions(myReindexJobDao);
 	}
 
+	@Test
+	public void testClaimIsRenewedBetweenPages() {
+		mySvc.setPageSizeForUnitTest(2);
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mockSingleClaimableRange();
+		mockFetchFourResources();
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(any(), any(), any(), any())).thenReturn(
+			new SliceImpl<>(Arrays.asList(0L, 1L)),
+			new SliceImpl<>(Arrays.asList(2L, 3L)),
+			new SliceImpl<>(Collections.emptyList()));
+		when(myReindexJobRangeDao.renewClaim(eq(5L), any(), any())).thenReturn(1);
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(4, count);
+
+		// Each renewal replaces the claim, and the range is completed under the latest one
+		ArgumentCaptor<Date> claimCaptor = ArgumentCaptor.forClass(Date.class);
+		ArgumentCaptor<Date> heldCaptor = ArgumentCaptor.forClass(Date.class);
+		ArgumentCaptor<Date> renewedCaptor = ArgumentCaptor.forClass(Date.class);
+		verify(myReindexJobRangeDao, times(1)).claim(eq(5L), any(), claimCaptor.capture());
+		verify(myReindexJobRangeDao, times(2)).renewClaim(eq(5L), heldCaptor.capture(), renewedCaptor.capture());
+		assertEquals(claimCaptor.getValue(), heldCaptor.getAllValues().get(0));
+		assertEquals(renewedCaptor.getAllValues().get(0), heldCaptor.getAllValues().get(1));
+		verify(myReindexJobRangeDao, times(1)).markComplete(eq(5L), eq(4), eq(renewedCaptor.getAllValues().get(1)));
+		verify(myReindexJobDao, times(1)).incrementReindexCount(eq(123L), eq(4));
+	}
+
+	@Test
+	public void testRangeLostBetweenPagesIsNotCompleted() {
+		mySvc.setPageSizeForUnitTest(2);
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mockSingleClaimableRange();
+		mockFetchFourResources();
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(any(), any(), any(), any())).thenReturn(new SliceImpl<>(Arrays.asList(0L, 1L)));
+		when(myReindexJobRangeDao.renewClaim(eq(5L), any(), any())).thenReturn(0);
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(0, count);
+
+		verify(myResourceTableDao, times(1)).findIdsOfResourcesWithinPidRange(any(), any(), any(), any());
+		verify(myReindexJobRangeDao, never()).markComplete(any(), anyInt(), any());
+		verify(myReindexJobDao, never()).incrementReindexCount(any(), anyInt());
+	}
+
+	@Test
+	public void testRangeCompletedByAnotherNodeIsNotCounted() {
+		mockNothingToExpunge();
+		mockSingleReindexingJob(null);
+		mockSingleClaimableRange();
+		mockFourResourcesNeedReindexing();
+		mockFetchFourResources();
+		when(myReindexJobRangeDao.markComplete(eq(5L), anyInt(), any())).thenReturn(0);
+
+		int count = mySvc.forceReindexingPass();
+		assertEquals(0, count);
+
+		verify(myReindexJobRangeDao, times(1)).markComplete(eq(5L), eq(4), any());
+		verify(myReindexJobDao, never()).incrementReindexCount(any(), anyInt());
+	}
+
 	private void mockWhenResourceTableFindById(long[] theUpdatedTimes, String[] theResourceTypes) {
 		when(myResourceTableDao.findById(any())).thenAnswer(t -> {
 			ResourceTable retVal = new ResourceTable();
@@ -352,13 +505,29 @@ public class ResourceReindexingSvcImplTest extends BaseJpaTest {
 	private void mockFourResourcesNeedReindexing() {
 		// Mock resource fetch
 		List<Long> values = Arrays.asList(0L, 1L, 2L, 3L);
-		when(myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(any(), any(), any())).thenReturn(new SliceImpl<>(values));
+		when(myResourceTableDao.findIdsOfResourcesWithinPidRange(any(), any(), any(), any())).thenReturn(new SliceImpl<>(values));
 	}
 
-	private void mockFinalResourceNeedsReindexing() {
-		// Mock resource fetch
-		List<Long> values = Arrays.asList(2L); // the second-last one has the highest time
-		when(myResourceTableDao.findIdsOfResourcesWithinUpdatedRangeOrderedFromOldest(any(), any(), any())).thenReturn(new SliceImpl<>(values));
+	private void mockRangesCreated() {
+		when(myReindexJobDao.claimRangeCreation(eq(123L))).thenReturn(0);
+		when(myReindexJobRangeDao.countIncomplete(eq(123L))).thenReturn(1L);
+	}
+
+	private void mockSingleClaimableRange() {
+		mockRangesCreated();
+		ResourceReindexJobRangeEntity range = new ResourceReindexJobRangeEntity();
+		range.setIdForUnitTest(5L);
+		range.setJob(mySingleJob);
+		range.setPidLow(0L);
+		range.setPidHigh(99L);
+		mockClaimableRange(range);
+	}
+
+	private void mockClaimableRange(ResourceReindexJobRangeEntity theRange) {
+		when(myReindexJobRangeDao.findClaimableIds(any(), eq(123L), any())).thenReturn(Collections.singletonList(theRange.getId()), Collections.emptyList());
+		when(myReindexJobRangeDao.claim(eq(theRange.getId()), any(), any())).thenReturn(1);
+		when(myReindexJobRangeDao.markComplete(eq(theRange.getId()), anyInt(), any())).thenReturn(1);
+		when(myReindexJobRangeDao.findById(eq(theRange.getId()))).thenReturn(Optional.of(theRange));
 	}
 
 	private void mockSingleReindexingJob(String theResourceType) {
@@ -4,6 +4,7 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.config.TestR4Config;
 import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
 import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
@@ -408,6 +409,28 @@ public class InMemorySubscriptionMatcherR4Test {
 		}
 	}
 
+	@Test
+	public void testIndexesAreExtractedOncePerMessage() {
+		Patient patient = new Patient();
+		patient.setId("Patient/123");
+		patient.addName().setFamily("FOO");
+		ResourceModifiedMessage msg = new ResourceModifiedMessage(myContext, patient, ResourceModifiedMessage.OperationTypeEnum.CREATE);
+		assertNull(msg.getIndexedSearchParams());
+
+		CanonicalSubscription subscription1 = new CanonicalSubscription();
+		subscription1.setCriteriaString("Patient?family=FOO");
+		subscription1.setIdElement(new IdType("Subscription", 1L));
+		assertTrue(myInMemorySubscriptionMatcher.match(subscription1, msg).matched());
+		ResourceIndexedSearchParams indexedSearchParams = msg.getIndexedSearchParams();
+		assertNotNull(indexedSearchParams);
+
+		CanonicalSubscription subscription2 = new CanonicalSubscription();
+		subscription2.setCriteriaString("Patient?family=BAR");
+		subscription2.setIdElement(new IdType("Subscription", 2L));
+		assertFalse(myInMemorySubscriptionMatcher.match(subscription2, msg).matched());
+		assertSame(indexedSearchParams, msg.getIndexedSearchParams());
+	}
+
 	@Test
 	public void testReferenceAlias() {
 		Observation obs = new Observation();
@@ -493,6 +493,35 @@ public class RestHookTestR4Test extends BaseSubscriptionsR4Test {
 		assertFalse(observation2.getId().isEmpty());
 	}
 
+	@Test
+	public void testRestHookSubscriptionMatchesReferenceInMemory() throws Exception {
+		String payload = "application/json";
+
+		Patient forcedIdPatient = new Patient();
+		forcedIdPatient.setId("Patient/PT-A");
+		myPatientDao.update(forcedIdPatient);
+		IIdType numericIdPatient = myPatientDao.create(new Patient()).getId().toUnqualifiedVersionless();
+
+		createSubscription("Observation?subject=Patient/PT-A", payload);
+		createSubscription("Observation?subject=Patient/PT-B", payload);
+		createSubscription("Observation?subject=" + numericIdPatient.getValue(), payload);
+		waitForActivatedSubscriptionCount(3);
+
+		// The indexes extracted while storing are reused for matching, so the reference targets must survive the commit
+		Observation observation = new Observation();
+		observation.getSubject().setReference("Patient/PT-A");
+		ourClient.create().resource(observation).execute();
+		waitForQueueToDrain();
+		waitForSize(1, ourUpdatedObservations);
+
+		observation = new Observation();
+		observation.getSubject().setReference(numericIdPatient.getValue());
+		ourClient.create().resource(observation).execute();
+		waitForQueueToDrain();
+		waitForSize(2, ourUpdatedObservations);
+		waitForSize(0, ourCreatedObservations);
+	}
+
 	@Test
 	public void testRestHookSubscriptionApplicationJsonDatabase() throws Exception {
 		// Same test as above, but now run it using database matching
@@ -61,6 +61,65 @@ public class HapiFhirJpaMigrationTasks extends BaseMigrationTasks<VersionEnum> {
 
 	protected void init420() { // 20191015 - present
 		Builder version = forVersion(VersionEnum.V4_2_0);
+
+		// HFJ_BLK_EXPORT_COLLECTION
+		version.startSectionWithMessage("Processing table: HFJ_BLK_EXPORT_COLLECTION");
+		Builder.BuilderWithTableName bulkExportCollection = version.onTable("HFJ_BLK_EXPORT_COLLECTION");
+		bulkExportCollection.addColumn("20191120.1", "COL_STATUS").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 10);
+		bulkExportCollection.addColumn("20191120.2", "STATUS_TIME").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.DATE_TIMESTAMP);
+		bulkExportCollection.addColumn("20191120.3", "RES_COUNT").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+
+		// HFJ_RES_REINDEX_JOB
+		version.startSectionWithMessage("Processing table: HFJ_RES_REINDEX_JOB");
+		version.onTable("HFJ_RES_REINDEX_JOB").addColumn("20191201.1", "RANGES_CREATED").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.BOOLEAN);
+
+		// HFJ_RES_REINDEX_RANGE
+		version.addIdGenerator("20191201.2", "SEQ_RES_REINDEX_RANGE");
+		Builder.BuilderAddTableByColumns reindexRange = version.addTableByColumns("20191201.3", "HFJ_RES_REINDEX_RANGE", "PID");
+		reindexRange.addColumn("PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		reindexRange.addColumn("JOB_PID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		reindexRange.addForeignKey("20191201.4", "FK_REINDEX_RANGE_JOB").toColumn("JOB_PID").references("HFJ_RES_REINDEX_JOB", "PID");
+		reindexRange.addColumn("PID_LOW").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		reindexRange.addColumn("PID_HIGH").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.LONG);
+		reindexRange.addColumn("CLAIMED_UNTIL").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.DATE_TIMESTAMP);
+		reindexRange.addColumn("RANGE_COMPLETE").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.BOOLEAN);
+		reindexRange.addColumn("REINDEX_COUNT").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+		reindexRange.addIndex("20191201.5", "IDX_REINDEX_RANGE_JOB").unique(false).withColumns("JOB_PID");
+
+		// Partitioning
+		version.startSectionWithMessage("Adding partition columns");
+		String[] partitionedTables = {"HFJ_RESOURCE", "HFJ_RES_VER", "HFJ_RES_LINK", "HFJ_SPIDX_COORDS", "HFJ_SPIDX_DATE", "HFJ_SPIDX_NUMBER", "HFJ_SPIDX_QUANTITY", "HFJ_SPIDX_STRING", "HFJ_SPIDX_TOKEN", "HFJ_SPIDX_URI"};
+		for (int i = 0; i < partitionedTables.length; i++) {
+			version.onTable(partitionedTables[i]).addColumn("20191215." + (i + 1), "PARTITION_ID").nullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+		}
+
+		// HFJ_PARTITION
+		version.addIdGenerator("20191215.11", "SEQ_PARTITION");
+		Builder.BuilderAddTableByColumns partition = version.addTableByColumns("20191215.12", "HFJ_PARTITION", "PART_ID");
+		partition.addColumn("PART_ID").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.INT);
+		partition.addColumn("PART_NAME").nonNullable().type(BaseTableColumnTypeTask.ColumnTypeEnum.STRING, 200);
+		partition.addIndex("20191215.13", "IDX_PART_NAME").unique(true).withColumns("PART_NAME");
+
+		// Partition indexes: These lead with the partition so that searches within a partition
+		// don't need to read the index rows of every other partition
+		version.startSectionWithMessage("Adding partition indexes");
+		version.onTable("HFJ_RESOURCE").addIndex("20191215.14", "IDX_RES_TYPE_PART").unique(false).withColumns("PARTITION_ID", "RES_TYPE");
+		version.onTable("HFJ_RES_LINK").addIndex("20191215.15", "IDX_RL_TPATHRES_PART").unique(false).withColumns("PARTITION_ID", "SRC_PATH", "TARGET_RESOURCE_ID");
+		version.onTable("HFJ_SPIDX_COORDS").addIndex("20191215.16", "IDX_SP_COORDS_HASH_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY", "SP_LATITUDE", "SP_LONGITUDE");
+		version.onTable("HFJ_SPIDX_DATE").addIndex("20191215.17", "IDX_SP_DATE_HASH_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY", "SP_VALUE_LOW", "SP_VALUE_HIGH");
+		version.onTable("HFJ_SPIDX_NUMBER").addIndex("20191215.18", "IDX_SP_NUMBER_HASH_VAL_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY", "SP_VALUE");
+		version.onTable("HFJ_SPIDX_QUANTITY").addIndex("20191215.19", "IDX_SP_QUANT_HASH_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY", "SP_VALUE");
+		version.onTable("HFJ_SPIDX_QUANTITY").addIndex("20191215.20", "IDX_SP_QUANT_HASH_UN_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY_AND_UNITS", "SP_VALUE");
+		version.onTable("HFJ_SPIDX_QUANTITY").addIndex("20191215.21", "IDX_SP_QUANT_HASH_SYSUN_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY_SYS_UNITS", "SP_VALUE");
+		version.onTable("HFJ_SPIDX_STRING").addIndex("20191215.22", "IDX_SP_STRING_HASH_IDENT_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY");
+		version.onTable("HFJ_SPIDX_STRING").addIndex("20191215.23", "IDX_SP_STRING_HASH_NRM_PART").unique(false).withColumns("PARTITION_ID", "HASH_NORM_PREFIX", "SP_VALUE_NORMALIZED");
+		version.onTable("HFJ_SPIDX_STRING").addIndex("20191215.24", "IDX_SP_STRING_HASH_EXCT_PART").unique(false).withColumns("PARTITION_ID", "HASH_EXACT");
+		version.onTable("HFJ_SPIDX_TOKEN").addIndex("20191215.25", "IDX_SP_TOKEN_HASH_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY");
+		version.onTable("HFJ_SPIDX_TOKEN").addIndex("20191215.26", "IDX_SP_TOKEN_HASH_S_PART").unique(false).withColumns("PARTITION_ID", "HASH_SYS");
+		version.onTable("HFJ_SPIDX_TOKEN").addIndex("20191215.27", "IDX_SP_TOKEN_HASH_SV_PART").unique(false).withColumns("PARTITION_ID", "HASH_SYS_AND_VALUE");
+		version.onTable("HFJ_SPIDX_TOKEN").addIndex("20191215.28", "IDX_SP_TOKEN_HASH_V_PART").unique(false).withColumns("PARTITION_ID", "HASH_VALUE");
+		version.onTable("HFJ_SPIDX_URI").addIndex("20191215.29", "IDX_SP_URI_HASH_IDENTITY_PART").unique(false).withColumns("PARTITION_ID", "HASH_IDENTITY", "SP_URI");
+		version.onTable("HFJ_SPIDX_URI").addIndex("20191215.30", "IDX_SP_URI_HASH_URI_PART").unique(false).withColumns("PARTITION_ID", "HASH_URI");
 	}
 
 	protected void init410() { // 20190815 - 20191014
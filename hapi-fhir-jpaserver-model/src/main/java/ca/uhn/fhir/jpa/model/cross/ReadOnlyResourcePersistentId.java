@@ -0,0 +1,43 @@
+package ca.uhn.fhir.jpa.model.cross;
+
+/*-
+ * #%L
+ * HAPI FHIR Model
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * A {@link ResourcePersistentId} whose ID can't be changed. The collections which store
+ * IDs as primitive values create a new instance each time an element is accessed, so a
+ * change to one of these instances could never be stored back into the collection.
+ */
+final class ReadOnlyResourcePersistentId extends ResourcePersistentId {
+
+	ReadOnlyResourcePersistentId(long theId) {
+		super(theId);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException Always
+	 */
+	@Override
+	public void setId(Object theId) {
+		throw new UnsupportedOperationException("This ID was read from a collection of primitive IDs and can't be changed");
+	}
+
+}
@@ -78,10 +78,13 @@ public class ResourcePersistentId {
 		return retVal;
 	}
 
+	/**
+	 * Returns a compact list of the given IDs. The IDs returned by the list are read only, see {@link ResourcePersistentIdList}.
+	 */
 	public static List<ResourcePersistentId> fromLongList(List<Long> theResultList) {
-		List<ResourcePersistentId> retVal = new ArrayList<>(theResultList.size());
+		ResourcePersistentIdList retVal = new ResourcePersistentIdList(theResultList.size());
 		for (Long next : theResultList) {
-			retVal.add(new ResourcePersistentId(next));
+			retVal.addLong(next);
 		}
 		return retVal;
 	}
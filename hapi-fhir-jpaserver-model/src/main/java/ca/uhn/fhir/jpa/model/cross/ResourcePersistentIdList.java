@@ -0,0 +1,188 @@
+package ca.uhn.fhir.jpa.model.cross;
+
+/*-
+ * #%L
+ * HAPI FHIR Model
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of {@link ResourcePersistentId} which stores the IDs as primitive
+ * <code>long</code> values in an array. This uses a fraction of the memory
+ * of an <code>ArrayList&lt;ResourcePersistentId&gt;</code> for large result
+ * sets. {@link ResourcePersistentId} instances are only created when elements
+ * are accessed through the {@link java.util.List} API, so callers working with
+ * large lists should prefer {@link #getLong(int)} and {@link #addLong(long)}.
+ * Since a new instance is returned on each access, the returned IDs are read
+ * only: calling {@link ResourcePersistentId#setId(Object)} on them throws an
+ * {@link UnsupportedOperationException}. Use {@link #set(int, ResourcePersistentId)}
+ * to change an element.
+ * <p>
+ * Only IDs of type {@link Long} are supported.
+ * </p>
+ */
+public class ResourcePersistentIdList extends AbstractList<ResourcePersistentId> implements RandomAccess {
+
+	private static final long[] EMPTY = new long[0];
+	private long[] myIds;
+	private int mySize;
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePersistentIdList() {
+		myIds = EMPTY;
+	}
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePersistentIdList(int theInitialCapacity) {
+		myIds = theInitialCapacity > 0 ? new long[theInitialCapacity] : EMPTY;
+	}
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePersistentIdList(Collection<ResourcePersistentId> theIds) {
+		this(theIds.size());
+		addAll(theIds);
+	}
+
+	@Override
+	public ResourcePersistentId get(int theIndex) {
+		return new ReadOnlyResourcePersistentId(getLong(theIndex));
+	}
+
+	public long getLong(int theIndex) {
+		checkIndex(theIndex);
+		return myIds[theIndex];
+	}
+
+	@Override
+	public ResourcePersistentId set(int theIndex, ResourcePersistentId theId) {
+		checkIndex(theIndex);
+		long previous = myIds[theIndex];
+		myIds[theIndex] = theId.getIdAsLong();
+		return new ReadOnlyResourcePersistentId(previous);
+	}
+
+	@Override
+	public void add(int theIndex, ResourcePersistentId theId) {
+		if (theIndex < 0 || theIndex > mySize) {
+			throw new IndexOutOfBoundsException("Index: " + theIndex + ", Size: " + mySize);
+		}
+		ensureCapacity(mySize + 1);
+		System.arraycopy(myIds, theIndex, myIds, theIndex + 1, mySize - theIndex);
+		myIds[theIndex] = theId.getIdAsLong();
+		mySize++;
+		modCount++;
+	}
+
+	@Override
+	public boolean add(ResourcePersistentId theId) {
+		addLong(theId.getIdAsLong());
+		return true;
+	}
+
+	public void addLong(long theId) {
+		ensureCapacity(mySize + 1);
+		myIds[mySize++] = theId;
+		modCount++;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends ResourcePersistentId> theIds) {
+		if (theIds instanceof ResourcePersistentIdList) {
+			ResourcePersistentIdList other = (ResourcePersistentIdList) theIds;
+			ensureCapacity(mySize + other.mySize);
+			System.arraycopy(other.myIds, 0, myIds, mySize, other.mySize);
+			mySize += other.mySize;
+			modCount++;
+			return other.mySize > 0;
+		}
+		ensureCapacity(mySize + theIds.size());
+		for (ResourcePersistentId next : theIds) {
+			addLong(next.getIdAsLong());
+		}
+		return !theIds.isEmpty();
+	}
+
+	@Override
+	public ResourcePersistentId remove(int theIndex) {
+		long previous = getLong(theIndex);
+		System.arraycopy(myIds, theIndex + 1, myIds, theIndex, mySize - theIndex - 1);
+		mySize--;
+		modCount++;
+		return new ReadOnlyResourcePersistentId(previous);
+	}
+
+	@Override
+	public int indexOf(Object theObject) {
+		if (theObject instanceof ResourcePersistentId && ((ResourcePersistentId) theObject).getId() instanceof Long) {
+			long id = ((ResourcePersistentId) theObject).getIdAsLong();
+			for (int i = 0; i < mySize; i++) {
+				if (myIds[i] == id) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean contains(Object theObject) {
+		return indexOf(theObject) != -1;
+	}
+
+	@Override
+	public void clear() {
+		mySize = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * Returns a copy of the contents of this list
+	 */
+	public long[] toLongArray() {
+		return Arrays.copyOf(myIds, mySize);
+	}
+
+	private void ensureCapacity(int theCapacity) {
+		if (theCapacity > myIds.length) {
+			int newCapacity = Math.max(theCapacity, Math.max(10, myIds.length + (myIds.length >> 1)));
+			myIds = Arrays.copyOf(myIds, newCapacity);
+		}
+	}
+
+	private void checkIndex(int theIndex) {
+		if (theIndex < 0 || theIndex >= mySize) {
+			throw new IndexOutOfBoundsException("Index: " + theIndex + ", Size: " + mySize);
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+package ca.uhn.fhir.jpa.model.cross;
+
+/*-
+ * #%L
+ * HAPI FHIR Model
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of {@link ResourcePersistentId} which stores the IDs as primitive
+ * <code>long</code> values in an open addressing hash table. This uses a
+ * fraction of the memory of a <code>HashSet&lt;ResourcePersistentId&gt;</code>
+ * for large result sets. {@link ResourcePersistentId} instances are only created
+ * when iterating through the {@link java.util.Set} API, and are read only since
+ * a change to them could never reach the set.
+ * <p>
+ * Only IDs of type {@link Long} are supported.
+ * </p>
+ */
+public class ResourcePersistentIdSet extends AbstractSet<ResourcePersistentId> {
+
+	private static final byte FREE = 0;
+	private static final byte FULL = 1;
+	private static final byte REMOVED = 2;
+	private static final int MINIMUM_CAPACITY = 16;
+
+	private long[] myKeys;
+	private byte[] myStates;
+	private int mySize;
+	private int myUsedSlots;
+	private int myModCount;
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePersistentIdSet() {
+		this(MINIMUM_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePersistentIdSet(int theExpectedSize) {
+		allocate(capacityFor(theExpectedSize));
+	}
+
+	/**
+	 * Constructor
+	 */
+	public ResourcePersistentIdSet(Collection<ResourcePersistentId> theIds) {
+		this(theIds.size());
+		addAll(theIds);
+	}
+
+	@Override
+	public boolean add(ResourcePersistentId theId) {
+		return addLong(theId.getIdAsLong());
+	}
+
+	public boolean addLong(long theId) {
+		int firstRemoved = -1;
+		int mask = myKeys.length - 1;
+		int index = hash(theId) & mask;
+		while (myStates[index] != FREE) {
+			if (myStates[index] == FULL) {
+				if (myKeys[index] == theId) {
+					return false;
+				}
+			} else if (firstRemoved == -1) {
+				firstRemoved = index;
+			}
+			index = (index + 1) & mask;
+		}
+
+		if (firstRemoved != -1) {
+			index = firstRemoved;
+		} else {
+			myUsedSlots++;
+		}
+		myKeys[index] = theId;
+		myStates[index] = FULL;
+		mySize++;
+		myModCount++;
+
+		if (myUsedSlots * 2 > myKeys.length) {
+			rehash(capacityFor(mySize));
+		}
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object theObject) {
+		if (theObject instanceof ResourcePersistentId && ((ResourcePersistentId) theObject).getId() instanceof Long) {
+			return containsLong(((ResourcePersistentId) theObject).getIdAsLong());
+		}
+		return false;
+	}
+
+	public boolean containsLong(long theId) {
+		return indexOf(theId) != -1;
+	}
+
+	@Override
+	public boolean remove(Object theObject) {
+		if (theObject instanceof ResourcePersistentId && ((ResourcePersistentId) theObject).getId() instanceof Long) {
+			return removeLong(((ResourcePersistentId) theObject).getIdAsLong());
+		}
+		return false;
+	}
+
+	public boolean removeLong(long theId) {
+		int index = indexOf(theId);
+		if (index == -1) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> theObjects) {
+		boolean retVal = false;
+		for (Object next : theObjects) {
+			retVal |= remove(next);
+		}
+		return retVal;
+	}
+
+	@Override
+	public void clear() {
+		allocate(MINIMUM_CAPACITY);
+		mySize = 0;
+		myUsedSlots = 0;
+		myModCount++;
+	}
+
+	@Override
+	public int size() {
+		return mySize;
+	}
+
+	@Override
+	public Iterator<ResourcePersistentId> iterator() {
+		return new Iterator<ResourcePersistentId>() {
+			private int myNextIndex = findNext(0);
+			private int myLastIndex = -1;
+			private int myExpectedModCount = myModCount;
+
+			@Override
+			public boolean hasNext() {
+				return myNextIndex < myKeys.length;
+			}
+
+			@Override
+			public ResourcePersistentId next() {
+				if (myExpectedModCount != myModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				myLastIndex = myNextIndex;
+				myNextIndex = findNext(myNextIndex + 1);
+				return new ReadOnlyResourcePersistentId(myKeys[myLastIndex]);
+			}
+
+			@Override
+			public void remove() {
+				if (myLastIndex == -1) {
+					throw new IllegalStateException();
+				}
+				if (myExpectedModCount != myModCount) {
+					throw new ConcurrentModificationException();
+				}
+				removeAt(myLastIndex);
+				myLastIndex = -1;
+				myExpectedModCount = myModCount;
+			}
+		};
+	}
+
+	/**
+	 * Returns a copy of the contents of this set, in no particular order
+	 */
+	public long[] toLongArray() {
+		long[] retVal = new long[mySize];
+		int count = 0;
+		for (int i = 0; i < myKeys.length; i++) {
+			if (myStates[i] == FULL) {
+				retVal[count++] = myKeys[i];
+			}
+		}
+		return retVal;
+	}
+
+	private int findNext(int theStart) {
+		int index = theStart;
+		while (index < myKeys.length && myStates[index] != FULL) {
+			index++;
+		}
+		return index;
+	}
+
+	private int indexOf(long theId) {
+		int mask = myKeys.length - 1;
+		int index = hash(theId) & mask;
+		while (myStates[index] != FREE) {
+			if (myStates[index] == FULL && myKeys[index] == theId) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void removeAt(int theIndex) {
+		// Leave a marker so that probing past this slot still works
+		myStates[theIndex] = REMOVED;
+		mySize--;
+		myModCount++;
+	}
+
+	private void rehash(int theCapacity) {
+		long[] oldKeys = myKeys;
+		byte[] oldStates = myStates;
+		allocate(theCapacity);
+		myUsedSlots = mySize;
+
+		int mask = myKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStates[i] == FULL) {
+				int index = hash(oldKeys[i]) & mask;
+				while (myStates[index] != FREE) {
+					index = (index + 1) & mask;
+				}
+				myKeys[index] = oldKeys[i];
+				myStates[index] = FULL;
+			}
+		}
+	}
+
+	private void allocate(int theCapacity) {
+		myKeys = new long[theCapacity];
+		myStates = new byte[theCapacity];
+	}
+
+	/**
+	 * Returns a power of two capacity which keeps the table at most
+	 * one quarter full after inserting the given number of elements,
+	 * so that it can grow to half full before needing a rehash
+	 */
+	private static int capacityFor(int theSize) {
+		int retVal = MINIMUM_CAPACITY;
+		while (retVal < theSize * 4L && retVal < (1 << 30)) {
+			retVal <<= 1;
+		}
+		return retVal;
+	}
+
+	private static int hash(long theId) {
+		// Spread the bits since sequential PIDs would otherwise cluster
+		long h = theId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
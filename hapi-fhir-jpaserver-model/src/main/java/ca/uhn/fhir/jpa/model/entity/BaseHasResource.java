@@ -54,6 +54,14 @@ public abstract class BaseHasResource implements IBaseResourceEntity, IBasePersi
 	@OptimisticLock(excluded = true)
 	private boolean myHasTags;
 
+	/**
+	 * The partition (e.g. the tenant) this resource belongs to, or <code>null</code>
+	 * for the default partition
+	 */
+	@Column(name = "PARTITION_ID", nullable = true)
+	@OptimisticLock(excluded = true)
+	private Integer myPartitionId;
+
 	@Temporal(TemporalType.TIMESTAMP)
 	@Column(name = "RES_PUBLISHED", nullable = false)
 	@OptimisticLock(excluded = true)
@@ -107,6 +115,14 @@ public abstract class BaseHasResource implements IBaseResourceEntity, IBasePersi
 	@Override
 	public abstract Long getId();
 
+	public Integer getPartitionId() {
+		return myPartitionId;
+	}
+
+	public void setPartitionId(Integer thePartitionId) {
+		myPartitionId = thePartitionId;
+	}
+
 	@Override
 	public IdDt getIdDt() {
 		if (getForcedId() == null) {
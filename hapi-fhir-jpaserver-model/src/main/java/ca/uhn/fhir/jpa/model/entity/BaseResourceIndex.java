@@ -20,16 +20,43 @@ package ca.uhn.fhir.jpa.model.entity;
  * #L%
  */
 
+import javax.persistence.Column;
+import javax.persistence.MappedSuperclass;
 import java.io.Serializable;
 
+@MappedSuperclass
 public abstract class BaseResourceIndex implements Serializable {
 
+	/**
+	 * The partition of the resource which owns this index row, or <code>null</code>
+	 * for the default partition
+	 */
+	@Column(name = "PARTITION_ID", nullable = true)
+	private Integer myPartitionId;
+
 	public abstract Long getId();
 
 	public abstract void setId(Long theId);
 
 	public abstract void calculateHashes();
 
+	/**
+	 * Discards any values which are not needed in order to search this index row
+	 * using its hashes. This is called before storing the row when the index storage
+	 * mode is {@link IndexStorageModeEnum#HASHES_ONLY}. Subclasses may override.
+	 */
+	public void clearValuesNotNeededForHashSearch() {
+		// nothing
+	}
+
+	public Integer getPartitionId() {
+		return myPartitionId;
+	}
+
+	public void setPartitionId(Integer thePartitionId) {
+		myPartitionId = thePartitionId;
+	}
+
 	/**
 	 * Subclasses must implement
 	 */
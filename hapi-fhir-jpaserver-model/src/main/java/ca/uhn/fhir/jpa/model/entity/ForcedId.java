@@ -93,4 +93,8 @@ public class ForcedId {
 	public Long getId() {
 		return myId;
 	}
+
+	public Long getResourcePid() {
+		return myResourcePid;
+	}
 }
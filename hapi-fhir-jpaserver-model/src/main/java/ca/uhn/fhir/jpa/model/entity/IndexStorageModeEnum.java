@@ -0,0 +1,49 @@
+package ca.uhn.fhir.jpa.model.entity;
+
+
+/*
+ * #%L
+ * HAPI FHIR Model
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Controls which columns are populated when token and string search parameter
+ * index rows are stored
+ *
+ * @see ModelConfig#setIndexStorageMode(IndexStorageModeEnum)
+ */
+public enum IndexStorageModeEnum {
+
+	/**
+	 * Store the raw values (system/value for tokens, normalized and exact values
+	 * for strings) alongside the hashes that are used for searching. This is the
+	 * default.
+	 */
+	FULL,
+
+	/**
+	 * Store only the hashes that are used for searching, and leave out any raw
+	 * values that searches never need. Token rows are stored without their system
+	 * and value, and string rows are stored without their exact value. String rows
+	 * keep their normalized value, since prefix and <code>:contains</code> searches
+	 * as well as sorting are performed against it. The fulltext fields of these
+	 * rows are left empty, see {@link ModelConfig#setIndexStorageMode(IndexStorageModeEnum)}.
+	 */
+	HASHES_ONLY
+
+}
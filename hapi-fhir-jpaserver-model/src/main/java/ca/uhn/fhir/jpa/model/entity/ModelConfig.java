@@ -60,6 +60,7 @@ public class ModelConfig {
 	private String myEmailFromAddress = "noreply@unknown.com";
 	private boolean mySubscriptionMatchingEnabled = true;
 	private String myWebsocketContextPath = DEFAULT_WEBSOCKET_CONTEXT_PATH;
+	private IndexStorageModeEnum myIndexStorageMode = IndexStorageModeEnum.FULL;
 
 	/**
 	 * Constructor
@@ -388,6 +389,69 @@ public class ModelConfig {
 		myWebsocketContextPath = theWebsocketContextPath;
 	}
 
+	/**
+	 * Controls which columns are populated in the token (<code>HFJ_SPIDX_TOKEN</code>) and string
+	 * (<code>HFJ_SPIDX_STRING</code>) index tables. Default is {@link IndexStorageModeEnum#FULL}.
+	 * <p>
+	 * If set to {@link IndexStorageModeEnum#HASHES_ONLY}, the raw values which are never needed in
+	 * order to perform a hash based search are not stored, which considerably reduces the size of
+	 * these tables on servers which store large volumes of data. In this mode, sorting on token
+	 * search parameters is not supported, sorting on string search parameters is performed using the
+	 * normalized value, and hash based searching can not be disabled.
+	 * </p>
+	 * <p>
+	 * The cleared values also feed the fulltext (Hibernate Search) fields of the string and token
+	 * index rows (e.g. <code>myValueText</code> and its n-gram variants), so these fields are left
+	 * empty in this mode and fulltext queries against the index rows themselves will not match.
+	 * Fulltext indexing of the resources (used by the <code>_content</code> and <code>_text</code>
+	 * parameters and by <code>$suggest-keywords</code>) is not affected. Servers which query the
+	 * index row fields directly should use {@link IndexStorageModeEnum#FULL}.
+	 * </p>
+	 * <p>
+	 * Note: Changing this value only affects index rows as they are written, so existing
+	 * data must be reindexed in order to reclaim space.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public IndexStorageModeEnum getIndexStorageMode() {
+		return myIndexStorageMode;
+	}
+
+	/**
+	 * Controls which columns are populated in the token (<code>HFJ_SPIDX_TOKEN</code>) and string
+	 * (<code>HFJ_SPIDX_STRING</code>) index tables. Default is {@link IndexStorageModeEnum#FULL}.
+	 * <p>
+	 * If set to {@link IndexStorageModeEnum#HASHES_ONLY}, the raw values which are never needed in
+	 * order to perform a hash based search are not stored, which considerably reduces the size of
+	 * these tables on servers which store large volumes of data. In this mode, sorting on token
+	 * search parameters is not supported, sorting on string search parameters is performed using the
+	 * normalized value, and hash based searching can not be disabled.
+	 * </p>
+	 * <p>
+	 * The cleared values also feed the fulltext (Hibernate Search) fields of the string and token
+	 * index rows (e.g. <code>myValueText</code> and its n-gram variants), so these fields are left
+	 * empty in this mode and fulltext queries against the index rows themselves will not match.
+	 * Fulltext indexing of the resources (used by the <code>_content</code> and <code>_text</code>
+	 * parameters and by <code>$suggest-keywords</code>) is not affected. Servers which query the
+	 * index row fields directly should use {@link IndexStorageModeEnum#FULL}.
+	 * </p>
+	 * <p>
+	 * Note: Changing this value only affects index rows as they are written, so existing
+	 * data must be reindexed in order to reclaim space.
+	 * </p>
+	 *
+	 * @since 4.2.0
+	 */
+	public void setIndexStorageMode(IndexStorageModeEnum theIndexStorageMode) {
+		Validate.notNull(theIndexStorageMode, "theIndexStorageMode must not be null");
+		myIndexStorageMode = theIndexStorageMode;
+	}
+
+	public boolean isIndexStorageHashesOnly() {
+		return myIndexStorageMode == IndexStorageModeEnum.HASHES_ONLY;
+	}
+
 	private static void validateTreatBaseUrlsAsLocal(String theUrl) {
 		Validate.notBlank(theUrl, "Base URL must not be null or empty");
 
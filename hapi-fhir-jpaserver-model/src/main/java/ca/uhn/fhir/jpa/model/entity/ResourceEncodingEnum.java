@@ -44,6 +44,14 @@ public enum ResourceEncodingEnum {
 	 */
 	JSONC,
 
+	/**
+	 * Json compressed using raw deflate at its fastest level, with a preset dictionary
+	 * of content common to FHIR resources. This is cheaper to write than {@link #JSONC}
+	 * and usually gives smaller bodies for small resources. Note that servers older
+	 * than 4.2.0 are not able to read bodies stored with this encoding.
+	 */
+	JSOND,
+
 	/**
 	 * Resource was deleted - No contents expected
 	 */
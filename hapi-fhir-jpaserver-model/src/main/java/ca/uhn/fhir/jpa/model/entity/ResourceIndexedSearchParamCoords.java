@@ -33,6 +33,7 @@ import javax.persistence.*;
 @Entity
 @Table(name = "HFJ_SPIDX_COORDS", indexes = {
 	@Index(name = "IDX_SP_COORDS_HASH", columnList = "HASH_IDENTITY,SP_LATITUDE,SP_LONGITUDE"),
+	@Index(name = "IDX_SP_COORDS_HASH_PART", columnList = "PARTITION_ID,HASH_IDENTITY,SP_LATITUDE,SP_LONGITUDE"),
 	@Index(name = "IDX_SP_COORDS_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_COORDS_RESID", columnList = "RES_ID")
 })
@@ -40,6 +40,7 @@ import java.util.Date;
 @Table(name = "HFJ_SPIDX_DATE", indexes = {
 	// We previously had an index called IDX_SP_DATE - Dont reuse
 	@Index(name = "IDX_SP_DATE_HASH", columnList = "HASH_IDENTITY,SP_VALUE_LOW,SP_VALUE_HIGH"),
+	@Index(name = "IDX_SP_DATE_HASH_PART", columnList = "PARTITION_ID,HASH_IDENTITY,SP_VALUE_LOW,SP_VALUE_HIGH"),
 	@Index(name = "IDX_SP_DATE_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_DATE_RESID", columnList = "RES_ID")
 })
@@ -40,6 +40,7 @@ import java.util.Objects;
 @Table(name = "HFJ_SPIDX_NUMBER", indexes = {
 //	We used to have an index with name IDX_SP_NUMBER - Dont reuse
 	@Index(name = "IDX_SP_NUMBER_HASH_VAL", columnList = "HASH_IDENTITY,SP_VALUE"),
+	@Index(name = "IDX_SP_NUMBER_HASH_VAL_PART", columnList = "PARTITION_ID,HASH_IDENTITY,SP_VALUE"),
 	@Index(name = "IDX_SP_NUMBER_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_NUMBER_RESID", columnList = "RES_ID")
 })
@@ -44,8 +44,11 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 @Table(name = "HFJ_SPIDX_QUANTITY", indexes = {
 //	We used to have an index named IDX_SP_QUANTITY - Dont reuse
 	@Index(name = "IDX_SP_QUANTITY_HASH", columnList = "HASH_IDENTITY,SP_VALUE"),
+	@Index(name = "IDX_SP_QUANT_HASH_PART", columnList = "PARTITION_ID,HASH_IDENTITY,SP_VALUE"),
 	@Index(name = "IDX_SP_QUANTITY_HASH_UN", columnList = "HASH_IDENTITY_AND_UNITS,SP_VALUE"),
+	@Index(name = "IDX_SP_QUANT_HASH_UN_PART", columnList = "PARTITION_ID,HASH_IDENTITY_AND_UNITS,SP_VALUE"),
 	@Index(name = "IDX_SP_QUANTITY_HASH_SYSUN", columnList = "HASH_IDENTITY_SYS_UNITS,SP_VALUE"),
+	@Index(name = "IDX_SP_QUANT_HASH_SYSUN_PART", columnList = "PARTITION_ID,HASH_IDENTITY_SYS_UNITS,SP_VALUE"),
 	@Index(name = "IDX_SP_QUANTITY_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_QUANTITY_RESID", columnList = "RES_ID")
 })
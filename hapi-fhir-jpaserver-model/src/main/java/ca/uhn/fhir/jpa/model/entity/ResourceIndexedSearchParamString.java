@@ -47,9 +47,12 @@ import static org.apache.commons.lang3.StringUtils.left;
 
 	// This is used for sorting, and for :contains queries currently
 	@Index(name = "IDX_SP_STRING_HASH_IDENT", columnList = "HASH_IDENTITY"),
+	@Index(name = "IDX_SP_STRING_HASH_IDENT_PART", columnList = "PARTITION_ID,HASH_IDENTITY"),
 
 	@Index(name = "IDX_SP_STRING_HASH_NRM", columnList = "HASH_NORM_PREFIX,SP_VALUE_NORMALIZED"),
+	@Index(name = "IDX_SP_STRING_HASH_NRM_PART", columnList = "PARTITION_ID,HASH_NORM_PREFIX,SP_VALUE_NORMALIZED"),
 	@Index(name = "IDX_SP_STRING_HASH_EXCT", columnList = "HASH_EXACT"),
+	@Index(name = "IDX_SP_STRING_HASH_EXCT_PART", columnList = "PARTITION_ID,HASH_EXACT"),
 
 	@Index(name = "IDX_SP_STRING_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_STRING_RESID", columnList = "RES_ID")
@@ -199,7 +202,10 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		EqualsBuilder b = new EqualsBuilder();
 		b.append(getResourceType(), obj.getResourceType());
 		b.append(getParamName(), obj.getParamName());
-		b.append(getValueExact(), obj.getValueExact());
+		// Rows stored in hashes only mode don't have an exact value
+		if (getValueExact() != null && obj.getValueExact() != null) {
+			b.append(getValueExact(), obj.getValueExact());
+		}
 		b.append(getHashIdentity(), obj.getHashIdentity());
 		b.append(getHashExact(), obj.getHashExact());
 		b.append(getHashNormalizedPrefix(), obj.getHashNormalizedPrefix());
@@ -269,10 +275,16 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		HashCodeBuilder b = new HashCodeBuilder();
 		b.append(getResourceType());
 		b.append(getParamName());
-		b.append(getValueExact());
+		b.append(getHashExact());
 		return b.toHashCode();
 	}
 
+	@Override
+	public void clearValuesNotNeededForHashSearch() {
+		calculateHashes();
+		myValueExact = null;
+	}
+
 	public BaseResourceIndexedSearchParam setModelConfig(ModelConfig theModelConfig) {
 		myModelConfig = theModelConfig;
 		return this;
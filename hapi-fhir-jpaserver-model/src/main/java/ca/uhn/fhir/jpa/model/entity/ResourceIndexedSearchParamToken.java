@@ -44,9 +44,13 @@ import static org.apache.commons.lang3.StringUtils.trim;
 	 * IDX_SP_TOKEN_UNQUAL
 	 */
 	@Index(name = "IDX_SP_TOKEN_HASH", columnList = "HASH_IDENTITY"),
+	@Index(name = "IDX_SP_TOKEN_HASH_PART", columnList = "PARTITION_ID,HASH_IDENTITY"),
 	@Index(name = "IDX_SP_TOKEN_HASH_S", columnList = "HASH_SYS"),
+	@Index(name = "IDX_SP_TOKEN_HASH_S_PART", columnList = "PARTITION_ID,HASH_SYS"),
 	@Index(name = "IDX_SP_TOKEN_HASH_SV", columnList = "HASH_SYS_AND_VALUE"),
+	@Index(name = "IDX_SP_TOKEN_HASH_SV_PART", columnList = "PARTITION_ID,HASH_SYS_AND_VALUE"),
 	@Index(name = "IDX_SP_TOKEN_HASH_V", columnList = "HASH_VALUE"),
+	@Index(name = "IDX_SP_TOKEN_HASH_V_PART", columnList = "PARTITION_ID,HASH_VALUE"),
 
 	@Index(name = "IDX_SP_TOKEN_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_TOKEN_RESID", columnList = "RES_ID")
@@ -146,11 +150,30 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		EqualsBuilder b = new EqualsBuilder();
 		b.append(getResourceType(), obj.getResourceType());
 		b.append(getParamName(), obj.getParamName());
-		b.append(getSystem(), obj.getSystem());
-		b.append(getValue(), obj.getValue());
+		/*
+		 * Rows stored in hashes only mode don't have a system or value, so
+		 * we compare the hash and only compare the raw values if both sides
+		 * have them
+		 */
+		b.append(getHashSystemAndValue(), obj.getHashSystemAndValue());
+		if (hasSystemOrValue() && obj.hasSystemOrValue()) {
+			b.append(getSystem(), obj.getSystem());
+			b.append(getValue(), obj.getValue());
+		}
 		return b.isEquals();
 	}
 
+	private boolean hasSystemOrValue() {
+		return mySystem != null || myValue != null;
+	}
+
+	@Override
+	public void clearValuesNotNeededForHashSearch() {
+		calculateHashes();
+		mySystem = null;
+		myValue = null;
+	}
+
 	Long getHashSystem() {
 		calculateHashes();
 		return myHashSystem;
@@ -164,7 +187,7 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		myHashIdentity = theHashIdentity;
 	}
 
-	Long getHashSystemAndValue() {
+	public Long getHashSystemAndValue() {
 		calculateHashes();
 		return myHashSystemAndValue;
 	}
@@ -218,8 +241,7 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		HashCodeBuilder b = new HashCodeBuilder();
 		b.append(getResourceType());
 		b.append(getParamName());
-		b.append(getSystem());
-		b.append(getValue());
+		b.append(getHashSystemAndValue());
 		return b.toHashCode();
 	}
 
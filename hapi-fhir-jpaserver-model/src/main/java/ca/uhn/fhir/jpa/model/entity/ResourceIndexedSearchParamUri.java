@@ -37,7 +37,9 @@ import static org.apache.commons.lang3.StringUtils.defaultString;
 @Table(name = "HFJ_SPIDX_URI", indexes = {
 	@Index(name = "IDX_SP_URI", columnList = "RES_TYPE,SP_NAME,SP_URI"),
 	@Index(name = "IDX_SP_URI_HASH_IDENTITY", columnList = "HASH_IDENTITY,SP_URI"),
+	@Index(name = "IDX_SP_URI_HASH_IDENTITY_PART", columnList = "PARTITION_ID,HASH_IDENTITY,SP_URI"),
 	@Index(name = "IDX_SP_URI_HASH_URI", columnList = "HASH_URI"),
+	@Index(name = "IDX_SP_URI_HASH_URI_PART", columnList = "PARTITION_ID,HASH_URI"),
 	@Index(name = "IDX_SP_URI_RESTYPE_NAME", columnList = "RES_TYPE,SP_NAME"),
 	@Index(name = "IDX_SP_URI_UPDATED", columnList = "SP_UPDATED"),
 	@Index(name = "IDX_SP_URI_COORDS", columnList = "RES_ID")
@@ -32,6 +32,7 @@ import java.util.Date;
 @Entity
 @Table(name = "HFJ_RES_LINK", indexes = {
 	@Index(name = "IDX_RL_TPATHRES", columnList = "SRC_PATH,TARGET_RESOURCE_ID"),
+	@Index(name = "IDX_RL_TPATHRES_PART", columnList = "PARTITION_ID,SRC_PATH,TARGET_RESOURCE_ID"),
 	@Index(name = "IDX_RL_SRC", columnList = "SRC_RESOURCE_ID"),
 	@Index(name = "IDX_RL_DEST", columnList = "TARGET_RESOURCE_ID")
 })
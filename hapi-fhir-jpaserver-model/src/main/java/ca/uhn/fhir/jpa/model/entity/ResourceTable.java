@@ -44,6 +44,7 @@ import static org.apache.commons.lang3.StringUtils.defaultString;
 	@Index(name = "IDX_RES_LANG", columnList = "RES_TYPE,RES_LANGUAGE"),
 	@Index(name = "IDX_RES_PROFILE", columnList = "RES_PROFILE"),
 	@Index(name = "IDX_RES_TYPE", columnList = "RES_TYPE"),
+	@Index(name = "IDX_RES_TYPE_PART", columnList = "PARTITION_ID,RES_TYPE"),
 	@Index(name = "IDX_INDEXSTATUS", columnList = "SP_INDEX_STATUS")
 })
 public class ResourceTable extends BaseHasResource implements Serializable, IBasePersistedResource {
@@ -550,6 +551,7 @@ public class ResourceTable extends BaseHasResource implements Serializable, IBas
 		retVal.setFhirVersion(getFhirVersion());
 		retVal.setDeleted(getDeleted());
 		retVal.setForcedId(getForcedId());
+		retVal.setPartitionId(getPartitionId());
 
 		retVal.getTags().clear();
 
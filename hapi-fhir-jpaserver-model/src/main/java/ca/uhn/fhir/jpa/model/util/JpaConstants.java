@@ -227,6 +227,49 @@ public class JpaConstants {
 	 */
 	public static final String EXT_SUBSCRIPTION_RESTHOOK_DELIVER_LATEST_VERSION = "http://hapifhir.io/fhir/StructureDefinition/subscription-resthook-deliver-latest-version";
 
+	/**
+	 * This extension URL indicates that a REST HOOK subscription should
+	 * deliver matching resources in batches instead of sending one request
+	 * for each resource. The value is the maximum number of resources in a
+	 * single <code>batch</code> Bundle, and batching is only enabled if it
+	 * is greater than 1. A batch is delivered as soon as it is full, or
+	 * once the time given by {@link #EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_WAIT_MILLIS}
+	 * has passed since the first resource was added to it.
+	 * <p>
+	 * Batching only applies to subscriptions with a payload. Note that the
+	 * <code>SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY</code> hook is invoked for each
+	 * resource once its batch has been delivered.
+	 * </p>
+	 * <p>
+	 * <b>Batched delivery is at most once.</b> A message is acknowledged to the
+	 * delivery channel as soon as it has been added to a batch, so a message
+	 * is never redelivered by the channel if its batch fails. Instead, the
+	 * <code>SUBSCRIPTION_AFTER_DELIVERY_FAILED</code> hook is invoked for every
+	 * message in a failed batch (only the message which filled the batch up, if any,
+	 * fails on the channel as well). Batches which are still waiting when the
+	 * server stops abruptly are lost. Subscriptions which can not tolerate lost
+	 * deliveries should not use batching, or should use that hook to record
+	 * failed deliveries for later replay.
+	 * </p>
+	 *
+	 * <p>
+	 * This extension should be of type <code>integer</code> and should be
+	 * placed on the <code>Subscription.channel</code> element.
+	 * </p>
+	 */
+	public static final String EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_SIZE = "http://hapifhir.io/fhir/StructureDefinition/subscription-resthook-batch-max-size";
+
+	/**
+	 * This extension URL indicates how long a REST HOOK subscription using
+	 * {@link #EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_SIZE batched delivery} waits
+	 * for a batch to fill up before delivering it anyway, in milliseconds.
+	 * <p>
+	 * This extension should be of type <code>integer</code> and should be
+	 * placed on the <code>Subscription.channel</code> element.
+	 * </p>
+	 */
+	public static final String EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_WAIT_MILLIS = "http://hapifhir.io/fhir/StructureDefinition/subscription-resthook-batch-max-wait-millis";
+
 	/**
 	 * Indicate which strategy will be used to match this subscription
 	 */
@@ -0,0 +1,80 @@
+package ca.uhn.fhir.jpa.model.cross;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResourcePersistentIdListTest {
+
+	@Test
+	public void testAddGetRemove() {
+		ResourcePersistentIdList list = new ResourcePersistentIdList();
+		for (long i = 0; i < 100; i++) {
+			list.add(new ResourcePersistentId(i));
+		}
+		assertEquals(100, list.size());
+		assertEquals(new ResourcePersistentId(50L), list.get(50));
+		assertEquals(50L, list.getLong(50));
+
+		assertEquals(new ResourcePersistentId(0L), list.remove(0));
+		assertEquals(99, list.size());
+		assertEquals(1L, list.getLong(0));
+		assertEquals(99L, list.getLong(98));
+
+		list.add(0, new ResourcePersistentId(1000L));
+		assertEquals(1000L, list.getLong(0));
+		assertTrue(list.contains(new ResourcePersistentId(1000L)));
+		assertFalse(list.contains(new ResourcePersistentId(0L)));
+		assertFalse(list.contains(new ResourcePersistentId("1000")));
+
+		list.clear();
+		assertTrue(list.isEmpty());
+	}
+
+	@Test
+	public void testEqualsStandardList() {
+		List<ResourcePersistentId> expected = new ArrayList<>();
+		ResourcePersistentIdList actual = new ResourcePersistentIdList(2);
+		for (long i = 10; i < 20; i++) {
+			expected.add(new ResourcePersistentId(i));
+			actual.addLong(i);
+		}
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(actual, new ResourcePersistentIdList(actual));
+		assertArrayEquals(new long[]{10, 11, 12, 13, 14, 15, 16, 17, 18, 19}, actual.toLongArray());
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		ResourcePersistentIdList list = new ResourcePersistentIdList(Arrays.asList(new ResourcePersistentId(1L), new ResourcePersistentId(2L), new ResourcePersistentId(3L)));
+		list.removeIf(t -> t.getIdAsLong() == 2L);
+		assertArrayEquals(new long[]{1, 3}, list.toLongArray());
+	}
+
+	@Test
+	public void testReturnedIdsAreReadOnly() {
+		List<ResourcePersistentId> list = ResourcePersistentId.fromLongList(Arrays.asList(1L, 2L));
+		try {
+			list.get(0).setId(100L);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// good
+		}
+
+		list.set(0, new ResourcePersistentId(100L));
+		assertEquals(new ResourcePersistentId(100L), list.get(0));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetOutOfBounds() {
+		ResourcePersistentIdList list = new ResourcePersistentIdList(10);
+		list.get(0);
+	}
+
+}
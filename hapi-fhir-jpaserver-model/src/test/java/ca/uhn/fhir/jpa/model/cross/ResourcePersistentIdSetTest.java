@@ -0,0 +1,72 @@
+package ca.uhn.fhir.jpa.model.cross;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ResourcePersistentIdSetTest {
+
+	@Test
+	public void testAddContainsRemove() {
+		ResourcePersistentIdSet set = new ResourcePersistentIdSet();
+		assertTrue(set.add(new ResourcePersistentId(1L)));
+		assertFalse(set.add(new ResourcePersistentId(1L)));
+		assertTrue(set.addLong(0L));
+		assertEquals(2, set.size());
+
+		assertTrue(set.contains(new ResourcePersistentId(1L)));
+		assertTrue(set.containsLong(0L));
+		assertFalse(set.contains(new ResourcePersistentId(2L)));
+		assertFalse(set.contains(new ResourcePersistentId("1")));
+
+		assertTrue(set.remove(new ResourcePersistentId(1L)));
+		assertFalse(set.remove(new ResourcePersistentId(1L)));
+		assertEquals(1, set.size());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testBehavesLikeHashSet() {
+		Random random = new Random(123);
+		Set<ResourcePersistentId> expected = new HashSet<>();
+		ResourcePersistentIdSet actual = new ResourcePersistentIdSet();
+
+		for (int i = 0; i < 100000; i++) {
+			ResourcePersistentId next = new ResourcePersistentId((long) random.nextInt(20000));
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(next), actual.remove(next));
+			} else {
+				assertEquals(expected.add(next), actual.add(next));
+			}
+			assertEquals(expected.size(), actual.size());
+		}
+
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(expected.size(), actual.toLongArray().length);
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		ResourcePersistentIdSet set = new ResourcePersistentIdSet(Arrays.asList(new ResourcePersistentId(1L), new ResourcePersistentId(2L), new ResourcePersistentId(3L)));
+		for (Iterator<ResourcePersistentId> iter = set.iterator(); iter.hasNext(); ) {
+			if (iter.next().getIdAsLong() == 2L) {
+				iter.remove();
+			}
+		}
+		assertEquals(2, set.size());
+		assertFalse(set.containsLong(2L));
+		assertTrue(set.containsLong(1L));
+		assertTrue(set.containsLong(3L));
+	}
+
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 
 @SuppressWarnings("SpellCheckingInspection")
 public class ResourceIndexedSearchParamStringTest {
@@ -47,4 +48,20 @@ public class ResourceIndexedSearchParamStringTest {
 		assertNotEquals(val1, "");
 	}
 
+	@Test
+	public void testEqualsWithValuesCleared() {
+		ResourceIndexedSearchParamString stored = new ResourceIndexedSearchParamString(new ModelConfig(), "Patient", "name", "SMITH", "Smith");
+		stored.clearValuesNotNeededForHashSearch();
+		assertNull(stored.getValueExact());
+		assertEquals("SMITH", stored.getValueNormalized());
+
+		ResourceIndexedSearchParamString same = new ResourceIndexedSearchParamString(new ModelConfig(), "Patient", "name", "SMITH", "Smith");
+		assertEquals(stored, same);
+		assertEquals(same, stored);
+		assertEquals(stored.hashCode(), same.hashCode());
+
+		ResourceIndexedSearchParamString different = new ResourceIndexedSearchParamString(new ModelConfig(), "Patient", "name", "SMITH", "SMITH");
+		assertNotEquals(stored, different);
+	}
+
 }
@@ -43,4 +43,21 @@ public class ResourceIndexedSearchParamTokenTest {
 		assertNotEquals(val1, "");
 	}
 
+	@Test
+	public void testEqualsWithValuesCleared() {
+		ResourceIndexedSearchParamToken stored = new ResourceIndexedSearchParamToken("Patient", "identifier", "SYSTEM", "VALUE");
+		stored.clearValuesNotNeededForHashSearch();
+		assertEquals(null, stored.getSystem());
+		assertEquals(null, stored.getValue());
+		assertEquals(ResourceIndexedSearchParamToken.calculateHashSystemAndValue("Patient", "identifier", "SYSTEM", "VALUE"), stored.getHashSystemAndValue().longValue());
+
+		ResourceIndexedSearchParamToken same = new ResourceIndexedSearchParamToken("Patient", "identifier", "SYSTEM", "VALUE");
+		assertEquals(stored, same);
+		assertEquals(same, stored);
+		assertEquals(stored.hashCode(), same.hashCode());
+
+		ResourceIndexedSearchParamToken different = new ResourceIndexedSearchParamToken("Patient", "identifier", "SYSTEM", "VALUE2");
+		assertNotEquals(stored, different);
+	}
+
 }
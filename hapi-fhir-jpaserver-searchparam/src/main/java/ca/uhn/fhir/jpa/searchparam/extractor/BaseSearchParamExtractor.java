@@ -65,10 +65,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -127,6 +131,8 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 	private BaseRuntimeChildDefinition myCodingDisplayValueChild;
 	private BaseRuntimeChildDefinition myContactPointSystemValueChild;
 	private BaseRuntimeChildDefinition myPatientCommunicationLanguageValueChild;
+	private final Map<String, CompiledPaths> myCompiledPaths = new ConcurrentHashMap<>();
+	private final boolean myPerTypeExtractionOverridden = isPerTypeExtractionOverridden(getClass());
 
 	/**
 	 * Constructor
@@ -210,7 +216,11 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	@Override
 	public SearchParamSet<BaseResourceIndexedSearchParam> extractSearchParamTokens(IBaseResource theResource) {
+		IExtractor<BaseResourceIndexedSearchParam> extractor = createTokenExtractor(theResource);
+		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.TOKEN);
+	}
 
+	private IExtractor<BaseResourceIndexedSearchParam> createTokenExtractor(IBaseResource theResource) {
 		String resourceTypeName = toRootTypeName(theResource);
 		String useSystem;
 		if (getContext().getVersion().getVersion().equals(FhirVersionEnum.DSTU2)) {
@@ -228,7 +238,7 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 			}
 		}
 
-		IExtractor<BaseResourceIndexedSearchParam> extractor = (params, searchParam, value, path) -> {
+		return (params, searchParam, value, path) -> {
 
 			// DSTU3+
 			if (value instanceof IBaseEnumeration<?>) {
@@ -305,8 +315,6 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 					break;
 			}
 		};
-
-		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.TOKEN);
 	}
 
 	private void addUnexpectedDatatypeWarning(SearchParamSet<?> theParams, RuntimeSearchParam theSearchParam, IBase theValue) {
@@ -315,7 +323,12 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	@Override
 	public SearchParamSet<ResourceIndexedSearchParamUri> extractSearchParamUri(IBaseResource theResource) {
-		IExtractor<ResourceIndexedSearchParamUri> extractor = (params, searchParam, value, path) -> {
+		IExtractor<ResourceIndexedSearchParamUri> extractor = createUriExtractor(theResource);
+		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.URI);
+	}
+
+	private IExtractor<ResourceIndexedSearchParamUri> createUriExtractor(IBaseResource theResource) {
+		return (params, searchParam, value, path) -> {
 			String nextType = toRootTypeName(value);
 			String resourceType = toRootTypeName(theResource);
 			switch (nextType) {
@@ -331,8 +344,6 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 					break;
 			}
 		};
-
-		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.URI);
 	}
 
 	@Override
@@ -342,7 +353,12 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	@Override
 	public SearchParamSet<ResourceIndexedSearchParamDate> extractSearchParamDates(IBaseResource theResource) {
-		IExtractor<ResourceIndexedSearchParamDate> extractor = (params, searchParam, value, path) -> {
+		IExtractor<ResourceIndexedSearchParamDate> extractor = createDateExtractor(theResource);
+		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.DATE);
+	}
+
+	private IExtractor<ResourceIndexedSearchParamDate> createDateExtractor(IBaseResource theResource) {
+		return (params, searchParam, value, path) -> {
 			String nextType = toRootTypeName(value);
 			String resourceType = toRootTypeName(theResource);
 			switch (nextType) {
@@ -365,14 +381,16 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 					break;
 			}
 		};
-
-		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.DATE);
 	}
 
 	@Override
 	public SearchParamSet<ResourceIndexedSearchParamNumber> extractSearchParamNumber(IBaseResource theResource) {
+		IExtractor<ResourceIndexedSearchParamNumber> extractor = createNumberExtractor(theResource);
+		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.NUMBER);
+	}
 
-		IExtractor<ResourceIndexedSearchParamNumber> extractor = (params, searchParam, value, path) -> {
+	private IExtractor<ResourceIndexedSearchParamNumber> createNumberExtractor(IBaseResource theResource) {
+		return (params, searchParam, value, path) -> {
 			String nextType = toRootTypeName(value);
 			String resourceType = toRootTypeName(theResource);
 			switch (nextType) {
@@ -395,14 +413,16 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 					break;
 			}
 		};
-
-		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.NUMBER);
 	}
 
 	@Override
 	public SearchParamSet<ResourceIndexedSearchParamQuantity> extractSearchParamQuantity(IBaseResource theResource) {
+		IExtractor<ResourceIndexedSearchParamQuantity> extractor = createQuantityExtractor(theResource);
+		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.QUANTITY);
+	}
 
-		IExtractor<ResourceIndexedSearchParamQuantity> extractor = (params, searchParam, value, path) -> {
+	private IExtractor<ResourceIndexedSearchParamQuantity> createQuantityExtractor(IBaseResource theResource) {
+		return (params, searchParam, value, path) -> {
 			if (value.getClass().equals(myLocationPositionDefinition.getImplementingClass())) {
 				ourLog.warn("Position search not currently supported, not indexing location");
 				return;
@@ -425,13 +445,16 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 					break;
 			}
 		};
-
-		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.QUANTITY);
 	}
 
 	@Override
 	public SearchParamSet<ResourceIndexedSearchParamString> extractSearchParamStrings(IBaseResource theResource) {
-		IExtractor<ResourceIndexedSearchParamString> extractor = (params, searchParam, value, path) -> {
+		IExtractor<ResourceIndexedSearchParamString> extractor = createStringExtractor(theResource);
+		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.STRING);
+	}
+
+	private IExtractor<ResourceIndexedSearchParamString> createStringExtractor(IBaseResource theResource) {
+		return (params, searchParam, value, path) -> {
 			String resourceType = toRootTypeName(theResource);
 
 			if (value instanceof IPrimitiveType) {
@@ -463,8 +486,126 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 					break;
 			}
 		};
+	}
 
-		return extractSearchParams(theResource, extractor, RestSearchParameterTypeEnum.STRING);
+	/**
+	 * Extracts every index type in a single walk over the resource. Each distinct path used by the
+	 * active search parameters for the resource type is only evaluated once, and the values it
+	 * produces are handed to every parameter that uses the path (e.g. <code>Observation.code</code>
+	 * is shared by <code>code</code>, <code>combo-code</code> and friends).
+	 */
+	@Override
+	public ExtractedSearchParams extractAllSearchParams(IBaseResource theResource) {
+		if (myPerTypeExtractionOverridden) {
+			return ISearchParamExtractor.super.extractAllSearchParams(theResource);
+		}
+
+		ExtractedSearchParams retVal = new ExtractedSearchParams();
+		IExtractor<ResourceIndexedSearchParamString> stringExtractor = createStringExtractor(theResource);
+		IExtractor<ResourceIndexedSearchParamNumber> numberExtractor = createNumberExtractor(theResource);
+		IExtractor<ResourceIndexedSearchParamQuantity> quantityExtractor = createQuantityExtractor(theResource);
+		IExtractor<ResourceIndexedSearchParamDate> dateExtractor = createDateExtractor(theResource);
+		IExtractor<ResourceIndexedSearchParamUri> uriExtractor = createUriExtractor(theResource);
+		IExtractor<BaseResourceIndexedSearchParam> tokenExtractor = createTokenExtractor(theResource);
+
+		for (Map.Entry<String, List<RuntimeSearchParam>> nextEntry : getExtractionPlan(theResource).entrySet()) {
+			String nextPath = nextEntry.getKey();
+			for (IBase nextObject : extractValues(nextPath, theResource)) {
+				if (nextObject == null || myIgnoredForSearchDatatypes.contains(toRootTypeName(nextObject))) {
+					continue;
+				}
+
+				for (RuntimeSearchParam nextSpDef : nextEntry.getValue()) {
+					switch (nextSpDef.getParamType()) {
+						case STRING:
+							stringExtractor.extract(retVal.getStrings(), nextSpDef, nextObject, nextPath);
+							break;
+						case NUMBER:
+							numberExtractor.extract(retVal.getNumbers(), nextSpDef, nextObject, nextPath);
+							break;
+						case QUANTITY:
+							quantityExtractor.extract(retVal.getQuantities(), nextSpDef, nextObject, nextPath);
+							break;
+						case DATE:
+							dateExtractor.extract(retVal.getDates(), nextSpDef, nextObject, nextPath);
+							break;
+						case URI:
+							uriExtractor.extract(retVal.getUris(), nextSpDef, nextObject, nextPath);
+							break;
+						case TOKEN:
+							tokenExtractor.extract(retVal.getTokens(), nextSpDef, nextObject, nextPath);
+							break;
+					}
+				}
+			}
+		}
+
+		retVal.getCoords().addAll(extractSearchParamCoords(theResource));
+
+		return retVal;
+	}
+
+	/**
+	 * Subclasses which override one of the per-type <code>extractSearchParamXXX</code> methods
+	 * handled by the single pass in {@link #extractAllSearchParams(IBaseResource)} would have that
+	 * override bypassed, so for them we fall back to calling the per-type methods one at a time.
+	 */
+	static boolean isPerTypeExtractionOverridden(Class<?> theType) {
+		String[] methodNames = {
+			"extractSearchParamStrings",
+			"extractSearchParamNumber",
+			"extractSearchParamQuantity",
+			"extractSearchParamDates",
+			"extractSearchParamUri",
+			"extractSearchParamTokens"
+		};
+		for (String nextMethodName : methodNames) {
+			try {
+				if (theType.getMethod(nextMethodName, IBaseResource.class).getDeclaringClass() != BaseSearchParamExtractor.class) {
+					return true;
+				}
+			} catch (NoSuchMethodException e) {
+				throw new InternalErrorException(e);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the search parameters handled by {@link #extractAllSearchParams(IBaseResource)} for the
+	 * given resource's type, grouped by the individual path they extract values from
+	 */
+	private Map<String, List<RuntimeSearchParam>> getExtractionPlan(IBaseResource theResource) {
+		CompiledPaths compiledPaths = getCompiledPaths(theResource);
+		Map<String, List<RuntimeSearchParam>> retVal = compiledPaths.myExtractionPlan;
+		if (retVal == null) {
+			retVal = new LinkedHashMap<>();
+			Collection<RuntimeSearchParam> searchParams = compiledPaths.mySearchParams != null ? compiledPaths.mySearchParams.values() : Collections.emptyList();
+			for (RuntimeSearchParam nextSpDef : searchParams) {
+				switch (nextSpDef.getParamType()) {
+					case STRING:
+					case NUMBER:
+					case QUANTITY:
+					case DATE:
+					case URI:
+					case TOKEN:
+						break;
+					default:
+						continue;
+				}
+
+				String nextPathUnsplit = nextSpDef.getPath();
+				if (isBlank(nextPathUnsplit)) {
+					continue;
+				}
+
+				for (String nextPath : split(nextPathUnsplit)) {
+					retVal.computeIfAbsent(trim(nextPath), t -> new ArrayList<>()).add(nextSpDef);
+				}
+			}
+			compiledPaths.myExtractionPlan = retVal;
+		}
+		return retVal;
 	}
 
 	/**
@@ -511,6 +652,31 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	protected abstract IValueExtractor getPathValueExtractor(IBaseResource theResource, String theSinglePath);
 
+	/**
+	 * Returns the compiled form of a single search parameter path, only using the given compiler the first
+	 * time the path is seen for the given resource's type. Compiled paths are discarded whenever the
+	 * active search parameters for that type change, since the paths being extracted may have changed too.
+	 *
+	 * @param theCompiler Compiles the path, e.g. <code>FHIRPathEngine::parse</code>. Every subclass must always pass a compiler producing the same type.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T getCompiledPath(IBaseResource theResource, String theSinglePath, Function<String, T> theCompiler) {
+		return (T) getCompiledPaths(theResource).myPathToCompiledPath.computeIfAbsent(theSinglePath, theCompiler);
+	}
+
+	private CompiledPaths getCompiledPaths(IBaseResource theResource) {
+		String resourceType = getContext().getResourceDefinition(theResource).getName();
+		Map<String, RuntimeSearchParam> activeSearchParams = mySearchParamRegistry.getActiveSearchParams(resourceType);
+
+		// The registry replaces its maps when it is refreshed, so the map we were compiled against identifies the version
+		CompiledPaths retVal = myCompiledPaths.get(resourceType);
+		if (retVal == null || retVal.mySearchParams != activeSearchParams) {
+			retVal = new CompiledPaths(activeSearchParams);
+			myCompiledPaths.put(resourceType, retVal);
+		}
+		return retVal;
+	}
+
 	protected FhirContext getContext() {
 		return myContext;
 	}
@@ -1006,6 +1172,16 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	}
 
+	private static class CompiledPaths {
+		private final Map<String, RuntimeSearchParam> mySearchParams;
+		private final Map<String, Object> myPathToCompiledPath = new ConcurrentHashMap<>();
+		private volatile Map<String, List<RuntimeSearchParam>> myExtractionPlan;
+
+		private CompiledPaths(Map<String, RuntimeSearchParam> theSearchParams) {
+			mySearchParams = theSearchParams;
+		}
+	}
+
 	@FunctionalInterface
 	public interface IValueExtractor {
 
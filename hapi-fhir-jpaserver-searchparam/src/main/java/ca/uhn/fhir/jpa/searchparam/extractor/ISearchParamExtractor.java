@@ -44,6 +44,23 @@ public interface ISearchParamExtractor {
 
 	SearchParamSet<PathAndRef> extractResourceLinks(IBaseResource theResource);
 
+	/**
+	 * Extracts the string, number, quantity, date, URI, coords and token indexes for a
+	 * resource in one call. Implementations may override this to share work between the
+	 * index types instead of extracting each of them separately.
+	 */
+	default ExtractedSearchParams extractAllSearchParams(IBaseResource theResource) {
+		ExtractedSearchParams retVal = new ExtractedSearchParams();
+		retVal.getStrings().addAll(extractSearchParamStrings(theResource));
+		retVal.getNumbers().addAll(extractSearchParamNumber(theResource));
+		retVal.getQuantities().addAll(extractSearchParamQuantity(theResource));
+		retVal.getDates().addAll(extractSearchParamDates(theResource));
+		retVal.getUris().addAll(extractSearchParamUri(theResource));
+		retVal.getCoords().addAll(extractSearchParamCoords(theResource));
+		retVal.getTokens().addAll(extractSearchParamTokens(theResource));
+		return retVal;
+	}
+
 	String[] split(String theExpression);
 
 
@@ -67,5 +84,48 @@ public interface ISearchParamExtractor {
 
 	}
 
+	class ExtractedSearchParams {
+
+		private final SearchParamSet<ResourceIndexedSearchParamString> myStrings = new SearchParamSet<>();
+		private final SearchParamSet<ResourceIndexedSearchParamNumber> myNumbers = new SearchParamSet<>();
+		private final SearchParamSet<ResourceIndexedSearchParamQuantity> myQuantities = new SearchParamSet<>();
+		private final SearchParamSet<ResourceIndexedSearchParamDate> myDates = new SearchParamSet<>();
+		private final SearchParamSet<ResourceIndexedSearchParamUri> myUris = new SearchParamSet<>();
+		private final SearchParamSet<ResourceIndexedSearchParamCoords> myCoords = new SearchParamSet<>();
+		private final SearchParamSet<BaseResourceIndexedSearchParam> myTokens = new SearchParamSet<>();
+
+		public SearchParamSet<ResourceIndexedSearchParamString> getStrings() {
+			return myStrings;
+		}
+
+		public SearchParamSet<ResourceIndexedSearchParamNumber> getNumbers() {
+			return myNumbers;
+		}
+
+		public SearchParamSet<ResourceIndexedSearchParamQuantity> getQuantities() {
+			return myQuantities;
+		}
+
+		public SearchParamSet<ResourceIndexedSearchParamDate> getDates() {
+			return myDates;
+		}
+
+		public SearchParamSet<ResourceIndexedSearchParamUri> getUris() {
+			return myUris;
+		}
+
+		public SearchParamSet<ResourceIndexedSearchParamCoords> getCoords() {
+			return myCoords;
+		}
+
+		/**
+		 * Contains {@link ResourceIndexedSearchParamToken} indexes, as well as
+		 * {@link ResourceIndexedSearchParamString} indexes for token parameters that are also indexed as strings
+		 */
+		public SearchParamSet<BaseResourceIndexedSearchParam> getTokens() {
+			return myTokens;
+		}
+
+	}
 
 }
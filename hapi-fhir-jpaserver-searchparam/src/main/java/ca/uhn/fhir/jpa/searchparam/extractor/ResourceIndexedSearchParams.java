@@ -125,6 +125,49 @@ public final class ResourceIndexedSearchParams {
 		}
 	}
 
+	/**
+	 * Returns a copy of these indexes which can be used for in-memory matching after the
+	 * transaction they were extracted in has been closed. The index rows themselves are
+	 * shared with this object, but the targets of resource links are replaced with detached
+	 * copies holding only the resource type and ID (which is all that
+	 * {@link #matchResourceLinks(String, String, IQueryParameterType, String)} looks at), so
+	 * that lazy-loaded target state is never touched outside of the transaction.
+	 * <p>
+	 * This method must be called while the transaction is still open.
+	 * </p>
+	 */
+	public ResourceIndexedSearchParams copyForInMemoryMatching() {
+		ResourceIndexedSearchParams retVal = new ResourceIndexedSearchParams();
+		retVal.myStringParams.addAll(myStringParams);
+		retVal.myTokenParams.addAll(myTokenParams);
+		retVal.myNumberParams.addAll(myNumberParams);
+		retVal.myQuantityParams.addAll(myQuantityParams);
+		retVal.myDateParams.addAll(myDateParams);
+		retVal.myUriParams.addAll(myUriParams);
+		retVal.myCoordsParams.addAll(myCoordsParams);
+		retVal.myCompositeStringUniques.addAll(myCompositeStringUniques);
+		retVal.myPopulatedResourceLinkParameters.addAll(myPopulatedResourceLinkParameters);
+		for (ResourceLink next : myLinks) {
+			ResourceTable target = next.getTargetResource();
+			if (target == null) {
+				// Links to absolute URLs don't point at an entity
+				retVal.myLinks.add(next);
+				continue;
+			}
+
+			ResourceTable detachedTarget = new ResourceTable();
+			detachedTarget.setResourceType(target.getResourceType());
+			detachedTarget.setId(target.getId());
+			if (target.getForcedId() != null) {
+				ForcedId forcedId = new ForcedId();
+				forcedId.setForcedId(target.getIdDt().getIdPart());
+				detachedTarget.setForcedId(forcedId);
+			}
+			retVal.myLinks.add(new ResourceLink(next.getSourcePath(), next.getSourceResource(), detachedTarget, next.getUpdated()));
+		}
+		return retVal;
+	}
+
 
 	/**
 	 * This method is used to create a set of all possible combinations of
@@ -272,6 +315,10 @@ public final class ResourceIndexedSearchParams {
 
 	private boolean resourceIdMatches(ResourceLink theResourceLink, ReferenceParam theReference) {
 		ResourceTable target = theResourceLink.getTargetResource();
+		if (target == null) {
+			// Absolute and logical references only have a URL, which is what the database matches against too
+			return theResourceLink.getTargetResourceUrl() != null && theResourceLink.getTargetResourceUrl().equals(theReference.getValue());
+		}
 		IdDt idDt = target.getIdDt();
 		if (idDt.isIdPartValidLong()) {
 			if (theReference.isIdPartValidLong()) {
@@ -292,7 +339,8 @@ public final class ResourceIndexedSearchParams {
 	}
 
 	private boolean resourceLinkMatches(String theResourceName, ResourceLink theResourceLink, String theParamName, String theParamPath) {
-		return theResourceLink.getTargetResource().getResourceType().equalsIgnoreCase(theParamName) ||
+		ResourceTable target = theResourceLink.getTargetResource();
+		return (target != null && target.getResourceType().equalsIgnoreCase(theParamName)) ||
 			theResourceLink.getSourcePath().equalsIgnoreCase(theParamPath);
 	}
 
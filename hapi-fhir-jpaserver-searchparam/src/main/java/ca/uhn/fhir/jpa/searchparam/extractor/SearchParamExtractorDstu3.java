@@ -28,6 +28,7 @@ import org.hl7.fhir.dstu3.context.IWorkerContext;
 import org.hl7.fhir.dstu3.hapi.ctx.HapiWorkerContext;
 import org.hl7.fhir.dstu3.hapi.ctx.IValidationSupport;
 import org.hl7.fhir.dstu3.model.Base;
+import org.hl7.fhir.dstu3.model.ExpressionNode;
 import org.hl7.fhir.dstu3.utils.FHIRPathEngine;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -59,7 +60,8 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 	protected IValueExtractor getPathValueExtractor(IBaseResource theResource, String theSinglePath) {
 		return () -> {
 			List<IBase> values = new ArrayList<>();
-			List<Base> allValues = myFhirPathEngine.evaluate((Base) theResource, theSinglePath);
+			ExpressionNode expression = getCompiledPath(theResource, theSinglePath, myFhirPathEngine::parse);
+			List<Base> allValues = myFhirPathEngine.evaluate((Base) theResource, expression);
 			if (allValues.isEmpty() == false) {
 				values.addAll(allValues);
 			}
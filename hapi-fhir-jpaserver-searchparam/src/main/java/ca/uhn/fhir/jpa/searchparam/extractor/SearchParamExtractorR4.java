@@ -61,7 +61,8 @@ public class SearchParamExtractorR4 extends BaseSearchParamExtractor implements
 	@Override
 	protected IValueExtractor getPathValueExtractor(IBaseResource theResource, String theSinglePath) {
 		return () -> {
-			List<Base> allValues = myFhirPathEngine.evaluate((Base) theResource, theSinglePath);
+			ExpressionNode expression = getCompiledPath(theResource, theSinglePath, myFhirPathEngine::parse);
+			List<Base> allValues = myFhirPathEngine.evaluate((Base) theResource, expression);
 			return (List<IBase>) new ArrayList<IBase>(allValues);
 		};
 	}
@@ -76,7 +76,10 @@ public class SearchParamExtractorR5 extends BaseSearchParamExtractor implements
 
 	@Override
 	protected IValueExtractor getPathValueExtractor(IBaseResource theResource, String nextPath) {
-		return () -> myFhirPathEngine.evaluate((Base) theResource, nextPath);
+		return () -> {
+			ExpressionNode expression = getCompiledPath(theResource, nextPath, myFhirPathEngine::parse);
+			return myFhirPathEngine.evaluate((Base) theResource, expression);
+		};
 	}
 
 
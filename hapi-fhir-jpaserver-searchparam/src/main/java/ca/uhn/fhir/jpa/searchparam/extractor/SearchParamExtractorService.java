@@ -47,33 +47,35 @@ public class SearchParamExtractorService {
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
 
 	public void extractFromResource(RequestDetails theRequestDetails, ResourceIndexedSearchParams theParams, ResourceTable theEntity, IBaseResource theResource) {
-		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamString> strings = extractSearchParamStrings(theResource);
+		ISearchParamExtractor.ExtractedSearchParams extracted = mySearchParamExtractor.extractAllSearchParams(theResource);
+
+		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamString> strings = extracted.getStrings();
 		handleWarnings(theRequestDetails, myInterceptorBroadcaster, strings);
 		theParams.myStringParams.addAll(strings);
 
-		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamNumber> numbers = extractSearchParamNumber(theResource);
+		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamNumber> numbers = extracted.getNumbers();
 		handleWarnings(theRequestDetails, myInterceptorBroadcaster, numbers);
 		theParams.myNumberParams.addAll(numbers);
 
-		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamQuantity> quantities = extractSearchParamQuantity(theResource);
+		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamQuantity> quantities = extracted.getQuantities();
 		handleWarnings(theRequestDetails, myInterceptorBroadcaster, quantities);
 		theParams.myQuantityParams.addAll(quantities);
 
-		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamDate> dates = extractSearchParamDates(theResource);
+		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamDate> dates = extracted.getDates();
 		handleWarnings(theRequestDetails, myInterceptorBroadcaster, dates);
 		theParams.myDateParams.addAll(dates);
 
-		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamUri> uris = extractSearchParamUri(theResource);
+		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamUri> uris = extracted.getUris();
 		handleWarnings(theRequestDetails, myInterceptorBroadcaster, uris);
 		theParams.myUriParams.addAll(uris);
 
-		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamCoords> coords = extractSearchParamCoords(theResource);
+		ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamCoords> coords = extracted.getCoords();
 		handleWarnings(theRequestDetails, myInterceptorBroadcaster, coords);
 		theParams.myCoordsParams.addAll(coords);
 
 		ourLog.trace("Storing date indexes: {}", theParams.myDateParams);
 
-		for (BaseResourceIndexedSearchParam next : extractSearchParamTokens(theResource)) {
+		for (BaseResourceIndexedSearchParam next : extracted.getTokens()) {
 			if (next instanceof ResourceIndexedSearchParamToken) {
 				theParams.myTokenParams.add((ResourceIndexedSearchParamToken) next);
 			} else {
@@ -113,34 +115,6 @@ public class SearchParamExtractorService {
 		}
 	}
 
-	private ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamCoords> extractSearchParamCoords(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamCoords(theResource);
-	}
-
-	private ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamDate> extractSearchParamDates(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamDates(theResource);
-	}
-
-	private ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamNumber> extractSearchParamNumber(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamNumber(theResource);
-	}
-
-	private ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamQuantity> extractSearchParamQuantity(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamQuantity(theResource);
-	}
-
-	private ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamString> extractSearchParamStrings(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamStrings(theResource);
-	}
-
-	private ISearchParamExtractor.SearchParamSet<BaseResourceIndexedSearchParam> extractSearchParamTokens(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamTokens(theResource);
-	}
-
-	private ISearchParamExtractor.SearchParamSet<ResourceIndexedSearchParamUri> extractSearchParamUri(IBaseResource theResource) {
-		return mySearchParamExtractor.extractSearchParamUri(theResource);
-	}
-
 	@VisibleForTesting
 	void setInterceptorBroadcasterForUnitTest(IInterceptorBroadcaster theJpaInterceptorBroadcaster) {
 		myInterceptorBroadcaster = theJpaInterceptorBroadcaster;
@@ -76,19 +76,40 @@ public class InMemoryResourceMatcher {
 		}
 		SearchParameterMap searchParameterMap;
 		try {
-			searchParameterMap = myMatchUrlService.translateMatchUrl(theCriteria, resourceDefinition);
+			searchParameterMap = parseCriteria(theCriteria, resourceDefinition);
 		} catch (UnsupportedOperationException e) {
 			return InMemoryMatchResult.unsupportedFromReason(InMemoryMatchResult.PARSE_FAIL);
 		}
-		searchParameterMap.clean();
-		if (searchParameterMap.getLastUpdated() != null) {
+		return match(searchParameterMap, resourceDefinition, theResource, theSearchParams);
+	}
+
+	/**
+	 * Parses a criteria string into the form accepted by
+	 * {@link #match(SearchParameterMap, RuntimeResourceDefinition, IBaseResource, ResourceIndexedSearchParams)}, so
+	 * that callers matching the same criteria against many resources only need to parse it once.
+	 * The returned map must not be modified afterwards.
+	 *
+	 * @throws UnsupportedOperationException If the criteria can not be parsed for in-memory matching
+	 */
+	public SearchParameterMap parseCriteria(String theCriteria, RuntimeResourceDefinition theResourceDefinition) {
+		SearchParameterMap retVal = myMatchUrlService.translateMatchUrl(theCriteria, theResourceDefinition);
+		retVal.clean();
+		return retVal;
+	}
+
+	/**
+	 * Same as {@link #match(String, IBaseResource, ResourceIndexedSearchParams)}, but using criteria which
+	 * has already been parsed by {@link #parseCriteria(String, RuntimeResourceDefinition)}
+	 */
+	public InMemoryMatchResult match(SearchParameterMap theCriteria, RuntimeResourceDefinition theResourceDefinition, IBaseResource theResource, ResourceIndexedSearchParams theSearchParams) {
+		if (theCriteria.getLastUpdated() != null) {
 			return InMemoryMatchResult.unsupportedFromParameterAndReason(Constants.PARAM_LASTUPDATED, InMemoryMatchResult.STANDARD_PARAMETER);
 		}
 
-		for (Map.Entry<String, List<List<IQueryParameterType>>> entry : searchParameterMap.entrySet()) {
+		for (Map.Entry<String, List<List<IQueryParameterType>>> entry : theCriteria.entrySet()) {
 			String theParamName = entry.getKey();
 			List<List<IQueryParameterType>> theAndOrParams = entry.getValue();
-			InMemoryMatchResult result = matchIdsWithAndOr(theParamName, theAndOrParams, resourceDefinition, theResource, theSearchParams);
+			InMemoryMatchResult result = matchIdsWithAndOr(theParamName, theAndOrParams, theResourceDefinition, theResource, theSearchParams);
 			if (!result.matched()) {
 				return result;
 			}
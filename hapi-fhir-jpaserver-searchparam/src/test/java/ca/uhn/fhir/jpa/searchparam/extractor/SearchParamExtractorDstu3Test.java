@@ -16,12 +16,15 @@ import org.hamcrest.Matchers;
 import org.hl7.fhir.dstu3.hapi.ctx.DefaultProfileValidationSupport;
 import org.hl7.fhir.dstu3.hapi.ctx.IValidationSupport;
 import org.hl7.fhir.dstu3.model.*;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -186,15 +189,82 @@ public class SearchParamExtractorDstu3Test {
 	}
 
 
+	@Test
+	public void testCompiledPathsAreReusedUntilSearchParamsChange() {
+		MySearchParamRegistry searchParamRegistry = new MySearchParamRegistry();
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(new ModelConfig(), ourCtx, ourValidationSupport, searchParamRegistry);
+		extractor.start();
+
+		AtomicInteger compileCount = new AtomicInteger();
+		Function<String, Object> compiler = t -> {
+			compileCount.incrementAndGet();
+			return new Object();
+		};
+
+		Patient patient = new Patient();
+		Object compiled = extractor.getCompiledPath(patient, "Patient.notAPath", compiler);
+		assertSame(compiled, extractor.getCompiledPath(patient, "Patient.notAPath", compiler));
+		assertEquals(1, compileCount.get());
+
+		// Compiled paths are kept per resource type
+		extractor.getCompiledPath(new Observation(), "Patient.notAPath", compiler);
+		assertEquals(2, compileCount.get());
+
+		searchParamRegistry.addSearchParam(new RuntimeSearchParam("foo", "foo", "Patient.name", RestSearchParameterTypeEnum.STRING, Sets.newHashSet(), Sets.newHashSet(), RuntimeSearchParam.RuntimeSearchParamStatusEnum.ACTIVE));
+		assertNotSame(compiled, extractor.getCompiledPath(patient, "Patient.notAPath", compiler));
+		assertEquals(3, compileCount.get());
+
+		// Extraction still works using the compiled paths
+		patient.addName().setFamily("Smith");
+		Set<ResourceIndexedSearchParamString> strings = extractor.extractSearchParamStrings(patient);
+		assertTrue(strings.stream().anyMatch(t -> t.getParamName().equals("foo") && t.getValueExact().equals("Smith")));
+		assertEquals(strings, extractor.extractSearchParamStrings(patient));
+	}
+
+	@Test
+	public void testExtractAllSearchParamsUsesSubclassOverrides() {
+		MySearchParamRegistry searchParamRegistry = new MySearchParamRegistry();
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(new ModelConfig(), ourCtx, ourValidationSupport, searchParamRegistry) {
+			@Override
+			public SearchParamSet<ResourceIndexedSearchParamCoords> extractSearchParamCoords(IBaseResource theResource) {
+				SearchParamSet<ResourceIndexedSearchParamCoords> retVal = new SearchParamSet<>();
+				retVal.add(new ResourceIndexedSearchParamCoords("Location", "near", 1.0, 2.0));
+				return retVal;
+			}
+		};
+		extractor.start();
+
+		Location location = new Location();
+		location.setName("Some Location");
+		ISearchParamExtractor.ExtractedSearchParams all = extractor.extractAllSearchParams(location);
+		assertEquals(1, all.getCoords().size());
+		assertEquals(extractor.extractSearchParamStrings(location), all.getStrings());
+
+		SearchParamExtractorDstu3 overridingStrings = new SearchParamExtractorDstu3(new ModelConfig(), ourCtx, ourValidationSupport, searchParamRegistry) {
+			@Override
+			public SearchParamSet<ResourceIndexedSearchParamString> extractSearchParamStrings(IBaseResource theResource) {
+				return new SearchParamSet<>();
+			}
+		};
+		overridingStrings.start();
+		assertTrue(BaseSearchParamExtractor.isPerTypeExtractionOverridden(overridingStrings.getClass()));
+		assertFalse(BaseSearchParamExtractor.isPerTypeExtractionOverridden(extractor.getClass()));
+		assertEquals(0, overridingStrings.extractAllSearchParams(location).getStrings().size());
+		assertEquals(extractor.extractSearchParamTokens(location), overridingStrings.extractAllSearchParams(location).getTokens());
+	}
+
 	private static class MySearchParamRegistry implements ISearchParamRegistry {
 
 		private List<RuntimeSearchParam> myAddedSearchParams = new ArrayList<>();
+		private Map<String, Map<String, RuntimeSearchParam>> myActiveSearchParams = new HashMap<>();
 
 		public void addSearchParam(RuntimeSearchParam... theSearchParam) {
 			myAddedSearchParams.clear();
 			for (RuntimeSearchParam next : theSearchParam) {
 				myAddedSearchParams.add(next);
 			}
+			// Like the real registry, hand out new maps once the search params have changed
+			myActiveSearchParams = new HashMap<>();
 		}
 
 		@Override
@@ -220,15 +290,17 @@ public class SearchParamExtractorDstu3Test {
 
 		@Override
 		public Map<String, RuntimeSearchParam> getActiveSearchParams(String theResourceName) {
-			RuntimeResourceDefinition nextResDef = ourCtx.getResourceDefinition(theResourceName);
-			Map<String, RuntimeSearchParam> sps = new HashMap<>();
-			for (RuntimeSearchParam nextSp : nextResDef.getSearchParams()) {
-				sps.put(nextSp.getName(), nextSp);
-			}
-			for (RuntimeSearchParam next : myAddedSearchParams) {
-				sps.put(next.getName(), next);
-			}
-			return sps;
+			return myActiveSearchParams.computeIfAbsent(theResourceName, t -> {
+				RuntimeResourceDefinition nextResDef = ourCtx.getResourceDefinition(t);
+				Map<String, RuntimeSearchParam> sps = new HashMap<>();
+				for (RuntimeSearchParam nextSp : nextResDef.getSearchParams()) {
+					sps.put(nextSp.getName(), nextSp);
+				}
+				for (RuntimeSearchParam next : myAddedSearchParams) {
+					sps.put(next.getName(), next);
+				}
+				return sps;
+			});
 		}
 
 		@Override
@@ -205,6 +205,16 @@ public class SearchParamExtractorMegaTest {
 		assertEquals(0, set.getWarnings().size());
 		theIndexesCounter.addAndGet(set.size());
 
+		// The single pass extraction should produce exactly the same indexes
+		ISearchParamExtractor.ExtractedSearchParams all = theExtractor.extractAllSearchParams(resource);
+		assertEquals(theExtractor.extractSearchParamCoords(resource), all.getCoords());
+		assertEquals(theExtractor.extractSearchParamDates(resource), all.getDates());
+		assertEquals(theExtractor.extractSearchParamNumber(resource), all.getNumbers());
+		assertEquals(theExtractor.extractSearchParamStrings(resource), all.getStrings());
+		assertEquals(theExtractor.extractSearchParamQuantity(resource), all.getQuantities());
+		assertEquals(theExtractor.extractSearchParamTokens(resource), all.getTokens());
+		assertEquals(theExtractor.extractSearchParamUri(resource), all.getUris());
+
 	}
 
 	private static class MySearchParamRegistry implements ISearchParamRegistry {
@@ -342,6 +342,10 @@ public class CanonicalSubscription implements Serializable, Cloneable {
 		private boolean myStripVersionId;
 		@JsonProperty("deliverLatestVersion")
 		private boolean myDeliverLatestVersion;
+		@JsonProperty("batchMaxSize")
+		private int myBatchMaxSize;
+		@JsonProperty("batchMaxWaitMillis")
+		private long myBatchMaxWaitMillis;
 
 		/**
 		 * Constructor
@@ -367,6 +371,34 @@ public class CanonicalSubscription implements Serializable, Cloneable {
 			myStripVersionId = theStripVersionId;
 		}
 
+		/**
+		 * The maximum number of resources delivered in a single batch, or 0 (the default)
+		 * if resources are delivered one at a time
+		 */
+		public int getBatchMaxSize() {
+			return myBatchMaxSize;
+		}
+
+		public void setBatchMaxSize(int theBatchMaxSize) {
+			myBatchMaxSize = theBatchMaxSize;
+		}
+
+		public boolean isBatchDelivery() {
+			return myBatchMaxSize > 1;
+		}
+
+		/**
+		 * How long to wait for a batch to fill up before delivering it, or 0 to use
+		 * {@link ca.uhn.fhir.jpa.subscription.module.cache.SubscriptionConstants#DEFAULT_RESTHOOK_BATCH_MAX_WAIT_MILLIS the default}
+		 */
+		public long getBatchMaxWaitMillis() {
+			return myBatchMaxWaitMillis;
+		}
+
+		public void setBatchMaxWaitMillis(long theBatchMaxWaitMillis) {
+			myBatchMaxWaitMillis = theBatchMaxWaitMillis;
+		}
+
 		@Override
 		public boolean equals(Object theO) {
 			if (this == theO) return true;
@@ -378,6 +410,8 @@ public class CanonicalSubscription implements Serializable, Cloneable {
 			return new EqualsBuilder()
 				.append(myStripVersionId, that.myStripVersionId)
 				.append(myDeliverLatestVersion, that.myDeliverLatestVersion)
+				.append(myBatchMaxSize, that.myBatchMaxSize)
+				.append(myBatchMaxWaitMillis, that.myBatchMaxWaitMillis)
 				.isEquals();
 		}
 
@@ -386,6 +420,8 @@ public class CanonicalSubscription implements Serializable, Cloneable {
 			return new HashCodeBuilder(17, 37)
 				.append(myStripVersionId)
 				.append(myDeliverLatestVersion)
+				.append(myBatchMaxSize)
+				.append(myBatchMaxWaitMillis)
 				.toHashCode();
 		}
 
@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.subscription.module;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.subscription.module.subscriber.BaseResourceMessage;
 import ca.uhn.fhir.jpa.subscription.module.subscriber.IResourceMessage;
 import ca.uhn.fhir.util.ResourceReferenceInfo;
@@ -57,6 +58,12 @@ public class ResourceModifiedMessage extends BaseResourceMessage implements IRes
 	private String myPayloadId;
 	@JsonIgnore
 	private transient IBaseResource myPayloadDecoded;
+	/**
+	 * The search indexes extracted from the payload. These are never serialized, so
+	 * they are only carried over when the message is delivered within the same JVM.
+	 */
+	@JsonIgnore
+	private transient ResourceIndexedSearchParams myIndexedSearchParams;
 
 	/**
 	 * Constructor
@@ -106,6 +113,23 @@ public class ResourceModifiedMessage extends BaseResourceMessage implements IRes
 		return myPayloadDecoded;
 	}
 
+	/**
+	 * Returns the search indexes for the payload, if they have already been extracted
+	 * (either by the server that stored the resource, or by a previous subscription
+	 * matcher working on this message). Returns <code>null</code> otherwise.
+	 */
+	public ResourceIndexedSearchParams getIndexedSearchParams() {
+		return myIndexedSearchParams;
+	}
+
+	/**
+	 * Supplies the search indexes for the payload, so that every subscription matcher
+	 * working on this message can share them instead of extracting them again
+	 */
+	public void setIndexedSearchParams(ResourceIndexedSearchParams theIndexedSearchParams) {
+		myIndexedSearchParams = theIndexedSearchParams;
+	}
+
 	public OperationTypeEnum getOperationType() {
 		return myOperationType;
 	}
@@ -22,6 +22,7 @@ package ca.uhn.fhir.jpa.subscription.module.cache;
 
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscriptionChannelType;
+import ca.uhn.fhir.jpa.subscription.module.matcher.CompiledSubscriptionCriteria;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +33,7 @@ public class ActiveSubscription {
 	private final String myChannelName;
 	private final String myId;
 	private boolean flagForDeletion;
+	private volatile CompiledSubscriptionCriteria myCompiledCriteria;
 
 	public ActiveSubscription(CanonicalSubscription theSubscription, String theChannelName) {
 		mySubscription = theSubscription;
@@ -55,6 +57,19 @@ public class ActiveSubscription {
 		mySubscription = theCanonicalizedSubscription;
 	}
 
+	/**
+	 * May be <code>null</code>, or out of date if the subscription has changed since it was compiled.
+	 *
+	 * @see ca.uhn.fhir.jpa.subscription.module.matcher.SubscriptionCriteriaCompiler#getCompiledCriteria(ActiveSubscription)
+	 */
+	public CompiledSubscriptionCriteria getCompiledCriteria() {
+		return myCompiledCriteria;
+	}
+
+	public void setCompiledCriteria(CompiledSubscriptionCriteria theCompiledCriteria) {
+		myCompiledCriteria = theCompiledCriteria;
+	}
+
 	public boolean isFlagForDeletion() {
 		return flagForDeletion;
 	}
@@ -30,6 +30,7 @@ import ca.uhn.fhir.model.dstu2.resource.Subscription;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.*;
 import org.hl7.fhir.r4.model.Extension;
@@ -131,14 +132,20 @@ public class SubscriptionCanonicalizer {
 
 				String stripVersionIds;
 				String deliverLatestVersion;
+				String batchMaxSize;
+				String batchMaxWaitMillis;
 				try {
 					stripVersionIds = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_STRIP_VERSION_IDS);
 					deliverLatestVersion = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_DELIVER_LATEST_VERSION);
+					batchMaxSize = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_SIZE);
+					batchMaxWaitMillis = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_WAIT_MILLIS);
 				} catch (FHIRException theE) {
 					throw new ConfigurationException("Failed to extract subscription extension(s): " + theE.getMessage(), theE);
 				}
 				retVal.getRestHookDetails().setStripVersionId(Boolean.parseBoolean(stripVersionIds));
 				retVal.getRestHookDetails().setDeliverLatestVersion(Boolean.parseBoolean(deliverLatestVersion));
+				retVal.getRestHookDetails().setBatchMaxSize(NumberUtils.toInt(batchMaxSize));
+				retVal.getRestHookDetails().setBatchMaxWaitMillis(NumberUtils.toLong(batchMaxWaitMillis));
 			}
 
 		} catch (FHIRException theE) {
@@ -225,14 +232,20 @@ public class SubscriptionCanonicalizer {
 		if (retVal.getChannelType() == CanonicalSubscriptionChannelType.RESTHOOK) {
 			String stripVersionIds;
 			String deliverLatestVersion;
+			String batchMaxSize;
+			String batchMaxWaitMillis;
 			try {
 				stripVersionIds = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_STRIP_VERSION_IDS);
 				deliverLatestVersion = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_DELIVER_LATEST_VERSION);
+				batchMaxSize = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_SIZE);
+				batchMaxWaitMillis = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_WAIT_MILLIS);
 			} catch (FHIRException theE) {
 				throw new ConfigurationException("Failed to extract subscription extension(s): " + theE.getMessage(), theE);
 			}
 			retVal.getRestHookDetails().setStripVersionId(Boolean.parseBoolean(stripVersionIds));
 			retVal.getRestHookDetails().setDeliverLatestVersion(Boolean.parseBoolean(deliverLatestVersion));
+			retVal.getRestHookDetails().setBatchMaxSize(NumberUtils.toInt(batchMaxSize));
+			retVal.getRestHookDetails().setBatchMaxWaitMillis(NumberUtils.toLong(batchMaxWaitMillis));
 		}
 
 		List<Extension> topicExts = subscription.getExtensionsByUrl("http://hl7.org/fhir/subscription/topics");
@@ -278,14 +291,20 @@ public class SubscriptionCanonicalizer {
 		if (retVal.getChannelType() == CanonicalSubscriptionChannelType.RESTHOOK) {
 			String stripVersionIds;
 			String deliverLatestVersion;
+			String batchMaxSize;
+			String batchMaxWaitMillis;
 			try {
 				stripVersionIds = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_STRIP_VERSION_IDS);
 				deliverLatestVersion = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_DELIVER_LATEST_VERSION);
+				batchMaxSize = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_SIZE);
+				batchMaxWaitMillis = subscription.getChannel().getExtensionString(JpaConstants.EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_WAIT_MILLIS);
 			} catch (FHIRException theE) {
 				throw new ConfigurationException("Failed to extract subscription extension(s): " + theE.getMessage(), theE);
 			}
 			retVal.getRestHookDetails().setStripVersionId(Boolean.parseBoolean(stripVersionIds));
 			retVal.getRestHookDetails().setDeliverLatestVersion(Boolean.parseBoolean(deliverLatestVersion));
+			retVal.getRestHookDetails().setBatchMaxSize(NumberUtils.toInt(batchMaxSize));
+			retVal.getRestHookDetails().setBatchMaxWaitMillis(NumberUtils.toLong(batchMaxWaitMillis));
 		}
 
 		List<org.hl7.fhir.r5.model.Extension> topicExts = subscription.getExtensionsByUrl("http://hl7.org/fhir/subscription/topics");
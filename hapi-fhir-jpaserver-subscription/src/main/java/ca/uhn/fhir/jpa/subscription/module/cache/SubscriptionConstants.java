@@ -42,6 +42,13 @@ public class SubscriptionConstants {
 	 */
 
 	public static final int DELIVERY_EXECUTOR_QUEUE_SIZE = 1000;
+
+	/**
+	 * How long a REST HOOK subscription using batched delivery waits for a batch to fill up before
+	 * delivering it anyway, if the subscription doesn't specify this itself
+	 */
+	public static final long DEFAULT_RESTHOOK_BATCH_MAX_WAIT_MILLIS = 1000;
+
 	public static final String SUBSCRIPTION_STATUS = "Subscription.status";
 	public static final String SUBSCRIPTION_TYPE = "Subscription.channel.type";
 	public static final String REQUESTED_STATUS = Subscription.SubscriptionStatus.REQUESTED.toCode();
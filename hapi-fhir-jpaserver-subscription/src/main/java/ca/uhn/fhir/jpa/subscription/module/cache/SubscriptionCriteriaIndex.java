@@ -0,0 +1,149 @@
+package ca.uhn.fhir.jpa.subscription.module.cache;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.subscription.module.matcher.CompiledSubscriptionCriteria;
+import ca.uhn.fhir.jpa.subscription.module.matcher.SubscriptionCriteriaCompiler;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Index of the active subscriptions by the resource type of their criteria, and by the token and reference
+ * values a resource must have in order to match it. This lets a modified resource only be tested against the
+ * subscriptions that could possibly match it, instead of every active subscription.
+ * <p>
+ * The index is rebuilt from the {@link ActiveSubscriptionCache} the next time it is used after a subscription
+ * is registered, updated or removed, or after the active search parameters change.
+ * </p>
+ */
+class SubscriptionCriteriaIndex {
+
+	private final AtomicLong myModificationCount = new AtomicLong();
+	private volatile Snapshot mySnapshot;
+
+	/**
+	 * Must be called after each change to the active subscriptions
+	 */
+	void invalidate() {
+		myModificationCount.incrementAndGet();
+	}
+
+	/**
+	 * Returns the subscriptions which might match a resource of the given type. Subscriptions whose criteria
+	 * can be narrowed down by value are only returned if one of the resource's keys matches.
+	 *
+	 * @param theResourceKeys Supplies the keys of the resource, and is only called if there are subscriptions to look up by key
+	 */
+	List<ActiveSubscription> getCandidates(ActiveSubscriptionCache theCache, SubscriptionCriteriaCompiler theCompiler, String theResourceType, Supplier<Set<String>> theResourceKeys) {
+		ResourceTypeBucket bucket = getSnapshot(theCache, theCompiler, theResourceType).myBuckets.get(theResourceType);
+		if (bucket == null) {
+			return Collections.emptyList();
+		}
+
+		List<ActiveSubscription> retVal = new ArrayList<>(bucket.myUnindexed);
+		if (!bucket.myByKey.isEmpty()) {
+			Set<ActiveSubscription> found = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (String nextKey : theResourceKeys.get()) {
+				for (ActiveSubscription next : bucket.myByKey.getOrDefault(nextKey, Collections.emptyList())) {
+					if (found.add(next)) {
+						retVal.add(next);
+					}
+				}
+			}
+		}
+		return retVal;
+	}
+
+	private Snapshot getSnapshot(ActiveSubscriptionCache theCache, SubscriptionCriteriaCompiler theCompiler, String theResourceType) {
+		Snapshot retVal = mySnapshot;
+		if (!isCurrent(retVal, theCompiler, theResourceType)) {
+			synchronized (this) {
+				retVal = mySnapshot;
+				if (!isCurrent(retVal, theCompiler, theResourceType)) {
+					retVal = buildSnapshot(theCache, theCompiler);
+					mySnapshot = retVal;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Subscriptions are compiled against the search parameters of their resource type, so a snapshot only
+	 * needs to be rebuilt for a lookup if the search parameters of the type being looked up have changed
+	 */
+	private boolean isCurrent(Snapshot theSnapshot, SubscriptionCriteriaCompiler theCompiler, String theResourceType) {
+		if (theSnapshot == null || theSnapshot.myModificationCount != myModificationCount.get()) {
+			return false;
+		}
+		ResourceTypeBucket bucket = theSnapshot.myBuckets.get(theResourceType);
+		return bucket == null || bucket.mySearchParamsVersion == theCompiler.getSearchParamsVersion(theResourceType);
+	}
+
+	private Snapshot buildSnapshot(ActiveSubscriptionCache theCache, SubscriptionCriteriaCompiler theCompiler) {
+		// Read the count first so that changes made while we are building are picked up by the next lookup
+		long modificationCount = myModificationCount.get();
+
+		Map<String, ResourceTypeBucket> buckets = new HashMap<>();
+		for (ActiveSubscription next : theCache.getAll()) {
+			CompiledSubscriptionCriteria compiled = theCompiler.getCompiledCriteria(next);
+			if (compiled.getResourceType() == null) {
+				continue;
+			}
+			ResourceTypeBucket bucket = buckets.computeIfAbsent(compiled.getResourceType(), t -> new ResourceTypeBucket(compiled.getSearchParamsVersion()));
+			if (bucket.mySearchParamsVersion != compiled.getSearchParamsVersion()) {
+				// The search parameters were refreshed while we were building, so make sure the next lookup rebuilds
+				bucket.mySearchParamsVersion = new Object();
+			}
+			if (compiled.getIndexKeys() == null) {
+				bucket.myUnindexed.add(next);
+			} else {
+				for (String nextKey : compiled.getIndexKeys()) {
+					bucket.myByKey.computeIfAbsent(nextKey, k -> new ArrayList<>()).add(next);
+				}
+			}
+		}
+
+		return new Snapshot(modificationCount, buckets);
+	}
+
+	private static class Snapshot {
+		private final long myModificationCount;
+		private final Map<String, ResourceTypeBucket> myBuckets;
+
+		private Snapshot(long theModificationCount, Map<String, ResourceTypeBucket> theBuckets) {
+			myModificationCount = theModificationCount;
+			myBuckets = theBuckets;
+		}
+	}
+
+	private static class ResourceTypeBucket {
+		private Object mySearchParamsVersion;
+		private final List<ActiveSubscription> myUnindexed = new ArrayList<>();
+		private final Map<String, List<ActiveSubscription>> myByKey = new HashMap<>();
+
+		private ResourceTypeBucket(Object theSearchParamsVersion) {
+			mySearchParamsVersion = theSearchParamsVersion;
+		}
+	}
+}
@@ -24,8 +24,10 @@ import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
 import ca.uhn.fhir.jpa.subscription.module.channel.ISubscriptionDeliveryChannelNamer;
 import ca.uhn.fhir.jpa.subscription.module.channel.SubscriptionChannelRegistry;
+import ca.uhn.fhir.jpa.subscription.module.matcher.SubscriptionCriteriaCompiler;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
@@ -52,6 +54,7 @@ import java.util.Optional;
 public class SubscriptionRegistry {
 	private static final Logger ourLog = LoggerFactory.getLogger(SubscriptionRegistry.class);
 	private final ActiveSubscriptionCache myActiveSubscriptionCache = new ActiveSubscriptionCache();
+	private final SubscriptionCriteriaIndex mySubscriptionCriteriaIndex = new SubscriptionCriteriaIndex();
 	@Autowired
 	private SubscriptionCanonicalizer mySubscriptionCanonicalizer;
 	@Autowired
@@ -60,6 +63,8 @@ public class SubscriptionRegistry {
 	private SubscriptionChannelRegistry mySubscriptionChannelRegistry;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	@Autowired
+	private SubscriptionCriteriaCompiler mySubscriptionCriteriaCompiler;
 
 	/**
 	 * Constructor
@@ -76,6 +81,19 @@ public class SubscriptionRegistry {
 		return myActiveSubscriptionCache.getAll();
 	}
 
+	/**
+	 * Returns the active subscriptions which might match the resource in the given message. This is every
+	 * subscription for the resource's type whose criteria can't be narrowed down by value, plus the ones
+	 * whose token or reference values the resource has. Callers still need to match each candidate.
+	 */
+	public Collection<ActiveSubscription> getCandidates(ResourceModifiedMessage theMsg, String theResourceType) {
+		if (theResourceType == null) {
+			return getAll();
+		}
+		return mySubscriptionCriteriaIndex.getCandidates(myActiveSubscriptionCache, mySubscriptionCriteriaCompiler, theResourceType,
+			() -> mySubscriptionCriteriaCompiler.getResourceIndexKeys(mySubscriptionCriteriaCompiler.getIndexedSearchParams(theMsg)));
+	}
+
 	private Optional<CanonicalSubscription> hasSubscription(IIdType theId) {
 		Validate.notNull(theId);
 		Validate.notBlank(theId.getIdPart());
@@ -98,6 +116,7 @@ public class SubscriptionRegistry {
 		ActiveSubscription activeSubscription = new ActiveSubscription(canonicalized, channelName);
 		mySubscriptionChannelRegistry.add(activeSubscription);
 		myActiveSubscriptionCache.put(subscriptionId, activeSubscription);
+		mySubscriptionCriteriaIndex.invalidate();
 
 		// Interceptor call: SUBSCRIPTION_AFTER_ACTIVE_SUBSCRIPTION_REGISTERED
 		HookParams params = new HookParams()
@@ -113,6 +132,7 @@ public class SubscriptionRegistry {
 		ourLog.info("Unregistering active subscription {}", theSubscriptionId);
 		ActiveSubscription activeSubscription = myActiveSubscriptionCache.remove(theSubscriptionId);
 		if (activeSubscription != null) {
+			mySubscriptionCriteriaIndex.invalidate();
 			mySubscriptionChannelRegistry.remove(activeSubscription);
 		}
 	}
@@ -166,6 +186,7 @@ public class SubscriptionRegistry {
 		Validate.notNull(activeSubscription);
 		CanonicalSubscription canonicalized = mySubscriptionCanonicalizer.canonicalize(theSubscription);
 		activeSubscription.setSubscription(canonicalized);
+		mySubscriptionCriteriaIndex.invalidate();
 
 		// Interceptor call: SUBSCRIPTION_AFTER_ACTIVE_SUBSCRIPTION_REGISTERED
 		HookParams params = new HookParams()
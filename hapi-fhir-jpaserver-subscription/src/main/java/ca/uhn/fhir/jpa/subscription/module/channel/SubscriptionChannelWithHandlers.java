@@ -65,12 +65,25 @@ public class SubscriptionChannelWithHandlers implements Closeable {
 	public void close() {
 		for (MessageHandler messageHandler : myDeliveryHandlerSet) {
 			removeHandler(messageHandler);
+			// Handlers are prototype beans, so the application context won't destroy them
+			if (messageHandler instanceof DisposableBean) {
+				tryDestroyHandler((DisposableBean) messageHandler);
+			}
 		}
 		if (mySubscribableChannel instanceof DisposableBean) {
 			tryDestroyChannel((DisposableBean) mySubscribableChannel);
 		}
 	}
 
+	private void tryDestroyHandler(DisposableBean theMessageHandler) {
+		try {
+			ourLog.info("Destroying handler for channel {}", myChannelName);
+			theMessageHandler.destroy();
+		} catch (Exception e) {
+			ourLog.error("Failed to destroy handler bean", e);
+		}
+	}
+
 	private void tryDestroyChannel(DisposableBean theSubscribableChannel) {
 		try {
 			ourLog.info("Destroying channel {}", myChannelName);
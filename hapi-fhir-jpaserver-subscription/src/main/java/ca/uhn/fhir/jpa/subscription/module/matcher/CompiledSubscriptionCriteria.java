@@ -0,0 +1,91 @@
+package ca.uhn.fhir.jpa.subscription.module.matcher;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+
+import java.util.Set;
+
+/**
+ * Subscription criteria which has been parsed once so that it can be matched against many
+ * resources, along with the values used to look the subscription up in the subscription registry.
+ * Instances are immutable.
+ */
+public class CompiledSubscriptionCriteria {
+
+	private final String myCriteriaString;
+	private final String myResourceType;
+	private final RuntimeResourceDefinition myResourceDefinition;
+	private final SearchParameterMap myParsedCriteria;
+	private final Set<String> myIndexKeys;
+	private final Object mySearchParamsVersion;
+
+	CompiledSubscriptionCriteria(String theCriteriaString, String theResourceType, RuntimeResourceDefinition theResourceDefinition, SearchParameterMap theParsedCriteria, Set<String> theIndexKeys, Object theSearchParamsVersion) {
+		myCriteriaString = theCriteriaString;
+		myResourceType = theResourceType;
+		myResourceDefinition = theResourceDefinition;
+		myParsedCriteria = theParsedCriteria;
+		myIndexKeys = theIndexKeys;
+		mySearchParamsVersion = theSearchParamsVersion;
+	}
+
+	public String getCriteriaString() {
+		return myCriteriaString;
+	}
+
+	/**
+	 * The resource type the criteria applies to, or <code>null</code> if the criteria is blank
+	 */
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	/**
+	 * May be <code>null</code> if the criteria could not be parsed
+	 */
+	public RuntimeResourceDefinition getResourceDefinition() {
+		return myResourceDefinition;
+	}
+
+	/**
+	 * The parsed criteria, or <code>null</code> if the criteria could not be parsed for in-memory matching.
+	 * The returned map must not be modified.
+	 */
+	public SearchParameterMap getParsedCriteria() {
+		return myParsedCriteria;
+	}
+
+	/**
+	 * Returns the keys a resource must have at least one of in order to possibly match this criteria, or
+	 * <code>null</code> if the criteria has no parameter that can be used to narrow the candidates down. In that
+	 * case the subscription must be tested against every resource of its type.
+	 *
+	 * @see SubscriptionCriteriaCompiler#getResourceIndexKeys(ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams)
+	 */
+	public Set<String> getIndexKeys() {
+		return myIndexKeys;
+	}
+
+	public Object getSearchParamsVersion() {
+		return mySearchParamsVersion;
+	}
+}
@@ -23,7 +23,26 @@ package ca.uhn.fhir.jpa.subscription.module.matcher;
 import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
 import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
+import ca.uhn.fhir.jpa.subscription.module.cache.ActiveSubscription;
 
 public interface ISubscriptionMatcher {
 	InMemoryMatchResult match(CanonicalSubscription subscription, ResourceModifiedMessage msg);
+
+	/**
+	 * Same as {@link #match(CanonicalSubscription, ResourceModifiedMessage)}, but implementations may use
+	 * the {@link CompiledSubscriptionCriteria} of the active subscription instead of re-parsing its criteria
+	 */
+	default InMemoryMatchResult match(ActiveSubscription theActiveSubscription, ResourceModifiedMessage theMsg) {
+		return match(theActiveSubscription.getSubscription(), theMsg);
+	}
+
+	/**
+	 * Returns <code>true</code> if this matcher only ever matches resources the {@link ca.uhn.fhir.jpa.searchparam.matcher.InMemoryResourceMatcher}
+	 * would match for criteria it supports, in which case the subscriptions to test can be narrowed down using
+	 * {@link ca.uhn.fhir.jpa.subscription.module.cache.SubscriptionRegistry#getCandidates(ResourceModifiedMessage, String)}.
+	 * Matchers that query the repository must return <code>false</code>.
+	 */
+	default boolean isInMemory() {
+		return true;
+	}
 }
@@ -21,11 +21,14 @@ package ca.uhn.fhir.jpa.subscription.module.matcher;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
 import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
-import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryResourceMatcher;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
 import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
+import ca.uhn.fhir.jpa.subscription.module.cache.ActiveSubscription;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,16 +39,38 @@ public class InMemorySubscriptionMatcher implements ISubscriptionMatcher {
 	@Autowired
 	private FhirContext myContext;
 	@Autowired
-	private SearchParamMatcher mySearchParamMatcher;
+	private SubscriptionCriteriaCompiler mySubscriptionCriteriaCompiler;
+	@Autowired
+	private InMemoryResourceMatcher myInMemoryResourceMatcher;
 
 	@Override
 	public InMemoryMatchResult match(CanonicalSubscription theSubscription, ResourceModifiedMessage theMsg) {
 		try {
-			return mySearchParamMatcher.match(theSubscription.getCriteriaString(), theMsg.getNewPayload(myContext), null);
+			IBaseResource resource = theMsg.getNewPayload(myContext);
+			ResourceIndexedSearchParams searchParams = mySubscriptionCriteriaCompiler.getIndexedSearchParams(theMsg);
+			return myInMemoryResourceMatcher.match(theSubscription.getCriteriaString(), resource, searchParams);
 		} catch (Exception e) {
 			ourLog.error("Failure in in-memory matcher", e);
 			throw new InternalErrorException("Failure performing memory-match for resource ID[" + theMsg.getId(myContext) + "] for subscription ID[" + theSubscription.getIdElementString() + "]: " + e.getMessage(), e);
 		}
 	}
 
+	@Override
+	public InMemoryMatchResult match(ActiveSubscription theActiveSubscription, ResourceModifiedMessage theMsg) {
+		IBaseResource resource = theMsg.getNewPayload(myContext);
+		CompiledSubscriptionCriteria compiledCriteria = mySubscriptionCriteriaCompiler.getCompiledCriteria(theActiveSubscription);
+		if (compiledCriteria.getParsedCriteria() == null || compiledCriteria.getResourceDefinition() != myContext.getResourceDefinition(resource)) {
+			// Let the matcher work out why the criteria can't be used for this resource
+			return match(theActiveSubscription.getSubscription(), theMsg);
+		}
+
+		try {
+			ResourceIndexedSearchParams searchParams = mySubscriptionCriteriaCompiler.getIndexedSearchParams(theMsg);
+			return myInMemoryResourceMatcher.match(compiledCriteria.getParsedCriteria(), compiledCriteria.getResourceDefinition(), resource, searchParams);
+		} catch (Exception e) {
+			ourLog.error("Failure in in-memory matcher", e);
+			throw new InternalErrorException("Failure performing memory-match for resource ID[" + theMsg.getId(myContext) + "] for subscription ID[" + theActiveSubscription.getSubscription().getIdElementString() + "]: " + e.getMessage(), e);
+		}
+	}
+
 }
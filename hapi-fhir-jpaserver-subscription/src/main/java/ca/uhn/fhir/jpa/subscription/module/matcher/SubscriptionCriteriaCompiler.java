@@ -0,0 +1,299 @@
+package ca.uhn.fhir.jpa.subscription.module.matcher;
+
+/*-
+ * #%L
+ * HAPI FHIR Subscription Server
+ * %%
+ * Copyright (C) 2014 - 2019 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.model.entity.ResourceLink;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ResourceIndexedSearchParams;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
+import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryResourceMatcher;
+import ca.uhn.fhir.jpa.searchparam.matcher.IndexedSearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.registry.ISearchParamRegistry;
+import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
+import ca.uhn.fhir.jpa.subscription.module.cache.ActiveSubscription;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.util.UrlUtil;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Compiles subscription criteria once so that it doesn't need to be re-parsed for every
+ * resource it is matched against, and works out which values a resource must have in order to
+ * possibly match it.
+ * <p>
+ * Index keys are only ever derived from token and reference parameters, and are built so that
+ * two keys are equal whenever {@link ResourceIndexedSearchParams#matchParam} would consider the
+ * underlying values a match. This means that looking subscriptions up by key can only ever
+ * exclude subscriptions that the {@link InMemoryResourceMatcher} would not have matched anyhow.
+ * </p>
+ */
+@Service
+public class SubscriptionCriteriaCompiler {
+	private static final Logger ourLog = LoggerFactory.getLogger(SubscriptionCriteriaCompiler.class);
+	private static final String TOKEN_KEY_PREFIX = "t|";
+	private static final String REFERENCE_KEY_PREFIX = "r|";
+	private static final String NUMERIC_REFERENCE_KEY_PREFIX = "r#";
+
+	@Autowired
+	private FhirContext myFhirContext;
+	@Autowired
+	private InMemoryResourceMatcher myInMemoryResourceMatcher;
+	@Autowired
+	private IndexedSearchParamExtractor myIndexedSearchParamExtractor;
+	@Autowired
+	private ISearchParamRegistry mySearchParamRegistry;
+
+	/**
+	 * Returns the compiled criteria for the given subscription, compiling it first if the
+	 * subscription's criteria or the active search parameters have changed since it was last compiled.
+	 */
+	public CompiledSubscriptionCriteria getCompiledCriteria(ActiveSubscription theActiveSubscription) {
+		String criteriaString = theActiveSubscription.getCriteriaString();
+		CompiledSubscriptionCriteria retVal = theActiveSubscription.getCompiledCriteria();
+		if (retVal == null || !Objects.equals(retVal.getCriteriaString(), criteriaString) || !isCurrent(retVal)) {
+			retVal = compile(criteriaString);
+			theActiveSubscription.setCompiledCriteria(retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Search parameters can be added or changed at any time, which changes both how criteria is parsed and
+	 * which of its parameters can be indexed. The registry replaces its maps whenever it is refreshed, so the
+	 * identity of the map for a resource type tells us whether criteria compiled against it is still current.
+	 */
+	public Object getSearchParamsVersion(String theResourceType) {
+		return mySearchParamRegistry.getActiveSearchParams(theResourceType);
+	}
+
+	private boolean isCurrent(CompiledSubscriptionCriteria theCompiledCriteria) {
+		return theCompiledCriteria.getResourceType() == null || theCompiledCriteria.getSearchParamsVersion() == getSearchParamsVersion(theCompiledCriteria.getResourceType());
+	}
+
+	CompiledSubscriptionCriteria compile(String theCriteria) {
+		if (isBlank(theCriteria)) {
+			return new CompiledSubscriptionCriteria(theCriteria, null, null, null, null, null);
+		}
+
+		String resourceType = theCriteria;
+		int questionMarkIndex = resourceType.indexOf('?');
+		if (questionMarkIndex != -1) {
+			resourceType = resourceType.substring(0, questionMarkIndex);
+		}
+		Object searchParamsVersion = getSearchParamsVersion(resourceType);
+
+		RuntimeResourceDefinition resourceDefinition;
+		SearchParameterMap parsedCriteria;
+		try {
+			resourceDefinition = UrlUtil.parseUrlResourceType(myFhirContext, theCriteria);
+			parsedCriteria = myInMemoryResourceMatcher.parseCriteria(theCriteria, resourceDefinition);
+		} catch (RuntimeException e) {
+			// The matcher will report the failure when the subscription is actually matched
+			ourLog.debug("Unable to compile subscription criteria {}: {}", theCriteria, e.toString());
+			return new CompiledSubscriptionCriteria(theCriteria, resourceType, null, null, null, searchParamsVersion);
+		}
+
+		Set<String> indexKeys = null;
+		if (isSupportedInMemory(parsedCriteria, resourceDefinition)) {
+			indexKeys = getCriteriaIndexKeys(parsedCriteria, resourceDefinition.getName());
+		}
+
+		return new CompiledSubscriptionCriteria(theCriteria, resourceType, resourceDefinition, parsedCriteria, indexKeys, searchParamsVersion);
+	}
+
+	private boolean isSupportedInMemory(SearchParameterMap theParsedCriteria, RuntimeResourceDefinition theResourceDefinition) {
+		try {
+			InMemoryMatchResult result = myInMemoryResourceMatcher.match(theParsedCriteria, theResourceDefinition, null, null);
+			return result.supported();
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Every parameter in the criteria has to match, so the values of any single indexable parameter are enough
+	 * to narrow the candidates down. We use the parameter with the fewest values since it is the most selective.
+	 */
+	private Set<String> getCriteriaIndexKeys(SearchParameterMap theParsedCriteria, String theResourceType) {
+		Set<String> retVal = null;
+		for (Map.Entry<String, List<List<IQueryParameterType>>> nextEntry : theParsedCriteria.entrySet()) {
+			String nextParamName = nextEntry.getKey();
+			if (nextParamName.startsWith("_")) {
+				continue;
+			}
+			RuntimeSearchParam paramDef = mySearchParamRegistry.getActiveSearchParam(theResourceType, nextParamName);
+			if (paramDef == null) {
+				continue;
+			}
+
+			Set<String> nextKeys = new HashSet<>();
+			boolean indexable = !nextEntry.getValue().isEmpty();
+			for (List<IQueryParameterType> nextOrList : nextEntry.getValue()) {
+				for (IQueryParameterType nextParam : nextOrList) {
+					indexable &= addCriteriaIndexKeys(nextKeys, paramDef, nextParamName, nextParam);
+				}
+			}
+
+			if (indexable && !nextKeys.isEmpty() && (retVal == null || nextKeys.size() < retVal.size())) {
+				retVal = nextKeys;
+			}
+		}
+		return retVal;
+	}
+
+	private boolean addCriteriaIndexKeys(Set<String> theKeys, RuntimeSearchParam theParamDef, String theParamName, IQueryParameterType theParam) {
+		if (theParam.getMissing() != null || theParam.getQueryParameterQualifier() != null) {
+			return false;
+		}
+
+		switch (theParamDef.getParamType()) {
+			case TOKEN:
+				if (!(theParam instanceof TokenParam)) {
+					return false;
+				}
+				TokenParam token = (TokenParam) theParam;
+				if (token.getModifier() != null || isBlank(token.getValue())) {
+					// A system without a code matches any code in that system
+					return false;
+				}
+				theKeys.add(toTokenKey(theParamName, token.getValue()));
+				return true;
+
+			case REFERENCE:
+				if (!(theParam instanceof ReferenceParam)) {
+					return false;
+				}
+				ReferenceParam reference = (ReferenceParam) theParam;
+				if (reference.getChain() != null || isBlank(reference.getIdPart())) {
+					return false;
+				}
+				if (reference.isIdPartValidLong()) {
+					theKeys.add(NUMERIC_REFERENCE_KEY_PREFIX + reference.getIdPartAsLong());
+				}
+				theKeys.add(REFERENCE_KEY_PREFIX + reference.getValue());
+				theKeys.add(REFERENCE_KEY_PREFIX + reference.getIdPart());
+				return true;
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the keys of a resource with the given indexes, for looking up the subscriptions it might match.
+	 *
+	 * @see CompiledSubscriptionCriteria#getIndexKeys()
+	 */
+	public Set<String> getResourceIndexKeys(ResourceIndexedSearchParams theSearchParams) {
+		Set<String> retVal = new HashSet<>();
+		for (ResourceIndexedSearchParamToken next : theSearchParams.myTokenParams) {
+			if (next.getValue() != null) {
+				retVal.add(toTokenKey(next.getParamName(), next.getValue()));
+			}
+		}
+		for (ResourceLink next : theSearchParams.getResourceLinks()) {
+			ResourceTable target = next.getTargetResource();
+			if (target == null) {
+				// Absolute and logical references are indexed by URL instead of by target resource
+				addTargetResourceUrlKeys(retVal, next.getTargetResourceUrl());
+				continue;
+			}
+			IdDt targetId = target.getIdDt();
+			if (targetId.isIdPartValidLong()) {
+				retVal.add(NUMERIC_REFERENCE_KEY_PREFIX + targetId.getIdPartAsLong());
+			} else {
+				ForcedId forcedId = target.getForcedId();
+				if (forcedId != null) {
+					retVal.add(REFERENCE_KEY_PREFIX + forcedId.getForcedId());
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * We don't know how the criteria was written, so a URL produces the keys that the URL itself, its ID part,
+	 * or its numeric ID part would produce in the criteria. Extra keys can only add candidates, never drop them.
+	 */
+	private static void addTargetResourceUrlKeys(Set<String> theKeys, String theTargetResourceUrl) {
+		if (isBlank(theTargetResourceUrl)) {
+			return;
+		}
+		theKeys.add(REFERENCE_KEY_PREFIX + theTargetResourceUrl);
+		IdDt targetId = new IdDt(theTargetResourceUrl);
+		if (isNotBlank(targetId.getIdPart())) {
+			theKeys.add(REFERENCE_KEY_PREFIX + targetId.getIdPart());
+			if (targetId.isIdPartValidLong()) {
+				theKeys.add(NUMERIC_REFERENCE_KEY_PREFIX + targetId.getIdPartAsLong());
+			}
+		}
+	}
+
+	/**
+	 * Returns the indexes of the resource in the given message, extracting them and caching them on the
+	 * message if they haven't been already. Every active subscription is matched against the same message,
+	 * so this ensures they are only extracted once.
+	 */
+	public ResourceIndexedSearchParams getIndexedSearchParams(ResourceModifiedMessage theMsg) {
+		ResourceIndexedSearchParams retVal = theMsg.getIndexedSearchParams();
+		if (retVal == null) {
+			IBaseResource resource = theMsg.getNewPayload(myFhirContext);
+			retVal = myIndexedSearchParamExtractor.extractIndexedSearchParams(resource, null);
+			theMsg.setIndexedSearchParams(retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Token values and parameter names are compared using {@link String#equalsIgnoreCase(String)}, which
+	 * compares each character after case folding it, so we fold each character the same way here.
+	 */
+	private static String toTokenKey(String theParamName, String theValue) {
+		return TOKEN_KEY_PREFIX + foldCase(theParamName) + "|" + foldCase(theValue);
+	}
+
+	private static String foldCase(String theValue) {
+		StringBuilder retVal = new StringBuilder(theValue.length());
+		theValue.codePoints().forEach(next -> retVal.appendCodePoint(Character.toLowerCase(Character.toUpperCase(next))));
+		return retVal.toString();
+	}
+}
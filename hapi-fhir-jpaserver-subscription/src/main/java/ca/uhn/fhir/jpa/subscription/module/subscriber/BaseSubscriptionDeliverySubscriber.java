@@ -44,6 +44,7 @@ public abstract class BaseSubscriptionDeliverySubscriber implements MessageHandl
 	protected SubscriptionRegistry mySubscriptionRegistry;
 	@Autowired
 	private IInterceptorBroadcaster myInterceptorBroadcaster;
+	private final ThreadLocal<Boolean> myDeliveryDeferred = new ThreadLocal<>();
 
 	@Override
 	public void handleMessage(Message theMessage) throws MessagingException {
@@ -74,10 +75,17 @@ public abstract class BaseSubscriptionDeliverySubscriber implements MessageHandl
 				return;
 			}
 
-			handleMessage(msg);
+			boolean deliveryDeferred;
+			try {
+				handleMessage(msg);
+				deliveryDeferred = Boolean.TRUE.equals(myDeliveryDeferred.get());
+			} finally {
+				myDeliveryDeferred.remove();
+			}
 
-			// Interceptor call: SUBSCRIPTION_AFTER_DELIVERY
-			myInterceptorBroadcaster.callHooks(Pointcut.SUBSCRIPTION_AFTER_DELIVERY, params);
+			if (!deliveryDeferred) {
+				callAfterDeliveryHooks(msg);
+			}
 
 		} catch (Exception e) {
 
@@ -98,6 +106,23 @@ public abstract class BaseSubscriptionDeliverySubscriber implements MessageHandl
 
 	public abstract void handleMessage(ResourceDeliveryMessage theMessage) throws Exception;
 
+	/**
+	 * Called from {@link #handleMessage(ResourceDeliveryMessage)} when it only queues the message being handled
+	 * to be delivered later. Subclasses calling this must call {@link #callAfterDeliveryHooks(ResourceDeliveryMessage)}
+	 * themselves once the message has actually been delivered.
+	 */
+	protected void deferDelivery() {
+		myDeliveryDeferred.set(Boolean.TRUE);
+	}
+
+	protected void callAfterDeliveryHooks(ResourceDeliveryMessage theMessage) {
+		// Interceptor call: SUBSCRIPTION_AFTER_DELIVERY
+		HookParams params = new HookParams()
+			.add(ResourceDeliveryMessage.class, theMessage)
+			.add(CanonicalSubscription.class, theMessage.getSubscription());
+		myInterceptorBroadcaster.callHooks(Pointcut.SUBSCRIPTION_AFTER_DELIVERY, params);
+	}
+
 	@VisibleForTesting
 	void setFhirContextForUnitTest(FhirContext theCtx) {
 		myFhirContext = theCtx;
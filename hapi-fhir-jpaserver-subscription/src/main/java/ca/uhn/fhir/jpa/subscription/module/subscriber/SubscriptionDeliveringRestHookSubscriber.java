@@ -20,38 +20,77 @@ package ca.uhn.fhir.jpa.subscription.module.subscriber;
  * #L%
  */
 
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.module.cache.SubscriptionConstants;
 import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.client.api.*;
 import ca.uhn.fhir.rest.client.interceptor.SimpleRequestHeaderInterceptor;
 import ca.uhn.fhir.rest.gclient.IClientExecutable;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.FhirTerser;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.messaging.MessagingException;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 @Component
 @Scope("prototype")
-public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDeliverySubscriber {
+public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDeliverySubscriber implements DisposableBean {
 	@Autowired
 	IResourceRetriever myResourceRetriever;
 	private Logger ourLog = LoggerFactory.getLogger(SubscriptionDeliveringRestHookSubscriber.class);
+	// Key Subscription Id, Value the client for that subscription's current endpoint and headers
+	private final Map<String, CachedClient> myClients = new ConcurrentHashMap<>();
+	private final Map<String, PendingBatch> myPendingBatches = new HashMap<>();
+	private final ScheduledThreadPoolExecutor myBatchFlushExecutor;
+
+	/**
+	 * Constructor
+	 */
+	public SubscriptionDeliveringRestHookSubscriber() {
+		ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("subscription-resthook-batch-%d")
+			.daemon(true)
+			.build();
+		myBatchFlushExecutor = new ScheduledThreadPoolExecutor(1, threadFactory);
+		myBatchFlushExecutor.setRemoveOnCancelPolicy(true);
+		// Only keep a thread around while batches are waiting, since subscribers are discarded along with their channel
+		myBatchFlushExecutor.setKeepAliveTime(1, TimeUnit.MINUTES);
+		myBatchFlushExecutor.allowCoreThreadTimeOut(true);
+	}
 
 	protected void deliverPayload(ResourceDeliveryMessage theMsg, CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient) {
 		IBaseResource payloadResource = getAndMassagePayload(theMsg, theSubscription);
@@ -157,18 +196,16 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 		}
 
 		// Create the client request
-		myFhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
 		IGenericClient client = null;
 		if (isNotBlank(endpointUrl)) {
-			client = myFhirContext.newRestfulGenericClient(endpointUrl);
+			client = getClient(subscription);
+		}
 
-			// Additional headers specified in the subscription
-			List<String> headers = subscription.getHeaders();
-			for (String next : headers) {
-				if (isNotBlank(next)) {
-					client.registerInterceptor(new SimpleRequestHeaderInterceptor(next));
-				}
-			}
+		if (isBatchDelivery(subscription)) {
+			// The after delivery hooks are called once the batch has been delivered
+			deferDelivery();
+			addToBatch(theMessage, subscription, payloadType, client);
+			return;
 		}
 
 		deliverPayload(theMessage, subscription, payloadType, client);
@@ -184,6 +221,342 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 
 	}
 
+	/**
+	 * Batching only applies when there is an endpoint to deliver to and a payload to put in the Bundle
+	 */
+	private boolean isBatchDelivery(CanonicalSubscription theSubscription) {
+		return isNotBlank(theSubscription.getEndpointUrl())
+			&& theSubscription.getPayloadString() != null
+			&& EncodingEnum.forContentType(theSubscription.getPayloadString()) != null
+			&& theSubscription.getRestHookDetails().isBatchDelivery();
+	}
+
+	/**
+	 * Returns the client used to deliver to the endpoint of the given subscription, with the subscription's
+	 * additional headers. Clients are created the first time they are needed and reused for every later
+	 * delivery, until the subscription's endpoint or headers change.
+	 */
+	protected IGenericClient getClient(CanonicalSubscription theSubscription) {
+		IRestfulClientFactory clientFactory = myFhirContext.getRestfulClientFactory();
+		if (clientFactory.getServerValidationMode() != ServerValidationModeEnum.NEVER) {
+			clientFactory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+		}
+
+		String endpointUrl = theSubscription.getEndpointUrl();
+		List<String> headers = theSubscription.getHeaders();
+		String key = endpointUrl + " " + headers;
+		CachedClient cachedClient = myClients.compute(theSubscription.getIdPart(), (id, existing) -> {
+			if (existing != null && existing.myKey.equals(key)) {
+				return existing;
+			}
+
+			IGenericClient client = myFhirContext.newRestfulGenericClient(endpointUrl);
+
+			// Additional headers specified in the subscription
+			for (String next : headers) {
+				if (isNotBlank(next)) {
+					client.registerInterceptor(new SimpleRequestHeaderInterceptor(next));
+				}
+			}
+			return new CachedClient(key, client);
+		});
+		return cachedClient.myClient;
+	}
+
+	/**
+	 * Adds a message to the pending batch for its subscription. The message is acknowledged to the channel
+	 * as soon as this method returns, so batched delivery is at most once: see
+	 * {@link ca.uhn.fhir.jpa.model.util.JpaConstants#EXT_SUBSCRIPTION_RESTHOOK_BATCH_MAX_SIZE}.
+	 */
+	private void addToBatch(ResourceDeliveryMessage theMessage, CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient) {
+		String subscriptionId = theSubscription.getIdPart();
+		CanonicalSubscription.RestHookDetails restHookDetails = theSubscription.getRestHookDetails();
+
+		PendingBatch fullBatch = null;
+		synchronized (myPendingBatches) {
+			PendingBatch batch = myPendingBatches.get(subscriptionId);
+			if (batch == null) {
+				batch = new PendingBatch(theSubscription, thePayloadType, theClient);
+				myPendingBatches.put(subscriptionId, batch);
+
+				long maxWaitMillis = restHookDetails.getBatchMaxWaitMillis();
+				if (maxWaitMillis <= 0) {
+					maxWaitMillis = SubscriptionConstants.DEFAULT_RESTHOOK_BATCH_MAX_WAIT_MILLIS;
+				}
+				PendingBatch newBatch = batch;
+				batch.myFlushTask = myBatchFlushExecutor.schedule(() -> flushBatch(subscriptionId, newBatch), maxWaitMillis, TimeUnit.MILLISECONDS);
+			}
+
+			batch.myMessages.add(theMessage);
+			if (batch.myMessages.size() >= restHookDetails.getBatchMaxSize()) {
+				myPendingBatches.remove(subscriptionId);
+				batch.myFlushTask.cancel(false);
+				fullBatch = batch;
+			}
+		}
+
+		if (fullBatch != null) {
+			deliverBatch(fullBatch, theMessage);
+		}
+	}
+
+	private void flushBatch(String theSubscriptionId, PendingBatch theBatch) {
+		synchronized (myPendingBatches) {
+			// The batch may have filled up and been delivered in the meantime
+			if (!myPendingBatches.remove(theSubscriptionId, theBatch)) {
+				return;
+			}
+		}
+		deliverBatch(theBatch, null);
+	}
+
+	/**
+	 * Delivers the given batch and calls the delivery hooks for each message in it.
+	 *
+	 * @param theTriggeringMessage The message being handled on the calling thread when the batch filled up, or
+	 *                             <code>null</code> if the batch is being flushed in the background. A failure is
+	 *                             rethrown for the triggering message so that it goes through the normal delivery
+	 *                             failure handling, and reported through the hooks for every other message. The
+	 *                             other messages have already been acknowledged, so the channel never redelivers them.
+	 */
+	private void deliverBatch(PendingBatch theBatch, ResourceDeliveryMessage theTriggeringMessage) {
+		Map<ResourceDeliveryMessage, BaseServerResponseException> rejectedMessages;
+		try {
+			rejectedMessages = doBatchDelivery(theBatch.mySubscription, theBatch.myPayloadType, theBatch.myClient, theBatch.myMessages);
+		} catch (RuntimeException e) {
+			// The messages in the batch have already been acknowledged, so log enough to replay them by hand
+			List<String> payloadIds = new ArrayList<>();
+			for (ResourceDeliveryMessage next : theBatch.myMessages) {
+				payloadIds.add(next.getOperationType() + " " + next.getPayloadId());
+			}
+			ourLog.error("Failure delivering batch of {} rest-hook payloads for subscription {}, these will not be redelivered: {}", theBatch.myMessages.size(), theBatch.mySubscription.getIdElementString(), payloadIds, e);
+
+			// Interceptor call: SUBSCRIPTION_AFTER_DELIVERY_FAILED
+			for (ResourceDeliveryMessage next : theBatch.myMessages) {
+				if (next == theTriggeringMessage) {
+					continue;
+				}
+				callAfterDeliveryFailedHooks(next, e);
+			}
+
+			if (theTriggeringMessage != null) {
+				throw e;
+			}
+			return;
+		}
+
+		BaseServerResponseException triggeringMessageFailure = null;
+		for (ResourceDeliveryMessage next : theBatch.myMessages) {
+			BaseServerResponseException rejection = rejectedMessages.get(next);
+			if (rejection != null) {
+				ourLog.error("Rest-hook payload {} {} for subscription {} was rejected by the receiver and will not be redelivered: {}", next.getOperationType(), next.getPayloadId(), theBatch.mySubscription.getIdElementString(), rejection.getMessage());
+				if (next == theTriggeringMessage) {
+					triggeringMessageFailure = rejection;
+				} else {
+					callAfterDeliveryFailedHooks(next, rejection);
+				}
+				continue;
+			}
+
+			// Interceptor call: SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY
+			HookParams params = new HookParams()
+				.add(CanonicalSubscription.class, next.getSubscription())
+				.add(ResourceDeliveryMessage.class, next);
+			getInterceptorBroadcaster().callHooks(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY, params);
+
+			callAfterDeliveryHooks(next);
+		}
+
+		if (triggeringMessageFailure != null) {
+			throw triggeringMessageFailure;
+		}
+	}
+
+	private void callAfterDeliveryFailedHooks(ResourceDeliveryMessage theMessage, Exception theException) {
+		// Interceptor call: SUBSCRIPTION_AFTER_DELIVERY_FAILED
+		HookParams params = new HookParams()
+			.add(ResourceDeliveryMessage.class, theMessage)
+			.add(Exception.class, theException);
+		getInterceptorBroadcaster().callHooks(Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED, params);
+	}
+
+	/**
+	 * Delivers any batches which are still waiting, and stops the background flush thread. This subscriber
+	 * is prototype scoped, so this is called when its channel is closed rather than by the application context.
+	 */
+	@PreDestroy
+	@Override
+	public void destroy() {
+		List<PendingBatch> pendingBatches;
+		synchronized (myPendingBatches) {
+			pendingBatches = new ArrayList<>(myPendingBatches.values());
+			myPendingBatches.clear();
+		}
+
+		for (PendingBatch next : pendingBatches) {
+			next.myFlushTask.cancel(false);
+			deliverBatch(next, null);
+		}
+
+		myBatchFlushExecutor.shutdown();
+		myClients.clear();
+	}
+
+	/**
+	 * Delivers several messages for the same subscription as a single <code>batch</code> Bundle
+	 *
+	 * @return The messages whose entry in the batch was rejected by the receiver, along with an exception
+	 * describing the status returned for that entry. Empty if every entry was accepted.
+	 */
+	protected Map<ResourceDeliveryMessage, BaseServerResponseException> doBatchDelivery(CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient, List<ResourceDeliveryMessage> theMessages) {
+		List<List<ResourceDeliveryMessage>> entryMessages = new ArrayList<>();
+		IBaseBundle bundle = createBatchBundle(theSubscription, theMessages, entryMessages);
+		if (bundle == null) {
+			return Collections.emptyMap();
+		}
+
+		ourLog.info("Delivering batch of {} rest-hook payloads for {}", theMessages.size(), theSubscription.getIdElement(myFhirContext).toUnqualifiedVersionless().getValue());
+
+		IBaseBundle response;
+		try {
+			response = theClient.transaction().withBundle(bundle).encoded(thePayloadType).execute();
+		} catch (ResourceNotFoundException e) {
+			ourLog.error("Cannot reach {} ", theSubscription.getEndpointUrl());
+			ourLog.error("Exception: ", e);
+			throw e;
+		}
+
+		return getRejectedMessages(theSubscription, response, entryMessages);
+	}
+
+	/**
+	 * The entries of a <code>batch-response</code> Bundle are in the same order as the entries of the batch, and each
+	 * one has its own status, so the receiver may have rejected some of the payloads even though the batch succeeded
+	 */
+	private Map<ResourceDeliveryMessage, BaseServerResponseException> getRejectedMessages(CanonicalSubscription theSubscription, IBaseBundle theResponse, List<List<ResourceDeliveryMessage>> theEntryMessages) {
+		if (theResponse == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<ResourceDeliveryMessage, BaseServerResponseException> retVal = new IdentityHashMap<>();
+		FhirTerser terser = myFhirContext.newTerser();
+		List<IBase> responseEntries = terser.getValues(theResponse, "Bundle.entry", IBase.class);
+		for (int i = 0; i < responseEntries.size() && i < theEntryMessages.size(); i++) {
+			IPrimitiveType<?> status = terser.getSingleValueOrNull(responseEntries.get(i), "response.status", IPrimitiveType.class);
+			String statusString = status != null ? status.getValueAsString() : null;
+			if (isBlank(statusString) || statusString.startsWith("2")) {
+				continue;
+			}
+
+			int statusCode = NumberUtils.toInt(StringUtils.substringBefore(statusString.trim(), " "), Constants.STATUS_HTTP_500_INTERNAL_ERROR);
+			BaseServerResponseException rejection = BaseServerResponseException.newInstance(statusCode, "Batch entry rejected by " + theSubscription.getEndpointUrl() + " with status: " + statusString);
+			for (ResourceDeliveryMessage next : theEntryMessages.get(i)) {
+				retVal.put(next, rejection);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Creates a <code>batch</code> Bundle containing a PUT for each created or updated resource, and
+	 * a DELETE for each deleted resource. Returns <code>null</code> if none of the messages has
+	 * anything to deliver.
+	 * <p>
+	 * The entries of a batch Bundle may be processed in any order, so only the last message for
+	 * each resource is included.
+	 * </p>
+	 *
+	 * @param theEntryMessages Populated with the messages covered by each entry added to the Bundle, in entry order
+	 */
+	private IBaseBundle createBatchBundle(CanonicalSubscription theSubscription, List<ResourceDeliveryMessage> theMessages, List<List<ResourceDeliveryMessage>> theEntryMessages) {
+		RuntimeResourceDefinition bundleDef = myFhirContext.getResourceDefinition("Bundle");
+		BaseRuntimeChildDefinition typeChildDef = bundleDef.getChildByName("type");
+		BaseRuntimeChildDefinition entryChildDef = bundleDef.getChildByName("entry");
+		BaseRuntimeElementCompositeDefinition<?> entryChildContentsDef = (BaseRuntimeElementCompositeDefinition<?>) entryChildDef.getChildByName("entry");
+		BaseRuntimeChildDefinition resourceChildDef = entryChildContentsDef.getChildByName("resource");
+		BaseRuntimeChildDefinition requestChildDef = entryChildContentsDef.getChildByName("request");
+		BaseRuntimeElementCompositeDefinition<?> requestChildContentsDef = (BaseRuntimeElementCompositeDefinition<?>) requestChildDef.getChildByName("request");
+		BaseRuntimeChildDefinition methodChildDef = requestChildContentsDef.getChildByName("method");
+		BaseRuntimeChildDefinition urlChildDef = requestChildContentsDef.getChildByName("url");
+
+		IBaseBundle retVal = (IBaseBundle) bundleDef.newInstance();
+		IPrimitiveType<?> type = (IPrimitiveType<?>) typeChildDef.getChildByName("type").newInstance(typeChildDef.getInstanceConstructorArguments());
+		type.setValueAsString("batch");
+		typeChildDef.getMutator().setValue(retVal, type);
+
+		int entryCount = 0;
+		for (List<ResourceDeliveryMessage> nextResourceMessages : getMessagesPerResource(theMessages)) {
+			ResourceDeliveryMessage next = nextResourceMessages.get(nextResourceMessages.size() - 1);
+			IBaseResource payloadResource = null;
+			RequestTypeEnum method;
+			String url;
+			switch (next.getOperationType()) {
+				case CREATE:
+				case UPDATE:
+					payloadResource = getAndMassagePayload(next, theSubscription);
+					if (payloadResource == null || payloadResource.isEmpty()) {
+						continue;
+					}
+					method = RequestTypeEnum.PUT;
+					url = myFhirContext.getResourceDefinition(payloadResource).getName() + "/" + payloadResource.getIdElement().getIdPart();
+					break;
+				case DELETE:
+					method = RequestTypeEnum.DELETE;
+					url = next.getPayloadId(myFhirContext).toUnqualifiedVersionless().getValue();
+					break;
+				default:
+					ourLog.warn("Ignoring delivery message of type: {}", next.getOperationType());
+					continue;
+			}
+
+			IBase entry = entryChildContentsDef.newInstance();
+			entryChildDef.getMutator().addValue(retVal, entry);
+			if (payloadResource != null) {
+				resourceChildDef.getMutator().setValue(entry, payloadResource);
+			}
+
+			IBase request = requestChildContentsDef.newInstance();
+			requestChildDef.getMutator().setValue(entry, request);
+			IPrimitiveType<?> methodValue = (IPrimitiveType<?>) methodChildDef.getChildByName("method").newInstance(methodChildDef.getInstanceConstructorArguments());
+			methodValue.setValueAsString(method.name());
+			methodChildDef.getMutator().setValue(request, methodValue);
+			IPrimitiveType<?> urlValue = (IPrimitiveType<?>) urlChildDef.getChildByName("url").newInstance(urlChildDef.getInstanceConstructorArguments());
+			urlValue.setValueAsString(url);
+			urlChildDef.getMutator().setValue(request, urlValue);
+
+			theEntryMessages.add(nextResourceMessages);
+			entryCount++;
+		}
+
+		if (entryCount == 0) {
+			return null;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Groups the messages by resource, ordered by the position of the last message for each resource
+	 */
+	private Collection<List<ResourceDeliveryMessage>> getMessagesPerResource(List<ResourceDeliveryMessage> theMessages) {
+		Map<Object, List<ResourceDeliveryMessage>> retVal = new LinkedHashMap<>();
+		for (ResourceDeliveryMessage next : theMessages) {
+			Object key = next;
+			IIdType payloadId = next.getPayloadId(myFhirContext);
+			if (payloadId != null && payloadId.hasIdPart()) {
+				key = payloadId.toUnqualifiedVersionless().getValue();
+			}
+
+			// Remove first so the resource takes the position of its last message
+			List<ResourceDeliveryMessage> resourceMessages = retVal.remove(key);
+			if (resourceMessages == null) {
+				resourceMessages = new ArrayList<>();
+			}
+			resourceMessages.add(next);
+			retVal.put(key, resourceMessages);
+		}
+		return retVal.values();
+	}
+
 	/**
 	 * Sends a POST notification without a payload
 	 */
@@ -216,4 +589,28 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 			throw new ResourceNotFoundException(e.getMessage());
 		}
 	}
+
+	private static class CachedClient {
+		private final String myKey;
+		private final IGenericClient myClient;
+
+		private CachedClient(String theKey, IGenericClient theClient) {
+			myKey = theKey;
+			myClient = theClient;
+		}
+	}
+
+	private static class PendingBatch {
+		private final CanonicalSubscription mySubscription;
+		private final EncodingEnum myPayloadType;
+		private final IGenericClient myClient;
+		private final List<ResourceDeliveryMessage> myMessages = new ArrayList<>();
+		private ScheduledFuture<?> myFlushTask;
+
+		private PendingBatch(CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient) {
+			mySubscription = theSubscription;
+			myPayloadType = thePayloadType;
+			myClient = theClient;
+		}
+	}
 }
@@ -26,6 +26,7 @@ import org.springframework.messaging.MessagingException;
 import org.springframework.stereotype.Service;
 
 import java.util.Collection;
+import java.util.Collections;
 
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -111,28 +112,32 @@ public class SubscriptionMatchingSubscriber implements MessageHandler {
 		IIdType resourceId = theMsg.getId(myFhirContext);
 		Boolean isText = false;
 
-		Collection<ActiveSubscription> subscriptions = mySubscriptionRegistry.getAll();
+		Collection<ActiveSubscription> subscriptions;
+		if (isNotBlank(theMsg.getSubscriptionId())) {
+			ActiveSubscription activeSubscription = mySubscriptionRegistry.get(theMsg.getSubscriptionId());
+			if (activeSubscription == null) {
+				ourLog.debug("Ignoring message for subscription {} because it is not active", theMsg.getSubscriptionId());
+				subscriptions = Collections.emptyList();
+			} else {
+				subscriptions = Collections.singletonList(activeSubscription);
+			}
+		} else if (mySubscriptionMatcher.isInMemory()) {
+			subscriptions = mySubscriptionRegistry.getCandidates(theMsg, resourceId.getResourceType());
+		} else {
+			// Candidates are narrowed down using in-memory matching rules, which a repository query doesn't follow
+			subscriptions = mySubscriptionRegistry.getAll();
+		}
 
 		ourLog.trace("Testing {} subscriptions for applicability", subscriptions.size());
 		boolean resourceMatched = false;
 
 		for (ActiveSubscription nextActiveSubscription : subscriptions) {
 
-			String nextSubscriptionId = getId(nextActiveSubscription);
-
-			if (isNotBlank(theMsg.getSubscriptionId())) {
-				if (!theMsg.getSubscriptionId().equals(nextSubscriptionId)) {
-					// TODO KHS we should use a hash to look it up instead of this full table scan
-					ourLog.debug("Ignoring subscription {} because it is not {}", nextSubscriptionId, theMsg.getSubscriptionId());
-					continue;
-				}
-			}
-
 			if (!validCriteria(nextActiveSubscription, resourceId)) {
 				continue;
 			}
 
-			InMemoryMatchResult matchResult = mySubscriptionMatcher.match(nextActiveSubscription.getSubscription(), theMsg);
+			InMemoryMatchResult matchResult = mySubscriptionMatcher.match(nextActiveSubscription, theMsg);
 			if (!matchResult.matched()) {
 				continue;
 			}
@@ -0,0 +1,97 @@
+package ca.uhn.fhir.jpa.subscription.module.cache;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
+import ca.uhn.fhir.jpa.subscription.module.ResourceModifiedMessage;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.Subscription;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+
+public class SubscriptionCriteriaIndexTest extends BaseSubscriptionRegistryTest {
+
+	@Autowired
+	private FhirContext myFhirContext;
+	@Autowired
+	private ModelConfig myModelConfig;
+
+	@Test
+	public void testCandidatesAreNarrowedByTypeAndValue() {
+		register("code-1234", "Observation?code=1234");
+		register("code-abc", "Observation?code=http://loinc.org|abc");
+		register("code-other", "Observation?code=9999,8888");
+		register("status-final", "Observation?status=final");
+		register("subject-123", "Observation?subject=Patient/123");
+		register("subject-456", "Observation?subject=Patient/456");
+		register("all-observations", "Observation?");
+		register("all-patients", "Patient?");
+
+		Observation observation = new Observation();
+		observation.setId("Observation/OBS");
+		observation.setStatus(Observation.ObservationStatus.PRELIMINARY);
+		observation.getCode().addCoding().setSystem("http://loinc.org").setCode("ABC");
+		observation.getCode().addCoding().setCode("1234");
+		observation.setSubject(new Reference("Patient/123"));
+
+		assertThat(getCandidateIds(observation), containsInAnyOrder("code-1234", "code-abc", "subject-123", "all-observations"));
+	}
+
+	@Test
+	public void testCandidatesIncludeAbsoluteReferences() {
+		boolean allowExternalReferences = myModelConfig.isAllowExternalReferences();
+		myModelConfig.setAllowExternalReferences(true);
+		try {
+			register("subject-absolute", "Observation?subject=http://other/Patient/1");
+			register("subject-absolute-other", "Observation?subject=http://other/Patient/2");
+
+			Observation observation = new Observation();
+			observation.setId("Observation/OBS");
+			observation.setSubject(new Reference("http://other/Patient/1"));
+
+			assertThat(getCandidateIds(observation), containsInAnyOrder("subject-absolute"));
+		} finally {
+			myModelConfig.setAllowExternalReferences(allowExternalReferences);
+		}
+	}
+
+	@Test
+	public void testUpdatedCriteriaIsReindexed() {
+		Subscription subscription = register("code", "Observation?code=1234");
+
+		Observation observation = new Observation();
+		observation.setId("Observation/OBS");
+		observation.getCode().addCoding().setCode("1234");
+		assertThat(getCandidateIds(observation), containsInAnyOrder("code"));
+
+		subscription.setCriteria("Observation?code=5678");
+		mySubscriptionRegistry.registerSubscriptionUnlessAlreadyRegistered(subscription);
+		assertThat(getCandidateIds(observation), containsInAnyOrder());
+
+		mySubscriptionRegistry.unregisterSubscription("code");
+		register("other", "Observation?code=1234");
+		assertThat(getCandidateIds(observation), containsInAnyOrder("other"));
+	}
+
+	private Subscription register(String theId, String theCriteria) {
+		Subscription subscription = createSubscription();
+		subscription.setId(theId);
+		subscription.setCriteria(theCriteria);
+		mySubscriptionRegistry.registerSubscriptionUnlessAlreadyRegistered(subscription);
+		return subscription;
+	}
+
+	private List<String> getCandidateIds(Observation theObservation) {
+		ResourceModifiedMessage msg = new ResourceModifiedMessage(myFhirContext, theObservation, ResourceModifiedMessage.OperationTypeEnum.CREATE);
+		return mySubscriptionRegistry.getCandidates(msg, "Observation")
+			.stream()
+			.map(ActiveSubscription::getId)
+			.collect(Collectors.toList());
+	}
+}
@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.subscription.module.matcher;
 
+import ca.uhn.fhir.jpa.model.entity.ModelConfig;
 import ca.uhn.fhir.jpa.searchparam.matcher.InMemoryMatchResult;
 import ca.uhn.fhir.jpa.searchparam.matcher.SearchParamMatcher;
 import ca.uhn.fhir.jpa.subscription.module.BaseSubscriptionDstu3Test;
@@ -21,6 +22,8 @@ public class InMemorySubscriptionMatcherR3Test extends BaseSubscriptionDstu3Test
 	SubscriptionStrategyEvaluator mySubscriptionStrategyEvaluator;
 	@Autowired
 	SearchParamMatcher mySearchParamMatcher;
+	@Autowired
+	ModelConfig myModelConfig;
 
 	private void assertUnsupported(IBaseResource resource, String criteria) {
 		assertFalse(mySearchParamMatcher.match(criteria, resource, null).supported());
@@ -75,6 +78,23 @@ public class InMemorySubscriptionMatcherR3Test extends BaseSubscriptionDstu3Test
 	}
 
 
+	@Test
+	public void testAbsoluteReference() {
+		boolean allowExternalReferences = myModelConfig.isAllowExternalReferences();
+		myModelConfig.setAllowExternalReferences(true);
+		try {
+			Observation obs = new Observation();
+			obs.setId("Observation/123");
+			obs.setSubject(new Reference("http://other/Patient/1"));
+
+			assertMatched(obs, "Observation?subject=http://other/Patient/1");
+			assertNotMatched(obs, "Observation?subject=http://other/Patient/2");
+			assertNotMatched(obs, "Observation?subject=Patient/1");
+		} finally {
+			myModelConfig.setAllowExternalReferences(allowExternalReferences);
+		}
+	}
+
 	@Test
 	public void testResourceById() {
 
@@ -1,6 +1,7 @@
 package ca.uhn.fhir.jpa.subscription.module.subscriber;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.HookParams;
 import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.subscription.module.CanonicalSubscription;
@@ -9,13 +10,18 @@ import ca.uhn.fhir.jpa.subscription.module.cache.SubscriptionRegistry;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.gclient.ITransactionTyped;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +29,8 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.GenericMessage;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -41,6 +49,8 @@ public class BaseSubscriptionDeliverySubscriberTest {
 	private IRestfulClientFactory myRestfulClientFactory;
 	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
 	private IGenericClient myGenericClient;
+	@Mock(answer = Answers.RETURNS_SELF)
+	private ITransactionTyped<Bundle> myTransaction;
 
 	@Before
 	public void before() {
@@ -51,6 +61,8 @@ public class BaseSubscriptionDeliverySubscriberTest {
 
 		myCtx.setRestfulClientFactory(myRestfulClientFactory);
 		when(myRestfulClientFactory.newGenericClient(any())).thenReturn(myGenericClient);
+		// RETURNS_SELF would otherwise return the transaction itself as the response Bundle
+		when(myTransaction.execute()).thenReturn(null);
 	}
 
 	@Test
@@ -91,6 +103,267 @@ public class BaseSubscriptionDeliverySubscriberTest {
 		verify(myGenericClient, times(1)).update();
 	}
 
+	@Test
+	public void testRestHookDeliveryReusesClient() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+
+		for (int i = 0; i < 3; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/P" + i);
+			patient.setActive(true);
+
+			ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+			payload.setSubscription(subscription);
+			payload.setPayload(myCtx, patient, EncodingEnum.JSON);
+			payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.UPDATE);
+
+			mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+		}
+
+		verify(myRestfulClientFactory, times(1)).newGenericClient(any());
+		verify(myGenericClient, times(3)).update();
+	}
+
+	@Test
+	public void testRestHookBatchDelivery() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myGenericClient.transaction().withBundle(any(Bundle.class))).thenReturn(myTransaction);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+		subscription.getRestHookDetails().setBatchMaxSize(2);
+		subscription.getRestHookDetails().setBatchMaxWaitMillis(DateUtils.MILLIS_PER_HOUR);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		patient.setActive(true);
+		ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+		payload.setSubscription(subscription);
+		payload.setPayload(myCtx, patient, EncodingEnum.JSON);
+		payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.UPDATE);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+
+		// Nothing is sent until the batch is full
+		verify(myTransaction, never()).execute();
+		verify(myInterceptorBroadcaster, never()).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), any());
+
+		payload = new ResourceDeliveryMessage();
+		payload.setSubscription(subscription);
+		payload.setPayloadId(new IdType("Patient/P2"));
+		payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.DELETE);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+
+		ArgumentCaptor<Bundle> captor = ArgumentCaptor.forClass(Bundle.class);
+		verify(myGenericClient.transaction(), times(1)).withBundle(captor.capture());
+		verify(myTransaction, times(1)).execute();
+		verify(myGenericClient, never()).update();
+		verify(myGenericClient, never()).delete();
+
+		Bundle bundle = captor.getValue();
+		assertEquals(Bundle.BundleType.BATCH, bundle.getType());
+		assertEquals(2, bundle.getEntry().size());
+		assertEquals(Bundle.HTTPVerb.PUT, bundle.getEntry().get(0).getRequest().getMethod());
+		assertEquals("Patient/P1", bundle.getEntry().get(0).getRequest().getUrl());
+		assertTrue(((Patient) bundle.getEntry().get(0).getResource()).getActive());
+		assertEquals(Bundle.HTTPVerb.DELETE, bundle.getEntry().get(1).getRequest().getMethod());
+		assertEquals("Patient/P2", bundle.getEntry().get(1).getRequest().getUrl());
+		verify(myInterceptorBroadcaster, times(2)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY), any());
+		verify(myInterceptorBroadcaster, times(2)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), any());
+	}
+
+	@Test
+	public void testRestHookBatchKeepsLastMessagePerResource() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myGenericClient.transaction().withBundle(any(Bundle.class))).thenReturn(myTransaction);
+
+		CanonicalSubscription subscription = newBatchSubscription(3);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1/_history/1");
+		patient.setActive(true);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+
+		ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+		payload.setSubscription(subscription);
+		payload.setPayloadId(new IdType("Patient/P2"));
+		payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.DELETE);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+
+		patient = new Patient();
+		patient.setId("Patient/P1/_history/2");
+		patient.setActive(false);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+
+		ArgumentCaptor<Bundle> captor = ArgumentCaptor.forClass(Bundle.class);
+		verify(myGenericClient.transaction(), times(1)).withBundle(captor.capture());
+
+		Bundle bundle = captor.getValue();
+		assertEquals(2, bundle.getEntry().size());
+		assertEquals("Patient/P2", bundle.getEntry().get(0).getRequest().getUrl());
+		assertEquals("Patient/P1", bundle.getEntry().get(1).getRequest().getUrl());
+		assertFalse(((Patient) bundle.getEntry().get(1).getResource()).getActive());
+		verify(myInterceptorBroadcaster, times(3)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), any());
+	}
+
+	@Test
+	public void testRestHookBatchDeliveryFailsForTriggeringMessage() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myGenericClient.transaction().withBundle(any(Bundle.class))).thenReturn(myTransaction);
+		doThrow(new InternalErrorException("FOO")).when(myTransaction).execute();
+
+		CanonicalSubscription subscription = newBatchSubscription(2);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+
+		patient = new Patient();
+		patient.setId("Patient/P2");
+		try {
+			mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+			fail();
+		} catch (MessagingException e) {
+			assertEquals("Failure handling subscription payload for subscription: Subscription/123; nested exception is ca.uhn.fhir.rest.server.exceptions.InternalErrorException: FOO", e.getMessage());
+		}
+
+		// Once for the message already waiting in the batch, and once for the message which filled it
+		verify(myInterceptorBroadcaster, times(2)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED), any());
+		verify(myInterceptorBroadcaster, never()).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), any());
+	}
+
+	@Test
+	public void testRestHookBatchDeliveredOnDestroy() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myGenericClient.transaction().withBundle(any(Bundle.class))).thenReturn(myTransaction);
+
+		CanonicalSubscription subscription = newBatchSubscription(100);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+		verify(myTransaction, never()).execute();
+
+		mySubscriber.destroy();
+
+		verify(myTransaction, times(1)).execute();
+		verify(myInterceptorBroadcaster, times(1)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), any());
+
+		// Nothing is left to deliver a second time
+		mySubscriber.destroy();
+		verify(myTransaction, times(1)).execute();
+	}
+
+	@Test
+	public void testRestHookBatchDeliveryVetoedByInterceptor() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myInterceptorBroadcaster.callHooks(eq(Pointcut.SUBSCRIPTION_BEFORE_REST_HOOK_DELIVERY), any())).thenReturn(false);
+
+		CanonicalSubscription subscription = newBatchSubscription(1);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+
+		// Nothing is batched, so the message is finished with straight away like a non-batched one
+		verify(myGenericClient, never()).transaction();
+		verify(myInterceptorBroadcaster, times(1)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), any());
+		verify(myInterceptorBroadcaster, never()).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_REST_HOOK_DELIVERY), any());
+	}
+
+	@Test
+	public void testRestHookBatchEntryRejectedByReceiver() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myGenericClient.transaction().withBundle(any(Bundle.class))).thenReturn(myTransaction);
+
+		Bundle response = new Bundle();
+		response.setType(Bundle.BundleType.BATCHRESPONSE);
+		response.addEntry().getResponse().setStatus("201 Created");
+		response.addEntry().getResponse().setStatus("400 Bad Request");
+		when(myTransaction.execute()).thenReturn(response);
+
+		CanonicalSubscription subscription = newBatchSubscription(100);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		ResourceDeliveryMessage accepted = newUpdateMessage(subscription, patient);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(accepted));
+
+		patient = new Patient();
+		patient.setId("Patient/P2");
+		ResourceDeliveryMessage rejected = newUpdateMessage(subscription, patient);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(rejected));
+
+		mySubscriber.destroy();
+
+		ArgumentCaptor<HookParams> captor = ArgumentCaptor.forClass(HookParams.class);
+		verify(myInterceptorBroadcaster, times(1)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY), captor.capture());
+		assertSame(accepted, captor.getValue().get(ResourceDeliveryMessage.class));
+
+		verify(myInterceptorBroadcaster, times(1)).callHooks(eq(Pointcut.SUBSCRIPTION_AFTER_DELIVERY_FAILED), captor.capture());
+		assertSame(rejected, captor.getValue().get(ResourceDeliveryMessage.class));
+		Exception exception = captor.getValue().get(Exception.class);
+		assertThat(exception, instanceOf(InvalidRequestException.class));
+		assertThat(exception.getMessage(), containsString("400 Bad Request"));
+	}
+
+	@Test
+	public void testRestHookClientReplacedWhenEndpointChanges() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		IGenericClient otherClient = mock(IGenericClient.class, Answers.RETURNS_DEEP_STUBS);
+		when(myRestfulClientFactory.newGenericClient("http://example.com/other")).thenReturn(otherClient);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+
+		subscription.setEndpointUrl("http://example.com/other");
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(newUpdateMessage(subscription, patient)));
+
+		verify(myRestfulClientFactory, times(1)).newGenericClient("http://example.com/fhir");
+		verify(myRestfulClientFactory, times(1)).newGenericClient("http://example.com/other");
+		verify(myGenericClient, times(1)).update();
+		verify(otherClient, times(2)).update();
+	}
+
+	@Test
+	public void testRestHookBatchDeliveredAfterMaxWait() {
+		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
+		when(myGenericClient.transaction().withBundle(any(Bundle.class))).thenReturn(myTransaction);
+
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setIdElement(new IdType("Subscription/123"));
+		subscription.setEndpointUrl("http://example.com/fhir");
+		subscription.setPayloadString("application/fhir+json");
+		subscription.getRestHookDetails().setBatchMaxSize(100);
+		subscription.getRestHookDetails().setBatchMaxWaitMillis(50);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/P1");
+		patient.setActive(true);
+		ResourceDeliveryMessage payload = new ResourceDeliveryMessage();
+		payload.setSubscription(subscription);
+		payload.setPayload(myCtx, patient, EncodingEnum.JSON);
+		payload.setOperationType(ResourceModifiedMessage.OperationTypeEnum.CREATE);
+		mySubscriber.handleMessage(new ResourceDeliveryJsonMessage(payload));
+
+		ArgumentCaptor<Bundle> captor = ArgumentCaptor.forClass(Bundle.class);
+		verify(myGenericClient.transaction(), timeout(10000).times(1)).withBundle(captor.capture());
+		assertEquals(1, captor.getValue().getEntry().size());
+	}
+
 	@Test
 	public void testRestHookDeliveryFails_ShouldRollBack() {
 		when(myInterceptorBroadcaster.callHooks(any(), any())).thenReturn(true);
@@ -175,4 +448,22 @@ public class BaseSubscriptionDeliverySubscriberTest {
 
 	}
 
+	private CanonicalSubscription newBatchSubscription(int theBatchMaxSize) {
+		CanonicalSubscription retVal = new CanonicalSubscription();
+		retVal.setIdElement(new IdType("Subscription/123"));
+		retVal.setEndpointUrl("http://example.com/fhir");
+		retVal.setPayloadString("application/fhir+json");
+		retVal.getRestHookDetails().setBatchMaxSize(theBatchMaxSize);
+		retVal.getRestHookDetails().setBatchMaxWaitMillis(DateUtils.MILLIS_PER_HOUR);
+		return retVal;
+	}
+
+	private ResourceDeliveryMessage newUpdateMessage(CanonicalSubscription theSubscription, Patient thePatient) {
+		ResourceDeliveryMessage retVal = new ResourceDeliveryMessage();
+		retVal.setSubscription(theSubscription);
+		retVal.setPayload(myCtx, thePatient, EncodingEnum.JSON);
+		retVal.setOperationType(ResourceModifiedMessage.OperationTypeEnum.UPDATE);
+		return retVal;
+	}
+
 }
@@ -70,7 +70,7 @@ public abstract class RequestDetails {
 	private String mySecondaryOperation;
 	private boolean mySubRequest;
 	private Map<String, List<String>> myUnqualifiedToQualifiedNames;
-	private Map<Object, Object> myUserData;
+	private volatile Map<Object, Object> myUserData;
 	private IBaseResource myResource;
 	private String myRequestId;
 	private String myFixedConditionalUrl;
@@ -416,12 +416,24 @@ public abstract class RequestDetails {
 	 * method to the {@link IServerInterceptor#outgoingResponse(RequestDetails, org.hl7.fhir.instance.model.api.IBaseResource, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}
 	 * method.
 	 * </p>
+	 * <p>
+	 * The returned map is thread safe, since parts of a request (e.g. the entries of a
+	 * batch Bundle) may be processed concurrently. Code which reads and then updates a
+	 * value should use an atomic operation such as {@link Map#computeIfAbsent(Object, java.util.function.Function)}.
+	 * </p>
 	 */
 	public Map<Object, Object> getUserData() {
-		if (myUserData == null) {
-			myUserData = new HashMap<>();
+		Map<Object, Object> retVal = myUserData;
+		if (retVal == null) {
+			synchronized (this) {
+				retVal = myUserData;
+				if (retVal == null) {
+					retVal = Collections.synchronizedMap(new HashMap<>());
+					myUserData = retVal;
+				}
+			}
 		}
-		return myUserData;
+		return retVal;
 	}
 
 	public boolean isRespondGzip() {
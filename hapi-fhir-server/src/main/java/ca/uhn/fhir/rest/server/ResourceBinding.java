@@ -20,12 +20,14 @@ package ca.uhn.fhir.rest.server;
  * #L%
  */
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.method.BaseMethodBinding;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
 /**
  * Created by dsotnikov on 2/25/2014.
  */
@@ -35,6 +37,7 @@ public class ResourceBinding {
 
 	private String resourceName;
 	private List<BaseMethodBinding<?>> myMethodBindings = new ArrayList<>();
+	private volatile DispatchIndex myDispatchIndex;
 
 	public ResourceBinding() {
 	}
@@ -51,7 +54,7 @@ public class ResourceBinding {
 		}
 
 		ourLog.debug("Looking for a handler for {}", theRequest);
-		for (BaseMethodBinding<?> rm : myMethodBindings) {
+		for (BaseMethodBinding<?> rm : getCandidateMethods(theRequest)) {
 			if (rm.incomingServerRequestMatchesMethod(theRequest)) {
 				ourLog.debug("Handler {} matches", rm);
 				return rm;
@@ -61,6 +64,25 @@ public class ResourceBinding {
 		return null;
 	}
 
+	/**
+	 * Returns the methods which could possibly match the given request, in the
+	 * order they were added
+	 */
+	private List<BaseMethodBinding<?>> getCandidateMethods(RequestDetails theRequest) {
+		RequestTypeEnum requestType = theRequest.getRequestType();
+		if (requestType == null) {
+			return myMethodBindings;
+		}
+
+		DispatchIndex dispatchIndex = myDispatchIndex;
+		if (dispatchIndex == null || dispatchIndex.myMethodCount != myMethodBindings.size()) {
+			dispatchIndex = new DispatchIndex(myMethodBindings);
+			myDispatchIndex = dispatchIndex;
+		}
+		String operation = theRequest.getOperation();
+		return dispatchIndex.getCandidateMethods(requestType, isBlank(operation) ? "" : operation);
+	}
+
 	public String getResourceName() {
 		return resourceName;
 	}
@@ -75,10 +97,12 @@ public class ResourceBinding {
 
 	public void setMethods(List<BaseMethodBinding<?>> methods) {
 		this.myMethodBindings = methods;
+		myDispatchIndex = null;
 	}
 
 	public void addMethod(BaseMethodBinding<?> method) {
 		this.myMethodBindings.add(method);
+		myDispatchIndex = null;
 	}
 
 	@Override
@@ -93,4 +117,68 @@ public class ResourceBinding {
 		return 0;
 	}
 
+	/**
+	 * Groups the method bindings by the request type and operation name they can
+	 * handle (see {@link BaseMethodBinding#getPossibleRequestTypes()} and
+	 * {@link BaseMethodBinding#getPossibleOperations()}) so that each request only
+	 * needs to be checked against the few methods that could actually match it.
+	 * Within each group the methods keep the order they were added in, so the
+	 * method chosen is the same as it would be by checking every method in turn.
+	 */
+	private static class DispatchIndex {
+
+		private final int myMethodCount;
+		private final Map<RequestTypeEnum, Map<String, List<BaseMethodBinding<?>>>> myRequestTypeToOperationToMethods = new EnumMap<>(RequestTypeEnum.class);
+		private final Map<RequestTypeEnum, List<BaseMethodBinding<?>>> myRequestTypeToAnyOperationMethods = new EnumMap<>(RequestTypeEnum.class);
+
+		DispatchIndex(List<BaseMethodBinding<?>> theMethodBindings) {
+			myMethodCount = theMethodBindings.size();
+
+			Set<String> operations = new HashSet<>();
+			for (BaseMethodBinding<?> next : theMethodBindings) {
+				Set<String> possibleOperations = next.getPossibleOperations();
+				if (possibleOperations != null) {
+					operations.addAll(possibleOperations);
+				}
+			}
+
+			for (RequestTypeEnum nextRequestType : RequestTypeEnum.values()) {
+				List<BaseMethodBinding<?>> anyOperationMethods = new ArrayList<>();
+				Map<String, List<BaseMethodBinding<?>>> operationToMethods = new HashMap<>();
+				for (String nextOperation : operations) {
+					operationToMethods.put(nextOperation, new ArrayList<>());
+				}
+
+				for (BaseMethodBinding<?> next : theMethodBindings) {
+					Set<RequestTypeEnum> possibleRequestTypes = next.getPossibleRequestTypes();
+					if (possibleRequestTypes != null && !possibleRequestTypes.contains(nextRequestType)) {
+						continue;
+					}
+
+					Set<String> possibleOperations = next.getPossibleOperations();
+					if (possibleOperations == null) {
+						anyOperationMethods.add(next);
+					}
+					for (String nextOperation : operations) {
+						if (possibleOperations == null || possibleOperations.contains(nextOperation)) {
+							operationToMethods.get(nextOperation).add(next);
+						}
+					}
+				}
+
+				myRequestTypeToAnyOperationMethods.put(nextRequestType, anyOperationMethods);
+				myRequestTypeToOperationToMethods.put(nextRequestType, operationToMethods);
+			}
+		}
+
+		List<BaseMethodBinding<?>> getCandidateMethods(RequestTypeEnum theRequestType, String theOperation) {
+			List<BaseMethodBinding<?>> retVal = myRequestTypeToOperationToMethods.get(theRequestType).get(theOperation);
+			if (retVal == null) {
+				retVal = myRequestTypeToAnyOperationMethods.get(theRequestType);
+			}
+			return retVal;
+		}
+
+	}
+
 }
@@ -104,8 +104,14 @@ public class AuthorizationInterceptor implements IRuleApplier {
 		@SuppressWarnings("unchecked")
 		List<IAuthRule> rules = (List<IAuthRule>) theRequestDetails.getUserData().get(myRequestRuleListKey);
 		if (rules == null) {
+			// The rules are built outside of the user data lock since buildRuleList may use the user data itself,
+			// and if concurrent parts of the request both build them, all parts use the first ones stored
 			rules = buildRuleList(theRequestDetails);
-			theRequestDetails.getUserData().put(myRequestRuleListKey, rules);
+			@SuppressWarnings("unchecked")
+			List<IAuthRule> existingRules = (List<IAuthRule>) theRequestDetails.getUserData().putIfAbsent(myRequestRuleListKey, rules);
+			if (existingRules != null) {
+				rules = existingRules;
+			}
 		}
 		Set<AuthorizationFlagsEnum> flags = getFlags();
 		ourLog.trace("Applying {} rules to render an auth decision for operation {}, theInputResource type={}, theOutputResource type={} ", rules.size(), theOperation,
@@ -355,7 +361,7 @@ public class AuthorizationInterceptor implements IRuleApplier {
 		}
 
 		// Don't check the value twice
-		IdentityHashMap<IBaseResource, Boolean> alreadySeenMap = ConsentInterceptor.getAlreadySeenResourcesMap(theRequestDetails, myRequestSeenResourcesKey);
+		Map<IBaseResource, Boolean> alreadySeenMap = ConsentInterceptor.getAlreadySeenResourcesMap(theRequestDetails, myRequestSeenResourcesKey);
 		if (alreadySeenMap.putIfAbsent(theResponseObject, Boolean.TRUE) != null) {
 			return;
 		}
@@ -39,6 +39,7 @@ import ca.uhn.fhir.util.IModelVisitor2;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.*;
 
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -150,7 +151,7 @@ public class ConsentInterceptor {
 		if (isRequestAuthorized(theRequestDetails)) {
 			return;
 		}
-		IdentityHashMap<IBaseResource, Boolean> alreadySeenResources = getAlreadySeenResourcesMap(theRequestDetails);
+		Map<IBaseResource, Boolean> alreadySeenResources = getAlreadySeenResourcesMap(theRequestDetails);
 
 		for (int i = 0; i < thePreResourceShowDetails.size(); i++) {
 			IBaseResource nextResource = thePreResourceShowDetails.getResource(i);
@@ -186,7 +187,7 @@ public class ConsentInterceptor {
 		}
 	}
 
-	private IdentityHashMap<IBaseResource, Boolean> getAlreadySeenResourcesMap(RequestDetails theRequestDetails) {
+	private Map<IBaseResource, Boolean> getAlreadySeenResourcesMap(RequestDetails theRequestDetails) {
 		return getAlreadySeenResourcesMap(theRequestDetails, myRequestSeenResourcesKey);
 	}
 
@@ -199,7 +200,7 @@ public class ConsentInterceptor {
 			return;
 		}
 
-		IdentityHashMap<IBaseResource, Boolean> alreadySeenResources = getAlreadySeenResourcesMap(theRequestDetails);
+		Map<IBaseResource, Boolean> alreadySeenResources = getAlreadySeenResourcesMap(theRequestDetails);
 
 		// See outer resource
 		if (alreadySeenResources.putIfAbsent(theResource.getResponseResource(), Boolean.TRUE) == null) {
@@ -308,14 +309,15 @@ public class ConsentInterceptor {
 		return retVal;
 	}
 
+	/**
+	 * Returns the map of resources (compared by identity) which have already been seen by
+	 * the given request. The map is {@link Collections#synchronizedMap(Map) synchronized},
+	 * since parts of a request (e.g. the entries of a batch Bundle) may be processed
+	 * concurrently. Callers iterating over the map must synchronize on it.
+	 */
 	@SuppressWarnings("unchecked")
-	public static IdentityHashMap<IBaseResource, Boolean> getAlreadySeenResourcesMap(RequestDetails theRequestDetails, String theKey) {
-		IdentityHashMap<IBaseResource, Boolean> alreadySeenResources = (IdentityHashMap<IBaseResource, Boolean>) theRequestDetails.getUserData().get(theKey);
-		if (alreadySeenResources == null) {
-			alreadySeenResources = new IdentityHashMap<>();
-			theRequestDetails.getUserData().put(theKey, alreadySeenResources);
-		}
-		return alreadySeenResources;
+	public static Map<IBaseResource, Boolean> getAlreadySeenResourcesMap(RequestDetails theRequestDetails, String theKey) {
+		return (Map<IBaseResource, Boolean>) theRequestDetails.getUserData().computeIfAbsent(theKey, t -> Collections.synchronizedMap(new IdentityHashMap<>()));
 	}
 
 	private static ForbiddenOperationException toForbiddenOperationException(ConsentOutcome theOutcome) {
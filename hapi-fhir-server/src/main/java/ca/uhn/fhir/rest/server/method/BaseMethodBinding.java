@@ -31,6 +31,7 @@ import ca.uhn.fhir.rest.annotation.*;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.IRestfulServer;
@@ -49,6 +50,7 @@ import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
@@ -213,6 +215,34 @@ public abstract class BaseMethodBinding<T> {
 
 	public abstract boolean incomingServerRequestMatchesMethod(RequestDetails theRequest);
 
+	/**
+	 * Returns the request types which {@link #incomingServerRequestMatchesMethod(RequestDetails)} could
+	 * possibly accept, or <code>null</code> if this method can not be narrowed down by request type.
+	 * <p>
+	 * This is used to build the method dispatch index in {@link ca.uhn.fhir.rest.server.ResourceBinding}, so
+	 * it must never leave out a request type which this method would match.
+	 * </p>
+	 */
+	@Nullable
+	public Set<RequestTypeEnum> getPossibleRequestTypes() {
+		return null;
+	}
+
+	/**
+	 * Returns the operation names (as returned by {@link RequestDetails#getOperation()}) which
+	 * {@link #incomingServerRequestMatchesMethod(RequestDetails)} could possibly accept, using an
+	 * empty string for requests with no operation, or <code>null</code> if this method can not
+	 * be narrowed down by operation.
+	 * <p>
+	 * This is used to build the method dispatch index in {@link ca.uhn.fhir.rest.server.ResourceBinding}, so
+	 * it must never leave out an operation which this method would match.
+	 * </p>
+	 */
+	@Nullable
+	public Set<String> getPossibleOperations() {
+		return null;
+	}
+
 	public abstract Object invokeServer(IRestfulServer<?> theServer, RequestDetails theRequest) throws BaseServerResponseException, IOException;
 
 	protected final Object invokeServerMethod(IRestfulServer<?> theServer, RequestDetails theRequest, Object[] theMethodParams) {
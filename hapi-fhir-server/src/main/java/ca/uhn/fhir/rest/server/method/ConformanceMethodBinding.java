@@ -43,10 +43,16 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import javax.annotation.Nonnull;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ConformanceMethodBinding extends BaseResourceReturningMethodBinding {
+	private static final Set<String> POSSIBLE_OPERATIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("", "metadata")));
+
 	/*
 	 * Note: This caching mechanism should probably be configurable and maybe
 	 * even applicable to other bindings. It's particularly important for this
@@ -151,6 +157,11 @@ public class ConformanceMethodBinding extends BaseResourceReturningMethodBinding
 		return new SimpleBundleProvider(conf);
 	}
 
+	@Override
+	public Set<String> getPossibleOperations() {
+		return POSSIBLE_OPERATIONS;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (theRequest.getRequestType() == RequestTypeEnum.OPTIONS) {
@@ -41,6 +41,8 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
 
 public class GraphQLMethodBinding extends BaseMethodBinding<String> {
 
@@ -68,6 +70,11 @@ public class GraphQLMethodBinding extends BaseMethodBinding<String> {
 		return true;
 	}
 
+	@Override
+	public Set<String> getPossibleOperations() {
+		return Collections.singleton(Constants.OPERATION_NAME_GRAPHQL);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (Constants.OPERATION_NAME_GRAPHQL.equals(theRequest.getOperation())) {
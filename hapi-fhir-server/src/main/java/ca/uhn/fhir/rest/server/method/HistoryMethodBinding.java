@@ -42,8 +42,10 @@ import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import javax.annotation.Nonnull;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -103,6 +105,11 @@ public class HistoryMethodBinding extends BaseResourceReturningMethodBinding {
 		return ReturnTypeEnum.BUNDLE;
 	}
 
+	@Override
+	public Set<String> getPossibleOperations() {
+		return Collections.singleton(Constants.PARAM_HISTORY);
+	}
+
 	// ObjectUtils.equals is replaced by a JDK7 method..
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
@@ -51,7 +51,9 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -59,6 +61,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 
 	public static final String WILDCARD_NAME = "$" + Operation.NAME_MATCH_ALL;
+	private static final Set<RequestTypeEnum> POSSIBLE_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET, RequestTypeEnum.POST));
 	private final boolean myIdempotent;
 	private final Integer myIdParamIndex;
 	private final String myName;
@@ -225,6 +228,19 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 		return myReturnType;
 	}
 
+	@Override
+	public Set<RequestTypeEnum> getPossibleRequestTypes() {
+		return POSSIBLE_REQUEST_TYPES;
+	}
+
+	@Override
+	public Set<String> getPossibleOperations() {
+		if (myName.equals(WILDCARD_NAME)) {
+			return null;
+		}
+		return Collections.singleton(myName);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (isBlank(theRequest.getOperation())) {
@@ -49,13 +49,20 @@ import org.hl7.fhir.instance.model.api.IIdType;
 import javax.annotation.Nonnull;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public class ReadMethodBinding extends BaseResourceReturningMethodBinding {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ReadMethodBinding.class);
+	private static final Set<RequestTypeEnum> POSSIBLE_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET, RequestTypeEnum.HEAD));
+	private static final Set<String> POSSIBLE_OPERATIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("", Constants.PARAM_HISTORY)));
 
 	private Integer myIdIndex;
 	private boolean mySupportsVersion;
@@ -112,6 +119,16 @@ public class ReadMethodBinding extends BaseResourceReturningMethodBinding {
 		return ReturnTypeEnum.RESOURCE;
 	}
 
+	@Override
+	public Set<RequestTypeEnum> getPossibleRequestTypes() {
+		return POSSIBLE_REQUEST_TYPES;
+	}
+
+	@Override
+	public Set<String> getPossibleOperations() {
+		return POSSIBLE_OPERATIONS;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (!theRequest.getResourceName().equals(getResourceName())) {
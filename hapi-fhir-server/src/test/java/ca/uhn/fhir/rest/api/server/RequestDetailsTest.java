@@ -0,0 +1,50 @@
+package ca.uhn.fhir.rest.api.server;
+
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class RequestDetailsTest {
+
+	@Test
+	public void testUserDataIsThreadSafe() throws Exception {
+		RequestDetails requestDetails = new ServletRequestDetails(mock(IInterceptorBroadcaster.class));
+
+		int threadCount = 8;
+		int putsPerThread = 1000;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<Map<Object, Object>>> futures = new ArrayList<>();
+			for (int i = 0; i < threadCount; i++) {
+				int thread = i;
+				futures.add(executor.submit(() -> {
+					Map<Object, Object> userData = requestDetails.getUserData();
+					for (int j = 0; j < putsPerThread; j++) {
+						userData.put(thread + "-" + j, j);
+					}
+					return userData;
+				}));
+			}
+
+			for (Future<Map<Object, Object>> next : futures) {
+				assertSame(requestDetails.getUserData(), next.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(threadCount * putsPerThread, requestDetails.getUserData().size());
+	}
+
+}
@@ -0,0 +1,125 @@
+package ca.uhn.fhir.rest.server;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.method.BaseMethodBinding;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResourceBindingTest {
+
+	@Mock
+	private RequestDetails myRequestDetails;
+
+	@Test
+	public void testGetMethodOnlyChecksIndexedCandidates() {
+		BaseMethodBinding<?> read = newBinding(Sets.newHashSet(RequestTypeEnum.GET), Sets.newHashSet(""));
+		BaseMethodBinding<?> history = newBinding(Sets.newHashSet(RequestTypeEnum.GET), Sets.newHashSet(Constants.PARAM_HISTORY));
+		BaseMethodBinding<?> create = newBinding(Sets.newHashSet(RequestTypeEnum.POST), Sets.newHashSet(""));
+
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<>());
+		binding.addMethod(read);
+		binding.addMethod(history);
+		binding.addMethod(create);
+
+		when(myRequestDetails.getRequestType()).thenReturn(RequestTypeEnum.GET);
+		when(myRequestDetails.getOperation()).thenReturn(Constants.PARAM_HISTORY);
+		when(history.incomingServerRequestMatchesMethod(any())).thenReturn(true);
+
+		assertSame(history, binding.getMethod(myRequestDetails));
+		verify(read, never()).incomingServerRequestMatchesMethod(any());
+		verify(create, never()).incomingServerRequestMatchesMethod(any());
+	}
+
+	@Test
+	public void testGetMethodKeepsRegistrationOrderWithUnindexedBindings() {
+		BaseMethodBinding<?> custom = newBinding(null, null);
+		BaseMethodBinding<?> read = newBinding(Sets.newHashSet(RequestTypeEnum.GET), Sets.newHashSet(""));
+
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<>());
+		binding.addMethod(custom);
+		binding.addMethod(read);
+
+		when(myRequestDetails.getRequestType()).thenReturn(RequestTypeEnum.GET);
+		when(myRequestDetails.getOperation()).thenReturn(null);
+		when(custom.incomingServerRequestMatchesMethod(any())).thenReturn(true);
+
+		// A binding which can't be narrowed down is a candidate for every request
+		assertSame(custom, binding.getMethod(myRequestDetails));
+		verify(read, never()).incomingServerRequestMatchesMethod(any());
+	}
+
+	@Test
+	public void testGetMethodFallsBackForUnknownOperation() {
+		BaseMethodBinding<?> read = newBinding(Sets.newHashSet(RequestTypeEnum.GET), Sets.newHashSet(""));
+		BaseMethodBinding<?> custom = newBinding(Sets.newHashSet(RequestTypeEnum.GET), null);
+
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<>());
+		binding.addMethod(read);
+		binding.addMethod(custom);
+
+		when(myRequestDetails.getRequestType()).thenReturn(RequestTypeEnum.GET);
+		when(myRequestDetails.getOperation()).thenReturn("$unknown");
+		when(custom.incomingServerRequestMatchesMethod(any())).thenReturn(true);
+
+		// Only bindings which accept any operation are checked for an operation nobody declared
+		assertSame(custom, binding.getMethod(myRequestDetails));
+		verify(read, never()).incomingServerRequestMatchesMethod(any());
+	}
+
+	@Test
+	public void testGetMethodWithoutRequestTypeChecksAllBindings() {
+		BaseMethodBinding<?> read = newBinding(Sets.newHashSet(RequestTypeEnum.GET), Sets.newHashSet(""));
+		BaseMethodBinding<?> create = newBinding(Sets.newHashSet(RequestTypeEnum.POST), Sets.newHashSet(""));
+
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<>());
+		binding.addMethod(read);
+		binding.addMethod(create);
+
+		when(myRequestDetails.getRequestType()).thenReturn(null);
+
+		assertNull(binding.getMethod(myRequestDetails));
+		verify(read, times(1)).incomingServerRequestMatchesMethod(any());
+		verify(create, times(1)).incomingServerRequestMatchesMethod(any());
+	}
+
+	@Test
+	public void testAddMethodInvalidatesIndex() {
+		BaseMethodBinding<?> read = newBinding(Sets.newHashSet(RequestTypeEnum.GET), Sets.newHashSet(""));
+
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<>());
+		binding.addMethod(read);
+
+		when(myRequestDetails.getRequestType()).thenReturn(RequestTypeEnum.POST);
+		when(myRequestDetails.getOperation()).thenReturn(null);
+		assertNull(binding.getMethod(myRequestDetails));
+
+		BaseMethodBinding<?> create = newBinding(Sets.newHashSet(RequestTypeEnum.POST), Sets.newHashSet(""));
+		when(create.incomingServerRequestMatchesMethod(any())).thenReturn(true);
+		binding.addMethod(create);
+
+		assertSame(create, binding.getMethod(myRequestDetails));
+		verify(read, never()).incomingServerRequestMatchesMethod(any());
+	}
+
+	private static BaseMethodBinding<?> newBinding(Set<RequestTypeEnum> theRequestTypes, Set<String> theOperations) {
+		BaseMethodBinding<?> retVal = mock(BaseMethodBinding.class);
+		when(retVal.getPossibleRequestTypes()).thenReturn(theRequestTypes);
+		when(retVal.getPossibleOperations()).thenReturn(theOperations);
+		return retVal;
+	}
+
+}
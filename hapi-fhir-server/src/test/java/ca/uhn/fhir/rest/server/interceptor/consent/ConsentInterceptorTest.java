@@ -0,0 +1,37 @@
+package ca.uhn.fhir.rest.server.interceptor.consent;
+
+import ca.uhn.fhir.interceptor.api.IInterceptorBroadcaster;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class ConsentInterceptorTest {
+
+	/**
+	 * Concurrent access to the request user data itself is covered by RequestDetailsTest
+	 */
+	@Test
+	public void testAlreadySeenResourcesMapIsSharedPerKey() {
+		RequestDetails requestDetails = new ServletRequestDetails(mock(IInterceptorBroadcaster.class));
+
+		Map<IBaseResource, Boolean> alreadySeen = ConsentInterceptor.getAlreadySeenResourcesMap(requestDetails, "KEY");
+		assertSame(alreadySeen, ConsentInterceptor.getAlreadySeenResourcesMap(requestDetails, "KEY"));
+		assertNotSame(alreadySeen, ConsentInterceptor.getAlreadySeenResourcesMap(requestDetails, "OTHER_KEY"));
+
+		IBaseResource resource = mock(IBaseResource.class);
+		assertNull(alreadySeen.putIfAbsent(resource, Boolean.TRUE));
+		assertEquals(Boolean.TRUE, alreadySeen.putIfAbsent(resource, Boolean.TRUE));
+		assertNull(alreadySeen.putIfAbsent(mock(IBaseResource.class), Boolean.TRUE));
+		assertEquals(2, alreadySeen.size());
+	}
+
+}
@@ -9,6 +9,7 @@ import com.google.common.collect.Sets;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullWriter;
 import org.apache.commons.lang.StringUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.*;
 import org.junit.AfterClass;
 import org.junit.Ignore;
@@ -16,11 +17,19 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.stringContainsInOrder;
@@ -665,6 +674,216 @@ public class JsonParserR4Test extends BaseTest {
 	}
 
 
+	@Test
+	public void testParseStreamingMatchesTreeParse() {
+		String input = "{\n" +
+			"  \"resourceType\": \"Bundle\",\n" +
+			"  \"type\": \"transaction\",\n" +
+			"  \"entry\": [ {\n" +
+			"    \"fullUrl\": \"Patient/A\",\n" +
+			"    \"resource\": {\n" +
+			"      \"resourceType\": \"Patient\",\n" +
+			"      \"_active\": { \"extension\": [ { \"url\": \"http://ext\", \"valueString\": \"ACTIVE-EXT\" } ] },\n" +
+			"      \"active\": true,\n" +
+			"      \"name\": [ { \"family\": \"FAM\", \"given\": [ \"G1\", \"G2\" ], \"_given\": [ null, { \"id\": \"g2\" } ] } ],\n" +
+			"      \"extension\": [ { \"valueCode\": \"A\", \"url\": \"http://url-not-first\" } ],\n" +
+			"      \"_birthDate\": { \"extension\": [ { \"url\": \"http://only-ext\", \"valueBoolean\": true } ] }\n" +
+			"    }\n" +
+			"  }, {\n" +
+			"    \"resource\": {\n" +
+			"      \"id\": \"B\",\n" +
+			"      \"resourceType\": \"Observation\",\n" +
+			"      \"contained\": [ { \"resourceType\": \"Encounter\", \"id\": \"1\", \"status\": \"arrived\" } ],\n" +
+			"      \"status\": \"final\",\n" +
+			"      \"encounter\": { \"reference\": \"#1\" },\n" +
+			"      \"valueQuantity\": { \"value\": 123.5670, \"unit\": \"mg/L\" }\n" +
+			"    }\n" +
+			"  } ]\n" +
+			"}";
+
+		String expected = ourCtx.newJsonParser().encodeResourceToString(ourCtx.newJsonParser().parseResource(Bundle.class, input));
+
+		FhirContext ctx = FhirContext.forR4();
+		ctx.getParserOptions().setStreamingJsonParsing(true);
+		Bundle parsed = ctx.newJsonParser().parseResource(Bundle.class, input);
+		String actual = ourCtx.newJsonParser().encodeResourceToString(parsed);
+		ourLog.info(actual);
+
+		assertEquals(expected, actual);
+		Patient patient = (Patient) parsed.getEntry().get(0).getResource();
+		assertEquals("ACTIVE-EXT", ((StringType) patient.getActiveElement().getExtensionByUrl("http://ext").getValue()).getValue());
+		assertEquals("g2", patient.getNameFirstRep().getGiven().get(1).getId());
+		assertEquals("http://url-not-first", patient.getExtension().get(0).getUrl());
+		assertTrue(patient.getBirthDateElement().hasExtension("http://only-ext"));
+		Observation obs = (Observation) parsed.getEntry().get(1).getResource();
+		assertEquals("123.5670", obs.getValueQuantity().getValueElement().getValueAsString());
+		assertEquals(Encounter.EncounterStatus.ARRIVED, ((Encounter) obs.getEncounter().getResource()).getStatus());
+	}
+
+	@Test
+	public void testParseStreamingAlternateAfterComplexElement() {
+		String input = "{\n" +
+			"  \"resourceType\": \"Patient\",\n" +
+			"  \"maritalStatus\": { \"text\": \"Married\" },\n" +
+			"  \"_maritalStatus\": { \"id\": \"ms\", \"extension\": [ { \"url\": \"http://ext\", \"valueString\": \"MS-EXT\" } ] },\n" +
+			"  \"name\": [ { \"family\": \"FAM1\" }, { \"family\": \"FAM2\" } ],\n" +
+			"  \"_name\": [ null, { \"id\": \"n2\" } ],\n" +
+			"  \"active\": true\n" +
+			"}";
+
+		String expected = ourCtx.newJsonParser().encodeResourceToString(ourCtx.newJsonParser().parseResource(Patient.class, input));
+
+		FhirContext ctx = FhirContext.forR4();
+		ctx.getParserOptions().setStreamingJsonParsing(true);
+		Patient parsed = ctx.newJsonParser().parseResource(Patient.class, input);
+		String actual = ourCtx.newJsonParser().encodeResourceToString(parsed);
+		ourLog.info(actual);
+
+		assertEquals(expected, actual);
+		assertEquals("ms", parsed.getMaritalStatus().getId());
+		assertEquals("MS-EXT", ((StringType) parsed.getMaritalStatus().getExtensionByUrl("http://ext").getValue()).getValue());
+		assertEquals("Married", parsed.getMaritalStatus().getText());
+		assertNull(parsed.getName().get(0).getId());
+		assertEquals("n2", parsed.getName().get(1).getId());
+		assertEquals("FAM2", parsed.getName().get(1).getFamily());
+		assertTrue(parsed.getActive());
+	}
+
+	@Test
+	public void testParseStreamingInvalidContent() {
+		FhirContext ctx = FhirContext.forR4();
+		ctx.getParserOptions().setStreamingJsonParsing(true);
+
+		try {
+			ctx.newJsonParser().parseResource(Patient.class, "   ");
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Failed to parse JSON content, error was: Did not find any content to parse", e.getMessage());
+		}
+
+		try {
+			ctx.newJsonParser().parseResource(Patient.class, "{\"resourceType\":\"Patient\",\"active\":true");
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("Failed to parse JSON encoded FHIR content"));
+		}
+
+		try {
+			ctx.newJsonParser().parseResource(Patient.class, "{\"active\":true}");
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Invalid JSON content detected, missing required element: 'resourceType'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testParseReaderFailureIsPrefixedOnce() {
+		for (boolean streaming : new boolean[]{false, true}) {
+			FhirContext ctx = FhirContext.forR4();
+			ctx.getParserOptions().setStreamingJsonParsing(streaming);
+
+			Reader reader = new Reader() {
+				@Override
+				public int read(char[] theBuf, int theOff, int theLen) throws IOException {
+					throw new IOException("FOO");
+				}
+
+				@Override
+				public void close() {
+					// nothing
+				}
+			};
+
+			try {
+				ctx.newJsonParser().parseResource(Patient.class, reader);
+				fail();
+			} catch (DataFormatException e) {
+				assertEquals("Failed to parse JSON content, error was: FOO", e.getMessage());
+			}
+		}
+	}
+
+
+	@Test
+	public void testNdjsonRoundTrip() throws IOException {
+		List<IBaseResource> resources = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Patient p = new Patient();
+			p.setId("Patient/" + i);
+			p.addName().setFamily("FAM" + i);
+			resources.add(p);
+		}
+		Observation obs = new Observation();
+		obs.setId("Observation/O");
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		resources.add(obs);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (NdjsonWriter writer = new NdjsonWriter(ourCtx.newJsonParser().setPrettyPrint(true), bos)) {
+			writer.writeAll(resources);
+			assertEquals(6, writer.getResourceCount());
+		}
+
+		String output = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+		ourLog.info(output);
+		String[] lines = output.split("\n");
+		assertEquals(6, lines.length);
+		assertEquals("{\"resourceType\":\"Patient\",\"id\":\"0\",\"name\":[{\"family\":\"FAM0\"}]}", lines[0]);
+
+		// Blank lines should be ignored
+		byte[] input = (output + "\n\n").getBytes(StandardCharsets.UTF_8);
+		try (NdjsonReader<IBaseResource> reader = new NdjsonReader<>(ourCtx.newJsonParser(), null, new ByteArrayInputStream(input))) {
+			List<String> ids = new ArrayList<>();
+			while (reader.hasNext()) {
+				ids.add(reader.next().getIdElement().toUnqualifiedVersionless().getValue());
+			}
+			assertEquals(Arrays.asList("Patient/0", "Patient/1", "Patient/2", "Patient/3", "Patient/4", "Observation/O"), ids);
+			assertEquals(6, reader.getResourceCount());
+		}
+
+		try (Stream<Patient> stream = new NdjsonReader<>(ourCtx.newJsonParser(), Patient.class, new ByteArrayInputStream(lines[1].getBytes(StandardCharsets.UTF_8))).stream()) {
+			assertEquals("FAM1", stream.findFirst().get().getNameFirstRep().getFamily());
+		}
+	}
+
+	@Test
+	public void testNdjsonInvalidLine() {
+		byte[] input = "{\"resourceType\":\"Patient\"}\n{\"resourceType\":\"Patient\"\n".getBytes(StandardCharsets.UTF_8);
+		NdjsonReader<IBaseResource> reader = new NdjsonReader<>(ourCtx.newJsonParser(), null, new ByteArrayInputStream(input));
+		reader.next();
+		try {
+			reader.next();
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("Failed to parse NDJSON resource 2:"));
+		}
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testNdjsonStreamingParse() throws IOException {
+		FhirContext ctx = FhirContext.forR4();
+		ctx.getParserOptions().setStreamingJsonParsing(true);
+
+		byte[] input = ("{\"resourceType\":\"Patient\",\"id\":\"A\",\"active\":true}\n" +
+			"\n" +
+			"{\"resourceType\":\"Observation\",\"id\":\"B\",\"status\":\"final\"}\n").getBytes(StandardCharsets.UTF_8);
+		try (NdjsonReader<IBaseResource> reader = new NdjsonReader<>(ctx.newJsonParser(), null, new ByteArrayInputStream(input))) {
+			Patient patient = (Patient) reader.next();
+			assertEquals("Patient/A", patient.getIdElement().toUnqualifiedVersionless().getValue());
+			assertTrue(patient.getActive());
+			Observation obs = (Observation) reader.next();
+			assertEquals(Observation.ObservationStatus.FINAL, obs.getStatus());
+			assertFalse(reader.hasNext());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNdjsonNotSupportedByXmlParser() {
+		new NdjsonWriter(ourCtx.newXmlParser(), new ByteArrayOutputStream());
+	}
+
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();